@@ -0,0 +1,234 @@
+package net.maxsmr.commonutils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Alternative to {@linkplain Observable}: observers are kept in immutable array, replaced on each
+ * register / unregister, so dispatching iterates a snapshot without holding any lock
+ * and slow observer doesn't block producers or other threads registering observers
+ * <p>
+ * Supports per-observer executors, weakly referenced observers
+ * and filtering on dispatching thread to throttle frequent events (for example, progress)
+ */
+public abstract class CopyOnWriteObservable<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final Entry[] EMPTY = new Entry[0];
+
+    @SuppressWarnings("unchecked")
+    private final AtomicReference<Entry<T>[]> entries = new AtomicReference<>((Entry<T>[]) EMPTY);
+
+    /**
+     * @return snapshot of currently alive observers
+     */
+    @NotNull
+    public Set<T> getObservers() {
+        return Collections.unmodifiableSet(copyOfObservers());
+    }
+
+    @NotNull
+    public Set<T> copyOfObservers() {
+        final Entry<T>[] current = entries.get();
+        final Set<T> result = new LinkedHashSet<>(current.length);
+        for (Entry<T> e : current) {
+            final T observer = e.get();
+            if (observer != null) {
+                result.add(observer);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if there are no alive observers; collected weak ones are removed
+     */
+    public boolean isEmpty() {
+        final Entry<T>[] current = entries.get();
+        for (Entry<T> e : current) {
+            if (e.get() != null) {
+                return false;
+            }
+        }
+        if (current.length > 0) {
+            removeCleared();
+        }
+        return true;
+    }
+
+    public boolean registerObserver(T observer) {
+        return registerObserver(observer, null);
+    }
+
+    /**
+     * @param executor executor to notify this observer on, null - on dispatching thread
+     */
+    public boolean registerObserver(T observer, @Nullable Executor executor) {
+        return observer != null && add(new Entry<>(observer, null, executor));
+    }
+
+    /**
+     * Observer is held by {@linkplain WeakReference} and removed after it was collected
+     */
+    public boolean registerWeakObserver(T observer) {
+        return registerWeakObserver(observer, null);
+    }
+
+    public boolean registerWeakObserver(T observer, @Nullable Executor executor) {
+        return observer != null && add(new Entry<>(null, new WeakReference<>(observer), executor));
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean unregisterObserver(T observer) {
+        if (observer == null) {
+            return false;
+        }
+        while (true) {
+            final Entry<T>[] current = entries.get();
+            final int index = indexOf(current, observer);
+            if (index < 0) {
+                return false;
+            }
+            final Entry<T>[] updated = (Entry<T>[]) new Entry[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (entries.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void unregisterAll() {
+        entries.set((Entry<T>[]) EMPTY);
+    }
+
+    /**
+     * Notifies each observer on its executor (or current thread) without locking
+     */
+    protected final void dispatch(@NotNull Dispatcher<T> dispatcher) {
+        dispatch(null, dispatcher);
+    }
+
+    /**
+     * Same as {@linkplain #dispatch(Dispatcher)}, but only observers accepted by {@code filter} are notified;
+     * filter is called on dispatching thread before event is passed to observer's executor,
+     * so frequent events (for example, progress) can be throttled there without extra allocations
+     */
+    protected final void dispatch(@Nullable Filter<T> filter, @NotNull Dispatcher<T> dispatcher) {
+        boolean hasCleared = false;
+        for (final Entry<T> e : entries.get()) {
+            final T observer = e.get();
+            if (observer == null) {
+                hasCleared = true;
+                continue;
+            }
+            if (filter != null && !filter.accept(observer)) {
+                continue;
+            }
+            if (e.executor != null) {
+                e.executor.execute(() -> dispatcher.dispatch(observer));
+            } else {
+                dispatcher.dispatch(observer);
+            }
+        }
+        if (hasCleared) {
+            removeCleared();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean add(@NotNull Entry<T> entry) {
+        final T observer = entry.get();
+        while (true) {
+            final Entry<T>[] current = entries.get();
+            if (indexOf(current, observer) >= 0) {
+                return false;
+            }
+            final Entry<T>[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = entry;
+            if (entries.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeCleared() {
+        while (true) {
+            final Entry<T>[] current = entries.get();
+            int alive = 0;
+            for (Entry<T> e : current) {
+                if (e.get() != null) {
+                    alive++;
+                }
+            }
+            if (alive == current.length) {
+                return;
+            }
+            final Entry<T>[] updated = (Entry<T>[]) new Entry[alive];
+            int index = 0;
+            for (Entry<T> e : current) {
+                if (index < alive && e.get() != null) {
+                    updated[index++] = e;
+                }
+            }
+            if (index == alive && entries.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static <T> int indexOf(@NotNull Entry<T>[] entries, @Nullable T observer) {
+        if (observer == null) {
+            return -1;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (observer.equals(entries[i].get())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public interface Dispatcher<T> {
+
+        void dispatch(@NotNull T observer);
+    }
+
+    public interface Filter<T> {
+
+        boolean accept(@NotNull T observer);
+    }
+
+    private static final class Entry<T> {
+
+        @Nullable
+        final T observer;
+
+        @Nullable
+        final WeakReference<T> weakObserver;
+
+        @Nullable
+        final Executor executor;
+
+        Entry(@Nullable T observer, @Nullable WeakReference<T> weakObserver, @Nullable Executor executor) {
+            this.observer = observer;
+            this.weakObserver = weakObserver;
+            this.executor = executor;
+        }
+
+        @Nullable
+        T get() {
+            return observer != null ? observer : (weakObserver != null ? weakObserver.get() : null);
+        }
+    }
+}
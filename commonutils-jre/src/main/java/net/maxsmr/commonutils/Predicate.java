@@ -3,12 +3,15 @@ package net.maxsmr.commonutils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 public interface Predicate<V> {
 
@@ -17,12 +20,102 @@ public interface Predicate<V> {
     class Methods {
 
         public static <V> boolean all(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
-            return findIndexed(elements, element -> !predicate.apply(element)) == null;
+            if (elements == null) {
+                return true;
+            }
+            if (elements instanceof RandomAccess && elements instanceof List) {
+                final List<V> list = (List<V>) elements;
+                for (int i = 0; i < list.size(); i++) {
+                    if (!predicate.apply(list.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            for (V elem : elements) {
+                if (!predicate.apply(elem)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         public static <V> boolean contains(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
             // any
-            return findIndexed(elements, predicate) != null;
+            return indexOf(elements, predicate) >= 0;
+        }
+
+        /**
+         * @return index of first matching element or -1, without allocating result
+         */
+        public static <V> int indexOf(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
+            if (elements == null) {
+                return -1;
+            }
+            if (elements instanceof RandomAccess && elements instanceof List) {
+                final List<V> list = (List<V>) elements;
+                for (int i = 0; i < list.size(); i++) {
+                    if (predicate.apply(list.get(i))) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int index = 0;
+            for (V elem : elements) {
+                if (predicate.apply(elem)) {
+                    return index;
+                }
+                index++;
+            }
+            return -1;
+        }
+
+        public static <V> int count(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
+            int count = 0;
+            if (elements != null) {
+                for (V elem : elements) {
+                    if (predicate.apply(elem)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return indices of matching elements in ascending order
+         */
+        @NotNull
+        public static <V> int[] indicesOf(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
+            if (elements == null || elements.isEmpty()) {
+                return new int[0];
+            }
+            int[] indices = new int[Math.min(elements.size(), 16)];
+            int count = 0;
+            int index = 0;
+            for (V elem : elements) {
+                if (predicate.apply(elem)) {
+                    if (count == indices.length) {
+                        indices = Arrays.copyOf(indices, Math.min(elements.size(), count * 2));
+                    }
+                    indices[count++] = index;
+                }
+                index++;
+            }
+            return count == indices.length ? indices : Arrays.copyOf(indices, count);
+        }
+
+        /**
+         * @return read-only view of matching elements, backed by given list;
+         * matching is done once, so later changes of list are not tracked
+         */
+        @NotNull
+        public static <V> List<V> filteredView(@Nullable List<V> elements, @NotNull Predicate<V> predicate) {
+            if (elements == null) {
+                return new ArrayList<>();
+            }
+            return new IndicesView<>(elements, indicesOf(elements, predicate));
         }
 
         @Nullable
@@ -45,8 +138,14 @@ public interface Predicate<V> {
 
         @Nullable
         public static <V> V find(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
-            Pair<Integer, V> result = findIndexed(elements, predicate);
-            return result != null ? result.second : null;
+            if (elements != null) {
+                for (V elem : elements) {
+                    if (predicate.apply(elem)) {
+                        return elem;
+                    }
+                }
+            }
+            return null;
         }
 
         @NotNull
@@ -66,8 +165,15 @@ public interface Predicate<V> {
 
         @NotNull
         public static <V> List<V> filter(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
-            Map<Integer, V> map = filterIndexed(elements, predicate);
-            return entriesToValues(map.entrySet());
+            List<V> result = new ArrayList<>();
+            if (elements != null) {
+                for (V elem : elements) {
+                    if (predicate.apply(elem)) {
+                        result.add(elem);
+                    }
+                }
+            }
+            return result;
         }
 
         @Nullable
@@ -93,8 +199,17 @@ public interface Predicate<V> {
 
         @Nullable
         public static <V> V removeFirst(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
-            Pair<Integer, V> result = removeFirstIndex(elements, predicate);
-            return result != null ? result.second : null;
+            if (elements != null) {
+                final Iterator<V> iterator = elements.iterator();
+                while (iterator.hasNext()) {
+                    V element = iterator.next();
+                    if (predicate.apply(element)) {
+                        iterator.remove();
+                        return element;
+                    }
+                }
+            }
+            return null;
         }
 
         @NotNull
@@ -117,8 +232,37 @@ public interface Predicate<V> {
 
         @NotNull
         public static <V> List<V> removeAll(@Nullable Collection<V> elements, @NotNull Predicate<V> predicate) {
-            Map<Integer, V> map = removeAllIndexed(elements, predicate);
-            return entriesToValues(map.entrySet());
+            List<V> removed = new ArrayList<>();
+            if (elements != null) {
+                final Iterator<V> iterator = elements.iterator();
+                while (iterator.hasNext()) {
+                    V element = iterator.next();
+                    if (predicate.apply(element)) {
+                        iterator.remove();
+                        removed.add(element);
+                    }
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Same as {@linkplain #removeAll(Collection, Predicate)}, without collecting removed elements
+         *
+         * @return count of removed elements
+         */
+        public static <V> int removeAllCount(@Nullable Iterable<V> elements, @NotNull Predicate<V> predicate) {
+            int count = 0;
+            if (elements != null) {
+                final Iterator<V> iterator = elements.iterator();
+                while (iterator.hasNext()) {
+                    if (predicate.apply(iterator.next())) {
+                        iterator.remove();
+                        count++;
+                    }
+                }
+            }
+            return count;
         }
 
         @NotNull
@@ -146,5 +290,32 @@ public interface Predicate<V> {
             }
             return result;
         }
+
+        private static final class IndicesView<V> extends AbstractList<V> implements RandomAccess {
+
+            @NotNull
+            private final List<V> elements;
+
+            @NotNull
+            private final int[] indices;
+
+            IndicesView(@NotNull List<V> elements, @NotNull int[] indices) {
+                this.elements = elements;
+                this.indices = indices;
+            }
+
+            @Override
+            public V get(int index) {
+                if (index < 0 || index >= indices.length) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + indices.length);
+                }
+                return elements.get(indices[index]);
+            }
+
+            @Override
+            public int size() {
+                return indices.length;
+            }
+        }
     }
 }
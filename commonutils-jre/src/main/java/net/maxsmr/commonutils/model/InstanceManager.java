@@ -7,21 +7,81 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static net.maxsmr.commonutils.FileUtilsKt.createFile;
 import static net.maxsmr.commonutils.FileUtilsKt.readBytesFromFile;
 import static net.maxsmr.commonutils.FileUtilsKt.readStringsFromFile;
 import static net.maxsmr.commonutils.FileUtilsKt.writeBytesToFile;
 import static net.maxsmr.commonutils.FileUtilsKt.writeStringsToFile;
+import static net.maxsmr.commonutils.text.SymbolConstsKt.NEXT_LINE;
 
+/**
+ * Saves / loads instance to / from file
+ * <p>
+ * By default data is written straight over the target file (see {@linkplain WriteMode}),
+ * every load reads the file and asynchronous saves are written after {@linkplain #getSaveDelay()}
+ */
 public abstract class InstanceManager<T> {
 
     private final static BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(InstanceManager.class);
 
+    public static final long DEFAULT_SAVE_DELAY = 500;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * java.nio.file is not available on old Android versions (before API 26)
+     */
+    private static final boolean IS_NIO_AVAILABLE = isNioAvailable();
+
     protected final File file;
 
+    /**
+     * guards writes to {@linkplain #file}
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * incremented on each successful save
+     */
+    private final AtomicLong generation = new AtomicLong(0);
+
+    /**
+     * incremented on each save request, so older request won't overwrite newer one
+     */
+    private final AtomicLong requestSequence = new AtomicLong(0);
+
+    /**
+     * sequence of last written request, changed under {@linkplain #writeLock}
+     */
+    private volatile long lastWrittenSequence = 0;
+
+    private final AtomicReference<SaveRequest<T>> pendingSave = new AtomicReference<>();
+
+    @NotNull
+    private volatile WriteMode writeMode = WriteMode.DIRECT;
+
+    private volatile boolean isCacheEnabled = false;
+
+    private volatile long saveDelay = DEFAULT_SAVE_DELAY;
+
+    @Nullable
+    private volatile CachedInstance<T> cachedInstance;
+
     public InstanceManager(@NotNull String fileName, @Nullable String parentPath) {
         file = createFile(fileName, parentPath, false);
     }
@@ -38,29 +98,345 @@ public abstract class InstanceManager<T> {
     @Nullable
     protected abstract T deserializeFromString(String data);
 
+    @NotNull
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(@NotNull WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public boolean isCacheEnabled() {
+        return isCacheEnabled;
+    }
+
+    /**
+     * @param cacheEnabled if true, loaded or saved instance is kept in memory and returned by loadFrom* methods
+     *                     until file's modification time or length is changed;
+     *                     so same instance is returned and should not be modified without saving
+     */
+    public void setCacheEnabled(boolean cacheEnabled) {
+        isCacheEnabled = cacheEnabled;
+        if (!cacheEnabled) {
+            cachedInstance = null;
+        }
+    }
+
+    public void invalidateCache() {
+        cachedInstance = null;
+    }
+
+    public long getSaveDelay() {
+        return saveDelay;
+    }
+
+    /**
+     * @param saveDelay in ms, during which asynchronous saves are coalesced into one write
+     */
+    public void setSaveDelay(long saveDelay) {
+        if (saveDelay < 0) {
+            throw new IllegalArgumentException("incorrect save delay: " + saveDelay);
+        }
+        this.saveDelay = saveDelay;
+    }
+
+    /**
+     * @return number of successful saves by this manager
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Writes instance on current thread, pending asynchronous save requested before is cancelled
+     */
     public void saveAsByteArray(@NotNull T instance) {
-        writeBytesToFile(file, serializeAsByteArray(instance), false);
+        saveNow(new SaveRequest<>(instance, Format.BYTES, requestSequence.incrementAndGet()));
     }
 
     public void saveAsString(@NotNull T instance) {
-        writeStringsToFile(file, Collections.singleton(serializeAsString(instance)), false);
+        saveNow(new SaveRequest<>(instance, Format.STRING, requestSequence.incrementAndGet()));
+    }
+
+    /**
+     * Schedules save after {@linkplain #getSaveDelay()}; if other asynchronous saves are requested
+     * meanwhile, only the last instance is written
+     * <p>
+     * Instance is serialized on background thread, at the moment of writing
+     */
+    public void saveAsByteArrayAsync(@NotNull T instance) {
+        scheduleSave(new SaveRequest<>(instance, Format.BYTES, requestSequence.incrementAndGet()));
+    }
+
+    public void saveAsStringAsync(@NotNull T instance) {
+        scheduleSave(new SaveRequest<>(instance, Format.STRING, requestSequence.incrementAndGet()));
+    }
+
+    public boolean hasPendingSave() {
+        return pendingSave.get() != null;
+    }
+
+    /**
+     * Writes pending asynchronous save (if any) on current thread
+     */
+    public void flush() {
+        final SaveRequest<T> request = pendingSave.getAndSet(null);
+        if (request != null) {
+            save(request);
+        }
     }
 
     @Nullable
     public T loadFromByteArray() {
-        byte[] data = readBytesFromFile(file);
-        if (data != null && data.length > 0) {
-            return deserializeFromByteArray(data);
-        }
-        return null;
+        return load(Format.BYTES);
     }
 
     @Nullable
     public T loadFromString() {
-        List<String> data = readStringsFromFile(file);
-        if (data.size() > 0) {
-            return deserializeFromString(data.get(0));
+        return load(Format.STRING);
+    }
+
+    @Nullable
+    private T load(@NotNull Format format) {
+        if (isCacheEnabled) {
+            // not yet written instance is the most actual
+            final SaveRequest<T> pending = pendingSave.get();
+            if (pending != null && pending.format == format && pending.sequence > lastWrittenSequence) {
+                return pending.instance;
+            }
+            final CachedInstance<T> cached = cachedInstance;
+            if (cached != null && cached.format == format && file != null
+                    && cached.lastModified == file.lastModified() && cached.length == file.length()) {
+                return cached.instance;
+            }
+        }
+
+        final long lastModified = file != null ? file.lastModified() : 0;
+        final long length = file != null ? file.length() : 0;
+
+        T instance = null;
+        if (format == Format.BYTES) {
+            byte[] data = readBytesFromFile(file);
+            if (data != null && data.length > 0) {
+                instance = deserializeFromByteArray(data);
+            }
+        } else {
+            List<String> data = readStringsFromFile(file);
+            if (data.size() > 0) {
+                instance = deserializeFromString(data.get(0));
+            }
+        }
+
+        if (isCacheEnabled && instance != null) {
+            cachedInstance = new CachedInstance<>(instance, format, lastModified, length);
+        }
+        return instance;
+    }
+
+    private void scheduleSave(@NotNull SaveRequest<T> request) {
+        if (pendingSave.getAndSet(request) == null) {
+            SaveExecutorHolder.EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, saveDelay, TimeUnit.MILLISECONDS);
         }
-        return null;
+    }
+
+    private void saveNow(@NotNull SaveRequest<T> request) {
+        // older pending request would be skipped by sequence check anyway,
+        // but until then load() would return its instance instead of this one
+        SaveRequest<T> pending;
+        while ((pending = pendingSave.get()) != null && pending.sequence < request.sequence) {
+            if (pendingSave.compareAndSet(pending, null)) {
+                break;
+            }
+        }
+        save(request);
+    }
+
+    private void save(@NotNull SaveRequest<T> request) {
+        synchronized (writeLock) {
+            if (request.sequence < lastWrittenSequence) {
+                // newer instance was already written
+                return;
+            }
+            if (!write(request)) {
+                return;
+            }
+            lastWrittenSequence = request.sequence;
+            generation.incrementAndGet();
+            if (isCacheEnabled && file != null) {
+                cachedInstance = new CachedInstance<>(request.instance, request.format, file.lastModified(), file.length());
+            }
+        }
+    }
+
+    private boolean write(@NotNull SaveRequest<T> request) {
+        final WriteMode writeMode = this.writeMode;
+        if (writeMode == WriteMode.DIRECT) {
+            if (request.format == Format.BYTES) {
+                return writeBytesToFile(file, serializeAsByteArray(request.instance), false);
+            } else {
+                return writeStringsToFile(file, Collections.singleton(serializeAsString(request.instance)), false);
+            }
+        }
+        final byte[] data;
+        if (request.format == Format.BYTES) {
+            data = serializeAsByteArray(request.instance);
+        } else {
+            final String text = serializeAsString(request.instance);
+            // same layout as writeStringsToFile
+            data = text != null ? (text + NEXT_LINE).getBytes(CHARSET) : null;
+        }
+        if (data == null) {
+            logger.e("Cannot save " + request.instance + ": serialized data is null");
+            return false;
+        }
+        return writeAtomically(data, writeMode == WriteMode.ATOMIC_SYNC);
+    }
+
+    private boolean writeAtomically(@NotNull byte[] data, boolean sync) {
+        if (file == null) {
+            logger.e("Cannot write: file is null");
+            return false;
+        }
+        final File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tempFile, false)) {
+            out.write(data);
+            out.flush();
+            if (sync) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            logger.e("Cannot write to temp file '" + tempFile + "'", e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return false;
+        }
+        if (!tempFile.renameTo(file)) {
+            // on some platforms existing target cannot be replaced: not atomic fallback
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                logger.e("Cannot rename '" + tempFile + "' to '" + file + "'");
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                return false;
+            }
+        }
+        if (sync) {
+            syncParentDir();
+        }
+        return true;
+    }
+
+    /**
+     * Rename is stored in directory entry, so it's synced too where possible
+     */
+    private void syncParentDir() {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null || !IS_NIO_AVAILABLE) {
+            return;
+        }
+        try {
+            DirSyncHolder.sync(dir);
+        } catch (IOException e) {
+            // e.g. directories cannot be opened on Windows
+            logger.w("Cannot sync directory '" + dir + "': " + e.getMessage());
+        }
+    }
+
+    public enum WriteMode {
+
+        /**
+         * data is written over the target file, crash during write leaves it torn
+         */
+        DIRECT,
+
+        /**
+         * data is written to temp file which is then renamed to the target one,
+         * so the file always contains either old or new data
+         */
+        ATOMIC,
+
+        /**
+         * same as {@linkplain #ATOMIC}, temp file is also synced to storage before rename
+         * and parent directory after it, so new data survives power loss;
+         * where directory cannot be synced (java.nio.file is not available before Android API 26, Windows)
+         * the rename itself may be lost, leaving old data
+         */
+        ATOMIC_SYNC
+    }
+
+    private enum Format {
+        BYTES, STRING
+    }
+
+    private static final class SaveRequest<T> {
+
+        @NotNull
+        final T instance;
+
+        @NotNull
+        final Format format;
+
+        final long sequence;
+
+        SaveRequest(@NotNull T instance, @NotNull Format format, long sequence) {
+            this.instance = instance;
+            this.format = format;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class CachedInstance<T> {
+
+        @NotNull
+        final T instance;
+
+        @NotNull
+        final Format format;
+
+        final long lastModified;
+
+        final long length;
+
+        CachedInstance(@NotNull T instance, @NotNull Format format, long lastModified, long length) {
+            this.instance = instance;
+            this.format = format;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    private static boolean isNioAvailable() {
+        try {
+            Class.forName("java.nio.file.Files");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Separate holder, so java.nio.file classes are not loaded where absent
+     */
+    private static final class DirSyncHolder {
+
+        static void sync(@NotNull File dir) throws IOException {
+            try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private static final class SaveExecutorHolder {
+
+        static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, InstanceManager.class.getSimpleName() + "_save");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 }
@@ -0,0 +1,690 @@
+package net.maxsmr.commonutils
+
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+const val DEFAULT_BULK_PARALLELISM = 4
+
+/**
+ * more simultaneous operations on same storage usually only add seeks
+ */
+const val DEFAULT_PER_DEVICE_PARALLELISM = 2
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("BulkFileOperations")
+
+/**
+ * Parallel version of [moveFiles]: files are collected and confirmed by [multipleCopyNotifier] on calling thread,
+ * then moved by pool of [parallelism] workers; file on same storage as [targetDir] is renamed without copying
+ *
+ * @param perDeviceParallelism max simultaneous operations on one storage (mount point)
+ * @param multipleCopyNotifier copied files set in [IMultipleCopyNotifier.shouldProceed] is read-only live view,
+ * valid only during the call
+ * @param streamNotifier notified from worker threads when file is copied
+ * @param progressListener aggregated progress of all files, notified from worker threads
+ */
+@JvmOverloads
+fun moveFilesParallel(
+        sourceFile: File,
+        targetDir: File?,
+        comparator: Comparator<in File>? = null,
+        preserveFileDate: Boolean = true,
+        depth: Int = DEPTH_UNLIMITED,
+        parallelism: Int = DEFAULT_BULK_PARALLELISM,
+        perDeviceParallelism: Int = DEFAULT_PER_DEVICE_PARALLELISM,
+        multipleCopyNotifier: IMultipleCopyNotifier? = null,
+        streamNotifier: IStreamNotifier? = null,
+        progressListener: IBulkProgressListener? = null
+): BulkOperationReport = BulkFileOperation(parallelism, perDeviceParallelism, progressListener)
+        .moveOrCopy(true, sourceFile, targetDir, comparator, preserveFileDate, depth, multipleCopyNotifier, streamNotifier)
+
+/**
+ * Parallel version of [copyFiles], see [moveFilesParallel]
+ */
+@JvmOverloads
+fun copyFilesParallel(
+        sourceFile: File,
+        targetDir: File?,
+        comparator: Comparator<in File>? = null,
+        preserveFileDate: Boolean = true,
+        depth: Int = DEPTH_UNLIMITED,
+        parallelism: Int = DEFAULT_BULK_PARALLELISM,
+        perDeviceParallelism: Int = DEFAULT_PER_DEVICE_PARALLELISM,
+        multipleCopyNotifier: IMultipleCopyNotifier? = null,
+        streamNotifier: IStreamNotifier? = null,
+        progressListener: IBulkProgressListener? = null
+): BulkOperationReport = BulkFileOperation(parallelism, perDeviceParallelism, progressListener)
+        .moveOrCopy(false, sourceFile, targetDir, comparator, preserveFileDate, depth, multipleCopyNotifier, streamNotifier)
+
+/**
+ * Parallel version of [deleteFiles]: files are deleted by pool of [parallelism] workers,
+ * then empty dirs are deleted from the deepest ones on calling thread
+ *
+ * @param notifier confirmations are requested on calling thread, other methods may be called from worker threads;
+ * deleted files set in [IDeleteNotifier.shouldProceed] is read-only live view, valid only during the call
+ */
+@JvmOverloads
+fun deleteFilesParallel(
+        fromFiles: Collection<File>?,
+        deleteEmptyDirs: Boolean = true,
+        comparator: Comparator<in File>? = null,
+        depth: Int = DEPTH_UNLIMITED,
+        parallelism: Int = DEFAULT_BULK_PARALLELISM,
+        perDeviceParallelism: Int = DEFAULT_PER_DEVICE_PARALLELISM,
+        notifier: IDeleteNotifier? = null,
+        progressListener: IBulkProgressListener? = null
+): BulkOperationReport = BulkFileOperation(parallelism, perDeviceParallelism, progressListener)
+        .delete(fromFiles ?: emptyList(), deleteEmptyDirs, comparator, depth, notifier)
+
+interface IBulkProgressListener {
+
+    /**
+     * min time between notifications in ms, 0 - after each file
+     */
+    val notifyInterval: Long
+        get() = 0
+
+    /**
+     * @return false to cancel not yet started files
+     */
+    fun onProgress(progress: BulkProgress): Boolean = true
+}
+
+data class BulkProgress(
+        val filesProcessed: Int,
+        val filesTotal: Int,
+        val bytesProcessed: Long,
+        val bytesTotal: Long,
+        /**
+         * in ms since start of processing
+         */
+        val elapsedTime: Long
+) {
+
+    val isCompleted: Boolean get() = filesProcessed >= filesTotal
+
+    /**
+     * estimated remaining time in ms by bytes (or by files if total size is 0), null if nothing processed yet
+     */
+    val eta: Long?
+        get() {
+            if (isCompleted) {
+                return 0
+            }
+            val done: Double
+            val total: Double
+            if (bytesTotal > 0) {
+                done = bytesProcessed.toDouble()
+                total = bytesTotal.toDouble()
+            } else {
+                done = filesProcessed.toDouble()
+                total = filesTotal.toDouble()
+            }
+            if (done <= 0 || elapsedTime <= 0) {
+                return null
+            }
+            return ((total - done) * elapsedTime / done).toLong()
+        }
+}
+
+/**
+ * Consolidated result of bulk operation
+ */
+class BulkOperationReport(
+        /**
+         * source file -> result file (same file for deletion)
+         */
+        val succeeded: Map<File, File>,
+        val failed: List<Failure>,
+        /**
+         * not processed because of cancellation
+         */
+        val skipped: List<File>,
+        val isCancelled: Boolean,
+        val progress: BulkProgress
+) {
+
+    val isSuccessful: Boolean get() = failed.isEmpty() && skipped.isEmpty() && !isCancelled
+
+    override fun toString(): String {
+        return "BulkOperationReport(succeeded=${succeeded.size}, failed=$failed, skipped=${skipped.size}, " +
+                "isCancelled=$isCancelled, progress=$progress)"
+    }
+
+    data class Failure(
+            val file: File,
+            val target: File?,
+            val exception: RuntimeException
+    )
+}
+
+private class BulkFileOperation(
+        private val parallelism: Int,
+        private val perDeviceParallelism: Int,
+        private val progressListener: IBulkProgressListener?
+) {
+
+    private val deviceLocks = ConcurrentHashMap<String, Semaphore>()
+
+    /**
+     * guards notifiers and [succeeded], [failed] collections
+     */
+    private val lock = Any()
+
+    private val succeeded = LinkedHashMap<File, File>()
+
+    /**
+     * values of [succeeded], kept as set for notifiers
+     */
+    private val succeededTargets = LinkedHashSet<File>()
+
+    /**
+     * read-only live views passed to notifiers under [lock] instead of copying for each file
+     */
+    private val succeededSourcesView: Set<File> = Collections.unmodifiableSet(succeeded.keys)
+
+    private val succeededTargetsView: Set<File> = Collections.unmodifiableSet(succeededTargets)
+
+    private val failed = mutableListOf<BulkOperationReport.Failure>()
+
+    private val skipped = Collections.synchronizedList(mutableListOf<File>())
+
+    private val isCancelled = AtomicBoolean(false)
+
+    private val filesProcessed = AtomicInteger(0)
+
+    private val bytesProcessed = AtomicLong(0)
+
+    private val lastNotifyTime = AtomicLong(0)
+
+    private var filesTotal = 0
+
+    private var bytesTotal = 0L
+
+    private var startTime = 0L
+
+    init {
+        require(parallelism > 0) { "Incorrect parallelism: $parallelism" }
+        require(perDeviceParallelism > 0) { "Incorrect per device parallelism: $perDeviceParallelism" }
+    }
+
+    fun moveOrCopy(
+            moveOrCopy: Boolean,
+            sourceFile: File,
+            targetDir: File?,
+            comparator: Comparator<in File>?,
+            preserveFileDate: Boolean,
+            depth: Int,
+            notifier: IMultipleCopyNotifier?,
+            streamNotifier: IStreamNotifier?
+    ): BulkOperationReport {
+        if (targetDir == null) {
+            return fail(sourceFile, null, NullPointerException("targetDir is null"), notifier)
+        }
+        try {
+            createDirOrThrow(targetDir.absolutePath)
+        } catch (e: RuntimeException) {
+            return fail(sourceFile, targetDir, e, notifier)
+        }
+        if (targetDir == sourceFile) {
+            return fail(sourceFile, targetDir,
+                    RuntimeException("Destination directory '$targetDir' is same as source directory/file '$sourceFile'"), notifier)
+        }
+        val tasks = planMoveOrCopy(sourceFile, targetDir, comparator, depth, notifier)
+        createTargetDirs(tasks, notifier)
+        val targetDeviceKey = FileDevices.deviceKey(targetDir)
+        return execute(tasks) { task ->
+            val target = task.target!!
+            val sourceDeviceKey = FileDevices.deviceKey(task.source)
+            if (notifier != null) {
+                val proceed = synchronized(lock) {
+                    notifier.shouldProceed(task.source, target.parentFile, succeededTargetsView,
+                            filesProcessed.get().toLong(), filesTotal.toLong())
+                }
+                if (!proceed) {
+                    notifier.onExceptionOccurred(FileIterationException(FileIterationException.Type.INTERRUPTED_BY_USER,
+                            "Copying from '$sourceFile' to '$targetDir' was interrupted"))
+                    cancel()
+                    skipped.add(task.source)
+                    return@execute
+                }
+            }
+            val result = try {
+                withDevices(sourceDeviceKey, targetDeviceKey) {
+                    if (moveOrCopy) {
+                        moveOrThrow(task, sourceDeviceKey == targetDeviceKey, preserveFileDate, streamNotifier)
+                    } else {
+                        copyOrThrow(task, preserveFileDate, streamNotifier)
+                    }
+                }
+            } catch (e: RuntimeException) {
+                onFailed(task, e, notifier)
+                notifier?.let {
+                    synchronized(lock) {
+                        it.onFailed(task.source, target.parentFile)
+                    }
+                }
+                return@execute
+            }
+            synchronized(lock) {
+                succeeded[task.source] = result
+                succeededTargets.add(result)
+                notifier?.onSucceeded(task.source, result)
+            }
+        }
+    }
+
+    fun delete(
+            fromFiles: Collection<File>,
+            deleteEmptyDirs: Boolean,
+            comparator: Comparator<in File>?,
+            depth: Int,
+            notifier: IDeleteNotifier?
+    ): BulkOperationReport {
+        val tasks = mutableListOf<BulkTask>()
+        // deepest first, so parent is checked for emptiness after its children
+        val dirs = TreeSet<File>(compareByDescending<File> { it.absolutePath.length }.thenBy { it.absolutePath })
+        val roots = mutableMapOf<File, File>()
+        for (fromFile in fromFiles) {
+            if (!fromFile.exists()) {
+                notifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_EXISTS, "File '$fromFile' not exists"))
+                continue
+            }
+            for (f in getFiles(fromFile, GetMode.ALL, comparator, depth, notifier = notifier?.let { getNotifier(it) })) {
+                if (f.isDirectory) {
+                    dirs.add(f)
+                    continue
+                }
+                if (!f.isFile) {
+                    notifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_VALID, "Invalid file or folder: '$f'"))
+                    continue
+                }
+                if (notifier == null || notifier.confirmDeleteFile(f)) {
+                    tasks.add(BulkTask(f, null, f.length(), false))
+                    roots[f] = fromFile
+                } else {
+                    notifier.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_CONFIRMED, "File '$f' deletion is not confirmed"))
+                }
+            }
+        }
+        val report = execute(tasks) { task ->
+            if (notifier != null) {
+                val root = roots[task.source] ?: task.source
+                val proceed = synchronized(lock) {
+                    notifier.shouldProceed(task.source, succeededSourcesView, levelOf(task.source, root))
+                }
+                if (!proceed) {
+                    notifier.onExceptionOccurred(FileIterationException(FileIterationException.Type.INTERRUPTED_BY_USER,
+                            "Deleting from '$root' was interrupted"))
+                    cancel()
+                    skipped.add(task.source)
+                    return@execute
+                }
+            }
+            try {
+                withDevices(FileDevices.deviceKey(task.source)) {
+                    deleteFileOrThrow(task.source)
+                }
+            } catch (e: RuntimeException) {
+                onFailed(task, e, notifier)
+                notifier?.let {
+                    synchronized(lock) {
+                        it.onDeleteFileFailed(task.source)
+                    }
+                }
+                return@execute
+            }
+            synchronized(lock) {
+                succeeded[task.source] = task.source
+            }
+        }
+        if (!deleteEmptyDirs || report.isCancelled) {
+            return report
+        }
+        for (dir in dirs) {
+            if (!isDirEmpty(dir)) {
+                continue
+            }
+            if (notifier == null || notifier.confirmDeleteFolder(dir)) {
+                if (deleteEmptyDir(dir)) {
+                    succeeded[dir] = dir
+                } else {
+                    failed.add(BulkOperationReport.Failure(dir, null, RuntimeException("Cannot delete dir '$dir'")))
+                    notifier?.onDeleteFolderFailed(dir)
+                }
+            }
+        }
+        return report()
+    }
+
+    private fun planMoveOrCopy(
+            sourceFile: File,
+            targetDir: File,
+            comparator: Comparator<in File>?,
+            depth: Int,
+            notifier: IMultipleCopyNotifier?
+    ): MutableList<BulkTask> {
+        val files: Set<File> = getFiles(sourceFile, GetMode.FILES, comparator, depth, notifier = notifier?.let { getNotifier(it) })
+        val tasks = mutableListOf<BulkTask>()
+        for (f in files) {
+            if (!f.isFile) {
+                notifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_VALID, "File '$f' not file, skipping..."))
+                continue
+            }
+            val currentDestDir = resolveCopyTargetDir(sourceFile, targetDir, f)
+            if (notifier != null && !notifier.confirmMoveOrCopy(f, currentDestDir)) {
+                notifier.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_CONFIRMED, "File '$f' move/copy is not confirmed"))
+                continue
+            }
+            var targetFile = notifier?.onBeforeMoveOrCopy(f, currentDestDir)
+            val isSameFile = targetFile == f
+            if (targetFile == null || isSameFile) {
+                if (isSameFile) {
+                    notifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.NAME_INVALID,
+                            "Target file cannot be equals to source file ('$targetFile')!"))
+                }
+                targetFile = File(currentDestDir, f.name)
+            }
+            var replaceOptions = IMultipleCopyNotifier.ReplaceOptions()
+            if (notifier != null && targetFile.exists()) {
+                replaceOptions = notifier.confirmReplace(targetFile)
+            }
+            if (!replaceOptions.enableReplace && !replaceOptions.enableAppend) {
+                notifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.REPLACE_DISABLED,
+                        "Replace disabled for file '$targetFile', skipping..."))
+                continue
+            }
+            // size is taken once here, workers don't stat source again
+            tasks.add(BulkTask(f, targetFile, f.length(), replaceOptions.enableAppend))
+        }
+        return tasks
+    }
+
+    /**
+     * Creates all target dirs before processing, so workers don't race on same parents
+     */
+    private fun createTargetDirs(tasks: MutableList<BulkTask>, notifier: IFsNotifier?) {
+        val created = mutableSetOf<File>()
+        val failedDirs = mutableSetOf<File>()
+        // parents go first, mkdirs creates them for children
+        for (dir in tasks.mapNotNull { it.target?.parentFile }.toSortedSet(compareBy<File> { it.absolutePath.length }.thenBy { it.absolutePath })) {
+            if (dir in created) {
+                continue
+            }
+            if (dir.isDirectory || dir.mkdirs() || dir.isDirectory) {
+                var parent: File? = dir
+                while (parent != null && created.add(parent)) {
+                    parent = parent.parentFile
+                }
+            } else {
+                failedDirs.add(dir)
+            }
+        }
+        if (failedDirs.isEmpty()) {
+            return
+        }
+        val iterator = tasks.iterator()
+        while (iterator.hasNext()) {
+            val task = iterator.next()
+            val dir = task.target?.parentFile ?: continue
+            if (dir in failedDirs) {
+                iterator.remove()
+                val e = RuntimeException("Cannot create dir '$dir'")
+                failed.add(BulkOperationReport.Failure(task.source, task.target, e))
+                notifier?.onExceptionOccurred(e)
+            }
+        }
+    }
+
+    private fun execute(tasks: List<BulkTask>, action: (BulkTask) -> Unit): BulkOperationReport {
+        filesTotal = tasks.size
+        bytesTotal = tasks.sumOf { it.length }
+        startTime = System.currentTimeMillis()
+        if (tasks.isNotEmpty()) {
+            val executor: ExecutorService = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size), WorkerThreadFactory)
+            try {
+                val futures = mutableListOf<Future<*>>()
+                for (task in tasks) {
+                    futures.add(executor.submit(Runnable {
+                        if (isCancelled.get()) {
+                            skipped.add(task.source)
+                        } else {
+                            action(task)
+                            filesProcessed.incrementAndGet()
+                            bytesProcessed.addAndGet(task.length)
+                            notifyProgress(false)
+                        }
+                    }))
+                }
+                for (future in futures) {
+                    try {
+                        future.get()
+                    } catch (e: ExecutionException) {
+                        // action reports failures itself, so it's a bug in notifier
+                        logger.e("Bulk task failed", e.cause ?: e)
+                    }
+                }
+            } catch (e: InterruptedException) {
+                cancel()
+                Thread.currentThread().interrupt()
+            } finally {
+                executor.shutdownNow()
+            }
+        }
+        notifyProgress(true)
+        return report()
+    }
+
+    private fun cancel() {
+        isCancelled.set(true)
+    }
+
+    private fun notifyProgress(force: Boolean) {
+        val listener = progressListener ?: return
+        val now = System.currentTimeMillis()
+        if (!force) {
+            val interval = listener.notifyInterval
+            if (interval > 0) {
+                val last = lastNotifyTime.get()
+                if (now - last < interval || !lastNotifyTime.compareAndSet(last, now)) {
+                    return
+                }
+            }
+        }
+        val proceed = synchronized(lock) {
+            listener.onProgress(progress(now))
+        }
+        if (!proceed) {
+            cancel()
+        }
+    }
+
+    private fun progress(now: Long = System.currentTimeMillis()) =
+            BulkProgress(filesProcessed.get(), filesTotal, bytesProcessed.get(), bytesTotal, now - startTime)
+
+    private fun report(): BulkOperationReport = synchronized(lock) {
+        BulkOperationReport(LinkedHashMap(succeeded), ArrayList(failed), ArrayList(skipped), isCancelled.get(), progress())
+    }
+
+    private fun fail(file: File, target: File?, e: RuntimeException, notifier: IFsNotifier?): BulkOperationReport {
+        failed.add(BulkOperationReport.Failure(file, target, e))
+        notifier?.onExceptionOccurred(e)
+        return report()
+    }
+
+    private fun onFailed(task: BulkTask, e: RuntimeException, notifier: IFsNotifier?) {
+        synchronized(lock) {
+            failed.add(BulkOperationReport.Failure(task.source, task.target, e))
+            notifier?.onExceptionOccurred(e)
+        }
+    }
+
+    /**
+     * Takes permits of given devices in fixed order, so workers holding different pairs don't deadlock
+     */
+    private fun <T> withDevices(vararg deviceKeys: String, action: () -> T): T {
+        val semaphores = deviceKeys.toSortedSet().map { key ->
+            deviceLocks.getOrPut(key) { Semaphore(perDeviceParallelism) }
+        }
+        val acquired = mutableListOf<Semaphore>()
+        try {
+            for (semaphore in semaphores) {
+                try {
+                    semaphore.acquire()
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    throw RuntimeException("Waiting for device was interrupted", e)
+                }
+                acquired.add(semaphore)
+            }
+            return action()
+        } finally {
+            acquired.forEach { it.release() }
+        }
+    }
+
+    private fun copyOrThrow(task: BulkTask, preserveFileDate: Boolean, streamNotifier: IStreamNotifier?): File {
+        val target = task.target!!
+        try {
+            val input = FileInputStream(task.source)
+            val output = try {
+                FileOutputStream(target, task.append)
+            } catch (e: IOException) {
+                input.close()
+                throw e
+            }
+            input.copyStreamOrThrow(output, streamNotifier)
+        } catch (e: IOException) {
+            if (!task.append) {
+                target.delete()
+            }
+            throw RuntimeException(formatException(e, "copyStream"), e)
+        }
+        if (preserveFileDate && !task.append) {
+            target.setLastModified(task.source.lastModified())
+        }
+        return target
+    }
+
+    private fun moveOrThrow(task: BulkTask, isSameDevice: Boolean, preserveFileDate: Boolean, streamNotifier: IStreamNotifier?): File {
+        val target = task.target!!
+        // rename within same file system is just a metadata update
+        if (isSameDevice && !task.append && task.source.renameTo(target)) {
+            return target
+        }
+        val result = copyOrThrow(task, preserveFileDate, streamNotifier)
+        if (!task.source.delete()) {
+            throw RuntimeException("File '${task.source}' was copied to '$target', but cannot be deleted")
+        }
+        return result
+    }
+
+    private fun getNotifier(notifier: IMultipleCopyNotifier) = object : IGetNotifier {
+
+        override fun onGetFile(file: File, collected: Set<File>, currentLevel: Int): Boolean =
+                notifier.onCollecting(file, collected, currentLevel)
+
+        override fun onGetFolder(folder: File, collected: Set<File>, currentLevel: Int): Boolean =
+                notifier.onCollecting(folder, collected, currentLevel)
+
+        override fun onExceptionOccurred(e: RuntimeException) {
+            notifier.onExceptionOccurred(e)
+        }
+    }
+
+    private fun getNotifier(notifier: IDeleteNotifier) = object : IGetNotifier {
+
+        override fun onExceptionOccurred(e: RuntimeException) {
+            notifier.onExceptionOccurred(e)
+        }
+    }
+
+    private fun levelOf(file: File, root: File): Int {
+        var level = 0
+        var parent = file.parentFile
+        while (parent != null && parent != root) {
+            level++
+            parent = parent.parentFile
+        }
+        return if (parent == null) 0 else level
+    }
+
+    private class BulkTask(
+            val source: File,
+            val target: File?,
+            /**
+             * taken on planning
+             */
+            val length: Long,
+            val append: Boolean
+    )
+
+    private object WorkerThreadFactory : ThreadFactory {
+
+        private val counter = AtomicInteger(0)
+
+        override fun newThread(r: Runnable): Thread = Thread(r, "BulkFileOperation-${counter.incrementAndGet()}").apply {
+            isDaemon = true
+        }
+    }
+}
+
+/**
+ * Resolves storage of file by longest matching mount point
+ */
+internal object FileDevices {
+
+    private const val MOUNTS_PATH = "/proc/mounts"
+
+    private val mountPoints: List<String> by lazy { readMountPoints() }
+
+    /**
+     * @return mount point of given file or root of its path, if mounts are not available
+     */
+    fun deviceKey(file: File): String {
+        val path = file.absolutePath
+        for (mountPoint in mountPoints) {
+            val prefix = if (mountPoint.endsWith(File.separator)) mountPoint else mountPoint + File.separator
+            if (path == mountPoint || path.startsWith(prefix)) {
+                return mountPoint
+            }
+        }
+        var root = file.absoluteFile
+        while (root.parentFile != null) {
+            root = root.parentFile
+        }
+        return root.path
+    }
+
+    private fun readMountPoints(): List<String> {
+        val mounts = File(MOUNTS_PATH)
+        if (!mounts.canRead()) {
+            return emptyList()
+        }
+        return try {
+            mounts.readLines()
+                    // spaces in mount point are escaped
+                    .mapNotNull { line -> line.split(' ').getOrNull(1)?.replace("\\040", " ") }
+                    .distinct()
+                    .sortedByDescending { it.length }
+        } catch (e: IOException) {
+            logger.e("Cannot read $MOUNTS_PATH", e)
+            emptyList()
+        }
+    }
+}
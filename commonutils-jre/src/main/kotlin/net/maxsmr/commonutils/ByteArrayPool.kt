@@ -0,0 +1,66 @@
+package net.maxsmr.commonutils
+
+import java.lang.ref.SoftReference
+
+/**
+ * Per-thread pool of byte buffers split into power-of-two size classes,
+ * so hot copying loops don't allocate new buffer on each call
+ *
+ * Buffer taken by [acquire] should be returned with [release] on the same thread,
+ * it's not kept in pool until that (so nested usage is safe)
+ */
+object ByteArrayPool {
+
+    const val MIN_POOLED_SIZE = 512
+
+    /**
+     * larger buffers are not pooled
+     */
+    const val MAX_POOLED_SIZE = 1024 * 1024
+
+    private val SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE) + 1
+
+    private val buffers = object : ThreadLocal<Array<SoftReference<ByteArray>?>>() {
+        override fun initialValue(): Array<SoftReference<ByteArray>?> = arrayOfNulls(SIZE_CLASSES)
+    }
+
+    /**
+     * @return buffer with size >= [minSize]
+     */
+    @JvmStatic
+    fun acquire(minSize: Int): ByteArray {
+        require(minSize > 0) { "minSize" }
+        val sizeClass = sizeClassOf(minSize)
+        if (sizeClass < 0) {
+            return ByteArray(minSize)
+        }
+        val pool = buffers.get()
+        val buffer = pool[sizeClass]?.get()
+        if (buffer != null) {
+            pool[sizeClass] = null
+            return buffer
+        }
+        return ByteArray(MIN_POOLED_SIZE shl sizeClass)
+    }
+
+    @JvmStatic
+    fun release(buffer: ByteArray) {
+        val size = buffer.size
+        if (size < MIN_POOLED_SIZE || size > MAX_POOLED_SIZE || Integer.bitCount(size) != 1) {
+            return
+        }
+        val sizeClass = sizeClassOf(size)
+        val pool = buffers.get()
+        if (pool[sizeClass]?.get() == null) {
+            pool[sizeClass] = SoftReference(buffer)
+        }
+    }
+
+    private fun sizeClassOf(size: Int): Int {
+        if (size > MAX_POOLED_SIZE) {
+            return -1
+        }
+        val rounded = if (size <= MIN_POOLED_SIZE) MIN_POOLED_SIZE else Integer.highestOneBit(size - 1) shl 1
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE)
+    }
+}
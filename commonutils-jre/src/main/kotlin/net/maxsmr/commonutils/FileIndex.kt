@@ -0,0 +1,546 @@
+package net.maxsmr.commonutils
+
+import net.maxsmr.commonutils.collection.sort.BaseOptionalComparator
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import net.maxsmr.commonutils.text.EMPTY_STRING
+import java.io.*
+import java.util.*
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.regex.Pattern
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("FileIndex")
+
+/**
+ * In-memory index of names, sizes and modification times of files under [root],
+ * for repeated searches over same tree without walking it (unlike [searchByName])
+ *
+ * Index is built by [rebuild] or loaded by [loadSnapshot], then kept actual by [refresh]:
+ * only directories with changed modification time are listed again
+ *
+ * @param depth same as in [getFiles]
+ */
+class FileIndex @JvmOverloads constructor(
+        root: File,
+        val depth: Int = DEPTH_UNLIMITED
+) {
+
+    val root: File = root.absoluteFile
+
+    private val lock = ReentrantReadWriteLock()
+
+    /**
+     * path -> entry
+     */
+    private val entries = HashMap<String, Entry>()
+
+    /**
+     * path of indexed dir (including [root]) -> its state on last listing
+     */
+    private val dirs = HashMap<String, DirState>()
+
+    /**
+     * lower case name -> paths, sorted for prefix queries
+     */
+    private val byName = TreeMap<String, MutableSet<String>>()
+
+    /**
+     * trigram of lower case name -> paths, for substring queries
+     */
+    private val byTrigram = HashMap<String, MutableSet<String>>()
+
+    /**
+     * lower case extension -> paths
+     */
+    private val byExtension = HashMap<String, MutableSet<String>>()
+
+    init {
+        require(depth == DEPTH_UNLIMITED || depth >= 0) { "Incorrect depth: $depth" }
+    }
+
+    val size: Int get() = lock.read { entries.size }
+
+    val isBuilt: Boolean get() = lock.read { dirs.isNotEmpty() }
+
+    /**
+     * Drops current index and walks whole [root]
+     */
+    fun rebuild() {
+        lock.write {
+            clear()
+            if (!root.isDirectory) {
+                logger.w("Root '$root' is not a directory")
+                return
+            }
+            walk(root, 0)
+        }
+    }
+
+    /**
+     * Lists again directories which modification time was changed since last listing;
+     * since it doesn't change on in-place modifications of files, their sizes and times are
+     * taken again only if [restatFiles] is true
+     *
+     * @return true if index was changed
+     */
+    @JvmOverloads
+    fun refresh(restatFiles: Boolean = false): Boolean {
+        lock.write {
+            return refreshLocked(restatFiles)
+        }
+    }
+
+    private fun refreshLocked(restatFiles: Boolean): Boolean {
+        if (dirs.isEmpty()) {
+            walk(root, 0)
+            return entries.isNotEmpty()
+        }
+        var isChanged = false
+        val changedDirs = dirs.filter { (path, state) -> File(path).lastModified() != state.lastModified }.keys
+        for (path in changedDirs) {
+            // may be already removed with its changed parent
+            val state = dirs[path] ?: continue
+            isChanged = true
+            val dir = File(path)
+            if (!dir.isDirectory) {
+                if (path == root.path) {
+                    clear()
+                    break
+                }
+                removeEntry(path)
+                continue
+            }
+            state.lastModified = dir.lastModified()
+            val actual = dir.listFiles()?.associateBy { it.path } ?: emptyMap()
+            for (childPath in state.children.toList()) {
+                if (childPath !in actual) {
+                    removeEntry(childPath)
+                    state.children.remove(childPath)
+                }
+            }
+            for ((childPath, child) in actual) {
+                if (childPath !in state.children) {
+                    addChild(child, state)
+                }
+            }
+        }
+        if (restatFiles) {
+            for (entry in entries.values.toList()) {
+                if (entry.isDirectory) {
+                    continue
+                }
+                val length = entry.file.length()
+                val lastModified = entry.file.lastModified()
+                if (length != entry.length || lastModified != entry.lastModified) {
+                    entries[entry.file.path] = entry.copy(length = length, lastModified = lastModified)
+                    isChanged = true
+                }
+            }
+        }
+        return isChanged
+    }
+
+    /**
+     * @param sortOptions same as for [FileComparator], but sizes and times are taken from index
+     * @param limit max count of returned entries, 0 - not limited
+     */
+    @JvmOverloads
+    fun search(
+            query: Query,
+            mode: GetMode = GetMode.ALL,
+            sortOptions: Map<FileComparator.SortOption, Boolean?>? = null,
+            limit: Int = 0
+    ): List<Entry> {
+        require(limit >= 0) { "Incorrect limit: $limit" }
+        val result = lock.read {
+            val candidates = when (query) {
+                is Query.Prefix -> prefixCandidates(query.prefix.toLowerCase(Locale.ROOT))
+                is Query.Substring -> substringCandidates(query.text.toLowerCase(Locale.ROOT))
+                is Query.Glob -> query.literal?.let { substringCandidates(it) }
+                is Query.Extension -> byExtension[query.extension.toLowerCase(Locale.ROOT)] ?: emptySet<String>()
+            } ?: entries.keys
+            val result = mutableListOf<Entry>()
+            for (path in candidates) {
+                val entry = entries[path] ?: continue
+                if (entry.matches(mode) && query.matches(entry.name)) {
+                    result.add(entry)
+                    // can stop early only if order doesn't matter
+                    if (sortOptions.isNullOrEmpty() && limit > 0 && result.size >= limit) {
+                        break
+                    }
+                }
+            }
+            result
+        }
+        if (!sortOptions.isNullOrEmpty()) {
+            result.sortWith(EntryComparator(sortOptions))
+        }
+        return if (limit > 0 && result.size > limit) result.subList(0, limit) else result
+    }
+
+    /**
+     * Same as [searchByName] over indexed tree
+     */
+    @JvmOverloads
+    fun searchByName(
+            name: String,
+            searchFlags: Int = MatchStringOption.AUTO.flag,
+            mode: GetMode = GetMode.ALL,
+            comparator: Comparator<in File>? = null
+    ): Set<File> {
+        val result = lock.read {
+            // any option except AUTO matches only names containing the whole text
+            val candidates = if (MatchStringOption.contains(MatchStringOption.AUTO, searchFlags)
+                    || MatchStringOption.contains(MatchStringOption.AUTO_IGNORE_CASE, searchFlags)) {
+                null
+            } else {
+                substringCandidates(name.toLowerCase(Locale.ROOT))
+            } ?: entries.keys
+            candidates.mapNotNull { path ->
+                entries[path]?.takeIf { it.matches(mode) && stringsMatch(it.name, name, searchFlags) }?.file
+            }
+        }
+        return if (comparator != null) result.sortedWith(comparator).toCollection(LinkedHashSet()) else result.toCollection(LinkedHashSet())
+    }
+
+    @JvmOverloads
+    fun getEntries(mode: GetMode = GetMode.ALL): List<Entry> = lock.read {
+        entries.values.filter { it.matches(mode) }
+    }
+
+    fun saveSnapshot(file: File): Boolean = try {
+        saveSnapshotOrThrow(file)
+        true
+    } catch (e: RuntimeException) {
+        logger.e(e)
+        false
+    }
+
+    /**
+     * Writes index to temp file which is then renamed to [file]
+     */
+    @Throws(RuntimeException::class)
+    fun saveSnapshotOrThrow(file: File) {
+        val tempFile = File(file.path + TEMP_FILE_SUFFIX)
+        try {
+            lock.read {
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { out ->
+                    out.writeInt(SNAPSHOT_MAGIC)
+                    out.writeInt(SNAPSHOT_VERSION)
+                    out.writeUTF(root.path)
+                    out.writeInt(depth)
+                    out.writeInt(dirs.size)
+                    for ((path, state) in dirs) {
+                        out.writeUTF(path)
+                        out.writeLong(state.lastModified)
+                        out.writeInt(state.level)
+                    }
+                    out.writeInt(entries.size)
+                    for ((path, entry) in entries) {
+                        out.writeUTF(path)
+                        out.writeBoolean(entry.isDirectory)
+                        out.writeLong(entry.length)
+                        out.writeLong(entry.lastModified)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            tempFile.delete()
+            throw RuntimeException(formatException(e, "write snapshot"), e)
+        }
+        if (!tempFile.renameTo(file) && (!file.delete() || !tempFile.renameTo(file))) {
+            tempFile.delete()
+            throw RuntimeException("Cannot rename '$tempFile' to '$file'")
+        }
+    }
+
+    /**
+     * Replaces index with one saved by [saveSnapshot]; [refresh] should be called after that
+     * to apply changes made since saving
+     *
+     * @return false if snapshot cannot be read or was saved for other root or depth
+     */
+    fun loadSnapshot(file: File): Boolean = try {
+        loadSnapshotOrThrow(file)
+        true
+    } catch (e: RuntimeException) {
+        logger.e(e)
+        false
+    }
+
+    @Throws(RuntimeException::class)
+    fun loadSnapshotOrThrow(file: File) {
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != SNAPSHOT_MAGIC) {
+                    throw RuntimeException("'$file' is not a file index snapshot")
+                }
+                val version = input.readInt()
+                if (version != SNAPSHOT_VERSION) {
+                    throw RuntimeException("Unsupported snapshot version: $version")
+                }
+                val snapshotRoot = input.readUTF()
+                val snapshotDepth = input.readInt()
+                if (snapshotRoot != root.path || snapshotDepth != depth) {
+                    throw RuntimeException("Snapshot was saved for '$snapshotRoot' with depth $snapshotDepth")
+                }
+                val dirStates = HashMap<String, DirState>()
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    dirStates[path] = DirState(input.readLong(), input.readInt())
+                }
+                val loaded = ArrayList<Entry>()
+                repeat(input.readInt()) {
+                    loaded.add(Entry(File(input.readUTF()), input.readBoolean(), input.readLong(), input.readLong()))
+                }
+                lock.write {
+                    clear()
+                    dirs.putAll(dirStates)
+                    for (entry in loaded) {
+                        dirs[entry.file.parent]?.children?.add(entry.file.path)
+                        putEntry(entry)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            throw RuntimeException(formatException(e, "read snapshot"), e)
+        }
+    }
+
+    private fun clear() {
+        entries.clear()
+        dirs.clear()
+        byName.clear()
+        byTrigram.clear()
+        byExtension.clear()
+    }
+
+    private fun walk(dir: File, level: Int) {
+        val state = DirState(dir.lastModified(), level)
+        dirs[dir.path] = state
+        dir.listFiles()?.forEach { addChild(it, state) }
+    }
+
+    private fun addChild(child: File, parentState: DirState) {
+        val isDirectory = child.isDirectory
+        if (isDirectory) {
+            val level = parentState.level + 1
+            if (depth != DEPTH_UNLIMITED && level > depth - 1) {
+                return
+            }
+            putEntry(Entry(child, true, 0, child.lastModified()))
+            parentState.children.add(child.path)
+            walk(child, level)
+        } else if (child.isFile) {
+            putEntry(Entry(child, false, child.length(), child.lastModified()))
+            parentState.children.add(child.path)
+        }
+    }
+
+    private fun putEntry(entry: Entry) {
+        val path = entry.file.path
+        entries[path] = entry
+        val lowerName = entry.name.toLowerCase(Locale.ROOT)
+        byName.getOrPut(lowerName) { HashSet() }.add(path)
+        forEachTrigram(lowerName) { byTrigram.getOrPut(it) { HashSet() }.add(path) }
+        if (!entry.isDirectory) {
+            byExtension.getOrPut(extensionOf(lowerName)) { HashSet() }.add(path)
+        }
+    }
+
+    private fun removeEntry(path: String) {
+        dirs.remove(path)?.let { state ->
+            state.children.forEach { removeEntry(it) }
+        }
+        val entry = entries.remove(path) ?: return
+        val lowerName = entry.name.toLowerCase(Locale.ROOT)
+        removeFromIndex(byName, lowerName, path)
+        forEachTrigram(lowerName) { removeFromIndex(byTrigram, it, path) }
+        if (!entry.isDirectory) {
+            removeFromIndex(byExtension, extensionOf(lowerName), path)
+        }
+    }
+
+    private fun prefixCandidates(lowerPrefix: String): Collection<String> {
+        if (lowerPrefix.isEmpty()) {
+            return entries.keys
+        }
+        val result = mutableListOf<String>()
+        byName.subMap(lowerPrefix, true, lowerPrefix + Char.MAX_VALUE, false).values.forEach { result.addAll(it) }
+        return result
+    }
+
+    /**
+     * @return paths which names contain all trigrams of [lowerText], null if it's too short to use index
+     */
+    private fun substringCandidates(lowerText: String): Collection<String>? {
+        if (lowerText.length < TRIGRAM_LENGTH) {
+            return null
+        }
+        val postings = mutableListOf<Set<String>>()
+        forEachTrigram(lowerText) { trigram ->
+            postings.add(byTrigram[trigram] ?: emptySet())
+        }
+        postings.sortBy { it.size }
+        val smallest = postings.first()
+        if (postings.size == 1) {
+            return smallest
+        }
+        return smallest.filter { path -> postings.all { path in it } }
+    }
+
+    private fun Entry.matches(mode: GetMode) = when (mode) {
+        GetMode.FILES -> !isDirectory
+        GetMode.FOLDERS -> isDirectory
+        GetMode.ALL -> true
+    }
+
+    /**
+     * Name query; all of them except [Extension] can be narrowed by index only for texts of 3 or more symbols
+     */
+    sealed class Query {
+
+        abstract fun matches(name: String): Boolean
+
+        class Prefix @JvmOverloads constructor(
+                val prefix: String,
+                val ignoreCase: Boolean = true
+        ) : Query() {
+
+            override fun matches(name: String) = name.startsWith(prefix, ignoreCase)
+        }
+
+        class Substring @JvmOverloads constructor(
+                val text: String,
+                val ignoreCase: Boolean = true
+        ) : Query() {
+
+            override fun matches(name: String) = name.contains(text, ignoreCase)
+        }
+
+        /**
+         * @param pattern with '*' for any sequence of symbols and '?' for any symbol
+         */
+        class Glob @JvmOverloads constructor(
+                val pattern: String,
+                val ignoreCase: Boolean = true
+        ) : Query() {
+
+            private val regex: Pattern = Pattern.compile(toRegex(pattern), if (ignoreCase) Pattern.CASE_INSENSITIVE or Pattern.UNICODE_CASE else 0)
+
+            /**
+             * longest part without wildcards in lower case
+             */
+            internal val literal: String? = pattern.split('*', '?')
+                    .maxByOrNull { it.length }
+                    ?.takeIf { it.length >= TRIGRAM_LENGTH }
+                    ?.toLowerCase(Locale.ROOT)
+
+            override fun matches(name: String) = regex.matcher(name).matches()
+
+            private fun toRegex(pattern: String): String {
+                val result = StringBuilder()
+                val literal = StringBuilder()
+                fun appendLiteral() {
+                    if (literal.isNotEmpty()) {
+                        result.append(Pattern.quote(literal.toString()))
+                        literal.setLength(0)
+                    }
+                }
+                for (c in pattern) {
+                    when (c) {
+                        '*' -> {
+                            appendLiteral()
+                            result.append(".*")
+                        }
+                        '?' -> {
+                            appendLiteral()
+                            result.append('.')
+                        }
+                        else -> literal.append(c)
+                    }
+                }
+                appendLiteral()
+                return result.toString()
+            }
+        }
+
+        /**
+         * @param extension without dot, case is ignored
+         */
+        class Extension(extension: String) : Query() {
+
+            val extension: String = extension.removePrefix(".")
+
+            override fun matches(name: String) = extensionOf(name).equals(extension, true)
+        }
+    }
+
+    data class Entry(
+            val file: File,
+            val isDirectory: Boolean,
+            /**
+             * 0 for directories
+             */
+            val length: Long,
+            val lastModified: Long
+    ) {
+
+        val name: String get() = file.name
+    }
+
+    /**
+     * Same as [FileComparator], but with indexed sizes and times
+     */
+    class EntryComparator(sortOptions: Map<FileComparator.SortOption, Boolean?>) : BaseOptionalComparator<FileComparator.SortOption, Entry>(sortOptions) {
+
+        override fun compare(lhs: Entry, rhs: Entry, option: FileComparator.SortOption, ascending: Boolean): Int {
+            return when (option) {
+                FileComparator.SortOption.NAME -> compareStrings(lhs.file.absolutePath, rhs.file.absolutePath, ascending, true)
+                FileComparator.SortOption.SIZE -> compareLongs(lhs.length, rhs.length, ascending)
+                FileComparator.SortOption.LAST_MODIFIED -> compareLongs(lhs.lastModified, rhs.lastModified, ascending)
+            }
+        }
+    }
+
+    private class DirState(
+            var lastModified: Long,
+            val level: Int
+    ) {
+
+        /**
+         * paths of indexed children
+         */
+        val children: MutableSet<String> = HashSet()
+    }
+
+    companion object {
+
+        private const val TRIGRAM_LENGTH = 3
+
+        private const val SNAPSHOT_MAGIC = 0x46494458 // "FIDX"
+
+        private const val SNAPSHOT_VERSION = 1
+
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+
+        private inline fun forEachTrigram(text: String, action: (String) -> Unit) {
+            for (i in 0..text.length - TRIGRAM_LENGTH) {
+                action(text.substring(i, i + TRIGRAM_LENGTH))
+            }
+        }
+
+        private fun removeFromIndex(index: MutableMap<String, MutableSet<String>>, key: String, path: String) {
+            val paths = index[key] ?: return
+            paths.remove(path)
+            if (paths.isEmpty()) {
+                index.remove(key)
+            }
+        }
+
+        private fun extensionOf(name: String) = name.substringAfterLast('.', EMPTY_STRING)
+    }
+}
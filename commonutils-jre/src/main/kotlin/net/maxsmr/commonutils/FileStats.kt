@@ -0,0 +1,320 @@
+package net.maxsmr.commonutils
+
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.FileSystems
+import java.nio.file.LinkOption
+import java.nio.file.NoSuchFileException
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.PosixFileAttributes
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("FileStats")
+
+/**
+ * java.nio.file is not available on old Android versions (before API 26)
+ */
+private val isNioAvailable: Boolean by lazy {
+    try {
+        Class.forName("java.nio.file.Files")
+        true
+    } catch (e: ClassNotFoundException) {
+        false
+    }
+}
+
+/**
+ * Metadata of file, same as shown by "stat" command
+ */
+data class FileStat(
+        val file: File,
+        val type: Type,
+        val size: Long,
+        val lastModified: Long,
+        /**
+         * in "rwxr-x---" form, null if not supported by file system or platform
+         */
+        val permissions: String?,
+        val owner: String?,
+        val group: String?
+) {
+
+    enum class Type {
+        FILE, DIRECTORY, SYMBOLIC_LINK, OTHER
+    }
+}
+
+/**
+ * Reads attributes without starting any process: with POSIX view (where available)
+ * or with [File] methods on platforms without java.nio.file (then only type, size and time are known)
+ *
+ * @param followLinks if false, symbolic link itself is described
+ * @return null if file not exists
+ */
+@JvmOverloads
+fun statFile(file: File?, followLinks: Boolean = true): FileStat? = try {
+    statFileOrThrow(file, followLinks)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    null
+}
+
+@Throws(RuntimeException::class)
+@JvmOverloads
+fun statFileOrThrow(file: File?, followLinks: Boolean = true): FileStat? {
+    if (file == null) {
+        throw NullPointerException("file is null")
+    }
+    return try {
+        if (isNioAvailable) {
+            NioStatReader.read(file, followLinks)
+        } else {
+            readWithFile(file)
+        }
+    } catch (e: IOException) {
+        throw RuntimeException(formatException(e, "readAttributes"), e)
+    } catch (e: SecurityException) {
+        throw RuntimeException(formatException(e, "readAttributes"), e)
+    }
+}
+
+/**
+ * @return stats of existing files
+ */
+@JvmOverloads
+fun statFiles(files: Collection<File>?, followLinks: Boolean = true): Map<File, FileStat> {
+    val result = LinkedHashMap<File, FileStat>()
+    for (file in files ?: emptyList()) {
+        statFile(file, followLinks)?.let {
+            result[file] = it
+        }
+    }
+    return result
+}
+
+fun isSymbolicLink(file: File?): Boolean {
+    if (file == null) {
+        return false
+    }
+    return try {
+        if (isNioAvailable) {
+            NioStatReader.isSymbolicLink(file)
+        } else {
+            val parent = file.absoluteFile.parentFile ?: return false
+            File(parent.canonicalFile, file.name).canonicalFile != File(parent.canonicalFile, file.name)
+        }
+    } catch (e: IOException) {
+        logger.e(formatException(e, "isSymbolicLink"))
+        false
+    } catch (e: SecurityException) {
+        logger.e(formatException(e, "isSymbolicLink"))
+        false
+    }
+}
+
+private fun readWithFile(file: File): FileStat? {
+    if (!file.exists()) {
+        return null
+    }
+    val type = when {
+        file.isDirectory -> FileStat.Type.DIRECTORY
+        file.isFile -> FileStat.Type.FILE
+        else -> FileStat.Type.OTHER
+    }
+    return FileStat(file, type, if (type == FileStat.Type.FILE) file.length() else 0, file.lastModified(), null, null, null)
+}
+
+/**
+ * Separate holder, so java.nio.file classes are not loaded where absent
+ */
+private object NioStatReader {
+
+    private val isPosixSupported: Boolean by lazy {
+        FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+    }
+
+    @Throws(IOException::class)
+    fun read(file: File, followLinks: Boolean): FileStat? {
+        val path = file.toPath()
+        val options = if (followLinks) emptyArray<LinkOption>() else arrayOf(LinkOption.NOFOLLOW_LINKS)
+        val attributes: BasicFileAttributes = try {
+            if (isPosixSupported) {
+                Files.readAttributes(path, PosixFileAttributes::class.java, *options)
+            } else {
+                Files.readAttributes(path, BasicFileAttributes::class.java, *options)
+            }
+        } catch (e: NoSuchFileException) {
+            return null
+        }
+        val type = when {
+            attributes.isSymbolicLink -> FileStat.Type.SYMBOLIC_LINK
+            attributes.isDirectory -> FileStat.Type.DIRECTORY
+            attributes.isRegularFile -> FileStat.Type.FILE
+            else -> FileStat.Type.OTHER
+        }
+        val posix = attributes as? PosixFileAttributes
+        return FileStat(
+                file,
+                type,
+                attributes.size(),
+                attributes.lastModifiedTime().toMillis(),
+                posix?.let { PosixFilePermissions.toString(it.permissions()) },
+                posix?.owner()?.name,
+                posix?.group()?.name
+        )
+    }
+
+    fun isSymbolicLink(file: File): Boolean = Files.isSymbolicLink(file.toPath())
+}
+
+/**
+ * Sums sizes of files in directories on several threads
+ *
+ * Sizes of files directly in each directory are cached until its modification time is changed;
+ * since it's not changed on in-place file modifications, [invalidate] should be called
+ * if such changes are expected
+ */
+class DirSizeAggregator @JvmOverloads constructor(
+        private val parallelism: Int = DEFAULT_BULK_PARALLELISM
+) {
+
+    private val cache = ConcurrentHashMap<String, DirContent>()
+
+    @Volatile
+    private var executor: ExecutorService? = null
+
+    init {
+        require(parallelism > 0) { "Incorrect parallelism: $parallelism" }
+    }
+
+    /**
+     * @return size of file or total size of files in directory (symbolic links to directories are not followed)
+     */
+    fun getSize(file: File): Long {
+        if (!file.isDirectory) {
+            return file.length()
+        }
+        val content = getContent(file)
+        if (content.subDirs.size < 2 || parallelism == 1) {
+            return content.filesSize + content.subDirs.sumOf { sizeOf(File(it)) }
+        }
+        val futures = content.subDirs.map { path -> getExecutor().submit<Long> { sizeOf(File(path)) } }
+        return content.filesSize + sum(futures)
+    }
+
+    /**
+     * @return sizes of given files or directories, computed in parallel
+     */
+    fun getSizes(files: Collection<File>): Map<File, Long> {
+        val result = LinkedHashMap<File, Long>()
+        if (files.size < 2 || parallelism == 1) {
+            files.forEach { result[it] = sizeOf(it) }
+            return result
+        }
+        val futures = files.associateWith { file -> getExecutor().submit<Long> { sizeOf(file) } }
+        for ((file, future) in futures) {
+            result[file] = sum(listOf(future))
+        }
+        return result
+    }
+
+    fun invalidate() {
+        cache.clear()
+    }
+
+    fun release() {
+        synchronized(this) {
+            executor?.shutdownNow()
+            executor = null
+        }
+        cache.clear()
+    }
+
+    private fun sizeOf(file: File): Long {
+        if (!file.isDirectory) {
+            return file.length()
+        }
+        val content = getContent(file)
+        var size = content.filesSize
+        for (path in content.subDirs) {
+            size += sizeOf(File(path))
+        }
+        return size
+    }
+
+    private fun getContent(dir: File): DirContent {
+        val lastModified = dir.lastModified()
+        cache[dir.path]?.let {
+            if (it.lastModified == lastModified) {
+                return it
+            }
+        }
+        var filesSize = 0L
+        val subDirs = mutableListOf<String>()
+        dir.listFiles()?.forEach {
+            if (it.isDirectory) {
+                // links may lead to cycles
+                if (!isSymbolicLink(it)) {
+                    subDirs.add(it.path)
+                }
+            } else {
+                filesSize += it.length()
+            }
+        }
+        return DirContent(lastModified, filesSize, subDirs).also {
+            cache[dir.path] = it
+        }
+    }
+
+    private fun sum(futures: List<Future<Long>>): Long {
+        var size = 0L
+        for (future in futures) {
+            size += try {
+                future.getOrThrow()
+            } catch (e: IOException) {
+                logger.e(formatException(e, "getSize"))
+                0L
+            } catch (e: RuntimeException) {
+                logger.e(e)
+                0L
+            }
+        }
+        return size
+    }
+
+    private fun getExecutor(): ExecutorService {
+        executor?.let {
+            return it
+        }
+        synchronized(this) {
+            return executor ?: Executors.newFixedThreadPool(parallelism, WorkerThreadFactory).also {
+                executor = it
+            }
+        }
+    }
+
+    private class DirContent(
+            val lastModified: Long,
+            val filesSize: Long,
+            val subDirs: List<String>
+    )
+
+    private object WorkerThreadFactory : ThreadFactory {
+
+        private val counter = AtomicInteger(0)
+
+        override fun newThread(r: Runnable): Thread = Thread(r, "DirSizeAggregator-${counter.incrementAndGet()}").apply {
+            isDaemon = true
+        }
+    }
+}
@@ -20,7 +20,13 @@ import java.nio.channels.FileLock
 import java.nio.channels.OverlappingFileLockException
 import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
 
 const val DEPTH_UNLIMITED = -1
 
@@ -880,25 +886,28 @@ fun moveFile(
         logger.w("Cannot rename: files match ('$sourceFile')")
         return targetFile
     }
-    var targetFile = renameFile(sourceFile, targetFile?.parent, targetFile?.name, deleteIfExists, deleteEmptyDirs)
-    if (targetFile == null) {
-        targetFile = if (copyWithBuffering) {
-            copyFileWithBuffering(sourceFile, targetFile?.name, targetFile?.parent, deleteIfExists, preserveFileDate, notifier)
-        } else {
-            try {
-                copyFileOrThrow(sourceFile, targetFile?.name, targetFile?.parent, deleteIfExists, preserveFileDate)
-            } catch (e: RuntimeException) {
-                notifier?.onExceptionOccurred(e)
-                null
-            }
+    renameFile(sourceFile, targetFile?.parent, targetFile?.name, deleteIfExists, deleteEmptyDirs)?.let {
+        return it
+    }
+    // rename is not possible between different file systems
+    val resultFile = if (copyWithBuffering) {
+        copyFileWithBuffering(sourceFile, targetFile?.name, targetFile?.parent, deleteIfExists, preserveFileDate, notifier)
+    } else {
+        try {
+            copyFileOrThrow(sourceFile, targetFile?.name, targetFile?.parent, deleteIfExists, preserveFileDate)
+        } catch (e: RuntimeException) {
+            notifier?.onExceptionOccurred(e)
+            null
         }
+    }
+    if (resultFile != null) {
         try {
             deleteFileOrThrow(sourceFile)
         } catch (e: RuntimeException) {
             notifier?.onExceptionOccurred(e)
         }
     }
-    return targetFile
+    return resultFile
 }
 
 fun renameFile(
@@ -1020,11 +1029,14 @@ fun copyFileWithBuffering(
 
     val resultFile = try {
 
-        writeFromStreamToFileOrThrow(fis, targetFile.name, targetFile.parent, !rewrite, if (notifier != null) object : IStreamNotifier {
+        writeFromStreamToFileOrThrow(fis, targetFile.name, targetFile.parent, !rewrite, if (notifier != null) object : IStreamNotifier, IBytesThresholdNotifier {
 
             override val notifyInterval: Long
                 get() = notifier.notifyInterval
 
+            override val notifyBytesThreshold: Long
+                get() = getNotifyBytesThreshold(notifier)
+
             override fun onProcessing(inputStream: InputStream, outputStream: OutputStream, bytesWrite: Long, bytesLeft: Long): Boolean =
                     notifier.shouldProceed(sourceFile, targetFile, bytesWrite, totalBytesCount)
 
@@ -1145,8 +1157,8 @@ fun getSize(
 ): Long {
     var size: Long = 0
     for (f in getFiles(fromFile, GetMode.FILES, depth = depth, currentLevel = currentLevel, notifier = notifier)) {
-        size = try {
-            getFileLengthOrThrow(fromFile)
+        size += try {
+            getFileLengthOrThrow(f)
         } catch (e: RuntimeException) {
             notifier?.onExceptionOccurred(e)
             0
@@ -1259,6 +1271,8 @@ fun searchByName(
 ): Set<File> = searchByName(name, if (searchFile != null) listOf(searchFile) else null, searchFlags, searchFirst, mode, comparator, depth, notifier)
 
 /**
+ * For repeated searches over same tree see [FileIndex]
+ *
  * @param comparator to sort each folders list and result set
  * @return found set of files or directories with matched name
  */
@@ -1410,19 +1424,7 @@ private fun moveOrCopyFiles(
             multipleCopyNotifier?.onExceptionOccurred(FileIterationException(FileIterationException.Type.NOT_EXISTS, "File '$f' not exists, skipping..."))
             continue
         }
-        var currentDestDir: File? = null
-        if (f != sourceFile) {
-            var part = f.parent
-            if (part != null && part.startsWith(sourceFile.absolutePath)) {
-                part = part.substring(sourceFile.absolutePath.length, part.length)
-            }
-            if (!part.isNullOrEmpty()) {
-                currentDestDir = File(targetDir, part)
-            }
-        }
-        if (currentDestDir == null) {
-            currentDestDir = targetDir
-        }
+        val currentDestDir = resolveCopyTargetDir(sourceFile, targetDir, f)
         if (multipleCopyNotifier != null) {
             if (!multipleCopyNotifier.shouldProceed(f, currentDestDir, Collections.unmodifiableSet(result), filesProcessed.toLong(), totalFilesCount)) {
                 multipleCopyNotifier.onExceptionOccurred(FileIterationException(FileIterationException.Type.INTERRUPTED_BY_USER, "Copying from '$sourceFile' to '$targetDir' was interrupted"))
@@ -1489,6 +1491,22 @@ private fun moveOrCopyFiles(
     return result
 }
 
+/**
+ * @return dir in [targetDir] with same relative path as [file] has in [sourceFile]
+ */
+internal fun resolveCopyTargetDir(sourceFile: File, targetDir: File, file: File): File {
+    if (file != sourceFile) {
+        var part = file.parent
+        if (part != null && part.startsWith(sourceFile.absolutePath)) {
+            part = part.substring(sourceFile.absolutePath.length, part.length)
+        }
+        if (!part.isNullOrEmpty()) {
+            return File(targetDir, part)
+        }
+    }
+    return targetDir
+}
+
 /**
  * @param fromFile file or directory
  */
@@ -1824,6 +1842,237 @@ fun unzipFileOrThrow(
 }
 
 /**
+ * Same as [compressFilesToZip], but files are compressed concurrently, see [compressStreamsToZipParallelOrThrow];
+ * entries are named by file names, so files with same names from different directories are rejected
+ */
+@JvmOverloads
+fun compressFilesToZipParallel(
+        srcFiles: Collection<File>?,
+        destZipName: String?,
+        destZipParent: String?,
+        recreate: Boolean = true,
+        compressionLevel: (String) -> Int = { Deflater.DEFAULT_COMPRESSION },
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+): File? = try {
+    compressFilesToZipParallelOrThrow(srcFiles, destZipName, destZipParent, recreate, compressionLevel, parallelism)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    null
+}
+
+@Throws(RuntimeException::class)
+@JvmOverloads
+fun compressFilesToZipParallelOrThrow(
+        sourceFiles: Collection<File>?,
+        destZipName: String?,
+        destZipParent: String?,
+        recreate: Boolean = true,
+        compressionLevel: (String) -> Int = { Deflater.DEFAULT_COMPRESSION },
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+): File {
+    // files are opened by workers, not all at once
+    val entries = LinkedHashMap<String, () -> InputStream>()
+    for (sourceFile in (sourceFiles ?: emptyList())) {
+        // same as ZipOutputStream would do, instead of silently losing one of the files
+        require(!entries.containsKey(sourceFile.name)) { "Duplicate entry: '${sourceFile.name}' ($sourceFile)" }
+        entries[sourceFile.name] = { sourceFile.openInputStreamOrThrow() }
+    }
+
+    val zipFile = createFileOrThrow(destZipName, destZipParent, recreate)
+
+    try {
+        compressStreamsToZipParallelOrThrow(entries, zipFile.openOutputStreamOrThrow(), compressionLevel, parallelism)
+    } catch (e: IOException) {
+        throwRuntimeException(e, "compressStreamsToZipParallel")
+    }
+    return zipFile
+}
+
+/**
+ * @return entries from central directory of [zipFile], without reading the data
+ */
+fun getZipEntries(zipFile: File?): List<ZipEntry> = try {
+    getZipEntriesOrThrow(zipFile)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    emptyList()
+}
+
+@Throws(RuntimeException::class)
+fun getZipEntriesOrThrow(zipFile: File?): List<ZipEntry> {
+    if (zipFile == null || !isFileValidOrThrow(zipFile)) {
+        throw IllegalArgumentException("Invalid zip file: '$zipFile'")
+    }
+    return try {
+        ZipFile(zipFile).use {
+            it.entries().toList()
+        }
+    } catch (e: IOException) {
+        throw RuntimeException(formatException(e, "ZipFile"), e)
+    }
+}
+
+/**
+ * Extracts single entry with given name, seeking to it by central directory
+ * @return target file
+ */
+@JvmOverloads
+fun unzipEntry(
+        zipFile: File?,
+        entryName: String,
+        targetFile: File?,
+        recreate: Boolean = true,
+        buffSize: Int = DEFAULT_BUFFER_SIZE,
+        notifier: IStreamNotifier? = null
+): File? = try {
+    unzipEntryOrThrow(zipFile, entryName, targetFile, recreate, buffSize, notifier)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    null
+}
+
+@Throws(RuntimeException::class)
+@JvmOverloads
+fun unzipEntryOrThrow(
+        zipFile: File?,
+        entryName: String,
+        targetFile: File?,
+        recreate: Boolean = true,
+        buffSize: Int = DEFAULT_BUFFER_SIZE,
+        notifier: IStreamNotifier? = null
+): File {
+    if (zipFile == null || !isFileValidOrThrow(zipFile)) {
+        throw IllegalArgumentException("Invalid zip file: '$zipFile'")
+    }
+    if (targetFile == null) {
+        throw NullPointerException("targetFile is null")
+    }
+    return try {
+        ZipFile(zipFile).use { zf ->
+            val entry = zf.getEntry(entryName)
+                    ?: throw RuntimeException("Entry '$entryName' not found in '$zipFile'")
+            if (entry.isDirectory) {
+                throw RuntimeException("Entry '$entryName' is a directory")
+            }
+            val file = createFileOrThrow(targetFile.name, targetFile.parent, recreate)
+            zf.getInputStream(entry).copyStreamOrThrow(file.openOutputStreamOrThrow(!recreate), notifier, buffSize)
+            file
+        }
+    } catch (e: IOException) {
+        throw RuntimeException(formatException(e, "unzipEntry"), e)
+    }
+}
+
+/**
+ * Extracts [entryNames] (or all entries, if null) of [zipFile] to [destPath] concurrently:
+ * entries are split between workers by their size, each worker reads its own [ZipFile]
+ * @return amount of extracted files
+ */
+@JvmOverloads
+fun unzipFileParallel(
+        zipFile: File?,
+        destPath: String?,
+        entryNames: Collection<String>? = null,
+        saveDirHierarchy: Boolean = true,
+        recreate: Boolean = true,
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+): Int = try {
+    unzipFileParallelOrThrow(zipFile, destPath, entryNames, saveDirHierarchy, recreate, parallelism)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    0
+}
+
+@Throws(RuntimeException::class)
+@JvmOverloads
+fun unzipFileParallelOrThrow(
+        zipFile: File?,
+        destPath: String?,
+        entryNames: Collection<String>? = null,
+        saveDirHierarchy: Boolean = true,
+        recreate: Boolean = true,
+        parallelism: Int = Runtime.getRuntime().availableProcessors()
+): Int {
+    require(parallelism > 0) { "parallelism" }
+    if (zipFile == null) {
+        throw NullPointerException("zipFile is null")
+    }
+    if (destPath.isNullOrEmpty()) {
+        throw IllegalArgumentException("destPath is null or empty")
+    }
+    val destDir = createDirOrThrow(destPath)
+    val destCanonicalPath = try {
+        destDir.canonicalPath + File.separator
+    } catch (e: IOException) {
+        throw RuntimeException(formatException(e, "getCanonicalPath"), e)
+    }
+
+    val entries = getZipEntriesOrThrow(zipFile).filter {
+        (entryNames == null || entryNames.contains(it.name)) && (!it.isDirectory || saveDirHierarchy)
+    }
+
+    // largest first to the least loaded worker
+    val groups = Array(Math.max(Math.min(parallelism, entries.size), 1)) { mutableListOf<ZipEntry>() }
+    val groupSizes = LongArray(groups.size)
+    for (entry in entries.sortedByDescending { Math.max(it.compressedSize, 0) }) {
+        var index = 0
+        for (i in 1 until groups.size) {
+            if (groupSizes[i] < groupSizes[index]) {
+                index = i
+            }
+        }
+        groups[index].add(entry)
+        groupSizes[index] += Math.max(entry.compressedSize, 1)
+    }
+
+    fun extractGroup(group: List<ZipEntry>): Int {
+        var count = 0
+        ZipFile(zipFile).use { zf ->
+            for (entry in group) {
+                val entryName = if (saveDirHierarchy) entry.name else entry.name.substringAfterLast('/')
+                val target = File(destDir, entryName)
+                if (!(target.canonicalPath + File.separator).startsWith(destCanonicalPath)) {
+                    throw ZipException("Entry '${entry.name}' is outside of '$destDir'")
+                }
+                if (entry.isDirectory) {
+                    createDirOrThrow(target.absolutePath)
+                } else {
+                    val file = createFileOrThrow(target.name, target.parent, recreate)
+                    zf.getInputStream(entry).copyStreamOrThrow(file.openOutputStreamOrThrow(!recreate))
+                    count++
+                }
+            }
+        }
+        return count
+    }
+
+    if (groups.size == 1) {
+        return try {
+            extractGroup(groups[0])
+        } catch (e: IOException) {
+            throw RuntimeException(formatException(e, "unzipFileParallel"), e)
+        }
+    }
+
+    val executor = Executors.newFixedThreadPool(groups.size)
+    try {
+        val futures = groups.map { group -> executor.submit(Callable { extractGroup(group) }) }
+        var count = 0
+        for (future in futures) {
+            count += future.getOrThrow()
+        }
+        return count
+    } catch (e: IOException) {
+        throw RuntimeException(formatException(e, "unzipFileParallel"), e)
+    } finally {
+        executor.shutdownNow()
+    }
+}
+
+/**
+ * Files are checked without starting processes (see [statFileOrThrow]);
+ * single "stat" command is executed for all files which parent dirs are not accessible, if [useSU] is true
+ *
  * @param name  file or folder name part
  * @param paths 'PATH' environment variable by default
  */
@@ -1837,31 +2086,49 @@ fun checkFilesWithStat(
         notifier: IShellGetNotifier? = null
 ): Set<File> {
     val result = mutableSetOf<File>()
+    val inaccessible = mutableListOf<File>()
     for (file in paths?.toList() ?: emptyList()) {
-        var path = file.absolutePath
-        if (!path.endsWith(File.separator)) {
-            path += File.separator
+        val targetFile = File(file.absoluteFile, name)
+        val stat = try {
+            statFileOrThrow(targetFile)
+        } catch (e: RuntimeException) {
+            notifier?.onExceptionOccurred(e)
+            null
+        }
+        if (stat != null) {
+            if (notifier == null || notifier.onGetFile(targetFile, result, 0)) {
+                result.add(targetFile)
+            }
+        } else if (useSU && !(file.isDirectory && file.canExecute())) {
+            // existence of file cannot be checked without permissions on parent dir
+            inaccessible.add(targetFile)
         }
-        val targetPath = path + name
-        ShellWrapper(false).executeCommand(listOf("stat", targetPath), useSU, DEFAULT_TARGET_CODE, execTimeout, TimeUnit.MILLISECONDS, object : ShellCallback {
+    }
+    if (inaccessible.isNotEmpty()) {
+        val targetPaths = inaccessible.map { it.path }.toSet()
+        ShellWrapper(false).executeCommand(listOf("stat") + targetPaths, true, DEFAULT_TARGET_CODE, execTimeout, TimeUnit.MILLISECONDS, object : ShellCallback {
 
             override val needToLogCommands: Boolean = true
 
             override fun shellOut(from: ShellCallback.StreamType, shellLine: String) {
-                if (shellLine.contains("File: ") && shellLine.contains(name)) {
-                    val currentFile = File(targetPath)
-                    if (notifier == null || notifier.onGetFile(currentFile, result, 0)) {
-                        result.add(currentFile)
+                if (from === ShellCallback.StreamType.OUT && shellLine.contains("File: ")) {
+                    // path may be quoted
+                    val path = shellLine.substringAfter("File: ").trim().trim('\'', '`', '"')
+                    if (path in targetPaths) {
+                        val currentFile = File(path)
+                        if (notifier == null || notifier.onGetFile(currentFile, result, 0)) {
+                            result.add(currentFile)
+                        }
                     }
                 }
             }
 
             override fun processStartFailed(t: Throwable?) {
-                notifier?.onStartFailed(t, File(targetPath))
+                inaccessible.forEach { notifier?.onStartFailed(t, it) }
             }
 
             override fun processComplete(exitValue: Int) {
-                notifier?.onExitCode(exitValue, File(targetPath))
+                inaccessible.forEach { notifier?.onExitCode(exitValue, it) }
             }
         })
     }
@@ -1871,17 +2138,34 @@ fun checkFilesWithStat(
     return result
 }
 
+/**
+ * Dirs are listed and sizes are summed without starting processes, by [DirSizeAggregator];
+ * "ls" is executed only for dirs which cannot be listed, single "du" - for all files found by it
+ *
+ * @return files in [fromDirs] with their sizes in bytes (when taken from "du", in 1 KB blocks)
+ */
 @JvmOverloads
 fun getFilesWithLs(
         fromDirs: Collection<File>?,
         useSU: Boolean = true,
         execTimeout: Long = 0,
         comparator: Comparator<in File>? = null,
-        notifier: IShellGetNotifier? = null
+        notifier: IShellGetNotifier? = null,
+        sizeAggregator: DirSizeAggregator? = null
 ): Map<File, Long> {
-    val collectedMap = mutableMapOf<File, Long>()
     val collected = mutableSetOf<File>()
+    // listed by shell, so probably not accessible by this process
+    val shellCollected = mutableSetOf<File>()
     for (dir in fromDirs ?: emptyList()) {
+        val children = if (dir.canRead()) dir.listFiles() else null
+        if (children != null) {
+            for (child in children) {
+                if (notifier == null || notifier.onGetFile(child, collected, 0)) {
+                    collected.add(child)
+                }
+            }
+            continue
+        }
         ShellWrapper(false).executeCommand(listOf("ls", dir.absolutePath),
                 useSU,
                 DEFAULT_TARGET_CODE,
@@ -1896,6 +2180,7 @@ fun getFilesWithLs(
                             val currentFile = File(dir, shellLine)
                             if (notifier == null || notifier.onGetFile(currentFile, collected, 0)) {
                                 collected.add(currentFile)
+                                shellCollected.add(currentFile)
                             }
                         }
                     }
@@ -1909,45 +2194,69 @@ fun getFilesWithLs(
                     }
                 })
     }
-    comparator?.let {
-        val sorted = collected.sortedWith(it)
-        collected.clear()
-        collected.addAll(sorted)
+    val sorted = comparator?.let { collected.sortedWith(it) } ?: collected.toList()
+
+    val aggregator = sizeAggregator ?: DirSizeAggregator()
+    val sizes = try {
+        aggregator.getSizes(sorted.filter { it !in shellCollected })
+    } finally {
+        if (sizeAggregator == null) {
+            aggregator.release()
+        }
     }
-    for (current in collected) {
-        // option "-b" is not supported on android version
-        ShellWrapper().executeCommand(listOf("du", "-s", current.absolutePath),
-                useSU,
-                DEFAULT_TARGET_CODE,
-                execTimeout,
-                TimeUnit.MILLISECONDS,
-                object : ShellCallback {
+    val shellSizes = if (shellCollected.isNotEmpty()) getSizesWithDu(shellCollected, useSU, execTimeout, notifier) else emptyMap()
 
-                    override val needToLogCommands: Boolean = true
+    val collectedMap = LinkedHashMap<File, Long>()
+    for (current in sorted) {
+        collectedMap[current] = sizes[current] ?: shellSizes[current] ?: 0L
+    }
+    return Collections.unmodifiableMap(collectedMap)
+}
 
-                    override fun shellOut(from: ShellCallback.StreamType, shellLine: String) {
-                        if (from === ShellCallback.StreamType.OUT && !isEmpty(shellLine)) {
-                            var size: Long = 0
-                            val parts = shellLine.split("\\t").toTypedArray()
-                            if (parts.size > 1) {
-                                size = parts[0].toLongNotNull(10) { e: NumberFormatException ->
-                                    notifier?.onExceptionOccurred(RuntimeException(formatException(e, "parseLong")))
-                                }
+/**
+ * Single "du" for all [files]
+ */
+private fun getSizesWithDu(
+        files: Collection<File>,
+        useSU: Boolean,
+        execTimeout: Long,
+        notifier: IShellGetNotifier?
+): Map<File, Long> {
+    val result = mutableMapOf<File, Long>()
+    val filesByPath = files.associateBy { it.absolutePath }
+    // option "-b" is not supported on android version
+    ShellWrapper(false).executeCommand(listOf("du", "-s") + filesByPath.keys,
+            useSU,
+            DEFAULT_TARGET_CODE,
+            execTimeout,
+            TimeUnit.MILLISECONDS,
+            object : ShellCallback {
+
+                override val needToLogCommands: Boolean = true
+
+                override fun shellOut(from: ShellCallback.StreamType, shellLine: String) {
+                    if (from === ShellCallback.StreamType.OUT && !isEmpty(shellLine)) {
+                        // "<size in KB>\t<path>"
+                        val parts = shellLine.split(Regex("\\s+"), 2)
+                        if (parts.size > 1) {
+                            val file = filesByPath[parts[1].trim()] ?: return
+                            val size = parts[0].toLongNotNull(10) { e: NumberFormatException ->
+                                notifier?.onExceptionOccurred(RuntimeException(formatException(e, "parseLong")))
                             }
-                            collectedMap[current] = SizeUnit.KBYTES.toBytes(size.toDouble())
+                            result[file] = SizeUnit.KBYTES.toBytes(size.toDouble())
                         }
                     }
+                }
 
-                    override fun processStartFailed(t: Throwable?) {
-                        notifier?.onStartFailed(t, current)
-                    }
+                override fun processStartFailed(t: Throwable?) {
+                    files.forEach { notifier?.onStartFailed(t, it) }
+                }
 
-                    override fun processComplete(exitValue: Int) {
-                        notifier?.onExitCode(exitValue, current)
-                    }
-                })
-    }
-    return Collections.unmodifiableMap(collectedMap)
+                override fun processComplete(exitValue: Int) {
+                    files.forEach { notifier?.onExitCode(exitValue, it) }
+                }
+            })
+    return result
 }
 
 enum class GetMode {
@@ -6,9 +6,13 @@ import net.maxsmr.commonutils.logger.BaseLogger
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.logException
 import java.io.*
-import java.util.zip.ZipEntry
-import java.util.zip.ZipInputStream
-import java.util.zip.ZipOutputStream
+import java.nio.channels.FileChannel
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.zip.*
 import kotlin.Pair
 
 // Вспомогательные методы для чтения из {@link InputStream]
@@ -36,6 +40,10 @@ fun InputStream.copyStream(
 }
 
 /**
+ * Copies [this] to [out]: if both are file streams, data is transferred with
+ * [FileChannel.transferTo] without copying through user space,
+ * otherwise via buffer from [ByteArrayPool]
+ *
  * @return amount of bytes copied
  */
 @Throws(IOException::class)
@@ -49,40 +57,146 @@ fun InputStream.copyStreamOrThrow(
 ): Int {
     require(buffSize > 0) { "buffSize" }
 
-    var bytesWriteCount = 0
+    val bytesWriteCount: Long
 
     try {
-        val buff = ByteArray(buffSize)
-        val totalBytesCount = this.available()
+        bytesWriteCount = (if (this is FileInputStream && out is FileOutputStream) {
+            transferFileStreamOrThrow(this, out, notifier)
+        } else {
+            null
+        }) ?: copyBufferedOrThrow(out, notifier, buffSize)
+    } finally {
+        if (closeInput) {
+            this.close()
+        }
+        if (closeOutput) {
+            out.close()
+        }
+    }
+    return if (bytesWriteCount > Int.MAX_VALUE) Int.MAX_VALUE else bytesWriteCount.toInt()
+}
 
+@Throws(IOException::class)
+private fun InputStream.copyBufferedOrThrow(
+        out: OutputStream,
+        notifier: IStreamNotifier?,
+        buffSize: Int
+): Long {
+    val progress = if (notifier != null) StreamProgress(notifier, this, out, this.available().toLong()) else null
+    val buff = ByteArrayPool.acquire(buffSize)
+    try {
+        var bytesWriteCount = 0L
         var len: Int
-        var lastNotifyTime: Long = 0
-        while (this.read(buff).also { len = it } > 0) {
-            if (notifier != null) {
-                val interval = notifier.notifyInterval
-                if (interval >= 0 && (interval == 0L || lastNotifyTime == 0L || System.currentTimeMillis() - lastNotifyTime >= interval)) {
-                    if (!notifier.onProcessing(
-                                    this, out, bytesWriteCount.toLong(),
-                                    if (totalBytesCount > 0 && bytesWriteCount <= totalBytesCount) (totalBytesCount - bytesWriteCount).toLong() else 0.toLong()
-                            )
-                    ) {
-                        throw InterruptedIOException("Copying streams interrupted")
-                    }
-                    lastNotifyTime = System.currentTimeMillis()
-                }
-            }
+        while (this.read(buff, 0, buffSize).also { len = it } > 0) {
+            progress?.onProgress(bytesWriteCount)
             out.write(buff, 0, len)
             bytesWriteCount += len
         }
+        return bytesWriteCount
     } finally {
-        if (closeInput) {
-            this.close()
+        ByteArrayPool.release(buff)
+    }
+}
+
+/**
+ * @return null if streams are not backed by files (sockets, pipes), so nothing was transferred
+ */
+@Throws(IOException::class)
+private fun transferFileStreamOrThrow(
+        input: FileInputStream,
+        out: FileOutputStream,
+        notifier: IStreamNotifier?
+): Long? {
+    // socket streams are also FileInputStream / FileOutputStream, but without channel
+    val inChannel: FileChannel? = input.channel
+    val outChannel: FileChannel? = out.channel
+    if (inChannel == null || outChannel == null) {
+        return null
+    }
+    val startPosition = inChannel.position()
+    val size = inChannel.size()
+    if (size <= startPosition) {
+        // size is unknown for special files, as well as empty file can be read with buffer in no time
+        return null
+    }
+    val totalBytes = size - startPosition
+    val progress = if (notifier != null) StreamProgress(notifier, input, out, totalBytes) else null
+    // transfer is split into chunks to report progress and react on interruption
+    val chunkSize = if (notifier != null) {
+        Math.max(getNotifyBytesThreshold(notifier), MIN_TRANSFER_CHUNK_SIZE)
+    } else {
+        MAX_TRANSFER_CHUNK_SIZE
+    }
+    var transferred = 0L
+    while (transferred < totalBytes) {
+        progress?.onProgress(transferred)
+        val count = inChannel.transferTo(startPosition + transferred, Math.min(chunkSize, totalBytes - transferred), outChannel)
+        if (count <= 0) {
+            // file was truncated meanwhile
+            break
         }
-        if (closeOutput) {
-            out.close()
+        transferred += count
+    }
+    // transferTo doesn't move source position, as read() would do
+    inChannel.position(startPosition + transferred)
+    return transferred
+}
+
+private const val MIN_TRANSFER_CHUNK_SIZE = 256 * 1024L
+
+private const val MAX_TRANSFER_CHUNK_SIZE = 64 * 1024 * 1024L
+
+/**
+ * Decides when [IStreamNotifier] should be notified:
+ * by [IBytesThresholdNotifier.notifyBytesThreshold] first, then by [IStreamNotifier.notifyInterval],
+ * so clock is not queried on each chunk
+ */
+private class StreamProgress(
+        private val notifier: IStreamNotifier,
+        private val input: InputStream,
+        private val output: OutputStream,
+        private val totalBytes: Long
+) {
+
+    private val interval = notifier.notifyInterval
+
+    private val bytesThreshold = getNotifyBytesThreshold(notifier)
+
+    private var hasNotified = false
+
+    private var lastNotifyTime = 0L
+
+    private var lastNotifyBytes = 0L
+
+    @Throws(InterruptedIOException::class)
+    fun onProgress(bytesWrite: Long) {
+        if (interval < 0) {
+            return
+        }
+        if (hasNotified) {
+            if (bytesThreshold > 0 && bytesWrite - lastNotifyBytes < bytesThreshold) {
+                return
+            }
+            if (interval > 0) {
+                val now = System.currentTimeMillis()
+                if (now - lastNotifyTime < interval) {
+                    return
+                }
+                lastNotifyTime = now
+            }
+        } else if (interval > 0) {
+            lastNotifyTime = System.currentTimeMillis()
+        }
+        hasNotified = true
+        lastNotifyBytes = bytesWrite
+        if (!notifier.onProcessing(
+                        input, output, bytesWrite,
+                        if (totalBytes > 0 && bytesWrite <= totalBytes) totalBytes - bytesWrite else 0L
+                )
+        ) {
+            throw InterruptedIOException("Copying streams interrupted")
         }
     }
-    return bytesWriteCount
 }
 
 @JvmOverloads
@@ -287,6 +401,361 @@ fun compressStreamsToZipOrThrow(
     return count
 }
 
+/**
+ * Same as [compressStreamsToZipOrThrow], but entries are deflated concurrently into temporary buffers
+ * (in memory, or in temp files if larger than [maxInMemoryEntrySize]) and then written in order of [entries]
+ *
+ * Zip64 is not supported: up to 65535 entries and 4 GB of data
+ *
+ * @param entries entry name -- opener of its data, called and closed on worker thread,
+ * so no more than 2 * [parallelism] streams are opened simultaneously
+ * @param compressionLevel level for entry name (see [compressionLevelByExtension]),
+ * [Deflater.NO_COMPRESSION] - entry is stored as is
+ * @return amount of written entries
+ */
+@Throws(IOException::class)
+@JvmOverloads
+fun compressStreamsToZipParallelOrThrow(
+        entries: Map<String, () -> InputStream>,
+        outputStream: OutputStream,
+        compressionLevel: (String) -> Int = { Deflater.DEFAULT_COMPRESSION },
+        parallelism: Int = Runtime.getRuntime().availableProcessors(),
+        maxInMemoryEntrySize: Int = DEFAULT_MAX_IN_MEMORY_ZIP_ENTRY_SIZE,
+        closeOutput: Boolean = true
+): Int {
+    require(parallelism > 0) { "parallelism" }
+    require(maxInMemoryEntrySize >= 0) { "maxInMemoryEntrySize" }
+
+    val names = entries.keys.toList()
+    val executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(names.size, 1)))
+    // compressed but not yet written entries are limited to keep memory bounded
+    val window = parallelism * 2
+    val pending = ArrayDeque<Future<CompressedZipEntry>>(window)
+    var nextIndex = 0
+
+    fun submitNext() {
+        val name = names[nextIndex++]
+        val opener = entries.getValue(name)
+        pending.addLast(executor.submit(Callable {
+            compressZipEntryOrThrow(name, opener, compressionLevel(name), maxInMemoryEntrySize)
+        }))
+    }
+
+    var count = 0
+    try {
+        val writer = ZipWriter(BufferedOutputStream(outputStream))
+        while (nextIndex < names.size && pending.size < window) {
+            submitNext()
+        }
+        while (pending.isNotEmpty()) {
+            val entry = pending.removeFirst().getOrThrow()
+            try {
+                writer.write(entry)
+            } finally {
+                entry.data.release()
+            }
+            count++
+            if (nextIndex < names.size) {
+                submitNext()
+            }
+        }
+        writer.finish()
+    } finally {
+        executor.shutdownNow()
+        pending.forEach {
+            if (!it.cancel(true)) {
+                try {
+                    it.get().data.release()
+                } catch (ignored: Exception) {
+                }
+            }
+        }
+        if (closeOutput) {
+            outputStream.close()
+        }
+    }
+    return count
+}
+
+@JvmOverloads
+fun compressStreamsToZipParallel(
+        entries: Map<String, () -> InputStream>,
+        outputStream: OutputStream,
+        compressionLevel: (String) -> Int = { Deflater.DEFAULT_COMPRESSION },
+        parallelism: Int = Runtime.getRuntime().availableProcessors(),
+        maxInMemoryEntrySize: Int = DEFAULT_MAX_IN_MEMORY_ZIP_ENTRY_SIZE,
+        closeOutput: Boolean = true
+): Int = try {
+    compressStreamsToZipParallelOrThrow(entries, outputStream, compressionLevel, parallelism, maxInMemoryEntrySize, closeOutput)
+} catch (e: IOException) {
+    logException(logger, e, "compressStreamsToZipParallel")
+    0
+}
+
+/**
+ * @param levels extension in lower case without dot (for example, "jpg" -> [Deflater.NO_COMPRESSION]) -- level
+ */
+@JvmOverloads
+fun compressionLevelByExtension(
+        levels: Map<String, Int>,
+        defaultLevel: Int = Deflater.DEFAULT_COMPRESSION
+): (String) -> Int = { name ->
+    val dotIndex = name.lastIndexOf('.')
+    if (dotIndex >= 0 && dotIndex > name.lastIndexOf('/')) {
+        levels[name.substring(dotIndex + 1).toLowerCase(Locale.ROOT)] ?: defaultLevel
+    } else {
+        defaultLevel
+    }
+}
+
+const val DEFAULT_MAX_IN_MEMORY_ZIP_ENTRY_SIZE = 4 * 1024 * 1024
+
+@Throws(IOException::class)
+internal fun <T> Future<T>.getOrThrow(): T = try {
+    get()
+} catch (e: ExecutionException) {
+    when (val cause = e.cause) {
+        is IOException -> throw cause
+        is RuntimeException -> throw cause
+        else -> throw IOException(cause)
+    }
+} catch (e: InterruptedException) {
+    Thread.currentThread().interrupt()
+    throw InterruptedIOException(e.message)
+}
+
+@Throws(IOException::class)
+private fun compressZipEntryOrThrow(
+        name: String,
+        opener: () -> InputStream,
+        level: Int,
+        maxInMemorySize: Int
+): CompressedZipEntry {
+    val buffer = SpillableBuffer(maxInMemorySize)
+    val isStored = level == Deflater.NO_COMPRESSION
+    val deflater = if (!isStored) Deflater(level, true) else null
+    val crc = CRC32()
+    var size = 0L
+    try {
+        val out = if (deflater != null) DeflaterOutputStream(buffer, deflater, DEFAULT_BUFFER_SIZE) else buffer
+        val buff = ByteArrayPool.acquire(DEFAULT_BUFFER_SIZE)
+        try {
+            opener().use { input ->
+                var len: Int
+                while (input.read(buff, 0, DEFAULT_BUFFER_SIZE).also { len = it } > 0) {
+                    crc.update(buff, 0, len)
+                    out.write(buff, 0, len)
+                    size += len
+                }
+            }
+        } finally {
+            ByteArrayPool.release(buff)
+        }
+        if (out is DeflaterOutputStream) {
+            out.finish()
+        }
+        buffer.close()
+    } catch (e: IOException) {
+        buffer.release()
+        throw e
+    } catch (e: RuntimeException) {
+        buffer.release()
+        throw e
+    } finally {
+        deflater?.end()
+    }
+    return CompressedZipEntry(name, if (isStored) ZipEntry.STORED else ZipEntry.DEFLATED, crc.value, size, buffer)
+}
+
+private class CompressedZipEntry(
+        val name: String,
+        val method: Int,
+        val crc: Long,
+        val size: Long,
+        val data: SpillableBuffer
+)
+
+/**
+ * Keeps written data in memory until it exceeds [maxInMemorySize], then moves it to temp file
+ */
+private class SpillableBuffer(private val maxInMemorySize: Int) : OutputStream() {
+
+    private var memory: ByteArrayOutputStream? = ByteArrayOutputStream()
+
+    private var file: File? = null
+
+    private var fileOut: OutputStream? = null
+
+    var size = 0L
+        private set
+
+    override fun write(b: Int) {
+        write(byteArrayOf(b.toByte()), 0, 1)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        val memory = memory
+        if (memory != null) {
+            if (memory.size() + len <= maxInMemorySize) {
+                memory.write(b, off, len)
+                size += len
+                return
+            }
+            val file = File.createTempFile("zip_entry", null)
+            this.file = file
+            fileOut = BufferedOutputStream(FileOutputStream(file)).also {
+                memory.writeTo(it)
+            }
+            this.memory = null
+        }
+        val out = fileOut ?: throw IOException("Buffer is closed")
+        out.write(b, off, len)
+        size += len
+    }
+
+    override fun close() {
+        fileOut?.close()
+        fileOut = null
+    }
+
+    @Throws(IOException::class)
+    fun writeTo(out: OutputStream) {
+        val memory = memory
+        if (memory != null) {
+            memory.writeTo(out)
+        } else {
+            file?.let {
+                FileInputStream(it).copyStreamOrThrow(out, closeOutput = false)
+            }
+        }
+    }
+
+    fun release() {
+        try {
+            close()
+        } catch (ignored: IOException) {
+        }
+        memory = null
+        file?.delete()
+        file = null
+    }
+}
+
+/**
+ * Writes already compressed entries: crc and sizes are known before data,
+ * so local headers don't need data descriptors
+ */
+private class ZipWriter(private val out: OutputStream) {
+
+    private val centralDirectory = ByteArrayOutputStream()
+
+    private val dosTime: Int
+
+    private val dosDate: Int
+
+    private var offset = 0L
+
+    private var count = 0
+
+    init {
+        val calendar = Calendar.getInstance()
+        dosTime = (calendar[Calendar.HOUR_OF_DAY] shl 11) or (calendar[Calendar.MINUTE] shl 5) or (calendar[Calendar.SECOND] shr 1)
+        dosDate = ((calendar[Calendar.YEAR] - 1980) shl 9) or ((calendar[Calendar.MONTH] + 1) shl 5) or calendar[Calendar.DAY_OF_MONTH]
+    }
+
+    @Throws(IOException::class)
+    fun write(entry: CompressedZipEntry) {
+        val compressedSize = entry.data.size
+        if (count >= ZIP_MAX_ENTRIES) {
+            throw ZipException("Too many entries, zip64 is not supported")
+        }
+        if (entry.size >= ZIP_MAX_SIZE || compressedSize >= ZIP_MAX_SIZE || offset >= ZIP_MAX_SIZE) {
+            throw ZipException("Entry '${entry.name}' exceeds 4 GB limit, zip64 is not supported")
+        }
+        val nameBytes = entry.name.toByteArray(Charsets.UTF_8)
+
+        out.writeIntLE(LOCAL_HEADER_SIGNATURE)
+        out.writeShortLE(ZIP_VERSION)
+        out.writeShortLE(UTF8_FLAG)
+        out.writeShortLE(entry.method)
+        out.writeShortLE(dosTime)
+        out.writeShortLE(dosDate)
+        out.writeIntLE(entry.crc)
+        out.writeIntLE(compressedSize)
+        out.writeIntLE(entry.size)
+        out.writeShortLE(nameBytes.size)
+        out.writeShortLE(0)
+        out.write(nameBytes)
+        entry.data.writeTo(out)
+
+        with(centralDirectory) {
+            writeIntLE(CENTRAL_HEADER_SIGNATURE)
+            writeShortLE(ZIP_VERSION)
+            writeShortLE(ZIP_VERSION)
+            writeShortLE(UTF8_FLAG)
+            writeShortLE(entry.method)
+            writeShortLE(dosTime)
+            writeShortLE(dosDate)
+            writeIntLE(entry.crc)
+            writeIntLE(compressedSize)
+            writeIntLE(entry.size)
+            writeShortLE(nameBytes.size)
+            // extra, comment, disk, internal and external attributes
+            writeShortLE(0)
+            writeShortLE(0)
+            writeShortLE(0)
+            writeShortLE(0)
+            writeIntLE(0)
+            writeIntLE(offset)
+            write(nameBytes)
+        }
+
+        offset += LOCAL_HEADER_SIZE + nameBytes.size + compressedSize
+        count++
+    }
+
+    @Throws(IOException::class)
+    fun finish() {
+        if (offset >= ZIP_MAX_SIZE) {
+            throw ZipException("Archive exceeds 4 GB limit, zip64 is not supported")
+        }
+        centralDirectory.writeTo(out)
+        out.writeIntLE(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+        out.writeShortLE(0)
+        out.writeShortLE(0)
+        out.writeShortLE(count)
+        out.writeShortLE(count)
+        out.writeIntLE(centralDirectory.size().toLong())
+        out.writeIntLE(offset)
+        out.writeShortLE(0)
+        out.flush()
+    }
+
+    companion object {
+
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50L
+        private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50L
+        private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50L
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val ZIP_VERSION = 20
+        private const val UTF8_FLAG = 0x0800
+        private const val ZIP_MAX_ENTRIES = 0xFFFF
+        private const val ZIP_MAX_SIZE = 0xFFFFFFFFL
+
+        private fun OutputStream.writeShortLE(value: Int) {
+            write(value and 0xFF)
+            write((value ushr 8) and 0xFF)
+        }
+
+        private fun OutputStream.writeIntLE(value: Long) {
+            write((value and 0xFF).toInt())
+            write(((value ushr 8) and 0xFF).toInt())
+            write(((value ushr 16) and 0xFF).toInt())
+            write(((value ushr 24) and 0xFF).toInt())
+        }
+    }
+}
+
 @JvmOverloads
 fun InputStream.unzipStream(
         saveDirHierarchy: Boolean = true,
@@ -322,21 +791,21 @@ fun InputStream.unzipStreamOrThrow(
         createOutputStream: (String) -> OutputStream
 ) {
     val zis = ZipInputStream(this)
-    val zipEntry = zis.nextEntry
+    var zipEntry = zis.nextEntry
     try {
         while (zipEntry != null) {
             val isDirectory = zipEntry.isDirectory
-            if (isDirectory && !saveDirHierarchy) {
-                continue
-            }
-            val parts = zipEntry.name.split(File.separator).toTypedArray()
-            val entryName = if (!saveDirHierarchy && parts.isNotEmpty()) parts[parts.size - 1] else zipEntry.name
-            if (isDirectory) {
-                createDirFunc(entryName)
-            } else {
-                zis.copyStreamOrThrow(createOutputStream(entryName), notifier, buffSize, false, closeOutput)
+            if (!isDirectory || saveDirHierarchy) {
+                val parts = zipEntry.name.split(File.separator).toTypedArray()
+                val entryName = if (!saveDirHierarchy && parts.isNotEmpty()) parts[parts.size - 1] else zipEntry.name
+                if (isDirectory) {
+                    createDirFunc(entryName)
+                } else {
+                    zis.copyStreamOrThrow(createOutputStream(entryName), notifier, buffSize, false, closeOutput)
+                }
             }
             zis.closeEntry()
+            zipEntry = zis.nextEntry
         }
     } finally {
         if (closeInput) {
@@ -347,6 +816,9 @@ fun InputStream.unzipStreamOrThrow(
 
 interface IStreamNotifier {
 
+    /**
+     * min time between notifications in ms, 0 - on each chunk, negative - never
+     */
     val notifyInterval: Long
         get() = 0
 
@@ -359,4 +831,22 @@ interface IStreamNotifier {
             bytesWrite: Long,
             bytesLeft: Long
     ): Boolean = true
-}
\ No newline at end of file
+}
+
+/**
+ * Optional for [IStreamNotifier] and [ISingleCopyNotifier]:
+ * separate interface, so existing Java implementations of them are not affected
+ */
+interface IBytesThresholdNotifier {
+
+    /**
+     * min amount of bytes processed between notifications, 0 - not limited by amount
+     */
+    val notifyBytesThreshold: Long
+}
+
+/**
+ * @return [IBytesThresholdNotifier.notifyBytesThreshold] if [notifier] implements it, 0 otherwise
+ */
+fun getNotifyBytesThreshold(notifier: Any?): Long =
+        (notifier as? IBytesThresholdNotifier)?.notifyBytesThreshold ?: 0L
@@ -45,8 +45,8 @@ fun <K, V> Collection<K>?.toMapIndexed(valueForKey: (Int, K) -> V): Map<K, V> {
 }
 
 fun <T> Collection<T>?.limit(limit: Int): Collection<T> {
-    if (limit <= 0 || this == null || this.isEmpty() || limit > this.size) return this ?: emptyList()
-    return this.toList().subList(0, limit - 1)
+    if (limit <= 0 || this == null || this.isEmpty() || limit >= this.size) return this ?: emptyList()
+    return if (this is List) this.subList(0, limit) else this.take(limit)
 }
 
 fun Collection<Number?>?.avg(): Double {
@@ -97,4 +97,123 @@ private fun Collection<Number?>?.find(isMin: Boolean): Pair<Int, Number>? {
         }
     }
     return result
-}
\ No newline at end of file
+}
+
+/**
+ * @return count, sum, min, max, mean and variance of non-null numbers in single pass
+ */
+fun Iterable<Number?>?.stats(): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    this?.forEach {
+        if (it != null) {
+            accumulator.add(it.toDouble())
+        }
+    }
+    return accumulator.toStats()
+}
+
+fun IntArray.stats(): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    for (value in this) {
+        accumulator.add(value)
+    }
+    return accumulator.toStats()
+}
+
+fun LongArray.stats(): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    for (value in this) {
+        accumulator.add(value)
+    }
+    return accumulator.toStats()
+}
+
+fun DoubleArray.stats(): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    for (value in this) {
+        accumulator.add(value)
+    }
+    return accumulator.toStats()
+}
+
+/**
+ * @param selector takes primitive value from element, so nothing is boxed
+ */
+inline fun <T> Iterable<T>.statsOf(selector: (T) -> Double): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    for (element in this) {
+        accumulator.add(selector(element))
+    }
+    return accumulator.toStats()
+}
+
+inline fun <T> Sequence<T>.statsOf(selector: (T) -> Double): NumberStats {
+    val accumulator = NumberStatsAccumulator()
+    for (element in this) {
+        accumulator.add(selector(element))
+    }
+    return accumulator.toStats()
+}
+
+/**
+ * Summed as long, so big values don't overflow
+ */
+fun IntArray.avg(): Double = if (isEmpty()) 0.0 else sumOf { it.toLong() }.toDouble() / size
+
+/**
+ * Summed as double, so big values don't overflow
+ */
+fun LongArray.avg(): Double = if (isEmpty()) 0.0 else sumOf { it.toDouble() } / size
+
+fun DoubleArray.avg(): Double = if (isEmpty()) 0.0 else sum() / size
+
+/**
+ * @return index and value of min element or null if array is empty
+ */
+fun IntArray.minIndexed(): Pair<Int, Int>? = if (isEmpty()) null else indexOfExtremum(size, true) { this[it].toLong() }.let { Pair(it, this[it]) }
+
+fun IntArray.maxIndexed(): Pair<Int, Int>? = if (isEmpty()) null else indexOfExtremum(size, false) { this[it].toLong() }.let { Pair(it, this[it]) }
+
+fun LongArray.minIndexed(): Pair<Int, Long>? = if (isEmpty()) null else indexOfExtremum(size, true) { this[it] }.let { Pair(it, this[it]) }
+
+fun LongArray.maxIndexed(): Pair<Int, Long>? = if (isEmpty()) null else indexOfExtremum(size, false) { this[it] }.let { Pair(it, this[it]) }
+
+/**
+ * @return index and value of min element or null if array is empty;
+ * first NaN, if there is any (same as [DoubleArray.minOrNull])
+ */
+fun DoubleArray.minIndexed(): Pair<Int, Double>? = if (isEmpty()) null else indexOfExtremum(this, true).let { Pair(it, this[it]) }
+
+fun DoubleArray.maxIndexed(): Pair<Int, Double>? = if (isEmpty()) null else indexOfExtremum(this, false).let { Pair(it, this[it]) }
+
+private inline fun indexOfExtremum(size: Int, isMin: Boolean, value: (Int) -> Long): Int {
+    var result = 0
+    var extremum = value(0)
+    for (i in 1 until size) {
+        val current = value(i)
+        if (if (isMin) current < extremum else current > extremum) {
+            extremum = current
+            result = i
+        }
+    }
+    return result
+}
+
+private fun indexOfExtremum(array: DoubleArray, isMin: Boolean): Int {
+    var result = 0
+    var extremum = array[0]
+    if (extremum.isNaN()) {
+        return result
+    }
+    for (i in 1 until array.size) {
+        val current = array[i]
+        if (current.isNaN()) {
+            return i
+        }
+        if (if (isMin) current < extremum else current > extremum) {
+            extremum = current
+            result = i
+        }
+    }
+    return result
+}
@@ -0,0 +1,117 @@
+package net.maxsmr.commonutils.collection
+
+/**
+ * Statistics of numbers collected in single pass
+ */
+class NumberStats(
+        val count: Long,
+        val sum: Double,
+        /**
+         * NaN if [count] is 0
+         */
+        val min: Double,
+        val max: Double,
+        val mean: Double,
+        /**
+         * population variance, NaN if [count] is 0
+         */
+        val variance: Double
+) {
+
+    val standardDeviation: Double get() = Math.sqrt(variance)
+
+    val isEmpty: Boolean get() = count == 0L
+
+    override fun toString(): String {
+        return "NumberStats(count=$count, sum=$sum, min=$min, max=$max, mean=$mean, variance=$variance)"
+    }
+}
+
+/**
+ * Accumulates [NumberStats] without storing values (Welford's algorithm);
+ * not thread-safe
+ */
+class NumberStatsAccumulator {
+
+    var count: Long = 0
+        private set
+
+    private var sum = 0.0
+
+    private var min = Double.NaN
+
+    private var max = Double.NaN
+
+    private var mean = 0.0
+
+    /**
+     * sum of squared deviations from [mean]
+     */
+    private var m2 = 0.0
+
+    fun add(value: Int) = add(value.toDouble())
+
+    fun add(value: Long) = add(value.toDouble())
+
+    fun add(value: Double): NumberStatsAccumulator {
+        count++
+        sum += value
+        if (count == 1L) {
+            min = value
+            max = value
+        } else {
+            if (value < min) {
+                min = value
+            }
+            if (value > max) {
+                max = value
+            }
+        }
+        val delta = value - mean
+        mean += delta / count
+        m2 += delta * (value - mean)
+        return this
+    }
+
+    /**
+     * Combines with other accumulator, e.g. filled on other thread
+     */
+    fun merge(other: NumberStatsAccumulator): NumberStatsAccumulator {
+        if (other.count == 0L) {
+            return this
+        }
+        if (count == 0L) {
+            count = other.count
+            sum = other.sum
+            min = other.min
+            max = other.max
+            mean = other.mean
+            m2 = other.m2
+            return this
+        }
+        val total = count + other.count
+        val delta = other.mean - mean
+        mean += delta * other.count / total
+        m2 += other.m2 + delta * delta * count * other.count / total
+        count = total
+        sum += other.sum
+        min = Math.min(min, other.min)
+        max = Math.max(max, other.max)
+        return this
+    }
+
+    fun reset() {
+        count = 0
+        sum = 0.0
+        min = Double.NaN
+        max = Double.NaN
+        mean = 0.0
+        m2 = 0.0
+    }
+
+    fun toStats(): NumberStats = if (count == 0L) {
+        NumberStats(0, 0.0, Double.NaN, Double.NaN, Double.NaN, Double.NaN)
+    } else {
+        NumberStats(count, sum, min, max, mean, m2 / count)
+    }
+}
@@ -0,0 +1,421 @@
+package net.maxsmr.commonutils.format
+
+import java.text.DecimalFormatSymbols
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+const val MAX_COMPILED_DATE_FORMATS = 64
+
+private val compiledDateFormats = ConcurrentHashMap<CompiledDateFormat.Key, CachedDateFormat>()
+
+private val evictionLock = Any()
+
+private val formatBuilder = object : ThreadLocal<StringBuilder>() {
+    override fun initialValue() = StringBuilder(32)
+}
+
+/**
+ * @return thread-safe cached format for given pattern, locale and time zone
+ */
+@JvmOverloads
+fun compiledDateFormat(
+    pattern: String,
+    locale: Locale = Locale.getDefault(),
+    timeZone: TimeZone? = null
+): CompiledDateFormat {
+    val zone = timeZone ?: TimeZone.getDefault()
+    val key = CompiledDateFormat.Key(pattern, locale, zone.id)
+    compiledDateFormats[key]?.let {
+        if (!it.isReferenced) {
+            it.isReferenced = true
+        }
+        return it.format
+    }
+    if (compiledDateFormats.size >= MAX_COMPILED_DATE_FORMATS) {
+        // patterns are usually constants, so overflow means something is built dynamically
+        evictUnreferenced()
+    }
+    val cached = CachedDateFormat(CompiledDateFormat(pattern, locale, zone.clone() as TimeZone))
+    return (compiledDateFormats.putIfAbsent(key, cached) ?: cached).format
+}
+
+/**
+ * Second chance eviction: formats used since previous sweep are skipped once,
+ * so hot pattern is not evicted and recompiled because of dynamically built ones
+ */
+private fun evictUnreferenced() {
+    synchronized(evictionLock) {
+        if (compiledDateFormats.size < MAX_COMPILED_DATE_FORMATS) {
+            return
+        }
+        // if all were referenced, they are unmarked on first pass
+        repeat(2) {
+            for ((key, cached) in compiledDateFormats) {
+                if (cached.isReferenced) {
+                    cached.isReferenced = false
+                } else if (compiledDateFormats.remove(key, cached)) {
+                    return
+                }
+            }
+        }
+    }
+}
+
+private class CachedDateFormat(val format: CompiledDateFormat) {
+
+    /**
+     * set on each hit, cleared by eviction sweep
+     */
+    @Volatile
+    var isReferenced = false
+}
+
+/**
+ * Immutable thread-safe replacement for [SimpleDateFormat] with same output:
+ * numeric patterns (for example, "yyyy-MM-dd HH:mm:ss.SSS", "yyyyMMdd.HHmmss")
+ * are formatted and parsed directly from epoch millis, without [Calendar];
+ * other ones (text months, week days, zones) use per-thread [SimpleDateFormat]
+ */
+class CompiledDateFormat internal constructor(
+    val pattern: String,
+    val locale: Locale,
+    private val timeZone: TimeZone
+) {
+
+    /**
+     * null if pattern contains something unsupported by fast path
+     */
+    private val tokens: Array<Token>? = compile(pattern, locale)
+
+    private val isFastParseSupported = tokens != null && tokens.none { it.field == 'y' && it.count == 2 }
+
+    private val fallbackFormat = object : ThreadLocal<SimpleDateFormat>() {
+        override fun initialValue() = SimpleDateFormat(pattern, locale).apply {
+            this.timeZone = this@CompiledDateFormat.timeZone
+        }
+    }
+
+    fun getTimeZone(): TimeZone = timeZone.clone() as TimeZone
+
+    fun format(date: Date): String = format(date.time)
+
+    fun format(timestamp: Long): String {
+        val builder = formatBuilder.get()
+        builder.setLength(0)
+        return formatTo(builder, timestamp).toString()
+    }
+
+    fun formatTo(builder: StringBuilder, timestamp: Long): StringBuilder {
+        val fields = if (tokens != null) DateFields.fromTimestamp(timestamp, timeZone) else null
+        if (tokens == null || fields == null) {
+            return builder.append(fallbackFormat.get().format(Date(timestamp)))
+        }
+        for (token in tokens) {
+            if (token.literal != null) {
+                builder.append(token.literal)
+            } else if (token.field == 'y' && token.count == 2) {
+                appendPadded(builder, fields.year % 100, 2)
+            } else {
+                appendPadded(builder, fields[token.field], token.count)
+            }
+        }
+        return builder
+    }
+
+    fun parse(text: String): Date? = parseTimestamp(text)?.let { Date(it) }
+
+    /**
+     * @return epoch millis or null if text doesn't match the pattern
+     */
+    fun parseTimestamp(text: String): Long? {
+        parseFieldsFast(text)?.let {
+            return it.toTimestamp(timeZone)
+        }
+        return parseFallback(text)?.time
+    }
+
+    /**
+     * Extracts fields without building [Calendar] for fast path patterns
+     * @return same values as [Calendar] would have after parsing in this format's time zone;
+     * month is 0-based like [Calendar.MONTH]
+     */
+    fun parseFields(text: String): DateFields? {
+        parseFieldsFast(text)?.let {
+            return it
+        }
+        val date = parseFallback(text) ?: return null
+        val calendar = Calendar.getInstance(timeZone, locale)
+        calendar.time = date
+        return DateFields(
+            calendar[Calendar.YEAR],
+            calendar[Calendar.MONTH],
+            calendar[Calendar.DAY_OF_MONTH],
+            calendar[Calendar.HOUR_OF_DAY],
+            calendar[Calendar.MINUTE],
+            calendar[Calendar.SECOND],
+            calendar[Calendar.MILLISECOND]
+        )
+    }
+
+    private fun parseFallback(text: String): Date? = try {
+        fallbackFormat.get().parse(text)
+    } catch (e: ParseException) {
+        null
+    }
+
+    /**
+     * @return null if text cannot be parsed strictly -- [SimpleDateFormat] will decide then
+     */
+    private fun parseFieldsFast(text: String): DateFields? {
+        if (!isFastParseSupported || tokens == null) {
+            return null
+        }
+        val values = IntArray(FIELDS.length)
+        var presentFields = 0
+        var position = 0
+        for ((index, token) in tokens.withIndex()) {
+            val literal = token.literal
+            if (literal != null) {
+                if (!text.startsWith(literal, position)) {
+                    return null
+                }
+                position += literal.length
+                continue
+            }
+            // abutting numeric fields have fixed width, otherwise digits are read greedy
+            val isAbutting = index + 1 < tokens.size && tokens[index + 1].literal == null
+            val maxLength = if (isAbutting) token.count else MAX_DIGITS
+            var value = 0
+            var length = 0
+            while (position < text.length && length < maxLength) {
+                val c = text[position]
+                if (c < '0' || c > '9') {
+                    break
+                }
+                value = value * 10 + (c - '0')
+                position++
+                length++
+            }
+            if (length == 0 || isAbutting && length != token.count) {
+                return null
+            }
+            val fieldIndex = FIELDS.indexOf(token.field)
+            values[fieldIndex] = value
+            presentFields = presentFields or (1 shl fieldIndex)
+        }
+        // missing fields are taken from epoch, as SimpleDateFormat does
+        fun valueOf(field: Char, defaultValue: Int): Int {
+            val fieldIndex = FIELDS.indexOf(field)
+            return if ((presentFields and (1 shl fieldIndex)) != 0) values[fieldIndex] else defaultValue
+        }
+        val fields = DateFields(
+            valueOf('y', EPOCH_YEAR),
+            valueOf('M', 1) - 1,
+            valueOf('d', 1),
+            valueOf('H', 0),
+            valueOf('m', 0),
+            valueOf('s', 0),
+            valueOf('S', 0)
+        )
+        // lenient rolling of out of range values is left to SimpleDateFormat
+        return if (fields.isValid()) fields else null
+    }
+
+    override fun toString(): String {
+        return "CompiledDateFormat(pattern='$pattern', locale=$locale, timeZone=${timeZone.id}, isFast=${tokens != null})"
+    }
+
+    internal data class Key(
+        val pattern: String,
+        val locale: Locale,
+        val timeZoneId: String
+    )
+
+    private class Token(
+        val field: Char,
+        val count: Int,
+        val literal: String?
+    )
+
+    /**
+     * Broken down date in some time zone, month is 0-based
+     */
+    data class DateFields(
+        val year: Int,
+        val month: Int,
+        val dayOfMonth: Int,
+        val hourOfDay: Int,
+        val minute: Int,
+        val second: Int,
+        val millisecond: Int
+    ) {
+
+        internal operator fun get(field: Char): Int = when (field) {
+            'y' -> year
+            'M' -> month + 1
+            'd' -> dayOfMonth
+            'H' -> hourOfDay
+            'm' -> minute
+            's' -> second
+            'S' -> millisecond
+            else -> throw IllegalArgumentException("Unsupported field: $field")
+        }
+
+        internal fun isValid() = year in MIN_YEAR..MAX_YEAR
+                && month in 0..11
+                && dayOfMonth in 1..daysInMonth(year, month + 1)
+                && hourOfDay in 0..23
+                && minute in 0..59
+                && second in 0..59
+                && millisecond in 0..999
+
+        internal fun toTimestamp(timeZone: TimeZone): Long {
+            val local = daysFromCivil(year, month + 1, dayOfMonth) * MILLIS_PER_DAY +
+                    ((hourOfDay * 60L + minute) * 60L + second) * 1000L + millisecond
+            // offset depends on utc time which is being calculated
+            var timestamp = local - timeZone.getOffset(local - timeZone.rawOffset)
+            val offset = timeZone.getOffset(timestamp)
+            if (local - offset != timestamp) {
+                timestamp = local - offset
+            }
+            return timestamp
+        }
+
+        companion object {
+
+            /**
+             * @return null if date is out of range where Gregorian calendar is used by [SimpleDateFormat]
+             */
+            internal fun fromTimestamp(timestamp: Long, timeZone: TimeZone): DateFields? {
+                val local = timestamp + timeZone.getOffset(timestamp)
+                val days = local.floorDiv(MILLIS_PER_DAY)
+                var millisOfDay = local.mod(MILLIS_PER_DAY).toInt()
+
+                // civil from days, http://howardhinnant.github.io/date_algorithms.html
+                val z = days + 719468
+                val era = z.floorDiv(146097L)
+                val doe = (z - era * 146097).toInt()
+                val yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365
+                val doy = doe - (365 * yoe + yoe / 4 - yoe / 100)
+                val mp = (5 * doy + 2) / 153
+                val day = doy - (153 * mp + 2) / 5 + 1
+                val month = if (mp < 10) mp + 3 else mp - 9
+                val year = yoe + era * 400 + if (month <= 2) 1 else 0
+                if (year < MIN_YEAR || year > MAX_YEAR) {
+                    return null
+                }
+
+                val millisecond = millisOfDay % 1000
+                millisOfDay /= 1000
+                val second = millisOfDay % 60
+                millisOfDay /= 60
+                return DateFields(year.toInt(), month - 1, day, millisOfDay / 60, millisOfDay % 60, second, millisecond)
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * supported by fast path
+         */
+        private const val FIELDS = "yMdHmsS"
+
+        private const val MAX_DIGITS = 9
+
+        private const val EPOCH_YEAR = 1970
+
+        /**
+         * [GregorianCalendar] switches to Julian calendar before 1582
+         */
+        private const val MIN_YEAR = 1600
+
+        private const val MAX_YEAR = 9999
+
+        private const val MILLIS_PER_DAY = 24 * 60 * 60 * 1000L
+
+        private fun compile(pattern: String, locale: Locale): Array<Token>? {
+            if (DecimalFormatSymbols.getInstance(locale).zeroDigit != '0') {
+                // locale with own digits
+                return null
+            }
+            val tokens = mutableListOf<Token>()
+            val literal = StringBuilder()
+            fun flushLiteral() {
+                if (literal.isNotEmpty()) {
+                    tokens.add(Token('\u0000', 0, literal.toString()))
+                    literal.setLength(0)
+                }
+            }
+            var i = 0
+            while (i < pattern.length) {
+                val c = pattern[i]
+                when {
+                    c == '\'' -> {
+                        // quoted text, '' is single quote
+                        if (i + 1 < pattern.length && pattern[i + 1] == '\'') {
+                            literal.append('\'')
+                            i += 2
+                            continue
+                        }
+                        val end = pattern.indexOf('\'', i + 1)
+                        if (end < 0 || end + 1 < pattern.length && pattern[end + 1] == '\'') {
+                            // escaped quote inside quoted text is left to SimpleDateFormat
+                            return null
+                        }
+                        literal.append(pattern, i + 1, end)
+                        i = end + 1
+                    }
+                    c in 'a'..'z' || c in 'A'..'Z' -> {
+                        var count = 1
+                        while (i + count < pattern.length && pattern[i + count] == c) {
+                            count++
+                        }
+                        if (FIELDS.indexOf(c) < 0 || c == 'M' && count > 2 || count > MAX_DIGITS) {
+                            return null
+                        }
+                        flushLiteral()
+                        tokens.add(Token(c, count, null))
+                        i += count
+                    }
+                    else -> {
+                        literal.append(c)
+                        i++
+                    }
+                }
+            }
+            flushLiteral()
+            return tokens.toTypedArray()
+        }
+
+        private fun appendPadded(builder: StringBuilder, value: Int, width: Int) {
+            var digits = 1
+            var v = value
+            while (v >= 10) {
+                v /= 10
+                digits++
+            }
+            for (i in digits until width) {
+                builder.append('0')
+            }
+            builder.append(value)
+        }
+
+        private fun daysInMonth(year: Int, month: Int): Int = when (month) {
+            2 -> if (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) 29 else 28
+            4, 6, 9, 11 -> 30
+            else -> 31
+        }
+
+        private fun daysFromCivil(year: Int, month: Int, day: Int): Long {
+            val y = (if (month <= 2) year - 1 else year).toLong()
+            val era = y.floorDiv(400L)
+            val yoe = (y - era * 400).toInt()
+            val doy = (153 * (if (month > 2) month - 3 else month + 9) + 2) / 5 + day - 1
+            val doe = yoe * 365 + yoe / 4 - yoe / 100 + doy
+            return era * 146097 + doe - 719468
+        }
+    }
+}
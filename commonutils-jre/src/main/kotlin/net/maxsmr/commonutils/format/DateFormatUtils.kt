@@ -14,6 +14,9 @@ fun parseDate(
     dateFormatConfigurator: ((SimpleDateFormat) -> Unit)? = null
 ): Date? {
     if (pattern.isEmpty()) return null
+    if (dateFormatConfigurator == null) {
+        return compiledDateFormat(pattern, locale, timeZone).parse(dateText)
+    }
     return parseDate(dateText, createSdf(pattern, locale, timeZone), dateFormatConfigurator)
 }
 
@@ -42,9 +45,30 @@ fun formatDate(
     dateFormatConfigurator: ((SimpleDateFormat) -> Unit)? = null
 ): String {
     if (pattern.isEmpty()) return EMPTY_STRING
+    if (dateFormatConfigurator == null) {
+        return formatDate(date.time, pattern, locale, timeZone)
+    }
     return formatDate(date, createSdf(pattern, locale, timeZone), dateFormatConfigurator)
 }
 
+/**
+ * Uses cached [CompiledDateFormat], without creating [SimpleDateFormat] and [Date]
+ */
+@JvmOverloads
+fun formatDate(
+    timestamp: Long,
+    pattern: String,
+    locale: Locale = Locale.getDefault(),
+    timeZone: TimeZone? = null
+): String {
+    if (pattern.isEmpty()) return EMPTY_STRING
+    return try {
+        compiledDateFormat(pattern, locale, timeZone).format(timestamp)
+    } catch (e: Exception) {
+        EMPTY_STRING
+    }
+}
+
 @JvmOverloads
 fun formatDate(
     date: Date,
@@ -77,30 +101,16 @@ fun getMinutes(time: String, pattern: String): Int =
     getCalendarField(time, pattern, CalendarUnit.MINUTE)
 
 private fun getCalendarField(time: String, pattern: String, unit: CalendarUnit): Int {
-    val simpleDateFormat = SimpleDateFormat(pattern, Locale.getDefault())
-
-    val date: Date = try {
-        simpleDateFormat.parse(time)
-    } catch (e: ParseException) {
-        return 0
-    } ?: return 0
-
-    val calendar: Calendar = getCalendar(date)
+    val fields = compiledDateFormat(pattern).parseFields(time) ?: return 0
     return when (unit) {
-        CalendarUnit.YEAR -> calendar[Calendar.YEAR]
-        CalendarUnit.MONTH -> calendar[Calendar.MONTH]
-        CalendarUnit.DAY_OF_MONTH -> calendar[Calendar.DAY_OF_MONTH]
-        CalendarUnit.HOUR_OF_DAY -> calendar[Calendar.HOUR_OF_DAY]
-        CalendarUnit.MINUTE -> calendar[Calendar.MINUTE]
+        CalendarUnit.YEAR -> fields.year
+        CalendarUnit.MONTH -> fields.month
+        CalendarUnit.DAY_OF_MONTH -> fields.dayOfMonth
+        CalendarUnit.HOUR_OF_DAY -> fields.hourOfDay
+        CalendarUnit.MINUTE -> fields.minute
     }
 }
 
-private fun getCalendar(date: Date): Calendar {
-    val c: Calendar = Calendar.getInstance(Locale.getDefault())
-    c.time = date
-    return c
-}
-
 internal enum class CalendarUnit {
     YEAR,
     MONTH,
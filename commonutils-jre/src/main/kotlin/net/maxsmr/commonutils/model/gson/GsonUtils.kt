@@ -8,13 +8,17 @@ import com.google.gson.internal.LazilyParsedNumber
 import com.google.gson.internal.Streams
 import com.google.gson.reflect.TypeToken
 import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.MalformedJsonException
 import net.maxsmr.commonutils.logger.BaseLogger
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.logException
 import net.maxsmr.commonutils.text.EMPTY_STRING
 import org.json.JSONArray
 import org.json.JSONObject
+import java.io.*
 import java.lang.reflect.Type
+import java.nio.charset.Charset
 import java.util.*
 
 // Вспомогательные утилиты для работы с json
@@ -52,6 +56,105 @@ fun <T> Gson.fromJsonOrNull(jsonString: String?, type: Type): T? {
     }
 }
 
+/**
+ * Аналог [fromJsonOrNull] для [reader]: данные разбираются по мере чтения,
+ * без промежуточной строки; [reader] не закрывается
+ */
+fun <T> Gson.fromJsonOrNull(reader: Reader?, type: Type): T? {
+    if (reader == null) return null
+    return try {
+        fromJson(newJsonReader(reader), type)
+    } catch (e: JsonParseException) {
+        logException(logger, e, "fromJsonOrNull")
+        null
+    }
+}
+
+fun <T> Gson.fromJsonOrNull(reader: Reader?, classOfT: Class<T>): T? =
+    fromJsonOrNull<T>(reader, classOfT as Type)
+
+/**
+ * Аналог [fromJsonOrNull] для [inputStream] в кодировке [charset]; [inputStream] не закрывается
+ */
+@JvmOverloads
+fun <T> Gson.fromJsonOrNull(
+    inputStream: InputStream?,
+    type: Type,
+    charset: Charset = Charsets.UTF_8
+): T? {
+    if (inputStream == null) return null
+    return fromJsonOrNull(BufferedReader(InputStreamReader(inputStream, charset)), type)
+}
+
+/**
+ * Последовательно разбирает элементы json-массива из [reader] типа [type],
+ * передавая каждый в [action]: в памяти находится только текущий элемент
+ *
+ * @return количество разобранных элементов
+ */
+@Throws(JsonParseException::class)
+fun <T> Gson.readJsonArrayOrThrow(reader: Reader, type: Type, action: (T?) -> Unit): Int {
+    val jsonReader = newJsonReader(reader)
+    val adapter = getAdapter(TypeToken.get(type)) as TypeAdapter<T>
+    var count = 0
+    try {
+        if (jsonReader.peek() == JsonToken.NULL) {
+            jsonReader.nextNull()
+            return 0
+        }
+        jsonReader.beginArray()
+        while (jsonReader.hasNext()) {
+            action(adapter.read(jsonReader))
+            count++
+        }
+        jsonReader.endArray()
+    } catch (e: EOFException) {
+        throw JsonSyntaxException(e)
+    } catch (e: MalformedJsonException) {
+        throw JsonSyntaxException(e)
+    } catch (e: IllegalStateException) {
+        throw JsonSyntaxException(e)
+    } catch (e: IOException) {
+        throw JsonIOException(e)
+    }
+    return count
+}
+
+/**
+ * @return количество разобранных элементов или -1 в случае ошибки
+ */
+fun <T> Gson.readJsonArray(reader: Reader?, type: Type, action: (T?) -> Unit): Int {
+    if (reader == null) return -1
+    return try {
+        readJsonArrayOrThrow(reader, type, action)
+    } catch (e: JsonParseException) {
+        logException(logger, e, "readJsonArray")
+        -1
+    }
+}
+
+/**
+ * Аналог [fromJsonArrayOrNull] для [reader]: элементы типа [elementType] добавляются в список по мере чтения,
+ * без промежуточных строки и массива; null-элементы пропускаются
+ */
+fun <T> Gson.fromJsonArrayOrNull(reader: Reader?, elementType: Type): List<T> {
+    val result = mutableListOf<T>()
+    if (readJsonArray<T>(reader, elementType) { if (it != null) result.add(it) } < 0) {
+        return emptyList()
+    }
+    return result
+}
+
+@JvmOverloads
+fun <T> Gson.fromJsonArrayOrNull(
+    inputStream: InputStream?,
+    elementType: Type,
+    charset: Charset = Charsets.UTF_8
+): List<T> {
+    if (inputStream == null) return emptyList()
+    return fromJsonArrayOrNull(BufferedReader(InputStreamReader(inputStream, charset)), elementType)
+}
+
 /**
  * Преобразует строку [jsonString] в список сущностей указанного типа [T],
  * информация о котором содержится в [type],
@@ -96,6 +199,75 @@ fun <T : Any> Gson.toJsonOrNull(obj: T): String? {
     }
 }
 
+/**
+ * Аналог [toJsonOrNull], записывающий [obj] в [writer] без промежуточной строки;
+ * [writer] не закрывается
+ *
+ * @return false в случае возникновения исключения
+ */
+fun <T : Any> Gson.toJsonOrFalse(obj: T, type: Type, writer: Writer): Boolean {
+    return try {
+        val jsonWriter = newJsonWriter(writer)
+        toJson(obj, type, jsonWriter)
+        jsonWriter.flush()
+        true
+    } catch (e: JsonIOException) {
+        logException(logger, e, "toJsonOrFalse")
+        false
+    } catch (e: IOException) {
+        logException(logger, e, "toJsonOrFalse")
+        false
+    }
+}
+
+@JvmOverloads
+fun <T : Any> Gson.toJsonOrFalse(
+    obj: T,
+    type: Type,
+    outputStream: OutputStream,
+    charset: Charset = Charsets.UTF_8
+): Boolean {
+    val writer = BufferedWriter(OutputStreamWriter(outputStream, charset))
+    return toJsonOrFalse(obj, type, writer) && try {
+        writer.flush()
+        true
+    } catch (e: IOException) {
+        logException(logger, e, "toJsonOrFalse")
+        false
+    }
+}
+
+/**
+ * Записывает [items] с типом элементов [elementType] в [writer] как один json-массив,
+ * через единственный [com.google.gson.stream.JsonWriter] и однажды полученный адаптер;
+ * [writer] не закрывается
+ */
+@Throws(JsonIOException::class)
+fun <T> Gson.writeJsonArrayOrThrow(items: Iterable<T?>, elementType: Type, writer: Writer) {
+    val adapter = getAdapter(TypeToken.get(elementType)) as TypeAdapter<T>
+    try {
+        val jsonWriter = newJsonWriter(writer)
+        // как в Gson.toJson
+        jsonWriter.isLenient = true
+        jsonWriter.beginArray()
+        for (item in items) {
+            adapter.write(jsonWriter, item)
+        }
+        jsonWriter.endArray()
+        jsonWriter.flush()
+    } catch (e: IOException) {
+        throw JsonIOException(e)
+    }
+}
+
+fun <T> Gson.writeJsonArray(items: Iterable<T?>, elementType: Type, writer: Writer): Boolean = try {
+    writeJsonArrayOrThrow(items, elementType, writer)
+    true
+} catch (e: JsonIOException) {
+    logException(logger, e, "writeJsonArray")
+    false
+}
+
 /**
  * Преобразует коллекцию объектов [listOfObjects] указанного типа [T]
  * в маппинг: объект - json-строка, используя [gson]
@@ -106,8 +278,24 @@ fun <T : Any> Gson.toJsonStringMap(
 ): Map<T, String?> {
     val result: MutableMap<T, String?> = LinkedHashMap()
     if (listOfObjects != null) {
+        // адаптер и буфер общие для всех элементов, адаптеры кэшируются самим Gson
+        val adapter = getAdapter(TypeToken.get(type)) as TypeAdapter<T>
+        val stringWriter = StringWriter()
         for (o in listOfObjects) {
-            result[o] = toJsonOrNull(o, type)
+            stringWriter.buffer.setLength(0)
+            result[o] = try {
+                val jsonWriter = newJsonWriter(stringWriter)
+                // как в Gson.toJson
+                jsonWriter.isLenient = true
+                adapter.write(jsonWriter, o)
+                stringWriter.toString()
+            } catch (e: IOException) {
+                logException(logger, e, "toJsonStringMap")
+                null
+            } catch (e: JsonParseException) {
+                logException(logger, e, "toJsonStringMap")
+                null
+            }
         }
     }
     return result
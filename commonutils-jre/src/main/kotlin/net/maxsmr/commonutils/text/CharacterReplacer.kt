@@ -2,6 +2,7 @@ package net.maxsmr.commonutils.text
 
 import net.maxsmr.commonutils.charsEqual
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 object CharacterReplacer {
 
@@ -36,8 +37,10 @@ object CharacterReplacer {
         replaceLatinCyrillicAlphabet.add(CharacterMap('z', 'з'))
     }
 
+    private val compiledLatinCyrillicAlphabet = ConcurrentHashMap<Pair<ReplaceDirection, Boolean>, CharsReplacer>()
+
     fun findCharByLeft(alphabet: List<CharacterMap>, c: Char, ignoreCase: Boolean): Char? {
-        return alphabet.find { charsEqual(c, it.rightCh, ignoreCase) }?.leftCh
+        return alphabet.find { charsEqual(c, it.leftCh, ignoreCase) }?.rightCh
     }
 
     fun findCharByRight(alphabet: List<CharacterMap>, c: Char, ignoreCase: Boolean): Char? {
@@ -46,17 +49,27 @@ object CharacterReplacer {
 
     fun replaceChars(alphabet: List<CharacterMap>, sequence: CharSequence?, direction: ReplaceDirection, ignoreCase: Boolean): CharSequence? {
         if (sequence != null) {
-            val source = CharArray(sequence.length)
-            for (i in 0 until sequence.length) {
-                val ch = sequence[i]
-                val replacement = if (direction == ReplaceDirection.LEFT_RIGHT) findCharByLeft(alphabet, ch, ignoreCase) else findCharByRight(alphabet, ch, ignoreCase)
-                source[i] = replacement ?: ch
-            }
-            return String(source)
+            return compileAlphabet(alphabet, direction, ignoreCase).replace(sequence)
         }
         return null
     }
 
+    /**
+     * @return reusable replacer with same rules as [replaceChars]
+     */
+    fun compileAlphabet(alphabet: List<CharacterMap>, direction: ReplaceDirection, ignoreCase: Boolean): CharsReplacer {
+        val replacements = LinkedHashMap<Char, String>()
+        for (map in alphabet) {
+            val from = (if (direction == ReplaceDirection.LEFT_RIGHT) map.leftCh else map.rightCh) ?: continue
+            val to = if (direction == ReplaceDirection.LEFT_RIGHT) map.rightCh else map.leftCh
+            // first map for char wins, as in find
+            if (!replacements.containsKey(from)) {
+                replacements[from] = (to ?: from).toString()
+            }
+        }
+        return CharsReplacer(replacements, ignoreCase)
+    }
+
     fun appendOrReplaceChar(source: CharSequence, what: Char?, to: String?, ignoreCase: Boolean, appendOrReplace: Boolean): String {
         if (isEmpty(source) || isEmpty(to)) {
             return EMPTY_STRING
@@ -79,7 +92,9 @@ object CharacterReplacer {
     }
 
     fun replaceByLatinCyrillicAlphabet(sequence: CharSequence, ignoreCase: Boolean, direction: ReplaceDirection): CharSequence? {
-        return replaceChars(replaceLatinCyrillicAlphabet, sequence, direction, ignoreCase)
+        return compiledLatinCyrillicAlphabet.getOrPut(Pair(direction, ignoreCase)) {
+            compileAlphabet(replaceLatinCyrillicAlphabet, direction, ignoreCase)
+        }.replace(sequence)
     }
 
     fun lowerCaseAlphabet(alphabet: List<CharacterMap?>): List<CharacterMap> {
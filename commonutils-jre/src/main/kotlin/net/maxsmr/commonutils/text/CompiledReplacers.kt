@@ -0,0 +1,305 @@
+package net.maxsmr.commonutils.text
+
+import java.util.*
+
+/**
+ * Replaces all given substrings in single pass (Aho-Corasick automaton):
+ * at each position the longest of patterns starting there is replaced, replaced text is not searched again
+ *
+ * Immutable after creation, so one instance can be shared between threads
+ *
+ * @param replacements pattern -> replacement, empty patterns are ignored
+ */
+class SubstringsReplacer @JvmOverloads constructor(
+        replacements: Map<String, String>,
+        val ignoreCase: Boolean = false
+) {
+
+    /**
+     * sorted transition chars of each node
+     */
+    private val transitionChars: Array<CharArray>
+
+    /**
+     * target nodes, same order as [transitionChars]
+     */
+    private val transitionTargets: Array<IntArray>
+
+    private val failLinks: IntArray
+
+    /**
+     * node of longest pattern which is suffix of this node (including itself), -1 if none
+     */
+    private val outputLinks: IntArray
+
+    /**
+     * pattern ending in this node or -1
+     */
+    private val nodePatterns: IntArray
+
+    private val depths: IntArray
+
+    private val patternLengths: IntArray
+
+    private val patternReplacements: Array<String>
+
+    val isEmpty: Boolean get() = patternLengths.isEmpty()
+
+    init {
+        val children = mutableListOf<TreeMap<Char, Int>>(TreeMap())
+        val patterns = mutableListOf<Int>(-1)
+        val nodeDepths = mutableListOf(0)
+        val lengths = mutableListOf<Int>()
+        val values = mutableListOf<String>()
+        for ((pattern, replacement) in replacements) {
+            if (pattern.isEmpty()) {
+                continue
+            }
+            var node = 0
+            for (c in pattern) {
+                val key = normalize(c)
+                node = children[node][key] ?: run {
+                    children.add(TreeMap())
+                    patterns.add(-1)
+                    nodeDepths.add(nodeDepths[node] + 1)
+                    (children.size - 1).also { children[node][key] = it }
+                }
+            }
+            if (patterns[node] < 0) {
+                patterns[node] = lengths.size
+                lengths.add(pattern.length)
+                values.add(replacement)
+            }
+        }
+        val size = children.size
+        transitionChars = Array(size) { node -> children[node].keys.toCharArray() }
+        transitionTargets = Array(size) { node -> children[node].values.toIntArray() }
+        nodePatterns = patterns.toIntArray()
+        depths = nodeDepths.toIntArray()
+        patternLengths = lengths.toIntArray()
+        patternReplacements = values.toTypedArray()
+
+        failLinks = IntArray(size)
+        outputLinks = IntArray(size) { -1 }
+        // breadth first, so fail link of parent is ready before its children
+        val queue = ArrayDeque<Int>()
+        queue.add(0)
+        while (queue.isNotEmpty()) {
+            val node = queue.poll()
+            outputLinks[node] = if (nodePatterns[node] >= 0) node else if (node == 0) -1 else outputLinks[failLinks[node]]
+            val chars = transitionChars[node]
+            val targets = transitionTargets[node]
+            for (i in chars.indices) {
+                val child = targets[i]
+                if (node == 0) {
+                    failLinks[child] = 0
+                } else {
+                    var fail = failLinks[node]
+                    var next = transition(fail, chars[i])
+                    while (next < 0 && fail != 0) {
+                        fail = failLinks[fail]
+                        next = transition(fail, chars[i])
+                    }
+                    failLinks[child] = if (next >= 0) next else 0
+                }
+                queue.add(child)
+            }
+        }
+    }
+
+    fun replace(text: CharSequence?): String {
+        if (text.isNullOrEmpty()) {
+            return EMPTY_STRING
+        }
+        if (isEmpty) {
+            return text.toString()
+        }
+        return replaceTo(text, StringBuilder(text.length)).toString()
+    }
+
+    /**
+     * @return [out] with appended [text] after replacement
+     */
+    fun replaceTo(text: CharSequence, out: StringBuilder): StringBuilder {
+        // text before this index is already written to out
+        var written = 0
+        var matchStart = -1
+        var matchEnd = -1
+        var matchPattern = -1
+        var state = 0
+        var i = 0
+        val length = text.length
+        while (true) {
+            if (i < length) {
+                state = next(state, text[i])
+                i++
+                var output = outputLinks[state]
+                while (output >= 0) {
+                    val pattern = nodePatterns[output]
+                    val start = i - patternLengths[pattern]
+                    if (start >= written && (matchStart < 0 || start < matchStart || start == matchStart && i > matchEnd)) {
+                        matchStart = start
+                        matchEnd = i
+                        matchPattern = pattern
+                    }
+                    output = outputLinks[failLinks[output]]
+                }
+                // some longer or earlier match may still be in progress
+                if (matchStart < 0 || i - depths[state] <= matchStart) {
+                    continue
+                }
+            } else if (matchStart < 0) {
+                break
+            }
+            out.append(text, written, matchStart)
+            out.append(patternReplacements[matchPattern])
+            written = matchEnd
+            // matches found after this one may overlap it, so text after it is scanned again
+            i = matchEnd
+            state = 0
+            matchStart = -1
+        }
+        out.append(text, written, length)
+        return out
+    }
+
+    fun containsAny(text: CharSequence?): Boolean {
+        if (text == null || isEmpty) {
+            return false
+        }
+        var state = 0
+        for (c in text) {
+            state = next(state, c)
+            if (outputLinks[state] >= 0) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun next(state: Int, c: Char): Int {
+        val key = normalize(c)
+        var current = state
+        while (true) {
+            val next = transition(current, key)
+            if (next >= 0) {
+                return next
+            }
+            if (current == 0) {
+                return 0
+            }
+            current = failLinks[current]
+        }
+    }
+
+    private fun transition(node: Int, c: Char): Int {
+        val index = Arrays.binarySearch(transitionChars[node], c)
+        return if (index >= 0) transitionTargets[node][index] else -1
+    }
+
+    private fun normalize(c: Char) = if (ignoreCase) Character.toLowerCase(c) else c
+}
+
+/**
+ * Replaces or removes single chars in one pass by lookup table
+ *
+ * Immutable after creation, so one instance can be shared between threads
+ *
+ * @param replacements char -> replacement, empty string to remove char
+ */
+class CharsReplacer @JvmOverloads constructor(
+        replacements: Map<Char, String>,
+        val ignoreCase: Boolean = false
+) {
+
+    private val minChar: Char
+
+    /**
+     * indexed by char - [minChar], when range of chars is small
+     */
+    private val table: Array<String?>?
+
+    private val sortedChars: CharArray?
+
+    private val sortedValues: Array<String>?
+
+    val isEmpty: Boolean get() = table == null && sortedChars == null
+
+    init {
+        val map = TreeMap<Char, String>(replacements)
+        if (ignoreCase) {
+            // exact chars take precedence over other case variants
+            for ((c, replacement) in replacements) {
+                for (variant in charArrayOf(Character.toLowerCase(c), Character.toUpperCase(c))) {
+                    if (!map.containsKey(variant)) {
+                        map[variant] = replacement
+                    }
+                }
+            }
+        }
+        if (map.isEmpty()) {
+            minChar = '\u0000'
+            table = null
+            sortedChars = null
+            sortedValues = null
+        } else {
+            val first = map.firstKey()
+            minChar = first
+            val span = map.lastKey() - first + 1
+            if (span <= MAX_TABLE_SIZE) {
+                val table = arrayOfNulls<String>(span)
+                map.forEach { (c, replacement) -> table[c - first] = replacement }
+                this.table = table
+                sortedChars = null
+                sortedValues = null
+            } else {
+                table = null
+                sortedChars = map.keys.toCharArray()
+                sortedValues = map.values.toTypedArray()
+            }
+        }
+    }
+
+    fun replace(text: CharSequence?): String {
+        if (text.isNullOrEmpty()) {
+            return EMPTY_STRING
+        }
+        if (isEmpty) {
+            return text.toString()
+        }
+        return replaceTo(text, StringBuilder(text.length)).toString()
+    }
+
+    /**
+     * @return [out] with appended [text] after replacement
+     */
+    fun replaceTo(text: CharSequence, out: StringBuilder): StringBuilder {
+        var written = 0
+        for (i in 0 until text.length) {
+            val replacement = replacementOf(text[i]) ?: continue
+            out.append(text, written, i)
+            out.append(replacement)
+            written = i + 1
+        }
+        out.append(text, written, text.length)
+        return out
+    }
+
+    /**
+     * @return replacement or null if char is kept as is
+     */
+    fun replacementOf(c: Char): String? {
+        table?.let {
+            val index = c - minChar
+            return if (index >= 0 && index < it.size) it[index] else null
+        }
+        val chars = sortedChars ?: return null
+        val index = Arrays.binarySearch(chars, c)
+        return if (index >= 0) sortedValues!![index] else null
+    }
+
+    companion object {
+
+        private const val MAX_TABLE_SIZE = 4096
+    }
+}
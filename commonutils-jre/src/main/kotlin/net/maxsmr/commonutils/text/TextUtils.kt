@@ -10,9 +10,14 @@ import net.maxsmr.commonutils.number.isZeroOrNull
 import java.io.UnsupportedEncodingException
 import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("TextUtils")
 
+private const val MAX_CACHED_SUBSTRINGS_REPLACERS = 64
+
+private val substringsReplacers = ConcurrentHashMap<Pair<Set<String>, String>, SubstringsReplacer>()
+
 fun getExtension(name: String?) = name?.substringAfterLast('.').orEmpty()
 
 /**
@@ -224,21 +229,26 @@ fun CharSequence.substringBefore(
     return if (index == -1) missingDelimiterValue else substring(0, index)
 }
 
+/**
+ * Replaces all [characters] in single pass, longest of them first if several start at same position;
+ * compiled replacers are cached, for other sets of patterns see [SubstringsReplacer]
+ */
 fun replaceSubstrings(
     text: String?,
     characters: Set<String?>?,
     replacement: String = EMPTY_STRING
 ): String? {
-    var result = text
-    if (characters != null)
-        for (c in characters) {
-            if (c != null) {
-                if (result != null && !isEmpty(result)) {
-                    result = result.replace(c, replacement)
-                }
-            }
+    if (text.isNullOrEmpty() || characters.isNullOrEmpty()) {
+        return text
+    }
+    val key = Pair(characters.filterNotNullTo(HashSet()), replacement)
+    val replacer = substringsReplacers[key] ?: SubstringsReplacer(key.first.associateWith { replacement }).also {
+        if (substringsReplacers.size >= MAX_CACHED_SUBSTRINGS_REPLACERS) {
+            substringsReplacers.clear()
         }
-    return result
+        substringsReplacers[key] = it
+    }
+    return replacer.replace(text)
 }
 
 fun replaceRange(s: CharSequence, start: Int, end: Int, replacement: CharSequence): CharSequence =
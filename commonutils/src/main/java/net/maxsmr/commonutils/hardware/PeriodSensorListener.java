@@ -1,15 +1,46 @@
 package net.maxsmr.commonutils.hardware;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Observable;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.maxsmr.commonutils.SdkVersionsKt.isAtLeastKitkat;
+
+/**
+ * {@link SensorEventListener} observers get sensor events not more often than period on main thread,
+ * {@link SensorBatchListener} observers get copies of them on main thread once per delivery window
+ * <p>
+ * Events are received on own sensor thread, so main thread is woken up only once per batch, when:
+ * <ul>
+ * <li>there are no {@link SensorEventListener} observers on start (tracking is restarted on main thread,
+ * when first one is registered);</li>
+ * <li>or {@link #setDispatchOnSensorThread(boolean)} is set: {@link SensorEventListener} observers are called
+ * on sensor thread (passed {@link SensorEvent} is reused by system after the call, so it should be copied to be kept)</li>
+ * </ul>
+ * Batches are always delivered on main thread
+ */
 public class PeriodSensorListener {
 
+    private final static BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(PeriodSensorListener.class);
+
     public PeriodSensorListener(@NotNull Context context, int sensorType) {
         this.context = context;
         this.sensorType = sensorType;
@@ -20,21 +51,59 @@ public class PeriodSensorListener {
 
     private final SensorEventObservable sensorEventObservable = new SensorEventObservable();
 
+    private final SensorBatchObservable sensorBatchObservable = new SensorBatchObservable();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private int sensorType;
 
     private SensorEvents sensorEvents;
 
+    private HandlerThread sensorThread;
+
+    private boolean isDispatchOnSensorThread = false;
+
+    private long period;
+
+    private long maxReportLatency;
+
     public Observable<SensorEventListener> getSensorEventObservable() {
         return sensorEventObservable;
     }
 
+    public Observable<SensorBatchListener> getSensorBatchObservable() {
+        return sensorBatchObservable;
+    }
+
+    public boolean isDispatchOnSensorThread() {
+        return isDispatchOnSensorThread;
+    }
+
+    /**
+     * @param dispatchOnSensorThread if true, {@link SensorEventListener} observers are called on own sensor thread
+     *                               instead of main one; applied on next {@link #restartTracking(long, long)}.
+     *                               Without per-event observers sensor thread is used anyway
+     */
+    public void setDispatchOnSensorThread(boolean dispatchOnSensorThread) {
+        isDispatchOnSensorThread = dispatchOnSensorThread;
+    }
+
     public boolean isTracking() {
         return sensorEvents != null;
     }
 
     public void startTracking(long period) {
+        startTracking(period, 0);
+    }
+
+    /**
+     * @param maxReportLatency ms, for which sensor hardware may hold events before reporting them in batch
+     *                         (on KitKat and higher, if supported), so CPU is not woken up for each one;
+     *                         also window for {@link SensorBatchListener}, period is used if it's 0
+     */
+    public void startTracking(long period, long maxReportLatency) {
         if (!isTracking()) {
-            restartTracking(period);
+            restartTracking(period, maxReportLatency);
         }
     }
 
@@ -42,37 +111,190 @@ public class PeriodSensorListener {
         if (isTracking()) {
             SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
             sensorManager.unregisterListener(sensorEvents);
+            sensorEvents.handler.removeCallbacksAndMessages(null);
+            sensorEvents.isStopped = true;
             sensorEvents = null;
+            if (sensorThread != null) {
+                sensorThread.quit();
+                sensorThread = null;
+            }
         }
     }
 
     public void restartTracking(long period) {
+        restartTracking(period, 0);
+    }
+
+    public void restartTracking(long period, long maxReportLatency) {
+        if (maxReportLatency < 0) {
+            throw new IllegalArgumentException("incorrect maxReportLatency: " + maxReportLatency);
+        }
+        stopTracking();
+        this.period = period;
+        this.maxReportLatency = maxReportLatency;
         SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         Sensor sensor = sensorManager.getDefaultSensor(sensorType);
-        sensorManager.registerListener(sensorEvents = new SensorEvents(period), sensor, SensorManager.SENSOR_DELAY_FASTEST);
+        if (sensor == null) {
+            logger.e("No sensor of type " + sensorType);
+            return;
+        }
+        final Handler handler;
+        // without per-event observers there is nothing to call on main thread for each event
+        if (isDispatchOnSensorThread || !sensorEventObservable.hasObservers()) {
+            sensorThread = new HandlerThread(PeriodSensorListener.class.getSimpleName());
+            sensorThread.start();
+            handler = new Handler(sensorThread.getLooper());
+        } else {
+            handler = mainHandler;
+        }
+        sensorEvents = new SensorEvents(period, maxReportLatency > 0 ? maxReportLatency : period, handler,
+                handler == mainHandler || isDispatchOnSensorThread);
+        // period as sampling rate hint instead of SENSOR_DELAY_FASTEST, events are thinned anyway
+        final int samplingPeriodUs = toMicros(period);
+        final boolean isRegistered;
+        if (maxReportLatency > 0 && isAtLeastKitkat()) {
+            isRegistered = registerBatched(sensorManager, sensor, samplingPeriodUs, toMicros(maxReportLatency), handler);
+        } else {
+            isRegistered = sensorManager.registerListener(sensorEvents, sensor, samplingPeriodUs, handler);
+        }
+        if (!isRegistered) {
+            logger.e("Cannot register listener for " + sensor);
+            stopTracking();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean registerBatched(@NotNull SensorManager sensorManager, @NotNull Sensor sensor,
+                                    int samplingPeriodUs, int maxReportLatencyUs, @NotNull Handler handler) {
+        if (sensor.getFifoMaxEventCount() == 0) {
+            logger.w("Sensor " + sensor + " doesn't support batching");
+        }
+        return sensorManager.registerListener(sensorEvents, sensor, samplingPeriodUs, maxReportLatencyUs, handler);
+    }
+
+    /**
+     * Per-event observers must be called on main thread, unless {@link #isDispatchOnSensorThread} is set
+     */
+    private void onSensorEventObserverRegistered() {
+        if (isTracking() && sensorThread != null && !isDispatchOnSensorThread) {
+            logger.d("Restarting tracking on main thread for per-event observers");
+            restartTracking(period, maxReportLatency);
+        }
+    }
+
+    private static int toMicros(long millis) {
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    /**
+     * Copy of {@link SensorEvent}, which is reused by system
+     */
+    public static final class SensorSample {
+
+        public final int accuracy;
+
+        /**
+         * ns, see {@link SensorEvent#timestamp}
+         */
+        public final long timestamp;
+
+        @NotNull
+        public final float[] values;
+
+        SensorSample(@NotNull SensorEvent event) {
+            this.accuracy = event.accuracy;
+            this.timestamp = event.timestamp;
+            this.values = event.values.clone();
+        }
+    }
+
+    public interface SensorBatchListener {
+
+        /**
+         * Called on main thread
+         */
+        void onSensorSamples(@NotNull Sensor sensor, @NotNull List<SensorSample> samples);
     }
 
     private class SensorEvents implements SensorEventListener {
 
         final long period;
 
+        final long deliveryWindow;
+
+        @NotNull
+        final Handler handler;
+
+        /**
+         * false if events are received on sensor thread only for batches:
+         * per-event observers, registered meanwhile, are not called there until restart
+         */
+        final boolean isPerEventDispatch;
+
+        volatile boolean isStopped = false;
+
+        /**
+         * by event timestamps, so events of hardware batch are thinned same as real-time ones
+         */
         long lastSensorChangedTimestamp = 0;
         long lastAccuracyChangedTimestamp = 0;
 
-        public SensorEvents(long period) {
+        @NotNull
+        List<SensorSample> pendingSamples = new ArrayList<>();
+
+        Sensor pendingSensor;
+
+        final Runnable deliverRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final Sensor sensor = pendingSensor;
+                final List<SensorSample> samples = pendingSamples;
+                pendingSamples = new ArrayList<>();
+                if (samples.isEmpty()) {
+                    return;
+                }
+                if (handler == mainHandler) {
+                    sensorBatchObservable.dispatchSamples(sensor, samples);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isStopped) {
+                            sensorBatchObservable.dispatchSamples(sensor, samples);
+                        }
+                    }
+                });
+            }
+        };
+
+        public SensorEvents(long period, long deliveryWindow, @NotNull Handler handler, boolean isPerEventDispatch) {
             if (period <= 0) {
                 throw new IllegalArgumentException("incorrect period: " + period);
             }
             this.period = period;
+            this.deliveryWindow = deliveryWindow;
+            this.handler = handler;
+            this.isPerEventDispatch = isPerEventDispatch;
         }
 
         @Override
         public void onSensorChanged(SensorEvent event) {
 //            logger.d("onSensorChanged(), event values:" + Arrays.toString(event.values));
-            final long currentTimestamp = System.currentTimeMillis();
-            if (currentTimestamp - lastSensorChangedTimestamp >= period) {
+            final long currentTimestamp = TimeUnit.NANOSECONDS.toMillis(event.timestamp);
+            if (lastSensorChangedTimestamp == 0 || currentTimestamp - lastSensorChangedTimestamp >= period) {
                 lastSensorChangedTimestamp = currentTimestamp;
-                sensorEventObservable.dispatchSensorChanged(event);
+                if (isPerEventDispatch) {
+                    sensorEventObservable.dispatchSensorChanged(event);
+                }
+                if (sensorBatchObservable.hasObservers()) {
+                    final boolean isScheduled = !pendingSamples.isEmpty();
+                    pendingSensor = event.sensor;
+                    pendingSamples.add(new SensorSample(event));
+                    if (!isScheduled) {
+                        handler.postDelayed(deliverRunnable, deliveryWindow);
+                    }
+                }
             }
         }
 
@@ -82,25 +304,90 @@ public class PeriodSensorListener {
             final long currentTimestamp = System.currentTimeMillis();
             if (currentTimestamp - lastAccuracyChangedTimestamp >= period) {
                 lastAccuracyChangedTimestamp = currentTimestamp;
-                sensorEventObservable.dispatchAccuracyChanged(sensor, accuracy);
+                if (isPerEventDispatch) {
+                    sensorEventObservable.dispatchAccuracyChanged(sensor, accuracy);
+                }
             }
         }
     }
 
-    private class SensorEventObservable extends Observable<SensorEventListener> {
+    private class SensorEventObservable extends SnapshotObservable<SensorEventListener> {
+
+        @Override
+        public void registerObserver(SensorEventListener observer) {
+            super.registerObserver(observer);
+            onSensorEventObserverRegistered();
+        }
 
         void dispatchSensorChanged(SensorEvent event) {
-            for (SensorEventListener l : mObservers) {
-                l.onSensorChanged(event);
+            final List<SensorEventListener> observers = getSnapshot();
+            for (int i = 0; i < observers.size(); i++) {
+                observers.get(i).onSensorChanged(event);
             }
         }
 
         void dispatchAccuracyChanged(Sensor sensor, int accuracy) {
-            for (SensorEventListener l : mObservers) {
-                l.onAccuracyChanged(sensor, accuracy);
+            final List<SensorEventListener> observers = getSnapshot();
+            for (int i = 0; i < observers.size(); i++) {
+                observers.get(i).onAccuracyChanged(sensor, accuracy);
+            }
+        }
+    }
+
+    private static class SensorBatchObservable extends SnapshotObservable<SensorBatchListener> {
+
+        void dispatchSamples(@NotNull Sensor sensor, @NotNull List<SensorSample> samples) {
+            final List<SensorBatchListener> observers = getSnapshot();
+            for (int i = 0; i < observers.size(); i++) {
+                observers.get(i).onSensorSamples(sensor, samples);
             }
         }
     }
 
+    /**
+     * Observers may be changed on other thread: they are called without lock from immutable snapshot,
+     * which is replaced on each change, so nothing is copied per event
+     */
+    private static class SnapshotObservable<T> extends Observable<T> {
+
+        @NotNull
+        private volatile List<T> snapshot = Collections.emptyList();
+
+        @Override
+        public void registerObserver(T observer) {
+            synchronized (mObservers) {
+                super.registerObserver(observer);
+                updateSnapshot();
+            }
+        }
+
+        @Override
+        public void unregisterObserver(T observer) {
+            synchronized (mObservers) {
+                super.unregisterObserver(observer);
+                updateSnapshot();
+            }
+        }
+
+        @Override
+        public void unregisterAll() {
+            synchronized (mObservers) {
+                super.unregisterAll();
+                updateSnapshot();
+            }
+        }
+
+        boolean hasObservers() {
+            return !snapshot.isEmpty();
+        }
+
+        @NotNull
+        List<T> getSnapshot() {
+            return snapshot;
+        }
 
+        private void updateSnapshot() {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(mObservers));
+        }
+    }
 }
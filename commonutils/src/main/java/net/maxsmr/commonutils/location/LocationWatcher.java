@@ -9,6 +9,9 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 
 import net.maxsmr.commonutils.location.info.TrackingStatus;
 import net.maxsmr.commonutils.logger.BaseLogger;
@@ -17,10 +20,13 @@ import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static net.maxsmr.commonutils.CompareUtilsKt.objectsEqual;
 import static net.maxsmr.commonutils.IntentsKt.getLocationSettingsIntent;
@@ -52,6 +58,31 @@ public final class LocationWatcher {
 
     public static final long DEFAULT_LOCATION_UPDATE_TIME = 5000;
     public static final float DEFAULT_LOCATION_UPDATE_DISTANCE = 0;
+    public static final long DEFAULT_STILL_LOCATION_UPDATE_TIME = 60000;
+
+    /**
+     * fix older than current one by this time is not used, newer one replaces current anyway
+     */
+    private static final long SIGNIFICANT_TIME_DELTA = TimeUnit.MINUTES.toNanos(2);
+
+    /**
+     * max accuracy loss (in meters) for newer fix from same provider to be taken
+     */
+    private static final float MAX_ACCURACY_DEGRADATION = 200;
+
+    /**
+     * speed (m/s) below which device is considered still
+     */
+    private static final float STILL_SPEED = 0.5f;
+
+    /**
+     * count of slow fixes in a row to switch to {@link MotionState#STILL}
+     */
+    private static final int STILL_FIXES_COUNT = 3;
+
+    public enum MotionState {
+        MOVING, STILL
+    }
 
     private LocationWatcher(Context ctx) {
         mContext = ctx;
@@ -63,13 +94,28 @@ public final class LocationWatcher {
 
     private final Set<String> mPreferredProviders = new LinkedHashSet<>();
 
-    private DeviceLocationListener mLocationListener = null;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile DeviceLocationListener mLocationListener = null;
+
+    /**
+     * updates are received and processed here, not on main thread
+     */
+    private HandlerThread mLocationThread;
+
+    private volatile Location mLastLocation;
+
+    private volatile long mLocationUpdateTime = DEFAULT_LOCATION_UPDATE_TIME;
+
+    private volatile float mLocationUpdateDistance = DEFAULT_LOCATION_UPDATE_DISTANCE;
+
+    private volatile long mDeliveryWindow = 0;
 
-    private Location mLastLocation;
+    private volatile boolean mIsAdaptiveInterval = false;
 
-    private long mLocationUpdateTime = DEFAULT_LOCATION_UPDATE_TIME;
+    private volatile long mStillLocationUpdateTime = DEFAULT_STILL_LOCATION_UPDATE_TIME;
 
-    private float mLocationUpdateDistance = DEFAULT_LOCATION_UPDATE_DISTANCE;
+    private volatile MotionState mMotionState = MotionState.MOVING;
 
     public Observable<LocationTrackingListener> getLocationObservable() {
         return mLocationObservable;
@@ -88,6 +134,33 @@ public final class LocationWatcher {
         return mLastLocation;
     }
 
+    @NotNull
+    public MotionState getMotionState() {
+        return mMotionState;
+    }
+
+    /**
+     * @param window ms to collect fixes before passing the best one to listeners, 0 to pass each one
+     */
+    public void setDeliveryWindow(long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("incorrect window: " + window);
+        }
+        mDeliveryWindow = window;
+    }
+
+    /**
+     * When enabled, updates are requested with {@code stillUpdateTime} while device is {@link MotionState#STILL}
+     * (by speed of last fixes) and with tracking minTime when it moves
+     */
+    public void setAdaptiveInterval(boolean enabled, long stillUpdateTime) {
+        if (stillUpdateTime < 0) {
+            throw new IllegalArgumentException("incorrect stillUpdateTime: " + stillUpdateTime);
+        }
+        mIsAdaptiveInterval = enabled;
+        mStillLocationUpdateTime = stillUpdateTime;
+    }
+
     public void setPreferredProviders(@Nullable Collection<String> providers) {
         mPreferredProviders.clear();
         if (providers != null) {
@@ -95,35 +168,91 @@ public final class LocationWatcher {
         }
     }
 
-    private boolean updateLocation(@NotNull Location location) {
-
-        final boolean isSameLocationInfos = objectsEqual(mLastLocation, location);
-        logger.i("last location info: " + mLastLocation + ", new location info: " + location + ", is same: " + isSameLocationInfos);
+    /**
+     * Fixes of all providers are fused here: only better one replaces {@link #mLastLocation}
+     */
+    private boolean updateLocation(@NotNull Location location, @NotNull DeviceLocationListener listener) {
 
-        final float accuracy = mLastLocation == null ? 0 : mLastLocation.getAccuracy();
-        final boolean isBetterAccuracy = location.getAccuracy() > accuracy;
-        logger.i("last accuracy: " + accuracy + ", new is better: " + isBetterAccuracy);
+        final Location lastLocation = mLastLocation;
+        final boolean isBetter = isBetterLocation(location, lastLocation);
+        logger.i("last location info: " + lastLocation + ", new location info: " + location + ", is better: " + isBetter);
 
-        final long time = mLastLocation == null ? 0 : mLastLocation.getTime();
-        final boolean isLaterTime = location.getTime() - time > mLocationUpdateTime;
-        logger.i("last update time: " + time + ", new is later: " + isLaterTime);
+        if (isBetter) {
+            mLastLocation = location;
+            listener.onNewMotionState(getMotionState(lastLocation, location, listener));
+            listener.deliver(location);
+            return true;
+        }
 
-        if (!isSameLocationInfos && (isBetterAccuracy || isLaterTime)) {
+        return false;
+    }
 
-            mLastLocation = location;
-            logger.i("last location info has been changed");
+    private MotionState getMotionState(@Nullable Location previous, @NotNull Location location, @NotNull DeviceLocationListener listener) {
+        if (!mIsAdaptiveInterval) {
+            return MotionState.MOVING;
+        }
+        final float speed;
+        if (location.hasSpeed()) {
+            speed = location.getSpeed();
+        } else if (previous != null) {
+            final long timeDelta = TimeUnit.NANOSECONDS.toMillis(location.getElapsedRealtimeNanos() - previous.getElapsedRealtimeNanos());
+            if (timeDelta <= 0) {
+                return mMotionState;
+            }
+            // shift within accuracy is noise
+            speed = Math.max(0, previous.distanceTo(location) - location.getAccuracy()) * 1000f / timeDelta;
+        } else {
+            return mMotionState;
+        }
+        if (speed >= STILL_SPEED) {
+            listener.stillFixesCount = 0;
+            return MotionState.MOVING;
+        }
+        return ++listener.stillFixesCount >= STILL_FIXES_COUNT ? MotionState.STILL : mMotionState;
+    }
 
-            mLocationObservable.dispatchLocationUpdated(mLastLocation);
-            mLocationObservable.dispatchLocationTrackingStatusChanged(TrackingStatus.NEW_LOCATION);
+    /**
+     * Newer fix is taken unless it's notably less accurate or comes from other provider with worse accuracy;
+     * older one - only if it's more accurate and not stale
+     */
+    public static boolean isBetterLocation(@NotNull Location location, @Nullable Location current) {
+        if (current == null) {
+            return true;
+        }
+        if (objectsEqual(location, current)) {
+            return false;
+        }
+        // elapsed realtime doesn't depend on clocks of providers
+        final long timeDelta = location.getElapsedRealtimeNanos() - current.getElapsedRealtimeNanos();
+        if (timeDelta > SIGNIFICANT_TIME_DELTA) {
+            return true;
+        } else if (timeDelta < -SIGNIFICANT_TIME_DELTA) {
+            return false;
+        }
+        final boolean isNewer = timeDelta > 0;
+        final float accuracyDelta = getAccuracy(location) - getAccuracy(current);
+        if (accuracyDelta < 0) {
+            return true;
+        }
+        if (isNewer && accuracyDelta == 0) {
             return true;
         }
+        return isNewer && accuracyDelta <= MAX_ACCURACY_DEGRADATION
+                && objectsEqual(location.getProvider(), current.getProvider());
+    }
 
-        return false;
+    private static float getAccuracy(@NotNull Location location) {
+        return location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
     }
 
+    /**
+     * @return providers, for which updates were requested, empty if failed
+     */
+    @NotNull
     @SuppressWarnings("MissingPermission")
-    private static boolean addLocationListener(Context ctx, boolean openGpsActivity, final long minTime,
-                                               final float minDistance, Collection<String> preferredProviders, final LocationListener locationListener) {
+    private static List<String> addLocationListener(Context ctx, boolean openGpsActivity, final long minTime,
+                                                    final float minDistance, Collection<String> preferredProviders,
+                                                    final LocationListener locationListener, @NotNull Looper looper) {
 
         if (ctx == null)
             throw new NullPointerException("context is null");
@@ -155,11 +284,11 @@ public final class LocationWatcher {
                 logger.e("providers " + disabledProviders + " is not enabled");
                 if (openGpsActivity)
                     ctx.startActivity(getLocationSettingsIntent().addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
-                return false;
+                return Collections.emptyList();
             }
         }
 
-
+        final List<String> requestedProviders = new ArrayList<>();
         List<String> providers = locationManager.getProviders(true);
         if (providers != null) {
             for (final String provider : providers) {
@@ -167,20 +296,20 @@ public final class LocationWatcher {
                     if (LocationManager.GPS_PROVIDER.equals(provider)
                             || LocationManager.PASSIVE_PROVIDER.equals(provider)
                             || LocationManager.NETWORK_PROVIDER.equals(provider)) {
-                        locationManager.requestLocationUpdates(provider, minTime, minDistance, locationListener, ctx.getMainLooper());
-                        result = true;
+                        locationManager.requestLocationUpdates(provider, minTime, minDistance, locationListener, looper);
+                        requestedProviders.add(provider);
                     }
                 }
             }
         }
 
-        if (!result) {
+        if (requestedProviders.isEmpty()) {
             logger.e("no enabled providers");
             if (openGpsActivity)
                 ctx.startActivity(getLocationSettingsIntent().addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
         }
 
-        return result;
+        return requestedProviders;
     }
 
     @SuppressWarnings("MissingPermission")
@@ -194,11 +323,91 @@ public final class LocationWatcher {
 
     private class DeviceLocationListener implements LocationListener {
 
+        @NotNull
+        private final Handler handler;
+
+        @NotNull
+        private volatile List<String> providers = Collections.emptyList();
+
+        /**
+         * fields below are accessed only on {@link #handler} thread
+         */
+        private int stillFixesCount = 0;
+
+        @Nullable
+        private Location pendingLocation;
+
+        private final Runnable deliverRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final Location location = pendingLocation;
+                pendingLocation = null;
+                if (location != null) {
+                    dispatch(location);
+                }
+            }
+        };
+
+        private DeviceLocationListener(@NotNull Looper looper) {
+            this.handler = new Handler(looper);
+        }
+
         @Override
         public void onLocationChanged(Location loc) {
             logger.d("onLocationChanged(), loc=" + loc);
-            if (loc != null) {
-                updateLocation(loc);
+            // may come after stopTracking() or restart
+            if (loc != null && mLocationListener == this) {
+                updateLocation(loc, this);
+            }
+        }
+
+        private void deliver(@NotNull Location location) {
+            final long window = mDeliveryWindow;
+            if (window <= 0) {
+                dispatch(location);
+            } else {
+                // only best fix of window is passed
+                final boolean isScheduled = pendingLocation != null;
+                pendingLocation = location;
+                if (!isScheduled) {
+                    handler.postDelayed(deliverRunnable, window);
+                }
+            }
+        }
+
+        private void dispatch(@NotNull final Location location) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLocationListener != DeviceLocationListener.this) {
+                        return;
+                    }
+                    mLocationObservable.dispatchLocationUpdated(location);
+                    mLocationObservable.dispatchLocationTrackingStatusChanged(TrackingStatus.NEW_LOCATION);
+                }
+            });
+        }
+
+        @SuppressWarnings("MissingPermission")
+        private void onNewMotionState(@NotNull MotionState state) {
+            // not requested yet
+            if (state == mMotionState || providers.isEmpty()) {
+                return;
+            }
+            mMotionState = state;
+            stillFixesCount = 0;
+            final long minTime = state == MotionState.STILL ? mStillLocationUpdateTime : mLocationUpdateTime;
+            logger.i("motion state changed to " + state + ", requesting updates every " + minTime + " ms");
+            final LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+            // not to request again after removal in stopTracking()
+            synchronized (this) {
+                if (mLocationListener != this) {
+                    return;
+                }
+                locationManager.removeUpdates(this);
+                for (String provider : providers) {
+                    locationManager.requestLocationUpdates(provider, minTime, mLocationUpdateDistance, this, handler.getLooper());
+                }
             }
         }
 
@@ -245,8 +454,15 @@ public final class LocationWatcher {
             return;
         }
 
-        removeLocationListener(mContext, mLocationListener);
-        mLocationListener = null;
+        final DeviceLocationListener listener = mLocationListener;
+        synchronized (listener) {
+            mLocationListener = null;
+            removeLocationListener(mContext, listener);
+        }
+        listener.handler.removeCallbacksAndMessages(null);
+        mLocationThread.quit();
+        mLocationThread = null;
+        mMotionState = MotionState.MOVING;
 
         if (resetLastLoc) {
             mLastLocation = null;
@@ -270,11 +486,21 @@ public final class LocationWatcher {
 
         stopTracking(resetLastLoc);
 
-        if (addLocationListener(mContext, openGpsActivity, minTime, minDistance, mPreferredProviders, mLocationListener = new DeviceLocationListener())) {
-            mLocationUpdateTime = minTime;
-            mLocationUpdateDistance = minDistance;
+        mLocationUpdateTime = minTime;
+        mLocationUpdateDistance = minDistance;
+        mLocationThread = new HandlerThread(LocationWatcher.class.getSimpleName());
+        mLocationThread.start();
+        final DeviceLocationListener listener = new DeviceLocationListener(mLocationThread.getLooper());
+        mLocationListener = listener;
+        final List<String> providers = addLocationListener(mContext, openGpsActivity, minTime, minDistance, mPreferredProviders, listener, mLocationThread.getLooper());
+        if (!providers.isEmpty()) {
+            listener.providers = providers;
             mLocationObservable.dispatchLocationTrackingStatusChanged(TrackingStatus.START_TRACKING);
             logger.d("tracking started");
+        } else {
+            mLocationListener = null;
+            mLocationThread.quit();
+            mLocationThread = null;
         }
     }
 
@@ -312,8 +538,7 @@ public final class LocationWatcher {
             }
             try {
                 final Location location = locationManager.getLastKnownLocation(provider);
-                if (location != null &&
-                        (bestLocation == null || bestLocation.getAccuracy() < location.getAccuracy())) {
+                if (location != null && isBetterLocation(location, bestLocation)) {
                     bestLocation = location;
                 }
             } catch (RuntimeException e) {
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.os.Build;
 
 import net.maxsmr.commonutils.processmanager.model.ProcessInfo;
+import net.maxsmr.commonutils.processmanager.proc.ProcFsProcessManager;
 import net.maxsmr.commonutils.processmanager.shell.BusyboxPsProcessManager;
 import net.maxsmr.commonutils.processmanager.shell.BusyboxTopProcessManager;
 import net.maxsmr.commonutils.processmanager.shell.PsProcessManager;
@@ -93,6 +94,10 @@ public class ProcessManagerHolder {
         if (isKitKat) {
             managers.add(defaultProcessManager);
         }
+        if (ProcFsProcessManager.isAvailable()) {
+            // no processes spawning, incremental refresh
+            managers.add(new ProcFsProcessManager(context));
+        }
         managers.add(new ToolboxPsProcessManager(context));
         managers.add(new TopProcessManager(context));
         managers.add(new BusyboxTopProcessManager(context));
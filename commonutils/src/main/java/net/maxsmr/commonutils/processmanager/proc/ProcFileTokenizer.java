@@ -0,0 +1,212 @@
+package net.maxsmr.commonutils.processmanager.proc;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads small procfs files into reusable byte buffer and tokenizes them in place,
+ * without creating intermediate strings
+ * Not thread-safe
+ */
+public class ProcFileTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * procfs files may be large (for example, long cmdline), but only head is needed
+     */
+    private static final int MAX_BUFFER_SIZE = 16 * 1024;
+
+    @NotNull
+    private byte[] buffer;
+
+    private int length = 0;
+
+    private int position = 0;
+
+    public ProcFileTokenizer() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public ProcFileTokenizer(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Incorrect buffer size: " + bufferSize);
+        }
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads whole file (up to {@link #MAX_BUFFER_SIZE}) and resets position
+     * @return false if file cannot be read (process was finished or access denied)
+     */
+    public boolean load(@NotNull String path) {
+        length = 0;
+        position = 0;
+        try (FileInputStream in = new FileInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+                if (length == buffer.length) {
+                    if (buffer.length >= MAX_BUFFER_SIZE) {
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BUFFER_SIZE));
+                }
+            }
+        } catch (IOException e) {
+            length = 0;
+            return false;
+        }
+        return true;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean hasNext() {
+        return position < length;
+    }
+
+    /**
+     * Moves position after last occurrence of given byte
+     * @return false if not found
+     */
+    public boolean seekAfterLast(byte b) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == b) {
+                position = i + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves position to beginning of the value on the line started with given prefix
+     * @param prefix for example, "Uid:"
+     * @return false if not found
+     */
+    public boolean seekLine(@NotNull String prefix) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            if (startsWith(lineStart, prefix)) {
+                position = lineStart + prefix.length();
+                return true;
+            }
+            int i = lineStart;
+            while (i < length && buffer[i] != '\n') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        return false;
+    }
+
+    public void skipFields(int count) {
+        for (int c = 0; c < count; c++) {
+            skipWhitespaces();
+            while (position < length && !isWhitespace(buffer[position])) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * @return first byte of next field or 0, if there are no more fields
+     */
+    public byte nextByteField() {
+        skipWhitespaces();
+        if (position >= length) {
+            return 0;
+        }
+        final byte b = buffer[position];
+        while (position < length && !isWhitespace(buffer[position])) {
+            position++;
+        }
+        return b;
+    }
+
+    /**
+     * @return next decimal field value or defaultValue, if there are no more fields or field is not a number
+     */
+    public long nextLong(long defaultValue) {
+        skipWhitespaces();
+        if (position >= length) {
+            return defaultValue;
+        }
+        boolean negative = false;
+        if (buffer[position] == '-') {
+            negative = true;
+            position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (position < length && !isWhitespace(buffer[position])) {
+            final byte b = buffer[position++];
+            if (b < '0' || b > '9') {
+                // skip the rest of the field
+                while (position < length && !isWhitespace(buffer[position])) {
+                    position++;
+                }
+                return defaultValue;
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            return defaultValue;
+        }
+        return negative ? -value : value;
+    }
+
+    public int nextInt(int defaultValue) {
+        return (int) nextLong(defaultValue);
+    }
+
+    /**
+     * Creates string from current position to given terminator or end of data;
+     * allocating - should be used only for rarely changed values (cmdline)
+     */
+    @Nullable
+    public String nextString(byte terminator) {
+        if (position >= length) {
+            return null;
+        }
+        final int start = position;
+        while (position < length && buffer[position] != terminator) {
+            position++;
+        }
+        final int end = position;
+        if (position < length) {
+            position++;
+        }
+        return end > start ? new String(buffer, start, end - start) : null;
+    }
+
+    private boolean startsWith(int offset, @NotNull String prefix) {
+        if (offset + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespaces() {
+        while (position < length && isWhitespace(buffer[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0;
+    }
+}
@@ -0,0 +1,295 @@
+package net.maxsmr.commonutils.processmanager.proc;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.system.Os;
+import android.system.OsConstants;
+
+import net.maxsmr.commonutils.processmanager.AbstractProcessManager;
+import net.maxsmr.commonutils.processmanager.model.ProcessInfo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static net.maxsmr.commonutils.AppUtilsKt.getApplicationInfo;
+import static net.maxsmr.commonutils.processmanager.model.ProcessInfo.ProcessState.S;
+import static net.maxsmr.commonutils.text.TextUtilsKt.isEmpty;
+
+/**
+ * ProcessManager reading /proc/[pid]/stat, status and cmdline directly, without spawning ps / top
+ * <p>
+ * Refresh is incremental: uid, cmdline and application info are read only once per process
+ * (pid + start time, to handle pid reuse), only stat is re-read for already known processes
+ * <p>
+ * On Android N+ /proc is usually mounted with hidepid, so only own processes are visible
+ * without root: check {@linkplain #isAvailable()} before using
+ */
+public class ProcFsProcessManager extends AbstractProcessManager {
+
+    private static final String PROC_PATH = "/proc";
+
+    private static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private static final ProcessInfo.ProcessState[] PROCESS_STATES = ProcessInfo.ProcessState.values();
+
+    private final ProcFileTokenizer tokenizer = new ProcFileTokenizer();
+
+    private final StringBuilder pathBuilder = new StringBuilder(32);
+
+    /**
+     * pid -- process entry from previous refresh
+     */
+    private final Map<Integer, ProcessEntry> entries = new HashMap<>();
+
+    /**
+     * package name -- application info, shared between processes of same package
+     */
+    private final Map<String, PackageEntry> packages = new HashMap<>();
+
+    private final long pageSizeKb;
+
+    private int generation = 0;
+
+    public ProcFsProcessManager(@NotNull Context context) {
+        super(context);
+        long pageSize = DEFAULT_PAGE_SIZE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            pageSize = Os.sysconf(OsConstants._SC_PAGESIZE);
+            if (pageSize <= 0) {
+                pageSize = DEFAULT_PAGE_SIZE;
+            }
+        }
+        pageSizeKb = pageSize / 1024;
+    }
+
+    /**
+     * @return true if processes of other users are visible in /proc
+     */
+    public static boolean isAvailable() {
+        return new File(PROC_PATH, "1/stat").canRead();
+    }
+
+    @NotNull
+    @Override
+    public synchronized List<ProcessInfo> getProcesses(boolean includeSystemPackages) {
+
+        final String[] names = new File(PROC_PATH).list();
+        if (names == null) {
+            logger.e("Processes get failed: cannot list " + PROC_PATH);
+            return new ArrayList<>();
+        }
+
+        final List<ProcessInfo> processes = new ArrayList<>();
+
+        // new processes with names which are looking like not yet known packages
+        boolean hasUnknownPackages = false;
+
+        generation++;
+
+        for (String name : names) {
+            final int pid = parsePid(name);
+            if (pid <= 0) {
+                continue;
+            }
+
+            if (!loadFile(pid, "stat") || !tokenizer.seekAfterLast((byte) ')')) {
+                // process has gone
+                continue;
+            }
+
+            // fields after "(comm)": state (3), ppid (4) ... starttime (22), vsize (23), rss (24)
+            final byte state = tokenizer.nextByteField();
+            final int pPid = tokenizer.nextInt(0);
+            tokenizer.skipFields(17);
+            final long startTime = tokenizer.nextLong(0);
+            final long vSizeBytes = tokenizer.nextLong(0);
+            final long rssPages = tokenizer.nextLong(0);
+
+            ProcessEntry entry = entries.get(pid);
+            if (entry == null || entry.startTime != startTime) {
+                entry = readProcessEntry(pid, startTime);
+                entries.put(pid, entry);
+                if (entry.packageEntry == null && entry.looksLikePackage) {
+                    hasUnknownPackages = true;
+                }
+            }
+            entry.generation = generation;
+
+            if (entry.packageEntry == null) {
+                continue;
+            }
+
+            if (!includeSystemPackages && entry.packageEntry.isSystemApp) {
+                continue;
+            }
+
+            final ProcessInfo.ProcessState processState = toProcessState(state);
+
+            processes.add(new ProcessInfo(entry.packageEntry.packageName, entry.packageEntry.applicationName,
+                    pid, pPid, String.valueOf(entry.uid), entry.uid,
+                    (int) (rssPages * pageSizeKb), (int) (vSizeBytes / 1024),
+                    processState, processState != null ? processState != S : null,
+                    entry.packageEntry.isSystemApp));
+        }
+
+        // forget finished processes
+        final Iterator<ProcessEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().generation != generation) {
+                it.remove();
+            }
+        }
+
+        if (hasUnknownPackages) {
+            // something may have been installed since last packages refresh:
+            // resolve new entries once, they will be returned on next call
+            refreshPackages();
+            for (Map.Entry<Integer, ProcessEntry> e : entries.entrySet()) {
+                final ProcessEntry entry = e.getValue();
+                if (entry.packageEntry == null && entry.looksLikePackage && entry.isNew) {
+                    entry.packageEntry = getPackageEntry(entry.processName);
+                }
+            }
+        }
+
+        for (ProcessEntry entry : entries.values()) {
+            entry.isNew = false;
+        }
+
+        return processes;
+    }
+
+    /**
+     * Drops all cached processes and packages info
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        packages.clear();
+        refreshPackages();
+    }
+
+    @NotNull
+    private ProcessEntry readProcessEntry(int pid, long startTime) {
+
+        int uid = -1;
+        if (loadFile(pid, "status") && tokenizer.seekLine("Uid:")) {
+            // real uid is first
+            uid = tokenizer.nextInt(-1);
+        }
+
+        String processName = null;
+        if (loadFile(pid, "cmdline")) {
+            processName = tokenizer.nextString((byte) 0);
+        }
+
+        PackageEntry packageEntry = null;
+        boolean looksLikePackage = false;
+
+        if (!isEmpty(processName)) {
+            processName = processName.trim();
+            looksLikePackage = PACKAGE_PATTERN.matcher(processName.toLowerCase(Locale.getDefault())).matches();
+            if (looksLikePackage) {
+                packageEntry = getPackageEntry(processName);
+            }
+        }
+
+        return new ProcessEntry(startTime, uid, processName, packageEntry, looksLikePackage);
+    }
+
+    @Nullable
+    private PackageEntry getPackageEntry(@NotNull String packageName) {
+        PackageEntry entry = packages.get(packageName);
+        if (entry == null && isPackageInstalled(packageName)) {
+            final ApplicationInfo appInfo = getApplicationInfo(context, packageName, 0);
+            if (appInfo != null) {
+                entry = new PackageEntry(packageName, appInfo.loadLabel(packageManager), isSystemPackage(packageName));
+                packages.put(packageName, entry);
+            }
+        }
+        return entry;
+    }
+
+    private boolean loadFile(int pid, @NotNull String name) {
+        pathBuilder.setLength(0);
+        pathBuilder.append(PROC_PATH).append('/').append(pid).append('/').append(name);
+        return tokenizer.load(pathBuilder.toString());
+    }
+
+    private static int parsePid(@NotNull String name) {
+        int pid = 0;
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+
+    @Nullable
+    private static ProcessInfo.ProcessState toProcessState(byte state) {
+        for (ProcessInfo.ProcessState s : PROCESS_STATES) {
+            if (s.name().charAt(0) == state) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private static class ProcessEntry {
+
+        final long startTime;
+
+        final int uid;
+
+        @Nullable
+        final String processName;
+
+        /**
+         * null if process is not an installed application
+         */
+        @Nullable
+        PackageEntry packageEntry;
+
+        final boolean looksLikePackage;
+
+        boolean isNew = true;
+
+        int generation;
+
+        ProcessEntry(long startTime, int uid, @Nullable String processName, @Nullable PackageEntry packageEntry, boolean looksLikePackage) {
+            this.startTime = startTime;
+            this.uid = uid;
+            this.processName = processName;
+            this.packageEntry = packageEntry;
+            this.looksLikePackage = looksLikePackage;
+        }
+    }
+
+    private static class PackageEntry {
+
+        @NotNull
+        final String packageName;
+
+        @Nullable
+        final CharSequence applicationName;
+
+        final boolean isSystemApp;
+
+        PackageEntry(@NotNull String packageName, @Nullable CharSequence applicationName, boolean isSystemApp) {
+            this.packageName = packageName;
+            this.applicationName = applicationName;
+            this.isSystemApp = isSystemApp;
+        }
+    }
+}
@@ -21,7 +21,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import static net.maxsmr.commonutils.CompareUtilsKt.stringsEqual;
 import static net.maxsmr.commonutils.FileUtilsKt.isFileExists;
@@ -34,8 +33,6 @@ import static net.maxsmr.commonutils.text.TextUtilsKt.isEmpty;
 
 public abstract class AbstractShellProcessManager extends AbstractProcessManager {
 
-    private static final Pattern PACKAGE_PATTERN = Pattern.compile("^[a-z][a-z0-9_]*(\\.[a-z0-9_]+)+[0-9a-z_]$");
-
     protected final ShellWrapper shellWrapper = new ShellWrapper(false);
 
     @Nullable
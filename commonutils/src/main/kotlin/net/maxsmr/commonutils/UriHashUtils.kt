@@ -4,8 +4,8 @@ import android.content.ContentResolver
 import android.net.Uri
 import net.maxsmr.commonutils.logger.BaseLogger
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.media.copyWithDigest
 import net.maxsmr.commonutils.media.openInputStreamOrThrow
-import net.maxsmr.commonutils.media.readBytes
 import java.security.MessageDigest
 
 private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("AndroidHashUtils")
@@ -32,5 +32,14 @@ fun Uri.digest(contentResolver: ContentResolver, algorithm: MessageDigest): Byte
 fun Uri.digestOrThrow(contentResolver: ContentResolver, algorithm: MessageDigest): ByteArray =
         openInputStreamOrThrow(contentResolver).digestOrThrow(algorithm, true)
 
+/**
+ * @return digests by algorithm names, computed in one read of content
+ */
+fun Uri.digests(contentResolver: ContentResolver, algorithms: Collection<String>): Map<String, ByteArray> =
+        copyWithDigest(contentResolver, null, algorithms)?.digests ?: emptyMap()
+
+/**
+ * Content is read by chunks, not loaded to memory at once
+ */
 fun Uri.getCrc32Hash(contentResolver: ContentResolver): Long =
-        readBytes(contentResolver).getCrc32Hash()
\ No newline at end of file
+        copyWithDigest(contentResolver, null, withCrc32 = true)?.crc32 ?: 0L
\ No newline at end of file
@@ -3,23 +3,37 @@ package net.maxsmr.commonutils.analytics
 import net.maxsmr.commonutils.CompareCondition
 import net.maxsmr.commonutils.logger.BaseLogger
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
- * Вспомогательный класс для трека событий аналитики
+ * Вспомогательный класс для трека событий аналитики;
+ * для отправки не на вызывающем потоке передать [AnalyticsPipeline] в качестве [analyticsService]
  */
 class AnalyticsHelper(
         private val analyticsService: AnalyticsService,
         var eventKeysToExclude: Set<String> = setOf(),
-        var eventParamsToExclude: Map<String, List<String>> = mapOf()
+        eventParamsToExclude: Map<String, List<String>> = mapOf()
 ) {
 
     private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>(AnalyticsHelper::class.java)
-    
+
+    /**
+     * Кол-во отправленных ивентов для экземпляров и типов
+     */
+    private val counts = EventCounts()
+
     /**
-     * Маппинг, содержащий кол-во отправленных ивентов для экземпляра
+     * Параметры для исключения, собранные в множества по ключам событий
      */
-    private val analyticsStateMap: MutableMap<AnalyticsEvent, Int> = mutableMapOf()
-    
+    @Volatile
+    private var paramsToExcludeByKey: Map<String, Set<String>> = toParamsByKey(eventParamsToExclude)
+
+    var eventParamsToExclude: Map<String, List<String>> = eventParamsToExclude
+        set(value) {
+            field = value
+            paramsToExcludeByKey = toParamsByKey(value)
+        }
 
     fun performActionForSingleInstance(event: AnalyticsEvent) {
         performActionWithCheck(event, SingleSentEventInstanceRule())
@@ -30,24 +44,23 @@ class AnalyticsHelper(
     }
 
     fun performActionWithCheck(event: AnalyticsEvent, rule: EventRule) {
-        if (rule.shouldPerformAction(event, analyticsStateMap)) {
-            performAction(event)
+        // проверка и подсчёт вместе, чтобы одно правило не прошли параллельные вызовы
+        val shouldPerform = synchronized(counts) {
+            rule.shouldPerformAction(event, counts) && countIfNotExcluded(event)
+        }
+        if (shouldPerform) {
+            track(event)
         }
     }
 
     fun performAction(event: AnalyticsEvent) {
-        if (!eventKeysToExclude.contains(event.key())) {
-            filterParamsForEvent(event)
-            var count = analyticsStateMap[event] ?: 0
-            analyticsService.trackEvent(event)
-            count++
-            analyticsStateMap[event] = count
-            logger?.d("Event $event was sent, count: $count; types count: " + analyticsStateMap.getCountForType(event.javaClass))
+        if (countIfNotExcluded(event)) {
+            track(event)
         }
     }
 
     fun clearActions() {
-        analyticsStateMap.clear()
+        counts.clear()
     }
 
     /**
@@ -55,39 +68,77 @@ class AnalyticsHelper(
      * в указанном [event]
      */
     fun filterParamsForEvent(event: AnalyticsEvent): Boolean {
+        val params = paramsToExcludeByKey[event.key()] ?: return false
         var result = false
-        eventParamsToExclude.entries.forEach {entry ->
-            if (event.key() == entry.key) {
-                val bundle = event.params()
-                entry.value.toSet().forEach { param ->
-                    if (bundle.containsKey(param)) {
-                        bundle.remove(param)
-                        result = true
-                    }
-                }
+        val bundle = event.params()
+        params.forEach { param ->
+            if (bundle.containsKey(param)) {
+                bundle.remove(param)
+                result = true
             }
         }
         return result
     }
 
+    private fun countIfNotExcluded(event: AnalyticsEvent): Boolean {
+        if (eventKeysToExclude.contains(event.key())) {
+            return false
+        }
+        counts.increment(event)
+        return true
+    }
+
+    private fun track(event: AnalyticsEvent) {
+        filterParamsForEvent(event)
+        analyticsService.trackEvent(event)
+        logger?.d("Event $event was sent, count: ${counts.countOf(event)}; types count: ${counts.countOfType(event.javaClass)}")
+    }
+
+    /**
+     * Кол-во отправленных ивентов: по типам считается при отправке, а не перебором всех экземпляров
+     */
+    class EventCounts {
+
+        private val byEvent = ConcurrentHashMap<AnalyticsEvent, AtomicInteger>()
+
+        private val byType = ConcurrentHashMap<Class<*>, AtomicInteger>()
+
+        fun countOf(event: AnalyticsEvent): Int = byEvent[event]?.get() ?: 0
+
+        fun countOfType(type: Class<*>): Int = byType[type]?.get() ?: 0
+
+        internal fun increment(event: AnalyticsEvent) {
+            byEvent.counter(event).incrementAndGet()
+            byType.counter(event.javaClass).incrementAndGet()
+        }
+
+        internal fun clear() {
+            byEvent.clear()
+            byType.clear()
+        }
+
+        private fun <K> ConcurrentHashMap<K, AtomicInteger>.counter(key: K): AtomicInteger =
+                get(key) ?: AtomicInteger(0).let { putIfAbsent(key, it) ?: it }
+    }
+
     /**
      * Правило, по которому разрешается отправка ивента
      */
     interface EventRule {
 
-        fun shouldPerformAction(event: AnalyticsEvent, analyticsStateMap: MutableMap<AnalyticsEvent, Int>): Boolean
+        fun shouldPerformAction(event: AnalyticsEvent, counts: EventCounts): Boolean
     }
 
     open class CountableSentEventInstanceRule(val count: Int, private val condition: CompareCondition = CompareCondition.EQUAL) : EventRule {
 
-        override fun shouldPerformAction(event: AnalyticsEvent, analyticsStateMap: MutableMap<AnalyticsEvent, Int>) =
-                condition.apply((analyticsStateMap[event] ?: 0), count)
+        override fun shouldPerformAction(event: AnalyticsEvent, counts: EventCounts) =
+                condition.apply(counts.countOf(event), count)
     }
 
     open class CountableSentEventTypeRule(val count: Int, private val condition: CompareCondition = CompareCondition.EQUAL) : EventRule {
 
-        override fun shouldPerformAction(event: AnalyticsEvent, analyticsStateMap: MutableMap<AnalyticsEvent, Int>) =
-                condition.apply(analyticsStateMap.getCountForType(event.javaClass), count)
+        override fun shouldPerformAction(event: AnalyticsEvent, counts: EventCounts) =
+                condition.apply(counts.countOfType(event.javaClass), count)
     }
 
     /**
@@ -99,10 +150,10 @@ class AnalyticsHelper(
      * Отправка возможна, если нет уже отправленного инстанса, равного [AnalyticsEvent]
      */
     class SingleSentEventInstanceRule : CountableSentEventInstanceRule(0)
-}
 
-private fun Map<AnalyticsEvent, Int>.getCountForType(type: Class<AnalyticsEvent>): Int {
-    var sum = 0
-    filter { it.key.javaClass == type }.forEach { sum += it.value }
-    return sum
-}
\ No newline at end of file
+    companion object {
+
+        private fun toParamsByKey(params: Map<String, List<String>>): Map<String, Set<String>> =
+                params.mapValues { it.value.toSet() }
+    }
+}
@@ -0,0 +1,302 @@
+package net.maxsmr.commonutils.analytics
+
+import android.os.SystemClock
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.File
+import java.util.Random
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("AnalyticsPipeline")
+
+/**
+ * [AnalyticsService], складывающий события в неблокирующую очередь и доставляющий их
+ * в [services] на фоновом потоке пачками: по набору [batchSize] событий
+ * или через [flushInterval] мс после первого недоставленного;
+ * пачки, не принятые [BatchAnalyticsService] (нет сети), сохраняются в [spillDir]
+ * и отправляются первыми при следующей доставке или [flush]
+ *
+ * @param limits выборка и ограничение частоты по ключам событий
+ * @param defaultLimit для ключей, которых нет в [limits]
+ * @param spillDir каталог для недоставленных событий, null - отбрасывать их;
+ * файлы называются по классам сервисов, поэтому классы должны различаться
+ */
+class AnalyticsPipeline @JvmOverloads constructor(
+    services: Collection<AnalyticsService>,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+    private val flushInterval: Long = DEFAULT_FLUSH_INTERVAL,
+    private val limits: Map<String, EventLimit> = emptyMap(),
+    private val defaultLimit: EventLimit? = null,
+    spillDir: File? = null,
+    maxSpillSize: Long = AnalyticsSpillBuffer.DEFAULT_MAX_SIZE
+) : AnalyticsService {
+
+    private val channels: List<Channel>
+
+    private val queue = ConcurrentLinkedQueue<AnalyticsEvent>()
+
+    /**
+     * [ConcurrentLinkedQueue.size] обходит всю очередь
+     */
+    private val queueSize = AtomicInteger(0)
+
+    private val isFlushScheduled = AtomicBoolean(false)
+
+    private val isFlushRequested = AtomicBoolean(false)
+
+    private val isReleased = AtomicBoolean(false)
+
+    private val limitStates = ConcurrentHashMap<String, LimitState>()
+
+    @Volatile
+    private var workerThread: Thread? = null
+
+    private val executor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { r ->
+        Thread(r, "AnalyticsPipeline-${threadCounter.incrementAndGet()}").apply {
+            isDaemon = true
+            workerThread = this
+        }
+    }
+
+    init {
+        require(services.isNotEmpty()) { "No services" }
+        require(batchSize > 0) { "Incorrect batchSize: $batchSize" }
+        require(flushInterval >= 0) { "Incorrect flushInterval: $flushInterval" }
+        if (spillDir != null) {
+            require(services.map { it.javaClass }.toSet().size == services.size) { "Services classes are not distinct" }
+        }
+        channels = services.map { service ->
+            val spillBuffer = if (spillDir != null && service is BatchAnalyticsService) {
+                AnalyticsSpillBuffer(File(spillDir, service.javaClass.name + SPILL_EXT), maxSpillSize)
+            } else {
+                null
+            }
+            Channel(service, spillBuffer)
+        }
+    }
+
+    override fun trackEvent(event: AnalyticsEvent) {
+        offer(event)
+    }
+
+    /**
+     * Не блокирует вызывающий поток, кроме короткой проверки лимита по ключу
+     *
+     * @return false, если событие отброшено выборкой или лимитом
+     */
+    fun offer(event: AnalyticsEvent): Boolean {
+        if (isReleased.get()) {
+            logger.w("Pipeline is released, event ${event.key()} dropped")
+            return false
+        }
+        if (!isAllowed(event.key())) {
+            return false
+        }
+        queue.offer(event)
+        if (queueSize.incrementAndGet() >= batchSize) {
+            if (isFlushRequested.compareAndSet(false, true)) {
+                execute {
+                    isFlushRequested.set(false)
+                    deliverQueued()
+                }
+            }
+        } else if (isFlushScheduled.compareAndSet(false, true)) {
+            execute(flushInterval) {
+                isFlushScheduled.set(false)
+                deliverQueued()
+            }
+        }
+        return true
+    }
+
+    /**
+     * Доставляет накопленные и сохранённые события сейчас и ждёт этого;
+     * например, при появлении сети
+     */
+    fun flush() {
+        try {
+            if (Thread.currentThread() === workerThread) {
+                deliverQueued()
+            } else {
+                executor.submit(Runnable { deliverQueued() }).get()
+            }
+        } catch (e: ExecutionException) {
+            logger.e(formatException(e.cause ?: e, "flush"))
+        } catch (e: RejectedExecutionException) {
+            logger.e(formatException(e, "flush"))
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Доставляет (или сохраняет) накопленные события и останавливает поток
+     */
+    fun release() {
+        if (isReleased.compareAndSet(false, true)) {
+            flush()
+            executor.shutdown()
+        }
+    }
+
+    /**
+     * Вызывается только на [executor]
+     */
+    private fun deliverQueued() {
+        var hasEvents = false
+        while (true) {
+            val batch = ArrayList<AnalyticsEvent>(Math.min(queueSize.get(), batchSize))
+            while (batch.size < batchSize) {
+                val event = queue.poll() ?: break
+                queueSize.decrementAndGet()
+                batch.add(event)
+            }
+            if (batch.isEmpty()) {
+                break
+            }
+            hasEvents = true
+            channels.forEach { it.deliver(batch) }
+        }
+        if (!hasEvents) {
+            channels.forEach { it.retrySpilled() }
+        }
+    }
+
+    private fun isAllowed(key: String): Boolean {
+        val limit = limits[key] ?: defaultLimit ?: return true
+        if (limit.samplingRate < 1.0 && random.nextDouble() >= limit.samplingRate) {
+            return false
+        }
+        if (limit.maxCount <= 0 || limit.period <= 0) {
+            return true
+        }
+        val state = limitStates[key] ?: LimitState().let { limitStates.putIfAbsent(key, it) ?: it }
+        return state.tryAcquire(limit, SystemClock.elapsedRealtime())
+    }
+
+    private fun execute(delay: Long = 0, action: () -> Unit) {
+        try {
+            if (delay > 0) {
+                executor.schedule(Runnable { action() }, delay, TimeUnit.MILLISECONDS)
+            } else {
+                executor.execute { action() }
+            }
+        } catch (e: RejectedExecutionException) {
+            // released concurrently
+            logger.w("Cannot schedule delivery: ${e.message}")
+        }
+    }
+
+    /**
+     * @param samplingRate доля пропускаемых событий, от 0 до 1
+     * @param maxCount макс. кол-во событий за [period] мс, 0 - без ограничения
+     */
+    data class EventLimit @JvmOverloads constructor(
+        val samplingRate: Double = 1.0,
+        val maxCount: Int = 0,
+        val period: Long = 0
+    ) {
+
+        init {
+            require(samplingRate in 0.0..1.0) { "Incorrect samplingRate: $samplingRate" }
+            require(maxCount >= 0) { "Incorrect maxCount: $maxCount" }
+            require(period >= 0) { "Incorrect period: $period" }
+        }
+    }
+
+    /**
+     * Фиксированное окно [EventLimit.period] для одного ключа
+     */
+    private class LimitState {
+
+        private var windowStart = 0L
+
+        private var count = 0
+
+        @Synchronized
+        fun tryAcquire(limit: EventLimit, now: Long): Boolean {
+            if (count == 0 || now - windowStart >= limit.period) {
+                windowStart = now
+                count = 0
+            }
+            if (count >= limit.maxCount) {
+                return false
+            }
+            count++
+            return true
+        }
+    }
+
+    private inner class Channel(
+        private val service: AnalyticsService,
+        private val spillBuffer: AnalyticsSpillBuffer?
+    ) {
+
+        fun deliver(batch: List<AnalyticsEvent>) {
+            if (spillBuffer != null && !spillBuffer.isEmpty) {
+                // keep order: new events wait for stored ones
+                if (!spillBuffer.drain(batchSize) { send(it) }) {
+                    spillBuffer.append(batch)
+                    return
+                }
+            }
+            if (!send(batch)) {
+                if (spillBuffer != null) {
+                    spillBuffer.append(batch)
+                } else {
+                    logger.w("${batch.size} events are not delivered to ${service.javaClass.simpleName} and dropped")
+                }
+            }
+        }
+
+        fun retrySpilled() {
+            if (spillBuffer != null && !spillBuffer.isEmpty) {
+                spillBuffer.drain(batchSize) { send(it) }
+            }
+        }
+
+        /**
+         * @return false, если пачку нужно отправить позже
+         */
+        private fun send(batch: List<AnalyticsEvent>): Boolean {
+            if (service is BatchAnalyticsService) {
+                return try {
+                    service.trackEvents(batch)
+                } catch (e: RuntimeException) {
+                    logger.e(formatException(e, "trackEvents"))
+                    true
+                }
+            }
+            batch.forEach {
+                try {
+                    service.trackEvent(it)
+                } catch (e: RuntimeException) {
+                    logger.e(formatException(e, "trackEvent ${it.key()}"))
+                }
+            }
+            return true
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_BATCH_SIZE = 20
+
+        const val DEFAULT_FLUSH_INTERVAL = 5000L
+
+        private const val SPILL_EXT = ".events"
+
+        private val threadCounter = AtomicInteger(0)
+
+        private val random = Random()
+    }
+}
@@ -6,4 +6,18 @@ package net.maxsmr.commonutils.analytics
 interface AnalyticsService {
 
     fun trackEvent(event: AnalyticsEvent)
-}
\ No newline at end of file
+}
+
+/**
+ * Сервис, принимающий события пачками (например, одним сетевым запросом)
+ */
+interface BatchAnalyticsService : AnalyticsService {
+
+    /**
+     * Вызывается на фоновом потоке [AnalyticsPipeline]
+     *
+     * @return false, если события не доставлены сейчас (например, нет сети)
+     * и должны быть отправлены повторно; исключение означает, что пачка отброшена
+     */
+    fun trackEvents(events: List<AnalyticsEvent>): Boolean
+}
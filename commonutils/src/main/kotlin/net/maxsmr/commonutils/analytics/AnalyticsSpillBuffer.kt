@@ -0,0 +1,321 @@
+package net.maxsmr.commonutils.analytics
+
+import android.os.Bundle
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("AnalyticsSpillBuffer")
+
+/**
+ * Файл с недоставленными событиями: записи только дописываются в конец,
+ * доставленные удаляются из начала перезаписью остатка;
+ * сохраняются ключ и параметры простых типов (остальные - строками),
+ * восстанавливаются как [StoredAnalyticsEvent]
+ *
+ * @param maxSize макс. размер файла в байтах, не поместившиеся события отбрасываются
+ */
+class AnalyticsSpillBuffer @JvmOverloads constructor(
+    private val file: File,
+    private val maxSize: Long = DEFAULT_MAX_SIZE
+) {
+
+    /**
+     * -1, пока файл не проверен
+     */
+    private var size = -1L
+
+    val isEmpty: Boolean
+        @Synchronized get() = ensureLoaded() == 0L
+
+    /**
+     * Дописывает события и синхронизирует файл с диском
+     *
+     * @return кол-во сохранённых событий
+     */
+    @Synchronized
+    fun append(events: List<AnalyticsEvent>): Int {
+        val currentSize = ensureLoaded()
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+        var stored = 0
+        for (event in events) {
+            val record = encode(event) ?: continue
+            if (currentSize + bytes.size() + 4 + record.size > maxSize) {
+                logger.w("Spill buffer $file is full, ${events.size - stored} events dropped")
+                break
+            }
+            output.writeInt(record.size)
+            output.write(record)
+            stored++
+        }
+        if (bytes.size() == 0) {
+            return 0
+        }
+        return try {
+            file.parentFile?.mkdirs()
+            FileOutputStream(file, true).use {
+                it.write(bytes.toByteArray())
+                it.fd.sync()
+            }
+            size = currentSize + bytes.size()
+            stored
+        } catch (e: IOException) {
+            logger.e(formatException(e, "write"))
+            // partial record would break next ones
+            truncate(currentSize)
+            0
+        }
+    }
+
+    /**
+     * Передаёт сохранённые события в [deliver] пачками по [batchSize], начиная со старых,
+     * до первой неудачной пачки; переданные удаляются
+     *
+     * @param deliver возвращает false, если пачка не доставлена
+     * @return true, если доставлены все
+     */
+    @Synchronized
+    fun drain(batchSize: Int, deliver: (List<AnalyticsEvent>) -> Boolean): Boolean {
+        require(batchSize > 0) { "Incorrect batchSize: $batchSize" }
+        if (ensureLoaded() == 0L) {
+            return true
+        }
+        val records = try {
+            readRecords()
+        } catch (e: IOException) {
+            logger.e(formatException(e, "read"))
+            return false
+        }
+        var index = 0
+        while (index < records.size) {
+            val end = Math.min(index + batchSize, records.size)
+            val events = records.subList(index, end).mapNotNull { decode(it) }
+            if (events.isNotEmpty() && !deliver(events)) {
+                break
+            }
+            index = end
+        }
+        if (index == records.size) {
+            clear()
+            return true
+        }
+        if (index > 0) {
+            rewrite(records.subList(index, records.size))
+        }
+        return false
+    }
+
+    @Synchronized
+    fun clear() {
+        if (file.exists() && !file.delete()) {
+            logger.e("Cannot delete $file")
+            truncate(0)
+        }
+        size = 0
+    }
+
+    /**
+     * При первом обращении отрезает запись, не дописанную до смерти процесса
+     *
+     * @return размер файла
+     */
+    private fun ensureLoaded(): Long {
+        if (size >= 0) {
+            return size
+        }
+        if (!file.isFile) {
+            size = 0
+            return size
+        }
+        var validSize = 0L
+        try {
+            DataInputStream(FileInputStream(file).buffered()).use {
+                val length = file.length()
+                while (validSize + 4 <= length) {
+                    val recordSize = it.readInt()
+                    if (recordSize < 0 || validSize + 4 + recordSize > length) {
+                        break
+                    }
+                    it.skipFully(recordSize)
+                    validSize += 4 + recordSize
+                }
+            }
+        } catch (e: IOException) {
+            logger.e(formatException(e, "read"))
+        }
+        if (validSize != file.length()) {
+            logger.w("Incomplete records after $validSize in $file are ignored")
+            truncate(validSize)
+        }
+        size = validSize
+        return size
+    }
+
+    @Throws(IOException::class)
+    private fun readRecords(): List<ByteArray> {
+        val result = mutableListOf<ByteArray>()
+        DataInputStream(FileInputStream(file).buffered()).use {
+            var position = 0L
+            while (position < size) {
+                val record = ByteArray(it.readInt())
+                it.readFully(record)
+                result.add(record)
+                position += 4 + record.size
+            }
+        }
+        return result
+    }
+
+    private fun rewrite(records: List<ByteArray>) {
+        val tempFile = File(file.path + TEMP_SUFFIX)
+        try {
+            var newSize = 0L
+            DataOutputStream(FileOutputStream(tempFile).buffered()).use {
+                records.forEach { record ->
+                    it.writeInt(record.size)
+                    it.write(record)
+                    newSize += 4 + record.size
+                }
+            }
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw IOException("Cannot rename $tempFile to $file")
+            }
+            size = newSize
+        } catch (e: IOException) {
+            tempFile.delete()
+            // delivered events will be sent again
+            logger.e(formatException(e, "rewrite"))
+        }
+    }
+
+    private fun truncate(length: Long) {
+        try {
+            RandomAccessFile(file, "rw").use { it.setLength(length) }
+        } catch (e: IOException) {
+            logger.e(formatException(e, "setLength"))
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_MAX_SIZE = 1024 * 1024L
+
+        private const val TEMP_SUFFIX = ".tmp"
+
+        private const val TYPE_NULL = 0
+        private const val TYPE_STRING = 1
+        private const val TYPE_INT = 2
+        private const val TYPE_LONG = 3
+        private const val TYPE_FLOAT = 4
+        private const val TYPE_DOUBLE = 5
+        private const val TYPE_BOOLEAN = 6
+
+        @Suppress("DEPRECATION")
+        private fun encode(event: AnalyticsEvent): ByteArray? = try {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { output ->
+                val params = event.params()
+                val keys = params.keySet()
+                output.writeUTF(event.key())
+                output.writeInt(keys.size)
+                keys.forEach {
+                    output.writeUTF(it)
+                    when (val value = params.get(it)) {
+                        null -> output.writeByte(TYPE_NULL)
+                        is Int -> {
+                            output.writeByte(TYPE_INT)
+                            output.writeInt(value)
+                        }
+                        is Long -> {
+                            output.writeByte(TYPE_LONG)
+                            output.writeLong(value)
+                        }
+                        is Float -> {
+                            output.writeByte(TYPE_FLOAT)
+                            output.writeFloat(value)
+                        }
+                        is Double -> {
+                            output.writeByte(TYPE_DOUBLE)
+                            output.writeDouble(value)
+                        }
+                        is Boolean -> {
+                            output.writeByte(TYPE_BOOLEAN)
+                            output.writeBoolean(value)
+                        }
+                        else -> {
+                            output.writeByte(TYPE_STRING)
+                            output.writeUTF(value.toString())
+                        }
+                    }
+                }
+            }
+            bytes.toByteArray()
+        } catch (e: IOException) {
+            // too long strings
+            logger.e(formatException(e, "encode ${event.key()}"))
+            null
+        }
+
+        private fun decode(record: ByteArray): AnalyticsEvent? = try {
+            DataInputStream(ByteArrayInputStream(record)).use { input ->
+                val key = input.readUTF()
+                val params = Bundle()
+                repeat(input.readInt()) {
+                    val name = input.readUTF()
+                    when (val type = input.readByte().toInt()) {
+                        TYPE_NULL -> params.putString(name, null)
+                        TYPE_STRING -> params.putString(name, input.readUTF())
+                        TYPE_INT -> params.putInt(name, input.readInt())
+                        TYPE_LONG -> params.putLong(name, input.readLong())
+                        TYPE_FLOAT -> params.putFloat(name, input.readFloat())
+                        TYPE_DOUBLE -> params.putDouble(name, input.readDouble())
+                        TYPE_BOOLEAN -> params.putBoolean(name, input.readBoolean())
+                        else -> throw IOException("Unknown param type $type")
+                    }
+                }
+                StoredAnalyticsEvent(key, params)
+            }
+        } catch (e: IOException) {
+            logger.e(formatException(e, "decode"))
+            null
+        }
+
+        @Throws(IOException::class)
+        private fun DataInputStream.skipFully(count: Int) {
+            var remaining = count
+            while (remaining > 0) {
+                val skipped = skipBytes(remaining)
+                if (skipped <= 0) {
+                    throw EOFException()
+                }
+                remaining -= skipped
+            }
+        }
+    }
+}
+
+/**
+ * Событие, восстановленное из [AnalyticsSpillBuffer]
+ */
+class StoredAnalyticsEvent(
+    private val key: String,
+    private val params: Bundle
+) : AnalyticsEvent {
+
+    override fun key(): String = key
+
+    override fun params(): Bundle = params
+
+    override fun toString(): String = "StoredAnalyticsEvent(key='$key', params=$params)"
+}
@@ -0,0 +1,556 @@
+package net.maxsmr.commonutils.graphic
+
+import android.content.ComponentCallbacks2
+import android.content.ContentResolver
+import android.graphics.Bitmap
+import android.graphics.Bitmap.CompressFormat
+import android.graphics.Bitmap.Config
+import android.graphics.BitmapFactory
+import android.graphics.Point
+import android.net.Uri
+import android.util.LruCache
+import net.maxsmr.commonutils.digest
+import net.maxsmr.commonutils.isAtLeastKitkat
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import net.maxsmr.commonutils.media.openInputStream
+import net.maxsmr.commonutils.toHexString
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("BitmapDecodePipeline")
+
+/**
+ * Decodes bitmaps from files, uris and byte arrays, sampled down to requested size:
+ * - decoded bitmaps are kept in memory cache limited by bytes and keyed by source + target size + config;
+ * - bounds of each source are decoded once and remembered;
+ * - memory of bitmaps given back with [release] is reused for next decodes ([BitmapFactory.Options.inBitmap]);
+ * - concurrent decodes of same request are done once, all callers get same bitmap;
+ * - each returned bitmap is counted, so it's reused only after all its callers released it
+ *   and it's not in memory cache (bitmaps, which are never released, are just not reused);
+ * - downscaled thumbnails can be stored in [diskCacheDir] to skip decoding of full images later
+ *
+ * Thread-safe; decoding is done on calling thread
+ *
+ * @param memoryCacheSize max bytes of bitmaps in memory cache
+ * @param poolSize max bytes of released bitmaps kept for reuse, 0 to disable reuse
+ * @param diskCacheDir directory for thumbnails, null to disable disk cache
+ */
+class BitmapDecodePipeline @JvmOverloads constructor(
+    memoryCacheSize: Int = defaultMemoryCacheSize(),
+    poolSize: Int = memoryCacheSize / 2,
+    private val diskCacheDir: File? = null,
+    private val diskCacheSize: Long = DEFAULT_DISK_CACHE_SIZE,
+    private val thumbnailQuality: Int = DEFAULT_THUMBNAIL_QUALITY
+) : ComponentCallbacks2 {
+
+    private val pool = BitmapPool(poolSize)
+
+    /**
+     * guards [refs] and [inFlight]; memory cache lookups are done under it too,
+     * so bitmap cannot be evicted and pooled between lookup and counting of caller
+     */
+    private val refLock = Any()
+
+    /**
+     * returned bitmaps, which are used or cached;
+     * weak keys, so bitmaps not released by callers are not held ([Bitmap] doesn't override equals)
+     */
+    private val refs = WeakHashMap<Bitmap, BitmapRef>()
+
+    private val memoryCache = object : LruCache<String, Bitmap>(memoryCacheSize) {
+
+        override fun sizeOf(key: String, value: Bitmap): Int = getBitmapByteCount(value)
+
+        override fun entryRemoved(evicted: Boolean, key: String, oldValue: Bitmap, newValue: Bitmap?) {
+            if (oldValue === newValue) {
+                return
+            }
+            val isUnused = synchronized(refLock) {
+                val ref = refs[oldValue] ?: return
+                ref.isCached = false
+                if (ref.users == 0) {
+                    refs.remove(oldValue)
+                    true
+                } else {
+                    false
+                }
+            }
+            if (isUnused) {
+                toPool(oldValue)
+            }
+        }
+    }
+
+    private val boundsCache = LruCache<String, Point>(BOUNDS_CACHE_SIZE)
+
+    private val inFlight = HashMap<String, InFlightDecode>()
+
+    private val diskCacheLock = Any()
+
+    init {
+        require(memoryCacheSize > 0) { "Incorrect memoryCacheSize: $memoryCacheSize" }
+        require(poolSize >= 0) { "Incorrect poolSize: $poolSize" }
+        require(thumbnailQuality in 0..100) { "Incorrect thumbnailQuality: $thumbnailQuality" }
+    }
+
+    /**
+     * @param reqWidth bitmap is sampled down while both sides are twice larger than requested,
+     * 0 to decode without sampling
+     * @param reqHeight 0 to keep proportions of [reqWidth]
+     */
+    @JvmOverloads
+    fun decodeFile(
+        file: File,
+        reqWidth: Int = 0,
+        reqHeight: Int = 0,
+        config: Config = BITMAP_CONFIG_DEFAULT
+    ): Bitmap? {
+        if (!file.isFile) {
+            logger.e("Incorrect file: $file")
+            return null
+        }
+        // changed file gets another key
+        return decode(FileSource(file, "file:${file.absolutePath}:${file.lastModified()}:${file.length()}"), reqWidth, reqHeight, config)
+    }
+
+    @JvmOverloads
+    fun decodeUri(
+        uri: Uri,
+        contentResolver: ContentResolver,
+        reqWidth: Int = 0,
+        reqHeight: Int = 0,
+        config: Config = BITMAP_CONFIG_DEFAULT
+    ): Bitmap? = decode(UriSource(uri, contentResolver, "uri:$uri"), reqWidth, reqHeight, config)
+
+    /**
+     * @param key unique id of [data] content
+     */
+    @JvmOverloads
+    fun decodeByteArray(
+        data: ByteArray,
+        key: String,
+        reqWidth: Int = 0,
+        reqHeight: Int = 0,
+        config: Config = BITMAP_CONFIG_DEFAULT
+    ): Bitmap? {
+        if (data.isEmpty()) {
+            logger.e("data is empty")
+            return null
+        }
+        return decode(ByteArraySource(data, "bytes:$key"), reqWidth, reqHeight, config)
+    }
+
+    /**
+     * Gives bitmap, which is not used by caller anymore, for reuse by next decodes;
+     * should be called once for each returned bitmap: it's reused only when all callers,
+     * which got it, released it and it's evicted from memory cache
+     */
+    fun release(bitmap: Bitmap) {
+        synchronized(refLock) {
+            val ref = refs[bitmap]
+            if (ref != null) {
+                if (ref.users > 0) {
+                    ref.users--
+                }
+                if (ref.users > 0 || ref.isCached) {
+                    return
+                }
+                refs.remove(bitmap)
+            }
+        }
+        toPool(bitmap)
+    }
+
+    fun clearMemory() {
+        memoryCache.evictAll()
+        boundsCache.evictAll()
+        pool.clear()
+    }
+
+    fun clearDiskCache() {
+        val dir = diskCacheDir ?: return
+        synchronized(diskCacheLock) {
+            dir.listFiles()?.forEach {
+                if (!it.delete()) {
+                    logger.w("Cannot delete file: $it")
+                }
+            }
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> clearMemory()
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> {
+                memoryCache.trimToSize(memoryCache.maxSize() / 2)
+                pool.trimToSize(pool.maxSize / 2)
+            }
+        }
+    }
+
+    override fun onLowMemory() {
+        clearMemory()
+    }
+
+    override fun onConfigurationChanged(newConfig: android.content.res.Configuration) {
+    }
+
+    private fun decode(source: DecodeSource, reqWidth: Int, reqHeight: Int, config: Config): Bitmap? {
+        val requestKey = "${source.key}|${reqWidth}x$reqHeight|$config"
+        val decode: InFlightDecode
+        val isOwner: Boolean
+        synchronized(refLock) {
+            memoryCache.get(requestKey)?.let {
+                refs.getOrPut(it) { BitmapRef() }.users++
+                return it
+            }
+            val existing = inFlight[requestKey]
+            if (existing != null) {
+                // counted by owner, when result is ready
+                existing.callers++
+                decode = existing
+                isOwner = false
+            } else {
+                decode = InFlightDecode(FutureTask { decodeUncached(source, requestKey, reqWidth, reqHeight, config) })
+                inFlight[requestKey] = decode
+                isOwner = true
+            }
+        }
+        if (isOwner) {
+            runDecode(requestKey, decode)
+        }
+        // waiter interrupted here stays counted, so bitmap is just not reused
+        return getResult(decode.task)
+    }
+
+    /**
+     * Decodes on calling thread and counts all callers joined meanwhile
+     * before bitmap gets into [memoryCache], where it can be evicted
+     */
+    private fun runDecode(requestKey: String, decode: InFlightDecode) {
+        try {
+            decode.task.run()
+        } finally {
+            synchronized(refLock) {
+                inFlight.remove(requestKey)
+                val bitmap = if (decode.task.isDone) getResult(decode.task) else null
+                if (bitmap != null) {
+                    val ref = refs.getOrPut(bitmap) { BitmapRef() }
+                    ref.users += decode.callers
+                    ref.isCached = true
+                    memoryCache.put(requestKey, bitmap)
+                }
+            }
+        }
+    }
+
+    private fun decodeUncached(source: DecodeSource, requestKey: String, reqWidth: Int, reqHeight: Int, config: Config): Bitmap? {
+        val bounds = boundsCache.get(source.key) ?: source.decodeBounds().also {
+            if (it.x > 0 && it.y > 0) {
+                boundsCache.put(source.key, it)
+            }
+        }
+        if (bounds.x <= 0 || bounds.y <= 0) {
+            logger.e("Cannot decode bounds of ${source.key}")
+            return null
+        }
+        val sampleSize = calculateSampleSize(bounds, reqWidth, reqHeight)
+        val thumbnailFile = if (sampleSize > 1) getThumbnailFile(requestKey) else null
+
+        var bitmap: Bitmap? = null
+        if (thumbnailFile != null && thumbnailFile.isFile) {
+            val thumbnailSource = FileSource(thumbnailFile, thumbnailFile.path)
+            bitmap = decodeWithPool(thumbnailSource, thumbnailSource.decodeBounds(), 1, config)
+            if (bitmap != null) {
+                // so least recently used thumbnails are trimmed first
+                thumbnailFile.setLastModified(System.currentTimeMillis())
+            }
+        }
+        if (bitmap == null) {
+            bitmap = decodeWithPool(source, bounds, sampleSize, config) ?: return null
+            if (thumbnailFile != null) {
+                writeThumbnail(thumbnailFile, bitmap)
+            }
+        }
+        return bitmap
+    }
+
+    private fun decodeWithPool(source: DecodeSource, bounds: Point, sampleSize: Int, config: Config): Bitmap? {
+        if (bounds.x <= 0 || bounds.y <= 0) {
+            return null
+        }
+        val options = BitmapFactory.Options()
+        options.inSampleSize = sampleSize
+        options.inPreferredConfig = config
+        // only mutable bitmaps can be reused later
+        options.inMutable = true
+        // decoders round sampled size differently, so larger size is expected
+        val width = (bounds.x + sampleSize - 1) / sampleSize
+        val height = (bounds.y + sampleSize - 1) / sampleSize
+        val reusable = pool.get(width, height, sampleSize, config)
+        options.inBitmap = reusable
+        return try {
+            source.decode(options)
+        } catch (e: IllegalArgumentException) {
+            // reusable bitmap is not suitable for this image
+            if (reusable == null) {
+                logger.e(formatException(e, "decode"))
+                return null
+            }
+            pool.put(reusable)
+            options.inBitmap = null
+            try {
+                source.decode(options)
+            } catch (e: Throwable) {
+                logger.e(formatException(e, "decode"))
+                null
+            }
+        } catch (e: Throwable) {
+            logger.e(formatException(e, "decode"))
+            if (reusable != null) {
+                pool.put(reusable)
+            }
+            null
+        }
+    }
+
+    private fun getThumbnailFile(requestKey: String): File? {
+        val dir = diskCacheDir ?: return null
+        val name = requestKey.digest(DIGEST_ALGORITHM)?.toHexString() ?: return null
+        return File(dir, name)
+    }
+
+    private fun writeThumbnail(file: File, bitmap: Bitmap) {
+        synchronized(diskCacheLock) {
+            val dir = file.parentFile ?: return
+            if (!dir.isDirectory && !dir.mkdirs()) {
+                logger.e("Cannot create directory: $dir")
+                return
+            }
+            val format = if (bitmap.hasAlpha()) CompressFormat.PNG else CompressFormat.JPEG
+            // written to temp file first, so incomplete thumbnail is never read
+            val tempFile = File(dir, file.name + TEMP_SUFFIX)
+            val compressed = try {
+                FileOutputStream(tempFile).use {
+                    bitmap.compress(format, thumbnailQuality, it)
+                }
+            } catch (e: IOException) {
+                logger.e(formatException(e, "compress"))
+                false
+            }
+            if (!compressed || !(tempFile.renameTo(file) || file.delete() && tempFile.renameTo(file))) {
+                logger.e("Cannot write thumbnail: $file")
+                tempFile.delete()
+                return
+            }
+            trimDiskCache(dir)
+        }
+    }
+
+    private fun trimDiskCache(dir: File) {
+        val files = dir.listFiles() ?: return
+        var size = files.sumOf { it.length() }
+        if (size <= diskCacheSize) {
+            return
+        }
+        files.sortBy { it.lastModified() }
+        for (file in files) {
+            if (size <= diskCacheSize) {
+                break
+            }
+            val length = file.length()
+            if (file.delete()) {
+                size -= length
+            }
+        }
+    }
+
+    private fun toPool(bitmap: Bitmap) {
+        if (!pool.put(bitmap)) {
+            bitmap.recycle()
+        }
+    }
+
+    private fun getResult(task: FutureTask<Bitmap?>): Bitmap? = try {
+        task.get()
+    } catch (e: ExecutionException) {
+        logger.e(formatException(e.cause ?: e, "decode"))
+        null
+    } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        null
+    }
+
+    /**
+     * @param callers count of callers waiting for [task], including one running it
+     */
+    private class InFlightDecode(val task: FutureTask<Bitmap?>, var callers: Int = 1)
+
+    /**
+     * @param users count of callers, which got bitmap and not released it yet
+     */
+    private class BitmapRef(var users: Int = 0, var isCached: Boolean = false)
+
+    private interface DecodeSource {
+
+        val key: String
+
+        fun decodeBounds(): Point
+
+        fun decode(options: BitmapFactory.Options): Bitmap?
+    }
+
+    private class FileSource(private val file: File, override val key: String) : DecodeSource {
+
+        override fun decodeBounds(): Point = decodeBoundsFromFile(file)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? = BitmapFactory.decodeFile(file.absolutePath, options)
+    }
+
+    private class UriSource(
+        private val uri: Uri,
+        private val contentResolver: ContentResolver,
+        override val key: String
+    ) : DecodeSource {
+
+        override fun decodeBounds(): Point = decodeBoundsFromUri(uri, contentResolver)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? =
+            uri.openInputStream(contentResolver)?.use {
+                BitmapFactory.decodeStream(it, null, options)
+            }
+    }
+
+    private class ByteArraySource(private val data: ByteArray, override val key: String) : DecodeSource {
+
+        override fun decodeBounds(): Point = decodeBoundsFromByteArray(data)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? = BitmapFactory.decodeByteArray(data, 0, data.size, options)
+    }
+
+    /**
+     * Released bitmaps grouped by allocated bytes, oldest are recycled when [maxSize] is exceeded
+     */
+    private class BitmapPool(val maxSize: Int) {
+
+        private val bySize = TreeMap<Int, ArrayDeque<Bitmap>>()
+
+        private val order = LinkedList<Bitmap>()
+
+        private var size = 0
+
+        @Synchronized
+        fun put(bitmap: Bitmap): Boolean {
+            if (bitmap.isRecycled || !bitmap.isMutable) {
+                return false
+            }
+            val byteCount = getBitmapByteCount(bitmap)
+            if (byteCount <= 0 || byteCount > maxSize) {
+                return false
+            }
+            bySize.getOrPut(byteCount) { ArrayDeque() }.add(bitmap)
+            order.add(bitmap)
+            size += byteCount
+            trimToSize(maxSize)
+            return true
+        }
+
+        /**
+         * Before KitKat reused bitmap must have same size and config and image must not be sampled,
+         * after - just be large enough
+         */
+        @Synchronized
+        fun get(width: Int, height: Int, sampleSize: Int, config: Config): Bitmap? {
+            val required = width * height * bytesPerPixel(config)
+            if (isAtLeastKitkat()) {
+                // much larger bitmap would waste memory
+                val entry = bySize.ceilingEntry(required) ?: return null
+                if (entry.key > required * MAX_SIZE_MULTIPLIER) {
+                    return null
+                }
+                return remove(entry.value.first, entry.key)
+            }
+            if (sampleSize != 1) {
+                return null
+            }
+            val candidate = bySize[required]?.firstOrNull {
+                it.width == width && it.height == height && it.config == config
+            } ?: return null
+            return remove(candidate, required)
+        }
+
+        @Synchronized
+        fun trimToSize(maxSize: Int) {
+            while (size > maxSize && order.isNotEmpty()) {
+                val oldest = order.first
+                remove(oldest, getBitmapByteCount(oldest))
+                oldest.recycle()
+            }
+        }
+
+        @Synchronized
+        fun clear() {
+            trimToSize(0)
+        }
+
+        private fun remove(bitmap: Bitmap, byteCount: Int): Bitmap {
+            bySize[byteCount]?.let {
+                it.remove(bitmap)
+                if (it.isEmpty()) {
+                    bySize.remove(byteCount)
+                }
+            }
+            order.remove(bitmap)
+            size -= byteCount
+            return bitmap
+        }
+
+        private fun bytesPerPixel(config: Config): Int = when (config) {
+            Config.ALPHA_8 -> 1
+            Config.RGB_565, Config.ARGB_4444 -> 2
+            else -> 4
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_DISK_CACHE_SIZE = 50L * 1024 * 1024
+
+        const val DEFAULT_THUMBNAIL_QUALITY = 90
+
+        private const val BOUNDS_CACHE_SIZE = 256
+
+        private const val MAX_SIZE_MULTIPLIER = 2
+
+        private const val DIGEST_ALGORITHM = "SHA-1"
+
+        private const val TEMP_SUFFIX = ".tmp"
+
+        /**
+         * 1/8 of max heap
+         */
+        @JvmStatic
+        fun defaultMemoryCacheSize(): Int =
+            Math.min(Runtime.getRuntime().maxMemory() / 8, Int.MAX_VALUE.toLong()).toInt()
+
+        /**
+         * @return sample size, with which both sides are not less than requested
+         */
+        private fun calculateSampleSize(bounds: Point, reqWidth: Int, reqHeight: Int): Int {
+            if (reqWidth <= 0) {
+                return 1
+            }
+            val height = if (reqHeight > 0) reqHeight else Math.max(1, (reqWidth.toLong() * bounds.y / bounds.x).toInt())
+            val options = BitmapFactory.Options()
+            options.outWidth = bounds.x
+            options.outHeight = bounds.y
+            return calculateInSampleSizeHalf(options, reqWidth, height)
+        }
+    }
+}
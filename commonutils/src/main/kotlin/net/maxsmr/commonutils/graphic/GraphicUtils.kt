@@ -1084,6 +1084,8 @@ fun createPreviewFromVideoFile(
 }
 
 /**
+ * Keeps all chunks and result in memory, see [combineImagesToStream] for large images
+ *
  * @param gridSize number of width or height chunks in result image
  */
 @JvmOverloads
@@ -1100,43 +1102,37 @@ fun combineImagesToOne(
         logger.e("Incorrect gridSize: $gridSize")
         return null
     }
-    val chunkImagesList = chunkImages.toMutableList()
-    if (gridSize * gridSize < chunkImagesList.size) {
+    val maxChunks = gridSize * gridSize
+    if (maxChunks < chunkImages.size) {
         logger.w("Grid dimension is less than number of chunks, removing excessive chunks...")
-        var i = chunkImagesList.size - 1
-        while (i > gridSize * gridSize - 1) {
-            val b: Bitmap? = chunkImagesList.removeAt(i)
-            if (recycleSource && b != null) {
-                b.recycle()
-            }
-            i = chunkImagesList.size - 1
-            i--
-        }
     }
+    val chunkImagesList = ArrayList<Bitmap>(Math.min(chunkImages.size, maxChunks))
     var chunkWidth = 0
     var chunkHeight = 0
-    var index = 0
-    while (index < chunkImages.size) {
-        val chunk = chunkImagesList[index]
-        if (chunk != null) {
-            if (chunkWidth > 0 && chunkHeight > 0) {
-                if (chunk.width != chunkWidth || chunk.height != chunkHeight) {
-                    logger.e(
-                        "Chunk images in list have different dimensions, previous: " + chunkWidth + "x" + chunkHeight
-                                + ", current: " + chunk.width + "x" + chunk.height
-                    )
-                    return null
-                }
-            } else {
-                chunkWidth = chunk.width
-                chunkHeight = chunk.height
+    chunkImages.forEachIndexed { index, chunk ->
+        if (index >= maxChunks) {
+            if (recycleSource) {
+                chunk?.recycle()
             }
-        } else {
+            return@forEachIndexed
+        }
+        if (chunk == null) {
             logger.e("chunk at index $index is null")
-            chunkImagesList.removeAt(index)
-            index = 0
+            return@forEachIndexed
         }
-        index++
+        if (chunkWidth > 0 && chunkHeight > 0) {
+            if (chunk.width != chunkWidth || chunk.height != chunkHeight) {
+                logger.e(
+                    "Chunk images in list have different dimensions, previous: " + chunkWidth + "x" + chunkHeight
+                            + ", current: " + chunk.width + "x" + chunk.height
+                )
+                return null
+            }
+        } else {
+            chunkWidth = chunk.width
+            chunkHeight = chunk.height
+        }
+        chunkImagesList.add(chunk)
     }
     logger.d("Chunk: $chunkWidth x $chunkHeight")
     if (chunkWidth <= 0 || chunkHeight <= 0) {
@@ -1158,11 +1154,9 @@ fun combineImagesToOne(
                     continue
                 }
                 val image = chunkImagesList[counter]
-                if (image != null) {
-                    canvas.drawBitmap(image, (chunkWidth * cols).toFloat(), (chunkHeight * rows).toFloat(), null)
-                    if (recycleSource) {
-                        image.recycle()
-                    }
+                canvas.drawBitmap(image, (chunkWidth * cols).toFloat(), (chunkHeight * rows).toFloat(), null)
+                if (recycleSource) {
+                    image.recycle()
                 }
                 counter++
             }
@@ -1173,73 +1167,87 @@ fun combineImagesToOne(
     return resultBitmap
 }
 
-fun convertYuvToJpeg(data: ByteArray?, format: Int, width: Int, height: Int): ByteArray? {
+/**
+ * @param quality 0..100
+ */
+@JvmOverloads
+fun convertYuvToJpeg(
+    data: ByteArray?,
+    format: Int,
+    width: Int,
+    height: Int,
+    quality: Int = 100
+): ByteArray? {
+    // jpeg of camera frame is usually several times smaller than it
+    val outputStream = ByteArrayOutputStream(Math.max(width * height / 4, 32))
+    return if (compressYuvToJpeg(data, format, width, height, outputStream, quality)) {
+        outputStream.toByteArray()
+    } else {
+        null
+    }
+}
+
+/**
+ * Writes jpeg to given stream, so same preallocated (and reset) [ByteArrayOutputStream]
+ * can be used for each frame
+ *
+ * @param format [ImageFormat.NV21] or [ImageFormat.YUY2]
+ * @param quality 0..100
+ */
+@JvmOverloads
+fun compressYuvToJpeg(
+    data: ByteArray?,
+    format: Int,
+    width: Int,
+    height: Int,
+    outputStream: OutputStream,
+    quality: Int = 100
+): Boolean {
     if (data == null || data.isEmpty()) {
         logger.e("data is null or empty")
-        return null
+        return false
     }
     if (format != ImageFormat.NV21 && format != ImageFormat.YUY2) {
         logger.e("Incorrect format: $format")
-        return null
+        return false
     }
     if (width <= 0 || height <= 0) {
         logger.e("Incorrect size: $width x $height")
-        return null
+        return false
+    }
+    if (quality !in 0..100) {
+        logger.e("Incorrect quality: $quality")
+        return false
     }
     return try {
         val yuvImg = YuvImage(data, format, width, height, null)
-        val byteOutStream = ByteArrayOutputStream()
-        yuvImg.compressToJpeg(Rect(0, 0, width, height), 100, byteOutStream)
-        byteOutStream.toByteArray()
+        yuvImg.compressToJpeg(Rect(0, 0, width, height), quality, outputStream)
     } catch (e: Throwable) {
-        formatException(e)
-        null
+        logger.e(formatException(e, "compressToJpeg"))
+        false
     }
 }
 
+/**
+ * @return frame in NV21 (semi-planar, interleaved V and U) format
+ */
 fun convertRgbToYuv420SP(aRGB: IntArray?, width: Int, height: Int): ByteArray? {
     if (aRGB == null || aRGB.isEmpty()) {
         logger.e("data is null or empty")
         return null
     }
-    if (width <= 0 || height <= 0) {
+    if (width <= 0 || height <= 0 || aRGB.size < width * height) {
         logger.e("Incorrect size: $width x $height")
         return null
     }
-    val frameSize = width * height
-    val chromaSize = frameSize / 4
-    var yIndex = 0
-    var uIndex = frameSize
-    var vIndex = frameSize + chromaSize
-    val yuv = ByteArray(width * height * 3 / 2)
-    var R: Int
-    var G: Int
-    var B: Int
-    var Y: Int
-    var U: Int
-    var V: Int
-    var index = 0
-    for (j in 0 until height) {
-        for (i in 0 until width) {
-
-            // a = (aRGB[index] & 0xff000000) >> 24; //not using it right now
-            R = aRGB[index] and 0xff0000 shr 16
-            G = aRGB[index] and 0xff00 shr 8
-            B = aRGB[index] and 0xff shr 0
-            Y = (66 * R + 129 * G + 25 * B + 128 shr 8) + 16
-            U = (-38 * R - 74 * G + 112 * B + 128 shr 8) + 128
-            V = (112 * R - 94 * G - 18 * B + 128 shr 8) + 128
-            yuv[yIndex++] = (if (Y < 0) 0 else if (Y > 255) 255 else Y).toByte()
-            if (j % 2 == 0 && index % 2 == 0) {
-                yuv[uIndex++] = (if (U < 0) 0 else if (U > 255) 255 else U).toByte()
-                yuv[vIndex++] = (if (V < 0) 0 else if (V > 255) 255 else V).toByte()
-            }
-            index++
-        }
-    }
-    return yuv
+    return singleThreadYuvConverter.fromArgb(aRGB, YuvFormat.NV21, width, height)
 }
 
+/**
+ * Without own threads, for one-off conversions; use [YuvConverter] for frame streams
+ */
+private val singleThreadYuvConverter by lazy { YuvConverter(1) }
+
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
 fun renderScriptNVToRGBA(
     context: Context,
@@ -1362,7 +1370,7 @@ private fun calculateInSampleSize(
     return inSampleSize
 }
 
-private fun calculateInSampleSizeHalf(
+internal fun calculateInSampleSizeHalf(
     options: BitmapFactory.Options,
     reqWidth: Int,
     reqHeight: Int
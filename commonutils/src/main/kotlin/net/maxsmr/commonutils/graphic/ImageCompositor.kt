@@ -0,0 +1,402 @@
+package net.maxsmr.commonutils.graphic
+
+import android.content.ContentResolver
+import android.graphics.*
+import android.graphics.Bitmap.Config
+import android.net.Uri
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import net.maxsmr.commonutils.media.openInputStream
+import java.io.*
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("ImageCompositor")
+
+/**
+ * Source of one cell in [combineImagesToStream], decoded only when its row of cells is drawn
+ */
+sealed class ImageChunk {
+
+    internal abstract fun decodeBounds(): Point
+
+    internal abstract fun decode(options: BitmapFactory.Options): Bitmap?
+
+    internal open fun release(bitmap: Bitmap) {
+        bitmap.recycle()
+    }
+
+    class FromFile(val file: File) : ImageChunk() {
+
+        override fun decodeBounds(): Point = decodeBoundsFromFile(file)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? = BitmapFactory.decodeFile(file.absolutePath, options)
+    }
+
+    class FromUri(val uri: Uri, val contentResolver: ContentResolver) : ImageChunk() {
+
+        override fun decodeBounds(): Point = decodeBoundsFromUri(uri, contentResolver)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? =
+            uri.openInputStream(contentResolver)?.use {
+                BitmapFactory.decodeStream(it, null, options)
+            }
+    }
+
+    /**
+     * @param recycle recycle [bitmap] after it's drawn
+     */
+    class FromBitmap @JvmOverloads constructor(
+        val bitmap: Bitmap,
+        val recycle: Boolean = false
+    ) : ImageChunk() {
+
+        override fun decodeBounds(): Point =
+            if (isBitmapValid(bitmap)) Point(bitmap.width, bitmap.height) else Point(0, 0)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? = if (isBitmapValid(bitmap)) bitmap else null
+
+        override fun release(bitmap: Bitmap) {
+            if (recycle) {
+                bitmap.recycle()
+            }
+        }
+    }
+}
+
+/**
+ * Draws chunks in grid and writes result as PNG row by row, so only one row of cells
+ * (and one decoded chunk) is in memory instead of whole image and all chunks
+ *
+ * @param chunks cells from left to right, top to bottom; null cells stay transparent
+ * @param columns number of cells in row
+ * @param cellWidth width of each cell, chunks are scaled to it; 0 to use size of first chunk
+ * @return false if nothing was written or on error
+ */
+@JvmOverloads
+fun combineImagesToStream(
+    chunks: List<ImageChunk?>,
+    columns: Int,
+    outputStream: OutputStream,
+    cellWidth: Int = 0,
+    cellHeight: Int = 0,
+    compressionLevel: Int = Deflater.DEFAULT_COMPRESSION,
+    closeStream: Boolean = true
+): Boolean {
+    try {
+        if (columns <= 0) {
+            logger.e("Incorrect columns: $columns")
+            return false
+        }
+        var width = cellWidth
+        var height = cellHeight
+        if (width <= 0 || height <= 0) {
+            val bounds = chunks.firstOrNull { it != null }?.decodeBounds() ?: Point(0, 0)
+            width = bounds.x
+            height = bounds.y
+        }
+        if (width <= 0 || height <= 0) {
+            logger.e("Incorrect cell size: $width x $height")
+            return false
+        }
+        val rows = (chunks.size + columns - 1) / columns
+        val band = createBitmapSafe(width * columns, height, Config.ARGB_8888) ?: return false
+        try {
+            val canvas = Canvas(band)
+            val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+            val cellRect = Rect()
+            val rowPixels = IntArray(band.width)
+            PngStreamWriter(outputStream, band.width, height * rows, compressionLevel).use { writer ->
+                for (row in 0 until rows) {
+                    band.eraseColor(Color.TRANSPARENT)
+                    for (column in 0 until columns) {
+                        val chunk = chunks.getOrNull(row * columns + column) ?: continue
+                        val bitmap = decodeChunk(chunk, width, height)
+                        if (bitmap == null) {
+                            logger.e("Cannot decode chunk at ${row * columns + column}")
+                            continue
+                        }
+                        cellRect.set(column * width, 0, (column + 1) * width, height)
+                        canvas.drawBitmap(bitmap, null, cellRect, paint)
+                        chunk.release(bitmap)
+                    }
+                    for (y in 0 until height) {
+                        band.getPixels(rowPixels, 0, band.width, 0, y, band.width, 1)
+                        writer.writeRow(rowPixels)
+                    }
+                }
+            }
+        } finally {
+            band.recycle()
+        }
+        return true
+    } catch (e: IOException) {
+        logger.e(formatException(e, "write"))
+        return false
+    } catch (e: RuntimeException) {
+        logger.e(formatException(e, "combine"))
+        return false
+    } finally {
+        if (closeStream) {
+            try {
+                outputStream.close()
+            } catch (e: IOException) {
+                logger.e(formatException(e, "close"))
+            }
+        }
+    }
+}
+
+/**
+ * Same as [combineImagesToStream], incomplete file is deleted on error
+ */
+@JvmOverloads
+fun combineImagesToFile(
+    chunks: List<ImageChunk?>,
+    columns: Int,
+    targetFile: File,
+    cellWidth: Int = 0,
+    cellHeight: Int = 0,
+    compressionLevel: Int = Deflater.DEFAULT_COMPRESSION
+): Boolean {
+    val outputStream = try {
+        BufferedOutputStream(FileOutputStream(targetFile))
+    } catch (e: IOException) {
+        logger.e(formatException(e, "FileOutputStream"))
+        return false
+    }
+    val result = combineImagesToStream(chunks, columns, outputStream, cellWidth, cellHeight, compressionLevel)
+    if (!result && targetFile.exists() && !targetFile.delete()) {
+        logger.w("Cannot delete file: $targetFile")
+    }
+    return result
+}
+
+/**
+ * Crop, rotation, scale and mirroring, applied to bitmap as single [Matrix] with one allocation
+ * (instead of copy per operation as with [cropBitmap], [rotateBitmap] and [mirrorBitmap]);
+ * crop rect is in source coordinates, other operations are applied in order of calls
+ */
+class BitmapTransform {
+
+    private val matrix = Matrix()
+
+    private var crop: Rect? = null
+
+    val isIdentity: Boolean get() = crop == null && matrix.isIdentity
+
+    fun crop(rect: Rect) = apply {
+        crop = Rect(rect)
+    }
+
+    fun rotate(degrees: Float) = apply {
+        matrix.postRotate(degrees)
+    }
+
+    fun scale(scaleX: Float, scaleY: Float = scaleX) = apply {
+        matrix.postScale(scaleX, scaleY)
+    }
+
+    fun mirror() = apply {
+        matrix.postScale(-1f, 1f)
+    }
+
+    /**
+     * @return new bitmap or source bitmap if there is nothing to apply
+     */
+    @JvmOverloads
+    fun applyTo(
+        bitmap: Bitmap?,
+        filter: Boolean = true,
+        recycleSource: Boolean = true
+    ): Bitmap? {
+        if (bitmap == null || !isBitmapValid(bitmap)) {
+            logger.e("Incorrect bitmap: $bitmap")
+            return null
+        }
+        if (isIdentity) {
+            return bitmap
+        }
+        val bounds = crop ?: Rect(0, 0, bitmap.width, bitmap.height)
+        if (bounds.left < 0 || bounds.top < 0 || bounds.isEmpty
+            || bounds.right > bitmap.width || bounds.bottom > bitmap.height
+        ) {
+            logger.e("Incorrect crop bounds: $bounds")
+            return null
+        }
+        val result = createBitmapSafe(
+            bitmap,
+            bounds.left,
+            bounds.top,
+            bounds.width(),
+            bounds.height(),
+            matrix,
+            filter
+        )
+        if (recycleSource && result != null && result !== bitmap) {
+            bitmap.recycle()
+        }
+        return result
+    }
+}
+
+private fun decodeChunk(chunk: ImageChunk, cellWidth: Int, cellHeight: Int): Bitmap? {
+    return try {
+        val options = BitmapFactory.Options()
+        val bounds = chunk.decodeBounds()
+        if (bounds.x <= 0 || bounds.y <= 0) {
+            return null
+        }
+        options.outWidth = bounds.x
+        options.outHeight = bounds.y
+        // not less than cell, scaled down when drawn
+        options.inSampleSize = calculateInSampleSizeHalf(options, cellWidth, cellHeight)
+        options.inPreferredConfig = Config.ARGB_8888
+        chunk.decode(options)
+    } catch (e: Throwable) {
+        logger.e(formatException(e, "decode"))
+        null
+    }
+}
+
+/**
+ * Writes 8-bit RGBA PNG with rows given one by one
+ */
+internal class PngStreamWriter(
+    private val out: OutputStream,
+    private val width: Int,
+    private val height: Int,
+    compressionLevel: Int = Deflater.DEFAULT_COMPRESSION
+) : Closeable {
+
+    private val deflater = Deflater(compressionLevel)
+
+    private val dataStream = DeflaterOutputStream(DataChunkOutputStream(), deflater, BUFFER_SIZE)
+
+    /**
+     * filter type byte and filtered RGBA bytes
+     */
+    private val rowBytes = ByteArray(1 + width * 4)
+
+    private var rowsWritten = 0
+
+    init {
+        require(width > 0 && height > 0) { "Incorrect size: $width x $height" }
+        out.write(SIGNATURE)
+        val header = ByteArrayOutputStream(13)
+        DataOutputStream(header).apply {
+            writeInt(width)
+            writeInt(height)
+            writeByte(8) // bit depth
+            writeByte(COLOR_TYPE_RGBA)
+            writeByte(0) // deflate
+            writeByte(0) // adaptive filtering
+            writeByte(0) // no interlace
+        }
+        writeChunk(out, "IHDR", header.toByteArray(), header.size())
+    }
+
+    /**
+     * @param pixels non-premultiplied ARGB colors of row, as returned by [Bitmap.getPixels]
+     */
+    @Throws(IOException::class)
+    fun writeRow(pixels: IntArray) {
+        check(rowsWritten < height) { "All $height rows are written" }
+        // each byte is stored as difference with same byte of previous pixel
+        rowBytes[0] = FILTER_SUB
+        var previous = 0
+        var index = 1
+        for (x in 0 until width) {
+            val color = pixels[x]
+            rowBytes[index++] = ((color shr 16) - (previous shr 16)).toByte()
+            rowBytes[index++] = ((color shr 8) - (previous shr 8)).toByte()
+            rowBytes[index++] = (color - previous).toByte()
+            rowBytes[index++] = ((color ushr 24) - (previous ushr 24)).toByte()
+            previous = color
+        }
+        dataStream.write(rowBytes)
+        rowsWritten++
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        try {
+            if (rowsWritten != height) {
+                throw IOException("Written $rowsWritten rows of $height")
+            }
+            dataStream.close()
+            writeChunk(out, "IEND", ByteArray(0), 0)
+            out.flush()
+        } finally {
+            deflater.end()
+        }
+    }
+
+    /**
+     * Splits compressed data to IDAT chunks, doesn't close [out]
+     */
+    private inner class DataChunkOutputStream : OutputStream() {
+
+        private val buffer = ByteArray(BUFFER_SIZE)
+
+        private var count = 0
+
+        override fun write(b: Int) {
+            if (count == buffer.size) {
+                flushChunk()
+            }
+            buffer[count++] = b.toByte()
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            var offset = off
+            var remaining = len
+            while (remaining > 0) {
+                if (count == buffer.size) {
+                    flushChunk()
+                }
+                val length = Math.min(remaining, buffer.size - count)
+                System.arraycopy(b, offset, buffer, count, length)
+                count += length
+                offset += length
+                remaining -= length
+            }
+        }
+
+        override fun close() {
+            flushChunk()
+        }
+
+        private fun flushChunk() {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count)
+                count = 0
+            }
+        }
+    }
+
+    companion object {
+
+        private const val BUFFER_SIZE = 64 * 1024
+
+        private const val COLOR_TYPE_RGBA = 6
+
+        private const val FILTER_SUB: Byte = 1
+
+        private val SIGNATURE = byteArrayOf(0x89.toByte(), 'P'.code.toByte(), 'N'.code.toByte(), 'G'.code.toByte(), 0x0D, 0x0A, 0x1A, 0x0A)
+
+        private fun writeChunk(out: OutputStream, type: String, data: ByteArray, length: Int) {
+            val typeBytes = type.toByteArray(Charsets.US_ASCII)
+            val crc = CRC32()
+            crc.update(typeBytes)
+            crc.update(data, 0, length)
+            val stream = DataOutputStream(out)
+            stream.writeInt(length)
+            stream.write(typeBytes)
+            stream.write(data, 0, length)
+            stream.writeInt(crc.value.toInt())
+        }
+    }
+}
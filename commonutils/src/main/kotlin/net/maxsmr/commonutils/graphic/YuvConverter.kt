@@ -0,0 +1,314 @@
+package net.maxsmr.commonutils.graphic
+
+import android.graphics.ImageFormat
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Frames with less rows are converted on calling thread
+ */
+private const val MIN_PARALLEL_ROWS = 64
+
+/**
+ * Layouts of 4:2:0 frames without row padding; chroma planes have (width + 1) / 2 x (height + 1) / 2 size.
+ * Only tightly packed buffers are supported: for example, [ImageFormat.YV12] frames from camera
+ * have 16-byte aligned strides and must be repacked first
+ */
+enum class YuvFormat {
+
+    /**
+     * Y plane, then interleaved V and U
+     */
+    NV21,
+
+    /**
+     * Y plane, then interleaved U and V
+     */
+    NV12,
+
+    /**
+     * Y, U, V planes
+     */
+    I420,
+
+    /**
+     * Y, V, U planes
+     */
+    YV12;
+
+    internal fun layout(width: Int, height: Int): ChromaLayout {
+        val lumaSize = width * height
+        val chromaWidth = (width + 1) / 2
+        val chromaSize = chromaWidth * ((height + 1) / 2)
+        return when (this) {
+            NV21 -> ChromaLayout(lumaSize + 1, lumaSize, 2, chromaWidth * 2)
+            NV12 -> ChromaLayout(lumaSize, lumaSize + 1, 2, chromaWidth * 2)
+            I420 -> ChromaLayout(lumaSize, lumaSize + chromaSize, 1, chromaWidth)
+            YV12 -> ChromaLayout(lumaSize + chromaSize, lumaSize, 1, chromaWidth)
+        }
+    }
+}
+
+internal class ChromaLayout(
+    val uOffset: Int,
+    val vOffset: Int,
+    val pixelStride: Int,
+    val rowStride: Int
+)
+
+/**
+ * @return bytes in 4:2:0 frame of given size
+ */
+fun getYuvFrameSize(width: Int, height: Int): Int =
+    width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2)
+
+/**
+ * Converts between 4:2:0 YUV frames and ARGB pixels (BT.601, limited range) with lookup tables,
+ * rows of large frames are split between [parallelism] threads
+ *
+ * Result is written to given buffers if they are large enough, so same buffers can be used for each frame
+ */
+class YuvConverter @JvmOverloads constructor(
+    private val parallelism: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    @Volatile
+    private var executor: ExecutorService? = null
+
+    init {
+        require(parallelism > 0) { "Incorrect parallelism: $parallelism" }
+    }
+
+    @Throws(RuntimeException::class)
+    @JvmOverloads
+    fun toArgb(
+        yuv: ByteArray,
+        format: YuvFormat,
+        width: Int,
+        height: Int,
+        out: IntArray? = null
+    ): IntArray {
+        checkSize(width, height)
+        require(yuv.size >= getYuvFrameSize(width, height)) { "Incorrect yuv size: ${yuv.size}" }
+        val result = if (out != null && out.size >= width * height) out else IntArray(width * height)
+        val layout = format.layout(width, height)
+        runByRows(height) { from, to ->
+            yuvToArgbRows(yuv, result, width, layout, from, to)
+        }
+        return result
+    }
+
+    /**
+     * Chroma of each 2x2 block is computed from its average color
+     */
+    @Throws(RuntimeException::class)
+    @JvmOverloads
+    fun fromArgb(
+        argb: IntArray,
+        format: YuvFormat,
+        width: Int,
+        height: Int,
+        out: ByteArray? = null
+    ): ByteArray {
+        checkSize(width, height)
+        require(argb.size >= width * height) { "Incorrect argb size: ${argb.size}" }
+        val frameSize = getYuvFrameSize(width, height)
+        val result = if (out != null && out.size >= frameSize) out else ByteArray(frameSize)
+        val layout = format.layout(width, height)
+        runByRows(height) { from, to ->
+            argbToYuvRows(argb, result, width, height, layout, from, to)
+        }
+        return result
+    }
+
+    fun release() {
+        synchronized(this) {
+            executor?.shutdownNow()
+            executor = null
+        }
+    }
+
+    /**
+     * @param block converts rows from first (even) to second (exclusive)
+     */
+    private fun runByRows(height: Int, block: (Int, Int) -> Unit) {
+        val chunks = Math.min(parallelism, height / MIN_PARALLEL_ROWS)
+        if (chunks < 2) {
+            block(0, height)
+            return
+        }
+        // even, so 2x2 chroma blocks are not split
+        val rowsPerChunk = (height / chunks + 1) and 1.inv()
+        val futures = mutableListOf<Future<*>>()
+        var from = rowsPerChunk
+        while (from < height) {
+            val chunkFrom = from
+            val chunkTo = Math.min(from + rowsPerChunk, height)
+            futures.add(getExecutor().submit(Runnable { block(chunkFrom, chunkTo) }))
+            from = chunkTo
+        }
+        block(0, Math.min(rowsPerChunk, height))
+        for (future in futures) {
+            try {
+                future.get()
+            } catch (e: ExecutionException) {
+                throw RuntimeException(formatException(e.cause ?: e, "convert"), e)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw RuntimeException(formatException(e, "convert"), e)
+            }
+        }
+    }
+
+    private fun getExecutor(): ExecutorService {
+        executor?.let {
+            return it
+        }
+        synchronized(this) {
+            return executor ?: Executors.newFixedThreadPool(parallelism - 1, WorkerThreadFactory).also {
+                executor = it
+            }
+        }
+    }
+
+    private fun checkSize(width: Int, height: Int) {
+        require(width > 0 && height > 0) { "Incorrect size: $width x $height" }
+    }
+
+    private object WorkerThreadFactory : ThreadFactory {
+
+        private val counter = AtomicInteger(0)
+
+        override fun newThread(r: Runnable): Thread = Thread(r, "YuvConverter-${counter.incrementAndGet()}").apply {
+            isDaemon = true
+        }
+    }
+}
+
+private fun yuvToArgbRows(
+    yuv: ByteArray,
+    out: IntArray,
+    width: Int,
+    layout: ChromaLayout,
+    from: Int,
+    to: Int
+) {
+    val uOffset = layout.uOffset
+    val vOffset = layout.vOffset
+    val pixelStride = layout.pixelStride
+    for (y in from until to) {
+        val lumaRow = y * width
+        val chromaRow = (y shr 1) * layout.rowStride
+        for (x in 0 until width) {
+            val chroma = chromaRow + (x shr 1) * pixelStride
+            val luma = YuvTables.LUMA[yuv[lumaRow + x].toInt() and 0xff]
+            val u = yuv[uOffset + chroma].toInt() and 0xff
+            val v = yuv[vOffset + chroma].toInt() and 0xff
+            val r = YuvTables.CLAMP[((luma + YuvTables.R_V[v]) shr 8) + YuvTables.CLAMP_OFFSET]
+            val g = YuvTables.CLAMP[((luma + YuvTables.G_U[u] + YuvTables.G_V[v]) shr 8) + YuvTables.CLAMP_OFFSET]
+            val b = YuvTables.CLAMP[((luma + YuvTables.B_U[u]) shr 8) + YuvTables.CLAMP_OFFSET]
+            out[lumaRow + x] = -0x1000000 or (r shl 16) or (g shl 8) or b
+        }
+    }
+}
+
+private fun argbToYuvRows(
+    argb: IntArray,
+    out: ByteArray,
+    width: Int,
+    height: Int,
+    layout: ChromaLayout,
+    from: Int,
+    to: Int
+) {
+    for (y in from until to) {
+        val row = y * width
+        for (x in 0 until width) {
+            val color = argb[row + x]
+            out[row + x] = (((YuvTables.Y_R[color shr 16 and 0xff] + YuvTables.Y_G[color shr 8 and 0xff] +
+                    YuvTables.Y_B[color and 0xff]) shr 8) + 16).toByte()
+        }
+        if (y and 1 != 0) {
+            continue
+        }
+        val hasNextRow = y + 1 < height
+        val chromaRow = (y shr 1) * layout.rowStride
+        var x = 0
+        while (x < width) {
+            var count = 1
+            var color = argb[row + x]
+            var r = color shr 16 and 0xff
+            var g = color shr 8 and 0xff
+            var b = color and 0xff
+            if (x + 1 < width) {
+                color = argb[row + x + 1]
+                r += color shr 16 and 0xff
+                g += color shr 8 and 0xff
+                b += color and 0xff
+                count++
+            }
+            if (hasNextRow) {
+                color = argb[row + width + x]
+                r += color shr 16 and 0xff
+                g += color shr 8 and 0xff
+                b += color and 0xff
+                count++
+                if (x + 1 < width) {
+                    color = argb[row + width + x + 1]
+                    r += color shr 16 and 0xff
+                    g += color shr 8 and 0xff
+                    b += color and 0xff
+                    count++
+                }
+            }
+            if (count == 4) {
+                r = r shr 2
+                g = g shr 2
+                b = b shr 2
+            } else {
+                r /= count
+                g /= count
+                b /= count
+            }
+            val chroma = chromaRow + (x shr 1) * layout.pixelStride
+            out[layout.uOffset + chroma] = (((YuvTables.U_R[r] + YuvTables.U_G[g] + YuvTables.U_B[b]) shr 8) + 128).toByte()
+            out[layout.vOffset + chroma] = (((YuvTables.V_R[r] + YuvTables.V_G[g] + YuvTables.V_B[b]) shr 8) + 128).toByte()
+            x += 2
+        }
+    }
+}
+
+/**
+ * Integer BT.601 coefficients (scaled by 256) for each component value;
+ * results of RGB -> YUV are always in range, so only YUV -> RGB needs [CLAMP]
+ */
+private object YuvTables {
+
+    const val CLAMP_OFFSET = 384
+
+    val LUMA = IntArray(256) { 298 * (it - 16) + 128 }
+    val R_V = IntArray(256) { 409 * (it - 128) }
+    val G_U = IntArray(256) { -100 * (it - 128) }
+    val G_V = IntArray(256) { -208 * (it - 128) }
+    val B_U = IntArray(256) { 516 * (it - 128) }
+
+    /**
+     * indexed by value + [CLAMP_OFFSET], values are in [-277, 534]
+     */
+    val CLAMP = IntArray(1024) { Math.min(255, Math.max(0, it - CLAMP_OFFSET)) }
+
+    val Y_R = IntArray(256) { 66 * it }
+    val Y_G = IntArray(256) { 129 * it }
+    val Y_B = IntArray(256) { 25 * it + 128 }
+    val U_R = IntArray(256) { -38 * it }
+    val U_G = IntArray(256) { -74 * it }
+    val U_B = IntArray(256) { 112 * it + 128 }
+    val V_R = IntArray(256) { 112 * it }
+    val V_G = IntArray(256) { -94 * it }
+    val V_B = IntArray(256) { -18 * it + 128 }
+}
@@ -2,6 +2,9 @@ package net.maxsmr.commonutils.live
 
 import android.os.CountDownTimer
 import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.view.Choreographer
 import android.widget.TextView
 import androidx.lifecycle.*
 import net.maxsmr.commonutils.format.getFormattedText
@@ -14,6 +17,10 @@ import net.maxsmr.commonutils.states.getOrCreate
 import net.maxsmr.commonutils.validation.BaseValidator
 import ru.tinkoff.decoro.Mask
 import ru.tinkoff.decoro.watchers.MaskFormatWatcher
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 // region Field
 
@@ -444,6 +451,69 @@ fun <X, Y> combineLatest(sources: List<LiveData<out X>>, combine: (List<X?>) ->
     return combineLiveData
 }
 
+/**
+ * Как [combineLatest], но без создания списка на каждую эмиссию:
+ * [combine] получает один и тот же [LatestValues], обновляемый по месту, - его нельзя сохранять
+ */
+fun <X, Y> combineLatestReusing(sources: List<LiveData<out X>>, combine: (LatestValues<X>) -> Y): LiveData<Y> {
+    val combineLiveData = MediatorLiveData<Y>()
+    val values = LatestValues<X>(sources.size)
+    sources.forEachIndexed { index, source ->
+        values[index] = source.value
+        combineLiveData.addSource(source) {
+            values[index] = it
+            combineLiveData.value = combine(values)
+        }
+    }
+    return combineLiveData
+}
+
+// region Rate
+
+/**
+ * Эмиссирует первое значение и игнорирует следующие в течение [windowMillis]
+ */
+fun <T> LiveData<T>.throttleFirst(windowMillis: Long): LiveData<T> = ThrottleFirstLiveData(this, windowMillis)
+
+/**
+ * Эмиссирует последнее значение в конце окна [windowMillis], начатого первым после паузы значением
+ */
+fun <T> LiveData<T>.throttleLast(windowMillis: Long): LiveData<T> = ThrottleLastLiveData(this, windowMillis)
+
+/**
+ * Эмиссирует значение, если за ним [timeoutMillis] не было новых
+ */
+fun <T> LiveData<T>.debounce(timeoutMillis: Long): LiveData<T> = DebounceLiveData(this, timeoutMillis)
+
+/**
+ * Эмиссирует последнее значение на тиках с периодом [periodMillis] от начала подписки,
+ * тики без новых значений пропускаются без пробуждения потока
+ */
+fun <T> LiveData<T>.sample(periodMillis: Long): LiveData<T> = SampleLiveData(this, periodMillis)
+
+/**
+ * Эмиссирует не чаще раза за кадр (по [Choreographer]) последнее значение,
+ * например, для прогресса, отображаемого в UI
+ */
+fun <T> LiveData<T>.conflateToFrame(): LiveData<T> = FrameConflateLiveData(this)
+
+/**
+ * [map] с вычислением [body] на [executor]: одновременно выполняется не больше одного вычисления,
+ * промежуточные значения за время него пропускаются, выставляется только результат для последнего
+ */
+@JvmOverloads
+fun <X, Y> LiveData<X>.mapAsync(executor: Executor = asyncExecutor, body: (X) -> Y): LiveData<Y> =
+    AsyncMapLiveData(this, executor, body)
+
+/**
+ * [switchMap] с получением [LiveData] от [body] на [executor], см. [mapAsync]
+ */
+@JvmOverloads
+fun <X, Y> LiveData<X>.switchMapAsync(executor: Executor = asyncExecutor, body: (X) -> LiveData<Y>): LiveData<Y> =
+    Transformations.switchMap(mapAsync(executor, body)) { it }
+
+// endregion
+
 // region LoadState
 
 fun <D> MutableLiveData<ILoadState<D>>.setEmptyLoadState(
@@ -724,4 +794,247 @@ private class UpdatingTransformLiveData<X, Y>(
             timer = null
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Последние значения источников для [combineLatestReusing] по их индексам
+ */
+class LatestValues<X> internal constructor(val size: Int) {
+
+    private val values = arrayOfNulls<Any?>(size)
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(index: Int): X? = values[index] as X?
+
+    internal operator fun set(index: Int, value: X?) {
+        values[index] = value
+    }
+}
+
+private val asyncExecutor: Executor by lazy {
+    Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() - 1), AsyncThreadFactory)
+}
+
+private object AsyncThreadFactory : ThreadFactory {
+
+    private val counter = AtomicInteger(0)
+
+    override fun newThread(r: Runnable): Thread = Thread(r, "LiveDataAsync-${counter.incrementAndGet()}").apply {
+        isDaemon = true
+    }
+}
+
+/**
+ * Основа для операторов, придерживающих значения на главном потоке;
+ * при отписке придержанное значение выставляется сразу
+ */
+private abstract class RateLiveData<T>(source: LiveData<T>) : MediatorLiveData<T>() {
+
+    protected val handler = Handler(Looper.getMainLooper())
+
+    private var pending: T? = null
+
+    private var hasPending = false
+
+    init {
+        addSource(source) {
+            onSourceChanged(it)
+        }
+    }
+
+    protected abstract fun onSourceChanged(value: T)
+
+    /**
+     * Отмена запланированных эмиссий
+     */
+    protected open fun onCancel() {}
+
+    protected fun hold(value: T) {
+        pending = value
+        hasPending = true
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    protected fun emitPending() {
+        if (hasPending) {
+            val value = pending
+            pending = null
+            hasPending = false
+            setValue(value as T)
+        }
+    }
+
+    override fun onInactive() {
+        super.onInactive()
+        handler.removeCallbacksAndMessages(null)
+        onCancel()
+        emitPending()
+    }
+}
+
+private class ThrottleFirstLiveData<T>(source: LiveData<T>, private val windowMillis: Long) : RateLiveData<T>(source) {
+
+    private var lastEmitTime = 0L
+
+    private var hasEmitted = false
+
+    override fun onSourceChanged(value: T) {
+        val now = SystemClock.uptimeMillis()
+        if (!hasEmitted || now - lastEmitTime >= windowMillis) {
+            hasEmitted = true
+            lastEmitTime = now
+            setValue(value)
+        }
+    }
+}
+
+private class ThrottleLastLiveData<T>(source: LiveData<T>, private val windowMillis: Long) : RateLiveData<T>(source) {
+
+    private var isScheduled = false
+
+    private val emitRunnable = Runnable {
+        isScheduled = false
+        emitPending()
+    }
+
+    override fun onSourceChanged(value: T) {
+        hold(value)
+        if (!isScheduled) {
+            isScheduled = true
+            handler.postDelayed(emitRunnable, windowMillis)
+        }
+    }
+
+    override fun onCancel() {
+        isScheduled = false
+    }
+}
+
+private class DebounceLiveData<T>(source: LiveData<T>, private val timeoutMillis: Long) : RateLiveData<T>(source) {
+
+    private val emitRunnable = Runnable {
+        emitPending()
+    }
+
+    override fun onSourceChanged(value: T) {
+        hold(value)
+        handler.removeCallbacks(emitRunnable)
+        handler.postDelayed(emitRunnable, timeoutMillis)
+    }
+}
+
+private class SampleLiveData<T>(source: LiveData<T>, private val periodMillis: Long) : RateLiveData<T>(source) {
+
+    private var startTime = 0L
+
+    private var isScheduled = false
+
+    private val tickRunnable = Runnable {
+        isScheduled = false
+        emitPending()
+    }
+
+    override fun onActive() {
+        startTime = SystemClock.uptimeMillis()
+        super.onActive()
+    }
+
+    override fun onSourceChanged(value: T) {
+        hold(value)
+        if (!isScheduled && periodMillis > 0) {
+            isScheduled = true
+            val now = SystemClock.uptimeMillis()
+            handler.postAtTime(tickRunnable, startTime + ((now - startTime) / periodMillis + 1) * periodMillis)
+        } else if (periodMillis <= 0) {
+            emitPending()
+        }
+    }
+
+    override fun onCancel() {
+        isScheduled = false
+    }
+}
+
+private class FrameConflateLiveData<T>(source: LiveData<T>) : RateLiveData<T>(source) {
+
+    private var isFramePosted = false
+
+    private val frameCallback = Choreographer.FrameCallback {
+        isFramePosted = false
+        emitPending()
+    }
+
+    override fun onSourceChanged(value: T) {
+        hold(value)
+        if (!isFramePosted) {
+            isFramePosted = true
+            // источники эмиссируют на главном потоке, у которого есть Choreographer
+            Choreographer.getInstance().postFrameCallback(frameCallback)
+        }
+    }
+
+    override fun onCancel() {
+        if (isFramePosted) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback)
+            isFramePosted = false
+        }
+    }
+}
+
+/**
+ * Все поля, кроме входа вычисления, меняются только на главном потоке
+ */
+private class AsyncMapLiveData<X, Y>(
+    source: LiveData<X>,
+    private val executor: Executor,
+    private val body: (X) -> Y
+) : MediatorLiveData<Y>() {
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    private var latest: X? = null
+
+    /**
+     * номер последнего значения из источника
+     */
+    private var version = 0
+
+    private var isRunning = false
+
+    init {
+        addSource(source) {
+            latest = it
+            version++
+            if (!isRunning) {
+                compute()
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun compute() {
+        isRunning = true
+        val input = latest as X
+        val inputVersion = version
+        executor.execute {
+            val result = try {
+                body(input)
+            } catch (e: RuntimeException) {
+                // как у синхронного map - падение на главном потоке
+                handler.post {
+                    isRunning = false
+                    throw e
+                }
+                return@execute
+            }
+            handler.post {
+                isRunning = false
+                if (inputVersion == version) {
+                    value = result
+                } else {
+                    compute()
+                }
+            }
+        }
+    }
+}
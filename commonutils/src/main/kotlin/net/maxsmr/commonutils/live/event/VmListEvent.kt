@@ -2,8 +2,6 @@ package net.maxsmr.commonutils.live.event
 
 import androidx.annotation.MainThread
 import net.maxsmr.commonutils.gui.actions.BaseViewModelAction
-import net.maxsmr.commonutils.Predicate.Methods.filterIndexed
-import net.maxsmr.commonutils.Predicate.Methods.findIndexed
 import net.maxsmr.commonutils.collection.sort.BaseOptionalComparator
 import net.maxsmr.commonutils.collection.sort.ISortOption
 import net.maxsmr.commonutils.compareInts
@@ -19,7 +17,7 @@ import java.util.*
 @MainThread
 class VmListEvent<A : BaseViewModelAction<*>>() {
 
-    private val list: LinkedList<ItemInfo<A>> = LinkedList()
+    private val queue: ItemQueue<A> = ItemQueue()
 
     @JvmOverloads
     constructor(value: A, options: AddOptions = AddOptions()): this() {
@@ -34,20 +32,29 @@ class VmListEvent<A : BaseViewModelAction<*>>() {
         if (this === other) return true
         if (other !is VmListEvent<*>) return false
 
-        if (list != other.list) return false
+        if (queue.toList() != other.queue.toList()) return false
 
         return true
     }
 
     override fun hashCode(): Int {
-        return list.hashCode()
+        return queue.toList().hashCode()
     }
 
-    fun hasTag(tag: String, remove: Boolean) = getFirstByTag(tag, remove) != null
+    fun hasTag(tag: String, remove: Boolean) = if (remove) {
+        queue.removeFirstByTag(tag) != null
+    } else {
+        queue.hasTag(tag)
+    }
 
-    fun getFirstByTag(tag: String, remove: Boolean) = getAll(remove) {
-        it.tag == tag
-    }.firstOrNull()
+    /**
+     * @return первый по порядку очереди итем с тегом [tag]
+     */
+    fun getFirstByTag(tag: String, remove: Boolean) = if (remove) {
+        queue.removeFirstByTag(tag)
+    } else {
+        queue.firstByTag(tag)
+    }
 
     /**
      * @param remove нужно ли удалить вычитанный элемент из очереди
@@ -70,65 +77,61 @@ class VmListEvent<A : BaseViewModelAction<*>>() {
                     && (predicate == null || predicate.invoke(value))
             )
         } else {
-            var isMatch = true
             // в результирующий список попадают все итемы, соответствующие предикату
             // + первый несоответствующий
-            result.addAll(list.filterIndexed { index, item ->
-                isMatch.apply {
-                    if (isMatch && predicate != null && !predicate.invoke(item)) {
-                        isMatch = false
-                    }
+            for (item in queue) {
+                result.add(item)
+                if (predicate != null && !predicate.invoke(item)) {
+                    break
                 }
-            })
+            }
         }
         return result
     }
 
-    fun get(remove: Boolean): ItemInfo<A>? = if (list.isNotEmpty()) {
-        if (remove) {
-            list.pollFirst()
-        } else {
-            list.peekFirst()
-        }
+    fun get(remove: Boolean): ItemInfo<A>? = if (remove) {
+        queue.pollFirst()
     } else {
-        null
+        queue.first()
     }
 
+    /**
+     * Вставка за O(log n), проверка тега для [UniqueStrategy.Ignore] и [UniqueStrategy.Replace] - по индексу тегов
+     */
     @JvmOverloads
     fun add(value: A, options: AddOptions = AddOptions()) {
-        val tag = options.tag
-        val existingItems = if (tag.isNotEmpty()) {
-            filterIndexed(list) { it.tag == tag }
-        } else {
-            emptyMap()
+        if (checkUnique(options)) {
+            queue.add(ItemInfo(value, options.tag, options.priority.value, options.checkSingle))
         }
-        when (options.unique) {
-            UniqueStrategy.Ignore -> {
-                if (existingItems.isNotEmpty()) {
-                    return
-                }
-            }
-            UniqueStrategy.Replace -> {
-                existingItems.forEach {
-                    list.removeAt(it.key)
-                }
-            }
-            is UniqueStrategy.Custom -> {
-                @Suppress("UNCHECKED_CAST")
-                options.unique.lambda(list as List<ItemInfo<BaseViewModelAction<*>>>)
-            }
-            else -> {
-            // не меняем
-            }
-        }
-        list.add(ItemInfo(value, options.tag, options.priority.value, options.checkSingle))
-        list.sortWith(ItemComparator())
     }
 
+    /**
+     * Добавляет одной вставкой: при одинаковых [options] из [collection] с тегом
+     * для [UniqueStrategy.Ignore] остаётся первый, для [UniqueStrategy.Replace] - последний
+     */
     @JvmOverloads
     fun addAll(collection: Collection<A>, options: AddOptions = AddOptions()) {
-        collection.forEach {
-            add(it, options)
+        if (collection.isEmpty()) {
+            return
+        }
+        val values = if (options.tag.isNotEmpty()) {
+            when (options.unique) {
+                UniqueStrategy.Ignore -> listOf(collection.first())
+                UniqueStrategy.Replace -> listOf(collection.last())
+                is UniqueStrategy.Custom -> {
+                    // решение зависит от уже добавленных
+                    collection.forEach {
+                        add(it, options)
+                    }
+                    return
+                }
+                else -> collection
+            }
+        } else {
+            collection
+        }
+        if (checkUnique(options)) {
+            queue.addAll(values.map { ItemInfo(it, options.tag, options.priority.value, options.checkSingle) })
         }
     }
 
@@ -138,52 +141,71 @@ class VmListEvent<A : BaseViewModelAction<*>>() {
         }
     }
 
-    fun removeFirstByTag(tag: String): ItemInfo<A>? {
-        findIndexed(list) {
-            it.tag == tag
-        }?.let {
-            list.removeAt(it.first)
-            return it.second
-        }
-        return null
-    }
+    fun removeFirstByTag(tag: String): ItemInfo<A>? = queue.removeFirstByTag(tag)
 
-    fun removeAllByTag(tag: String): List<ItemInfo<A>> {
-        val new = list.filter { it.tag != tag }
-        list.clear()
-        list.addAll(new)
-        return new
-    }
+    /**
+     * @return удалённые итемы
+     */
+    fun removeAllByTag(tag: String): List<ItemInfo<A>> = queue.removeAllByTag(tag)
 
     fun clear() {
-        list.clear()
+        queue.clear()
     }
 
     @JvmOverloads
     fun new(value: A, options: AddOptions = AddOptions()): VmListEvent<A> {
         val event = VmListEvent<A>()
-        event.list.addAll(list)
+        event.queue.addAllFrom(queue)
         event.add(value, options)
         return event
     }
 
     fun new(collection: Map<A, AddOptions>): VmListEvent<A> {
         val event = VmListEvent<A>()
-        event.list.addAll(list)
-        addAll(collection)
+        event.queue.addAllFrom(queue)
+        event.addAll(collection)
         return event
     }
 
     @JvmOverloads
     fun new(collection: Collection<A>, options: AddOptions = AddOptions()): VmListEvent<A> {
         val event = VmListEvent<A>()
-        event.list.addAll(list)
-        addAll(collection, options)
+        event.queue.addAllFrom(queue)
+        event.addAll(collection, options)
         return event
     }
 
     /**
-     * @param priority приоритет добавляемого [A] по отношению к тем, что уже есть в [list]
+     * Применяет [AddOptions.unique] к уже добавленным итемам
+     *
+     * @return false, если добавлять не нужно
+     */
+    private fun checkUnique(options: AddOptions): Boolean {
+        val tag = options.tag
+        when (val unique = options.unique) {
+            UniqueStrategy.Ignore -> {
+                if (tag.isNotEmpty() && queue.hasTag(tag)) {
+                    return false
+                }
+            }
+            UniqueStrategy.Replace -> {
+                if (tag.isNotEmpty()) {
+                    queue.removeAllByTag(tag)
+                }
+            }
+            is UniqueStrategy.Custom -> {
+                @Suppress("UNCHECKED_CAST")
+                return unique.lambda(queue.toList() as List<ItemInfo<BaseViewModelAction<*>>>)
+            }
+            else -> {
+            // не меняем
+            }
+        }
+        return true
+    }
+
+    /**
+     * @param priority приоритет добавляемого [A] по отношению к тем, что уже есть в очереди
      * @param checkSingle обработка событий из очереди, следующих за данным возможна только после текущего
      * (например, следующий(ие) snack может быть выведен только после того как закроется этот - см. конкретные параметры в [A])
      */
@@ -234,10 +256,123 @@ class VmListEvent<A : BaseViewModelAction<*>>() {
 
         /**
          * Решение о попадании сообщения в очередь принимается в [lambda]
+         * по копии текущей очереди: false - не добавлять
          */
         class Custom(val lambda: (List<ItemInfo<BaseViewModelAction<*>>>) -> Boolean): UniqueStrategy()
     }
 
+    /**
+     * Итемы, упорядоченные по [ItemComparator] и порядку добавления, с индексом по тегам
+     */
+    private class ItemQueue<A : BaseViewModelAction<*>> : Iterable<ItemInfo<A>> {
+
+        private val entries = TreeSet<Entry<A>>(ENTRY_COMPARATOR)
+
+        private val entriesByTag = HashMap<String, TreeSet<Entry<A>>>()
+
+        /**
+         * для порядка при одинаковых приоритете и времени
+         */
+        private var nextSequence = 0L
+
+        override fun iterator(): Iterator<ItemInfo<A>> {
+            val iterator = entries.iterator()
+            return object : Iterator<ItemInfo<A>> {
+                override fun hasNext() = iterator.hasNext()
+                override fun next() = iterator.next().info
+            }
+        }
+
+        fun toList(): List<ItemInfo<A>> = entries.map { it.info }
+
+        fun first(): ItemInfo<A>? = if (entries.isEmpty()) null else entries.first().info
+
+        fun pollFirst(): ItemInfo<A>? = entries.pollFirst()?.let {
+            removeFromTag(it)
+            it.info
+        }
+
+        fun hasTag(tag: String) = entriesByTag.containsKey(tag)
+
+        fun firstByTag(tag: String): ItemInfo<A>? = entriesByTag[tag]?.first()?.info
+
+        fun removeFirstByTag(tag: String): ItemInfo<A>? {
+            val entry = entriesByTag[tag]?.first() ?: return null
+            entries.remove(entry)
+            removeFromTag(entry)
+            return entry.info
+        }
+
+        fun removeAllByTag(tag: String): List<ItemInfo<A>> {
+            val tagEntries = entriesByTag.remove(tag) ?: return emptyList()
+            entries.removeAll(tagEntries)
+            return tagEntries.map { it.info }
+        }
+
+        fun add(info: ItemInfo<A>) {
+            val entry = Entry(info, nextSequence++)
+            entries.add(entry)
+            addToTag(entry)
+        }
+
+        fun addAll(infos: Collection<ItemInfo<A>>) {
+            val newEntries = infos.map { Entry(it, nextSequence++) }
+            entries.addAll(newEntries)
+            newEntries.forEach { addToTag(it) }
+        }
+
+        /**
+         * Копирует итемы из [other] с сохранением порядка (за линейное время, если эта очередь пуста)
+         */
+        fun addAllFrom(other: ItemQueue<A>) {
+            if (entries.isEmpty()) {
+                entries.addAll(other.entries)
+                other.entriesByTag.forEach { (tag, tagEntries) ->
+                    entriesByTag[tag] = TreeSet(tagEntries)
+                }
+                nextSequence = other.nextSequence
+            } else {
+                addAll(other.toList())
+            }
+        }
+
+        fun clear() {
+            entries.clear()
+            entriesByTag.clear()
+        }
+
+        private fun addToTag(entry: Entry<A>) {
+            val tag = entry.info.tag
+            if (tag.isNotEmpty()) {
+                entriesByTag.getOrPut(tag) { TreeSet(ENTRY_COMPARATOR) }.add(entry)
+            }
+        }
+
+        private fun removeFromTag(entry: Entry<A>) {
+            val tag = entry.info.tag
+            val tagEntries = entriesByTag[tag] ?: return
+            tagEntries.remove(entry)
+            if (tagEntries.isEmpty()) {
+                entriesByTag.remove(tag)
+            }
+        }
+
+        private class Entry<A : BaseViewModelAction<*>>(
+                val info: ItemInfo<A>,
+                val sequence: Long
+        )
+
+        companion object {
+
+            private val ITEM_COMPARATOR = ItemComparator()
+
+            private val ENTRY_COMPARATOR = Comparator<Entry<*>> { lhs, rhs ->
+                val result = ITEM_COMPARATOR.compare(lhs.info, rhs.info)
+                if (result != 0) result else compareLongs(lhs.sequence, rhs.sequence, true)
+            }
+        }
+    }
+
     private class ItemComparator: BaseOptionalComparator<ItemComparator.SortOption, ItemInfo<*>>(
             mapOf(
                     Pair(SortOption.PRIORITY, false),
@@ -0,0 +1,529 @@
+package net.maxsmr.commonutils.media
+
+import android.graphics.Bitmap
+import android.media.MediaMetadataRetriever
+import android.net.Uri
+import android.os.Build
+import android.util.LruCache
+import net.maxsmr.commonutils.graphic.createBitmapFromByteArray
+import net.maxsmr.commonutils.graphic.getBitmapByteCount
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("MediaMetadataService")
+
+/**
+ * Extracts metadata, durations, frames and cover arts of media files:
+ * - opened [MediaMetadataRetriever] are kept for reuse by next requests for same source;
+ * - results are cached by path, size and modification time of file,
+ * metadata and durations can be saved with [saveCache] and restored on next launch with [loadCache];
+ * - frames are extracted already scaled;
+ * - [extractBatch] processes files on [parallelism] threads
+ *
+ * Returned frames and cover arts are instances from memory cache, shared between callers:
+ * they must not be recycled or modified; recycled ones are skipped and extracted again anyway
+ *
+ * Thread-safe
+ *
+ * @param thumbnailCacheSize max bytes of frames and cover arts kept in memory
+ */
+class MediaMetadataService @JvmOverloads constructor(
+    private val parallelism: Int = DEFAULT_PARALLELISM,
+    metadataCacheSize: Int = DEFAULT_METADATA_CACHE_SIZE,
+    thumbnailCacheSize: Int = DEFAULT_THUMBNAIL_CACHE_SIZE,
+    maxIdleRetrievers: Int = parallelism
+) {
+
+    private val metadataCache = LruCache<String, MediaMetadata>(metadataCacheSize)
+
+    private val durationCache = LruCache<String, Long>(metadataCacheSize)
+
+    private val thumbnailCache = object : LruCache<String, Bitmap>(thumbnailCacheSize) {
+
+        override fun sizeOf(key: String, value: Bitmap): Int = getBitmapByteCount(value)
+    }
+
+    private val retrievers = RetrieverPool(maxIdleRetrievers)
+
+    @Volatile
+    private var executor: ExecutorService? = null
+
+    init {
+        require(parallelism > 0) { "Incorrect parallelism: $parallelism" }
+    }
+
+    fun getMetadata(file: File): MediaMetadata? {
+        val key = sourceKey(file) ?: return null
+        metadataCache.get(key)?.let {
+            return it
+        }
+        return withRetriever(file, key) {
+            readMetadata(it, key)
+        }
+    }
+
+    fun getDuration(file: File): Long? {
+        val key = sourceKey(file) ?: return null
+        durationCache.get(key)?.let {
+            return it
+        }
+        metadataCache.get(key)?.durationMs?.let {
+            return it
+        }
+        return withRetriever(file, key) {
+            readDuration(it, key)
+        }
+    }
+
+    /**
+     * @param maxWidth frames are scaled down with proportions kept to fit [maxWidth] x [maxHeight],
+     * 0 to extract in original size
+     * @return frames by positions in ms, same positions as in [extractFrames];
+     * frames belong to the cache and must not be recycled
+     */
+    @JvmOverloads
+    fun getFrames(
+        file: File,
+        framesCount: Int,
+        maxWidth: Int = 0,
+        maxHeight: Int = 0,
+        option: Int = MediaMetadataRetriever.OPTION_CLOSEST_SYNC
+    ): Map<Long, Bitmap?> {
+        if (framesCount <= 0) {
+            logger.e("Incorrect framesCount: $framesCount")
+            return emptyMap()
+        }
+        val key = sourceKey(file) ?: return emptyMap()
+        return withRetriever(file, key) {
+            readFrames(it, key, framesCount, maxWidth, maxHeight, option)
+        } ?: emptyMap()
+    }
+
+    /**
+     * @return frame, which belongs to the cache and must not be recycled
+     */
+    @JvmOverloads
+    fun getFrameAtPosition(
+        file: File,
+        positionMs: Long,
+        maxWidth: Int = 0,
+        maxHeight: Int = 0,
+        option: Int = MediaMetadataRetriever.OPTION_CLOSEST_SYNC
+    ): Bitmap? {
+        val key = sourceKey(file) ?: return null
+        getThumbnail(frameKey(key, positionMs, maxWidth, maxHeight, option))?.let {
+            return it
+        }
+        return withRetriever(file, key) {
+            readFrame(it, key, positionMs, maxWidth, maxHeight, option)
+        }
+    }
+
+    /**
+     * @return cover art, which belongs to the cache and must not be recycled
+     */
+    fun getCoverArt(file: File): Bitmap? {
+        val key = sourceKey(file) ?: return null
+        val coverKey = "$key|cover"
+        getThumbnail(coverKey)?.let {
+            return it
+        }
+        return withRetriever(file, key) { retriever ->
+            createBitmapFromByteArray(retriever.embeddedPicture)?.also {
+                thumbnailCache.put(coverKey, it)
+            }
+        }
+    }
+
+    /**
+     * Extracts requested data of each file with single retriever on one of worker threads;
+     * frames and cover arts of results belong to the cache and must not be recycled
+     *
+     * @param listener called on worker thread after each file
+     * @return results in order of [files], null results for files which cannot be read
+     */
+    @JvmOverloads
+    fun extractBatch(
+        files: Collection<File>,
+        request: BatchRequest,
+        listener: ((File, BatchResult?) -> Unit)? = null
+    ): Map<File, BatchResult?> {
+        val futures = LinkedHashMap<File, Future<BatchResult?>>()
+        for (file in files) {
+            if (futures.containsKey(file)) {
+                continue
+            }
+            futures[file] = getExecutor().submit<BatchResult?> {
+                extract(file, request).also {
+                    listener?.invoke(file, it)
+                }
+            }
+        }
+        val result = LinkedHashMap<File, BatchResult?>()
+        for ((file, future) in futures) {
+            result[file] = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                logger.e(formatException(e.cause ?: e, "extract"))
+                null
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                futures.values.forEach { it.cancel(true) }
+                break
+            }
+        }
+        return result
+    }
+
+    /**
+     * Writes cached metadata and durations to [file]
+     */
+    fun saveCache(file: File): Boolean = try {
+        saveCacheOrThrow(file)
+        true
+    } catch (e: RuntimeException) {
+        logger.e(e)
+        false
+    }
+
+    @Throws(RuntimeException::class)
+    fun saveCacheOrThrow(file: File) {
+        val snapshot = CacheSnapshot(HashMap(metadataCache.snapshot()), HashMap(durationCache.snapshot()))
+        val tempFile = File(file.path + TEMP_SUFFIX)
+        try {
+            file.parentFile?.mkdirs()
+            ObjectOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use {
+                it.writeObject(snapshot)
+            }
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw IOException("Cannot rename $tempFile to $file")
+            }
+        } catch (e: IOException) {
+            tempFile.delete()
+            throw RuntimeException(formatException(e, "writeObject"), e)
+        }
+    }
+
+    /**
+     * Restores metadata and durations written by [saveCache];
+     * entries of changed files are not used, since their keys differ
+     */
+    fun loadCache(file: File): Boolean = try {
+        loadCacheOrThrow(file)
+        true
+    } catch (e: RuntimeException) {
+        logger.e(e)
+        false
+    }
+
+    @Throws(RuntimeException::class)
+    fun loadCacheOrThrow(file: File) {
+        val snapshot = try {
+            ObjectInputStream(BufferedInputStream(FileInputStream(file))).use {
+                it.readObject() as CacheSnapshot
+            }
+        } catch (e: IOException) {
+            throw RuntimeException(formatException(e, "readObject"), e)
+        } catch (e: ClassNotFoundException) {
+            throw RuntimeException(formatException(e, "readObject"), e)
+        } catch (e: ClassCastException) {
+            throw RuntimeException(formatException(e, "readObject"), e)
+        }
+        snapshot.metadata.forEach { (key, value) -> metadataCache.put(key, value) }
+        snapshot.durations.forEach { (key, value) -> durationCache.put(key, value) }
+    }
+
+    fun clearCache() {
+        metadataCache.evictAll()
+        durationCache.evictAll()
+        thumbnailCache.evictAll()
+    }
+
+    /**
+     * Releases idle retrievers and stops worker threads
+     */
+    fun release() {
+        synchronized(this) {
+            executor?.shutdownNow()
+            executor = null
+        }
+        retrievers.clear()
+    }
+
+    private fun extract(file: File, request: BatchRequest): BatchResult? {
+        val key = sourceKey(file) ?: return null
+        val cachedMetadata = if (request.withMetadata) metadataCache.get(key) else null
+        val cachedDuration = durationCache.get(key) ?: metadataCache.get(key)?.durationMs
+        if ((!request.withMetadata || cachedMetadata != null) && request.framesCount <= 0 && !request.withCoverArt
+            && cachedDuration != null
+        ) {
+            return BatchResult(cachedMetadata, cachedDuration, emptyMap(), null)
+        }
+        return withRetriever(file, key) { retriever ->
+            val metadata = if (request.withMetadata) cachedMetadata ?: readMetadata(retriever, key) else null
+            val duration = metadata?.durationMs ?: cachedDuration ?: readDuration(retriever, key)
+            val frames = if (request.framesCount > 0) {
+                readFrames(retriever, key, request.framesCount, request.frameMaxWidth, request.frameMaxHeight, request.frameOption)
+            } else {
+                emptyMap()
+            }
+            val coverArt = if (request.withCoverArt) {
+                val coverKey = "$key|cover"
+                getThumbnail(coverKey) ?: createBitmapFromByteArray(retriever.embeddedPicture)?.also {
+                    thumbnailCache.put(coverKey, it)
+                }
+            } else {
+                null
+            }
+            BatchResult(metadata, duration, frames, coverArt)
+        }
+    }
+
+    private fun readMetadata(retriever: MediaMetadataRetriever, key: String): MediaMetadata =
+        extractMetadata(retriever, false).also {
+            metadataCache.put(key, it)
+            it.durationMs?.let { duration ->
+                durationCache.put(key, duration)
+            }
+        }
+
+    private fun readDuration(retriever: MediaMetadataRetriever, key: String): Long? =
+        extractMediaDuration(retriever, false)?.also {
+            durationCache.put(key, it)
+        }
+
+    private fun readFrames(
+        retriever: MediaMetadataRetriever,
+        key: String,
+        framesCount: Int,
+        maxWidth: Int,
+        maxHeight: Int,
+        option: Int
+    ): Map<Long, Bitmap?> {
+        val duration = durationCache.get(key) ?: readDuration(retriever, key) ?: 0
+        if (duration <= 0) {
+            logger.e("Incorrect duration: $duration")
+            return emptyMap()
+        }
+        val interval = Math.max(duration / framesCount, 1)
+        var position: Long = 1
+        val frames = LinkedHashMap<Long, Bitmap?>()
+        while (position <= duration && frames.size < framesCount) {
+            frames[position] = getThumbnail(frameKey(key, position, maxWidth, maxHeight, option))
+                ?: readFrame(retriever, key, position, maxWidth, maxHeight, option)
+            position += interval
+        }
+        return frames
+    }
+
+    private fun readFrame(
+        retriever: MediaMetadataRetriever,
+        key: String,
+        positionMs: Long,
+        maxWidth: Int,
+        maxHeight: Int,
+        option: Int
+    ): Bitmap? {
+        val timeUs = TimeUnit.MILLISECONDS.toMicros(positionMs)
+        val frame = try {
+            if (maxWidth > 0 && maxHeight > 0) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                    // decoder scales frame itself, full size frame is not allocated
+                    retriever.getScaledFrameAtTime(timeUs, option, maxWidth, maxHeight)
+                } else {
+                    retriever.getFrameAtTime(timeUs, option)?.let { scaleToFit(it, maxWidth, maxHeight) }
+                }
+            } else {
+                retriever.getFrameAtTime(timeUs, option)
+            }
+        } catch (e: RuntimeException) {
+            logger.e(formatException(e, "getFrameAtTime"))
+            null
+        }
+        if (frame != null) {
+            thumbnailCache.put(frameKey(key, positionMs, maxWidth, maxHeight, option), frame)
+        }
+        return frame
+    }
+
+    /**
+     * @return cached bitmap, if it wasn't recycled by caller
+     */
+    private fun getThumbnail(key: String): Bitmap? {
+        val bitmap = thumbnailCache.get(key) ?: return null
+        if (bitmap.isRecycled) {
+            logger.w("Cached bitmap was recycled: $key")
+            thumbnailCache.remove(key)
+            return null
+        }
+        return bitmap
+    }
+
+    private fun <T> withRetriever(file: File, key: String, action: (MediaMetadataRetriever) -> T): T? {
+        val retriever = retrievers.acquire(key) ?: createMediaMetadataRetriever(Uri.fromFile(file)) ?: return null
+        var isValid = true
+        return try {
+            action(retriever)
+        } catch (e: RuntimeException) {
+            // state of retriever is unknown
+            isValid = false
+            logger.e(formatException(e, "extract"))
+            null
+        } finally {
+            if (isValid) {
+                retrievers.release(key, retriever)
+            } else {
+                retriever.release()
+            }
+        }
+    }
+
+    private fun getExecutor(): ExecutorService {
+        executor?.let {
+            return it
+        }
+        synchronized(this) {
+            return executor ?: Executors.newFixedThreadPool(parallelism, WorkerThreadFactory).also {
+                executor = it
+            }
+        }
+    }
+
+    /**
+     * What to extract in [extractBatch]
+     *
+     * @param framesCount 0 to skip frames
+     */
+    data class BatchRequest @JvmOverloads constructor(
+        val withMetadata: Boolean = true,
+        val framesCount: Int = 0,
+        val frameMaxWidth: Int = 0,
+        val frameMaxHeight: Int = 0,
+        val frameOption: Int = MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+        val withCoverArt: Boolean = false
+    )
+
+    data class BatchResult(
+        val metadata: MediaMetadata?,
+        val durationMs: Long?,
+        val frames: Map<Long, Bitmap?>,
+        val coverArt: Bitmap?
+    )
+
+    private class CacheSnapshot(
+        val metadata: HashMap<String, MediaMetadata>,
+        val durations: HashMap<String, Long>
+    ) : Serializable {
+
+        companion object {
+
+            private const val serialVersionUID = 1L
+        }
+    }
+
+    /**
+     * Idle retrievers by source keys, least recently used are released first
+     */
+    private class RetrieverPool(private val maxIdle: Int) {
+
+        private val idle = LinkedHashMap<String, MediaMetadataRetriever>(16, 0.75f, true)
+
+        @Synchronized
+        fun acquire(key: String): MediaMetadataRetriever? = idle.remove(key)
+
+        fun release(key: String, retriever: MediaMetadataRetriever) {
+            val evicted = mutableListOf<MediaMetadataRetriever>()
+            synchronized(this) {
+                // other caller could return retriever of same source
+                idle.put(key, retriever)?.let { evicted.add(it) }
+                val iterator = idle.values.iterator()
+                while (idle.size > maxIdle && iterator.hasNext()) {
+                    evicted.add(iterator.next())
+                    iterator.remove()
+                }
+            }
+            evicted.forEach { releaseRetriever(it) }
+        }
+
+        fun clear() {
+            val evicted: List<MediaMetadataRetriever>
+            synchronized(this) {
+                evicted = idle.values.toList()
+                idle.clear()
+            }
+            evicted.forEach { releaseRetriever(it) }
+        }
+
+        private fun releaseRetriever(retriever: MediaMetadataRetriever) {
+            try {
+                retriever.release()
+            } catch (e: RuntimeException) {
+                logger.e(formatException(e, "release"))
+            }
+        }
+    }
+
+    private object WorkerThreadFactory : ThreadFactory {
+
+        private val counter = AtomicInteger(0)
+
+        override fun newThread(r: Runnable): Thread = Thread(r, "MediaMetadataService-${counter.incrementAndGet()}").apply {
+            isDaemon = true
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_PARALLELISM = 2
+
+        const val DEFAULT_METADATA_CACHE_SIZE = 20000
+
+        private const val TEMP_SUFFIX = ".tmp"
+
+        /**
+         * 1/16 of max heap
+         */
+        val DEFAULT_THUMBNAIL_CACHE_SIZE: Int =
+            Math.min(Runtime.getRuntime().maxMemory() / 16, Int.MAX_VALUE.toLong()).toInt()
+
+        /**
+         * @return null if file is not valid
+         */
+        private fun sourceKey(file: File): String? {
+            if (!file.isFile) {
+                logger.e("Incorrect file: $file")
+                return null
+            }
+            return "${file.absolutePath}:${file.length()}:${file.lastModified()}"
+        }
+
+        private fun frameKey(key: String, positionMs: Long, maxWidth: Int, maxHeight: Int, option: Int) =
+            "$key|$positionMs|${maxWidth}x$maxHeight|$option"
+
+        private fun scaleToFit(bitmap: Bitmap, maxWidth: Int, maxHeight: Int): Bitmap {
+            if (bitmap.width <= maxWidth && bitmap.height <= maxHeight) {
+                return bitmap
+            }
+            val ratio = Math.min(maxWidth.toFloat() / bitmap.width, maxHeight.toFloat() / bitmap.height)
+            val scaled = Bitmap.createScaledBitmap(
+                bitmap,
+                Math.max(1, (bitmap.width * ratio).toInt()),
+                Math.max(1, (bitmap.height * ratio).toInt()),
+                true
+            )
+            if (scaled !== bitmap) {
+                bitmap.recycle()
+            }
+            return scaled
+        }
+    }
+}
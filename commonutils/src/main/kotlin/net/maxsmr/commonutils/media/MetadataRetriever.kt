@@ -16,6 +16,7 @@ import net.maxsmr.commonutils.logger.BaseLogger
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
 import java.io.File
 import java.io.FileDescriptor
+import java.io.Serializable
 import java.util.concurrent.TimeUnit
 
 private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("MetadataRetriever")
@@ -98,7 +99,8 @@ fun extractMetadata(resourceUri: Uri?, headers: Map<String, String>? = null): Me
     return extractMetadata(retriever)
 }
 
-fun extractMetadata(retriever: MediaMetadataRetriever): MediaMetadata {
+@JvmOverloads
+fun extractMetadata(retriever: MediaMetadataRetriever, release: Boolean = true): MediaMetadata {
     val metadata = MediaMetadata(
             extractMetadataField(retriever, MediaMetadataRetriever.METADATA_KEY_DURATION, Long::class.java),
             extractMetadataField(retriever, MediaMetadataRetriever.METADATA_KEY_CD_TRACK_NUMBER, String::class.java),
@@ -130,7 +132,9 @@ fun extractMetadata(retriever: MediaMetadataRetriever): MediaMetadata {
             } else {
                 null
             })
-    retriever.release()
+    if (release) {
+        retriever.release()
+    }
     return metadata
 }
 
@@ -233,8 +237,12 @@ fun getMediaFileCoverArt(filePath: String?, headers: Map<String, String>? = null
 
 @JvmOverloads
 fun getMediaFileCoverArt(resourceUri: Uri?, headers: Map<String, String>? = null): Bitmap? {
-    val retriever = createMediaMetadataRetriever(resourceUri, headers)
-    return if (retriever != null) createBitmapFromByteArray(retriever.embeddedPicture) else null
+    val retriever = createMediaMetadataRetriever(resourceUri, headers) ?: return null
+    return try {
+        createBitmapFromByteArray(retriever.embeddedPicture)
+    } finally {
+        retriever.release()
+    }
 }
 
 @JvmOverloads
@@ -302,7 +310,7 @@ fun extractFrameAtPosition(
                 logger.e("Incorrect position: $positionMs")
                 return null
             }
-            retriever.getFrameAtTime(TimeUnit.MILLISECONDS.toNanos(positionMs), option)
+            retriever.getFrameAtTime(TimeUnit.MILLISECONDS.toMicros(positionMs), option)
         }
     } finally {
         if (release) {
@@ -337,6 +345,9 @@ fun extractFrames(resourceUri: Uri?, framesCount: Int, headers: Map<String, Stri
     return extractFrames(retriever, framesCount, true)
 }
 
+/**
+ * Decodes frames in full size, see [MediaMetadataService.getFrames] for scaled and cached frames
+ */
 @JvmOverloads
 fun extractFrames(
         retriever: MediaMetadataRetriever,
@@ -399,4 +410,4 @@ data class MediaMetadata(
         val location: String?,
         val videoRotation: Int?,
         val captureFrameRate: Int?
-)
\ No newline at end of file
+) : Serializable
\ No newline at end of file
@@ -169,13 +169,18 @@ fun Uri.copyToOrThrow(
         deleteOnFinish: Boolean = false,
 ): Uri {
     if (!isEmptyOrThrow(contentResolver)) {
-        val input = openInputStreamOrThrow(contentResolver)
-        createFileOrThrow(fileTo.name, fileTo.parent, true)
-        val output = fileTo.openOutputStreamOrThrow(append)
-        try {
-            input.copyStreamOrThrow(output)
-        } catch (e: IOException) {
-            throwRuntimeException(e, "copyStream")
+        if (append) {
+            val input = openInputStreamOrThrow(contentResolver)
+            createFileOrThrow(fileTo.name, fileTo.parent, true)
+            val output = fileTo.openOutputStreamOrThrow(append)
+            try {
+                input.copyStreamOrThrow(output)
+            } catch (e: IOException) {
+                throwRuntimeException(e, "copyStream")
+            }
+        } else {
+            // with channel transfer, when provider gives real file
+            copyWithDigestOrThrow(contentResolver, fileTo)
         }
     }
     if (deleteOnFinish) {
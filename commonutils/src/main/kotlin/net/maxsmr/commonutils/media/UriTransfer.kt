@@ -0,0 +1,411 @@
+package net.maxsmr.commonutils.media
+
+import android.content.ContentResolver
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import net.maxsmr.commonutils.BulkProgress
+import net.maxsmr.commonutils.DEFAULT_BULK_PARALLELISM
+import net.maxsmr.commonutils.IBulkProgressListener
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import net.maxsmr.commonutils.messageDigestOrThrow
+import java.io.File
+import java.io.InputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.CRC32
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("UriTransfer")
+
+private const val TRANSFER_BUFFER_SIZE = 256 * 1024
+
+data class UriTransferResult(
+    val uri: Uri,
+    /**
+     * null if content was only read
+     */
+    val target: File?,
+    val length: Long,
+    /**
+     * by algorithm names
+     */
+    val digests: Map<String, ByteArray>,
+    /**
+     * null if not requested
+     */
+    val crc32: Long?
+)
+
+/**
+ * Reads content once: copies it to [target] (if given) and computes requested digests and CRC32 on the way;
+ * when provider gives real file, it's read with [FileChannel] (and transferred directly, if no hashes needed)
+ *
+ * @param algorithms names of [MessageDigest] algorithms
+ */
+@JvmOverloads
+fun Uri.copyWithDigest(
+    contentResolver: ContentResolver,
+    target: File?,
+    algorithms: Collection<String> = emptyList(),
+    withCrc32: Boolean = false
+): UriTransferResult? = try {
+    copyWithDigestOrThrow(contentResolver, target, algorithms, withCrc32)
+} catch (e: RuntimeException) {
+    logger.e(e)
+    null
+}
+
+@Throws(RuntimeException::class)
+@JvmOverloads
+fun Uri.copyWithDigestOrThrow(
+    contentResolver: ContentResolver,
+    target: File?,
+    algorithms: Collection<String> = emptyList(),
+    withCrc32: Boolean = false
+): UriTransferResult = transferOrThrow(contentResolver, target, algorithms, withCrc32, null)
+
+/**
+ * Same as [copyWithDigest] for many uris on [parallelism] threads
+ *
+ * @param targetDir directory for copies named by display names of uris, null to only compute hashes
+ * @return results in order of [uris], null for failed or cancelled ones
+ */
+@JvmOverloads
+fun copyWithDigestParallel(
+    contentResolver: ContentResolver,
+    uris: Collection<Uri>,
+    targetDir: File?,
+    algorithms: Collection<String> = emptyList(),
+    withCrc32: Boolean = false,
+    parallelism: Int = DEFAULT_BULK_PARALLELISM,
+    progressListener: IBulkProgressListener? = null
+): Map<Uri, UriTransferResult?> {
+    require(parallelism > 0) { "Incorrect parallelism: $parallelism" }
+    val distinctUris = LinkedHashSet(uris)
+    if (targetDir != null && !targetDir.isDirectory && !targetDir.mkdirs()) {
+        logger.e("Cannot create directory: $targetDir")
+        return distinctUris.associateWith { null }
+    }
+    val progress = TransferProgress(distinctUris, contentResolver, progressListener)
+    val targets = resolveTargets(distinctUris, contentResolver, targetDir)
+    val executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(distinctUris.size, 1)), TransferThreadFactory)
+    val result = LinkedHashMap<Uri, UriTransferResult?>()
+    try {
+        val futures = distinctUris.associateWith { uri ->
+            executor.submit<UriTransferResult?> {
+                if (progress.isCancelled) {
+                    return@submit null
+                }
+                try {
+                    val target = targets[uri]
+                    if (targetDir != null && target == null) {
+                        // name was rejected
+                        return@submit null
+                    }
+                    uri.transferOrThrow(contentResolver, target, algorithms, withCrc32) {
+                        progress.onBytes(it)
+                    }
+                } catch (e: RuntimeException) {
+                    if (e !is CancellationException) {
+                        logger.e(e)
+                    }
+                    null
+                } finally {
+                    progress.onFileProcessed()
+                }
+            }
+        }
+        for ((uri, future) in futures) {
+            result[uri] = getTransferResult(future)
+        }
+    } finally {
+        executor.shutdownNow()
+    }
+    progress.notifyProgress(true)
+    return result
+}
+
+/**
+ * @param onBytes called after each chunk with its size, returns false to cancel
+ */
+@Throws(RuntimeException::class)
+private fun Uri.transferOrThrow(
+    contentResolver: ContentResolver,
+    target: File?,
+    algorithms: Collection<String>,
+    withCrc32: Boolean,
+    onBytes: ((Int) -> Boolean)?
+): UriTransferResult {
+    val digests = algorithms.distinct().associateWith { messageDigestOrThrow(it) }
+    val crc = if (withCrc32) CRC32() else null
+    target?.parentFile?.let {
+        if (!it.isDirectory && !it.mkdirs()) {
+            throw RuntimeException("Cannot create directory: $it")
+        }
+    }
+    val length = try {
+        val descriptor = try {
+            openFileDescriptorOrThrow(contentResolver)
+        } catch (e: RuntimeException) {
+            // some providers give only streams
+            null
+        }
+        if (descriptor != null) {
+            transferFromDescriptor(descriptor, target, digests.values, crc, onBytes)
+        } else {
+            transferFromStream(openInputStreamOrThrow(contentResolver), target, digests.values, crc, onBytes)
+        }
+    } catch (e: IOException) {
+        target?.delete()
+        throw RuntimeException(formatException(e, "transfer"), e)
+    } catch (e: RuntimeException) {
+        target?.delete()
+        throw e
+    }
+    return UriTransferResult(this, target, length, digests.mapValues { it.value.digest() }, crc?.value)
+}
+
+@Throws(IOException::class)
+private fun transferFromDescriptor(
+    descriptor: ParcelFileDescriptor,
+    target: File?,
+    digests: Collection<MessageDigest>,
+    crc: CRC32?,
+    onBytes: ((Int) -> Boolean)?
+): Long {
+    // negative for pipes and sockets, which cannot be transferred by channel
+    val size = descriptor.statSize
+    // closes descriptor itself
+    ParcelFileDescriptor.AutoCloseInputStream(descriptor).use { input ->
+        val inChannel = input.channel
+        if (target != null && size >= 0 && digests.isEmpty() && crc == null) {
+            FileOutputStream(target).use { output ->
+                val outChannel = output.channel
+                var position = 0L
+                while (position < size) {
+                    val count = inChannel.transferTo(position, Math.min(size - position, TRANSFER_BUFFER_SIZE.toLong()), outChannel)
+                    if (count <= 0) {
+                        break
+                    }
+                    position += count
+                    checkProceed(onBytes, count.toInt())
+                }
+                return position
+            }
+        }
+        val buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE)
+        val output = target?.let { FileOutputStream(it) }
+        try {
+            val outChannel = output?.channel
+            var total = 0L
+            while (true) {
+                val count = inChannel.read(buffer)
+                if (count < 0) {
+                    break
+                }
+                if (count == 0) {
+                    continue
+                }
+                update(buffer.array(), count, digests, crc)
+                buffer.flip()
+                if (outChannel != null) {
+                    while (buffer.hasRemaining()) {
+                        outChannel.write(buffer)
+                    }
+                }
+                buffer.clear()
+                total += count
+                checkProceed(onBytes, count)
+            }
+            return total
+        } finally {
+            output?.close()
+        }
+    }
+}
+
+@Throws(IOException::class)
+private fun transferFromStream(
+    input: InputStream,
+    target: File?,
+    digests: Collection<MessageDigest>,
+    crc: CRC32?,
+    onBytes: ((Int) -> Boolean)?
+): Long {
+    input.use {
+        val output = target?.let { FileOutputStream(it) }
+        try {
+            val buffer = ByteArray(TRANSFER_BUFFER_SIZE)
+            var total = 0L
+            while (true) {
+                val count = input.read(buffer)
+                if (count < 0) {
+                    break
+                }
+                if (count == 0) {
+                    continue
+                }
+                update(buffer, count, digests, crc)
+                output?.write(buffer, 0, count)
+                total += count
+                checkProceed(onBytes, count)
+            }
+            return total
+        } finally {
+            output?.close()
+        }
+    }
+}
+
+private fun update(buffer: ByteArray, count: Int, digests: Collection<MessageDigest>, crc: CRC32?) {
+    for (digest in digests) {
+        digest.update(buffer, 0, count)
+    }
+    crc?.update(buffer, 0, count)
+}
+
+private fun checkProceed(onBytes: ((Int) -> Boolean)?, count: Int) {
+    if (onBytes != null && !onBytes(count)) {
+        throw CancellationException("Transfer cancelled")
+    }
+}
+
+/**
+ * Unique file names in [targetDir] by display names of uris;
+ * uris, which names still point outside [targetDir], are not included
+ */
+private fun resolveTargets(uris: Collection<Uri>, contentResolver: ContentResolver, targetDir: File?): Map<Uri, File> {
+    if (targetDir == null) {
+        return emptyMap()
+    }
+    val canonicalDir = canonicalFileOrNull(targetDir) ?: return emptyMap()
+    val usedNames = HashSet<String>()
+    val result = HashMap<Uri, File>()
+    uris.forEachIndexed { index, uri ->
+        val name = toSingleSegment(uri.name(contentResolver)) ?: "file_$index"
+        var uniqueName = name
+        var counter = 1
+        // existing files are not overwritten
+        while (uniqueName in usedNames || File(targetDir, uniqueName).exists()) {
+            val dotIndex = name.lastIndexOf('.')
+            uniqueName = if (dotIndex > 0) {
+                "${name.substring(0, dotIndex)}_${counter}${name.substring(dotIndex)}"
+            } else {
+                "${name}_$counter"
+            }
+            counter++
+        }
+        usedNames.add(uniqueName)
+        val target = File(targetDir, uniqueName)
+        if (canonicalFileOrNull(target)?.parentFile != canonicalDir) {
+            logger.e("Target $target for $uri is outside $targetDir")
+            return@forEachIndexed
+        }
+        result[uri] = target
+    }
+    return result
+}
+
+/**
+ * Display name is given by provider and may contain separators or relative parts
+ *
+ * @return last segment of [name] or null, if it's not suitable for file name
+ */
+private fun toSingleSegment(name: String): String? {
+    val segment = File(name.replace('\\', '/')).name.replace(File.separatorChar, '_').trim()
+    return segment.takeIf { it.isNotEmpty() && it != "." && it != ".." }
+}
+
+private fun canonicalFileOrNull(file: File): File? = try {
+    file.canonicalFile
+} catch (e: IOException) {
+    logger.e(formatException(e, "getCanonicalFile"))
+    null
+}
+
+private fun getTransferResult(future: Future<UriTransferResult?>): UriTransferResult? = try {
+    future.get()
+} catch (e: ExecutionException) {
+    logger.e(formatException(e.cause ?: e, "transfer"))
+    null
+} catch (e: InterruptedException) {
+    Thread.currentThread().interrupt()
+    null
+}
+
+private class TransferProgress(
+    uris: Collection<Uri>,
+    contentResolver: ContentResolver,
+    private val listener: IBulkProgressListener?
+) {
+
+    private val filesTotal = uris.size
+
+    /**
+     * unknown sizes are not counted
+     */
+    private val bytesTotal = if (listener != null) uris.sumOf { Math.max(it.length(contentResolver), 0L) } else 0L
+
+    private val startTime = System.currentTimeMillis()
+
+    private val filesProcessed = AtomicInteger(0)
+
+    private val bytesProcessed = AtomicLong(0)
+
+    private val lastNotifyTime = AtomicLong(0)
+
+    private val cancelled = AtomicBoolean(false)
+
+    val isCancelled: Boolean get() = cancelled.get()
+
+    fun onBytes(count: Int): Boolean {
+        bytesProcessed.addAndGet(count.toLong())
+        notifyProgress(false)
+        return !isCancelled
+    }
+
+    fun onFileProcessed() {
+        filesProcessed.incrementAndGet()
+        val interval = listener?.notifyInterval ?: 0L
+        notifyProgress(interval <= 0)
+    }
+
+    fun notifyProgress(force: Boolean) {
+        val listener = listener ?: return
+        val now = System.currentTimeMillis()
+        if (!force) {
+            val interval = listener.notifyInterval
+            val last = lastNotifyTime.get()
+            if (interval <= 0 || now - last < interval || !lastNotifyTime.compareAndSet(last, now)) {
+                return
+            }
+        }
+        val proceed = synchronized(this) {
+            listener.onProgress(BulkProgress(filesProcessed.get(), filesTotal, bytesProcessed.get(), bytesTotal, now - startTime))
+        }
+        if (!proceed) {
+            cancelled.set(true)
+        }
+    }
+}
+
+private object TransferThreadFactory : ThreadFactory {
+
+    private val counter = AtomicInteger(0)
+
+    override fun newThread(r: Runnable): Thread = Thread(r, "UriTransfer-${counter.incrementAndGet()}").apply {
+        isDaemon = true
+    }
+}
@@ -0,0 +1,366 @@
+package net.maxsmr.commonutils.prefs
+
+import android.content.SharedPreferences
+import net.maxsmr.commonutils.Observable
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("BatchedPrefsStore")
+
+/**
+ * Typed access to [SharedPreferences] with reads from in-memory snapshot
+ * and writes merged within [flushDelay] into one commit on background thread
+ * (so nothing is left for QueuedWork, as with [SharedPreferences.Editor.apply]);
+ * listeners get all changes of one commit after it's done
+ *
+ * Doubles are stored as long bits, same as in [SharedPrefsHolder]
+ *
+ * @param flushDelay ms to wait for more changes after first not saved one
+ */
+class BatchedPrefsStore @JvmOverloads constructor(
+    private val prefs: SharedPreferences,
+    val name: String,
+    private val flushDelay: Long = DEFAULT_FLUSH_DELAY
+) {
+
+    private val snapshot = ConcurrentHashMap<String, Any>()
+
+    private val changesObservable = ChangesObservable()
+
+    /**
+     * guards [pending], [pendingOldValues], [isClearPending], [scheduledFlush]
+     */
+    private val lock = Any()
+
+    /**
+     * new values by keys, [REMOVED] for removed ones
+     */
+    private val pending = LinkedHashMap<String, Any>()
+
+    /**
+     * values before first not saved change of each key
+     */
+    private val pendingOldValues = HashMap<String, Any?>()
+
+    private var isClearPending = false
+
+    private var scheduledFlush: ScheduledFuture<*>? = null
+
+    /**
+     * changes made by others, strong reference is required by [SharedPreferences]
+     */
+    private val externalChangeListener = SharedPreferences.OnSharedPreferenceChangeListener { sp, key ->
+        if (key == null) {
+            return@OnSharedPreferenceChangeListener
+        }
+        synchronized(lock) {
+            // newer value is not saved yet
+            if (isClearPending || pending.containsKey(key)) {
+                return@OnSharedPreferenceChangeListener
+            }
+            val value = readValue(sp, key, snapshot[key])
+            if (value != null) {
+                snapshot[key] = value
+            } else {
+                snapshot.remove(key)
+            }
+        }
+    }
+
+    init {
+        require(flushDelay >= 0) { "Incorrect flushDelay: $flushDelay" }
+        prefs.all.forEach { (key, value) ->
+            if (value != null) {
+                snapshot[key] = value
+            }
+        }
+        prefs.registerOnSharedPreferenceChangeListener(externalChangeListener)
+    }
+
+    fun addChangesListener(listener: ChangesListener) {
+        changesObservable.registerObserver(listener)
+    }
+
+    fun removeChangesListener(listener: ChangesListener) {
+        changesObservable.unregisterObserver(listener)
+    }
+
+    fun contains(key: String) = snapshot.containsKey(key)
+
+    fun getAll(): Map<String, Any> = HashMap(snapshot)
+
+    @JvmOverloads
+    fun getString(key: String, defaultValue: String? = EMPTY_STRING_SETTING): String? =
+        snapshot[key] as? String ?: defaultValue
+
+    @JvmOverloads
+    fun getInt(key: String, defaultValue: Int = EMPTY_INT_SETTING): Int =
+        snapshot[key] as? Int ?: defaultValue
+
+    @JvmOverloads
+    fun getLong(key: String, defaultValue: Long = EMPTY_LONG_SETTING): Long =
+        snapshot[key] as? Long ?: defaultValue
+
+    @JvmOverloads
+    fun getFloat(key: String, defaultValue: Float = EMPTY_FLOAT_SETTING): Float =
+        snapshot[key] as? Float ?: defaultValue
+
+    @JvmOverloads
+    fun getDouble(key: String, defaultValue: Double = EMPTY_LONG_SETTING.toDouble()): Double =
+        (snapshot[key] as? Long)?.let { Double.fromBits(it) } ?: defaultValue
+
+    @JvmOverloads
+    fun getBoolean(key: String, defaultValue: Boolean = EMPTY_BOOLEAN_SETTING): Boolean =
+        snapshot[key] as? Boolean ?: defaultValue
+
+    @Suppress("UNCHECKED_CAST")
+    @JvmOverloads
+    fun getStringSet(key: String, defaultValue: Set<String>? = EMPTY_SET_SETTING): Set<String>? =
+        snapshot[key] as? Set<String> ?: defaultValue
+
+    fun putString(key: String, value: String?) = put(key, value)
+
+    fun putInt(key: String, value: Int) = put(key, value)
+
+    fun putLong(key: String, value: Long) = put(key, value)
+
+    fun putFloat(key: String, value: Float) = put(key, value)
+
+    fun putDouble(key: String, value: Double) = put(key, value.toBits())
+
+    fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+    fun putStringSet(key: String, value: Set<String>?) = put(key, value?.let { HashSet(it) })
+
+    /**
+     * Puts several values (of types supported by [SharedPreferences], null to remove) in one change
+     */
+    fun putAll(values: Map<String, Any?>) {
+        synchronized(lock) {
+            values.forEach { (key, value) ->
+                putLocked(key, if (value is Double) value.toBits() else value)
+            }
+            scheduleFlushLocked()
+        }
+    }
+
+    fun remove(key: String) = put(key, null)
+
+    fun clear() {
+        synchronized(lock) {
+            snapshot.keys.forEach {
+                if (!pendingOldValues.containsKey(it)) {
+                    pendingOldValues[it] = snapshot[it]
+                }
+            }
+            snapshot.clear()
+            pending.clear()
+            isClearPending = true
+            scheduleFlushLocked()
+        }
+    }
+
+    /**
+     * Commits pending changes now and waits for it
+     *
+     * @return false if commit failed
+     */
+    fun flush(): Boolean = try {
+        if (Thread.currentThread() === flushThread) {
+            flushPending()
+        } else {
+            flushExecutor.submit<Boolean> { flushPending() }.get()
+        }
+    } catch (e: ExecutionException) {
+        logger.e(formatException(e.cause ?: e, "flush"))
+        false
+    } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        false
+    }
+
+    /**
+     * Saves pending changes and stops tracking external ones
+     */
+    fun release() {
+        prefs.unregisterOnSharedPreferenceChangeListener(externalChangeListener)
+        flush()
+    }
+
+    private fun put(key: String, value: Any?) {
+        synchronized(lock) {
+            putLocked(key, value)
+            scheduleFlushLocked()
+        }
+    }
+
+    private fun putLocked(key: String, value: Any?) {
+        when (value) {
+            null, is String, is Int, is Long, is Float, is Boolean, is Set<*> -> {}
+            else -> throw IllegalArgumentException("Cannot set value: incorrect type for $value")
+        }
+        if (!pendingOldValues.containsKey(key)) {
+            pendingOldValues[key] = snapshot[key]
+        }
+        if (value != null) {
+            snapshot[key] = value
+            pending[key] = value
+        } else {
+            snapshot.remove(key)
+            pending[key] = REMOVED
+        }
+    }
+
+    private fun scheduleFlushLocked() {
+        if (scheduledFlush == null) {
+            scheduledFlush = flushExecutor.schedule(Runnable { flushPending() }, flushDelay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Called only on [flushExecutor], so commits go in order
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun flushPending(): Boolean {
+        val changes: Map<String, Any>
+        val oldValues: Map<String, Any?>
+        val clear: Boolean
+        synchronized(lock) {
+            scheduledFlush?.cancel(false)
+            scheduledFlush = null
+            if (pending.isEmpty() && !isClearPending) {
+                return true
+            }
+            changes = LinkedHashMap(pending)
+            oldValues = HashMap(pendingOldValues)
+            clear = isClearPending
+            pending.clear()
+            pendingOldValues.clear()
+            isClearPending = false
+        }
+        val editor = prefs.edit()
+        if (clear) {
+            editor.clear()
+        }
+        changes.forEach { (key, value) ->
+            when (value) {
+                REMOVED -> editor.remove(key)
+                is String -> editor.putString(key, value)
+                is Int -> editor.putInt(key, value)
+                is Long -> editor.putLong(key, value)
+                is Float -> editor.putFloat(key, value)
+                is Boolean -> editor.putBoolean(key, value)
+                is Set<*> -> editor.putStringSet(key, value as Set<String>)
+            }
+        }
+        if (!editor.commit()) {
+            logger.e("Cannot commit ${changes.size} changes to $name")
+            return false
+        }
+        val events = mutableListOf<Change>()
+        if (clear) {
+            // cleared keys, which were not set again
+            oldValues.forEach { (key, oldValue) ->
+                if (oldValue != null && !changes.containsKey(key)) {
+                    events.add(Change(key, oldValue, null))
+                }
+            }
+        }
+        changes.forEach { (key, value) ->
+            val oldValue = oldValues[key]
+            val newValue = if (value === REMOVED) null else value
+            if (oldValue != newValue) {
+                events.add(Change(key, oldValue, newValue))
+            }
+        }
+        if (events.isNotEmpty() || clear) {
+            changesObservable.dispatchCommitted(name, events, clear)
+        }
+        return true
+    }
+
+    /**
+     * @param oldValue null if key was absent
+     * @param newValue null if key was removed
+     */
+    data class Change(
+        val key: String,
+        val oldValue: Any?,
+        val newValue: Any?
+    ) {
+
+        val prefType: SharedPrefsHolder.PrefType? get() = SharedPrefsHolder.PrefType.fromValue(newValue ?: oldValue)
+    }
+
+    interface ChangesListener {
+
+        /**
+         * Called on background thread after commit
+         *
+         * @param isCleared true if all keys were removed before applying [changes]
+         */
+        fun onChangesCommitted(name: String, changes: List<Change>, isCleared: Boolean)
+    }
+
+    private class ChangesObservable : Observable<ChangesListener>() {
+
+        fun dispatchCommitted(name: String, changes: List<Change>, isCleared: Boolean) {
+            // not under lock, so listeners can (un)register from callback
+            for (l in copyOfObservers()) {
+                l.onChangesCommitted(name, changes, isCleared)
+            }
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_FLUSH_DELAY = 100L
+
+        private val REMOVED = Any()
+
+        @Volatile
+        private var flushThread: Thread? = null
+
+        /**
+         * single thread for all stores, commits are not concurrent anyway
+         */
+        private val flushExecutor: ScheduledExecutorService by lazy {
+            Executors.newSingleThreadScheduledExecutor { r ->
+                Thread(r, "BatchedPrefsStore").apply {
+                    isDaemon = true
+                    flushThread = this
+                }
+            }
+        }
+
+        /**
+         * Reads by type of [hint] without copying all values, as [SharedPreferences.getAll] does
+         */
+        private fun readValue(sp: SharedPreferences, key: String, hint: Any?): Any? {
+            if (!sp.contains(key)) {
+                return null
+            }
+            return try {
+                when (hint) {
+                    is String -> sp.getString(key, null)
+                    is Int -> sp.getInt(key, 0)
+                    is Long -> sp.getLong(key, 0)
+                    is Float -> sp.getFloat(key, 0f)
+                    is Boolean -> sp.getBoolean(key, false)
+                    is Set<*> -> sp.getStringSet(key, null)?.let { HashSet(it) }
+                    else -> sp.all[key]
+                }
+            } catch (e: ClassCastException) {
+                // type was changed
+                sp.all[key]
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package net.maxsmr.commonutils.prefs
+
+import net.maxsmr.commonutils.logger.BaseLogger
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder.Companion.formatException
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+private val logger = BaseLoggerHolder.instance.getLogger<BaseLogger>("MappedPrefsStore")
+
+/**
+ * Key-value store for frequently changed values: each change is appended as small record
+ * to memory-mapped file, so it costs a memory write and survives process death without XML rewrite;
+ * when file is full, current values are written to temp file, which replaces it by rename,
+ * so old records stay valid until compacted copy is complete; not shared between processes
+ *
+ * Supported values: String, Int, Long, Float, Double, Boolean
+ *
+ * @param capacity max file size in bytes, all current values must fit in it
+ */
+class MappedPrefsStore @JvmOverloads constructor(
+    private val file: File,
+    private val capacity: Int = DEFAULT_CAPACITY
+) : Closeable {
+
+    private val values = HashMap<String, Any>()
+
+    private var raf: RandomAccessFile
+
+    private var buffer: MappedByteBuffer
+
+    /**
+     * position of end marker
+     */
+    private var end = HEADER_SIZE
+
+    init {
+        require(capacity > HEADER_SIZE + 1) { "Incorrect capacity: $capacity" }
+        try {
+            file.parentFile?.mkdirs()
+            raf = RandomAccessFile(file, "rw")
+            buffer = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+        } catch (e: IOException) {
+            throw RuntimeException(formatException(e, "map"), e)
+        }
+        if (buffer.getInt(0) == MAGIC) {
+            load()
+        } else {
+            buffer.putInt(0, MAGIC)
+            buffer.put(HEADER_SIZE, TYPE_END)
+        }
+    }
+
+    @Synchronized
+    fun contains(key: String) = values.containsKey(key)
+
+    @Synchronized
+    fun getAll(): Map<String, Any> = HashMap(values)
+
+    @JvmOverloads
+    fun getString(key: String, defaultValue: String? = null): String? = get(key) as? String ?: defaultValue
+
+    @JvmOverloads
+    fun getInt(key: String, defaultValue: Int = 0): Int = get(key) as? Int ?: defaultValue
+
+    @JvmOverloads
+    fun getLong(key: String, defaultValue: Long = 0): Long = get(key) as? Long ?: defaultValue
+
+    @JvmOverloads
+    fun getFloat(key: String, defaultValue: Float = 0f): Float = get(key) as? Float ?: defaultValue
+
+    @JvmOverloads
+    fun getDouble(key: String, defaultValue: Double = 0.0): Double = get(key) as? Double ?: defaultValue
+
+    @JvmOverloads
+    fun getBoolean(key: String, defaultValue: Boolean = false): Boolean = get(key) as? Boolean ?: defaultValue
+
+    /**
+     * @param value null to remove
+     * @return false if value doesn't fit in [capacity]
+     */
+    @Synchronized
+    fun put(key: String, value: Any?): Boolean {
+        if (value == null) {
+            if (!values.containsKey(key)) {
+                return true
+            }
+        } else if (values[key] == value) {
+            return true
+        }
+        val record = encode(key, value)
+        if (end + record.size + 1 > capacity) {
+            val previous = values[key]
+            if (value != null) values[key] = value else values.remove(key)
+            if (compact()) {
+                return true
+            }
+            // file is not changed
+            if (previous != null) values[key] = previous else values.remove(key)
+            logger.e("Cannot put $key: store is full")
+            return false
+        }
+        append(record)
+        if (value != null) values[key] = value else values.remove(key)
+        return true
+    }
+
+    fun remove(key: String) = put(key, null)
+
+    @Synchronized
+    fun clear() {
+        values.clear()
+        end = HEADER_SIZE
+        buffer.put(HEADER_SIZE, TYPE_END)
+    }
+
+    /**
+     * Writes changed pages to storage, needed only to survive system crash
+     */
+    @Synchronized
+    fun force() {
+        buffer.force()
+    }
+
+    @Synchronized
+    override fun close() {
+        buffer.force()
+        raf.close()
+    }
+
+    @Synchronized
+    private fun get(key: String): Any? = values[key]
+
+    private fun load() {
+        var position = HEADER_SIZE
+        try {
+            while (position < capacity) {
+                val type = buffer.get(position)
+                if (type == TYPE_END) {
+                    break
+                }
+                buffer.position(position + 1)
+                val key = readString(buffer.short.toInt() and 0xffff)
+                val value: Any? = when (type) {
+                    TYPE_REMOVED -> null
+                    TYPE_STRING -> readString(buffer.int)
+                    TYPE_INT -> buffer.int
+                    TYPE_LONG -> buffer.long
+                    TYPE_FLOAT -> buffer.float
+                    TYPE_DOUBLE -> buffer.double
+                    TYPE_BOOLEAN -> buffer.get() != 0.toByte()
+                    else -> throw IllegalStateException("Unknown record type $type at $position")
+                }
+                if (value != null) values[key] = value else values.remove(key)
+                position = buffer.position()
+            }
+        } catch (e: RuntimeException) {
+            // incomplete record, written before process death
+            if (e !is BufferUnderflowException && e !is IllegalStateException && e !is IllegalArgumentException) {
+                throw e
+            }
+            logger.w("Records after $position are ignored: ${e.message}")
+        }
+        // last byte is always free for end marker
+        end = Math.min(position, capacity - 1)
+        buffer.put(end, TYPE_END)
+    }
+
+    /**
+     * Record body is written first and its type (which makes record visible) last
+     */
+    private fun append(record: ByteArray) {
+        buffer.position(end + 1)
+        buffer.put(record, 1, record.size - 1)
+        buffer.put(end + record.size, TYPE_END)
+        buffer.put(end, record[0])
+        end += record.size
+    }
+
+    /**
+     * Writes current [values] only to temp file, forces it and renames over [file],
+     * then maps new file; death of process before rename leaves old file as it was
+     *
+     * @return false if they don't fit or cannot be written
+     */
+    private fun compact(): Boolean {
+        val records = values.map { (key, value) -> encode(key, value) }
+        val size = HEADER_SIZE + records.sumOf { it.size }
+        if (size + 1 > capacity) {
+            return false
+        }
+        val tempFile = File(file.path + TEMP_SUFFIX)
+        try {
+            val data = ByteBuffer.allocate(size + 1)
+            data.putInt(MAGIC)
+            records.forEach { data.put(it) }
+            data.put(TYPE_END)
+            data.flip()
+            RandomAccessFile(tempFile, "rw").use {
+                it.setLength(0)
+                val channel = it.channel
+                while (data.hasRemaining()) {
+                    channel.write(data)
+                }
+                channel.force(true)
+            }
+            // no delete fallback here: file must exist until replaced
+            if (!tempFile.renameTo(file)) {
+                throw IOException("Cannot rename $tempFile to $file")
+            }
+        } catch (e: IOException) {
+            tempFile.delete()
+            logger.e(formatException(e, "compact"))
+            return false
+        }
+        var newRaf: RandomAccessFile? = null
+        try {
+            newRaf = RandomAccessFile(file, "rw")
+            buffer = newRaf.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+            raf.close()
+            raf = newRaf
+        } catch (e: IOException) {
+            newRaf?.close()
+            // old mapping points to replaced file, so next changes would be lost
+            throw RuntimeException(formatException(e, "map"), e)
+        }
+        end = size
+        return true
+    }
+
+    private fun readString(length: Int): String {
+        require(length >= 0 && length <= buffer.remaining()) { "Incorrect string length: $length" }
+        val bytes = ByteArray(length)
+        buffer.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun encode(key: String, value: Any?): ByteArray {
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        require(keyBytes.size <= 0xffff) { "Key is too long: $key" }
+        val type: Byte
+        val valueBytes: ByteArray
+        when (value) {
+            null -> {
+                type = TYPE_REMOVED
+                valueBytes = ByteArray(0)
+            }
+            is String -> {
+                type = TYPE_STRING
+                val bytes = value.toByteArray(Charsets.UTF_8)
+                valueBytes = ByteBuffer.allocate(4 + bytes.size).putInt(bytes.size).put(bytes).array()
+            }
+            is Int -> {
+                type = TYPE_INT
+                valueBytes = ByteBuffer.allocate(4).putInt(value).array()
+            }
+            is Long -> {
+                type = TYPE_LONG
+                valueBytes = ByteBuffer.allocate(8).putLong(value).array()
+            }
+            is Float -> {
+                type = TYPE_FLOAT
+                valueBytes = ByteBuffer.allocate(4).putFloat(value).array()
+            }
+            is Double -> {
+                type = TYPE_DOUBLE
+                valueBytes = ByteBuffer.allocate(8).putDouble(value).array()
+            }
+            is Boolean -> {
+                type = TYPE_BOOLEAN
+                valueBytes = byteArrayOf(if (value) 1 else 0)
+            }
+            else -> throw IllegalArgumentException("Cannot set value: incorrect type for $value")
+        }
+        return ByteBuffer.allocate(1 + 2 + keyBytes.size + valueBytes.size)
+            .put(type)
+            .putShort(keyBytes.size.toShort())
+            .put(keyBytes)
+            .put(valueBytes)
+            .array()
+    }
+
+    companion object {
+
+        const val DEFAULT_CAPACITY = 64 * 1024
+
+        private const val MAGIC = 0x4D505346
+
+        private const val HEADER_SIZE = 4
+
+        private const val TEMP_SUFFIX = ".tmp"
+
+        private const val TYPE_END: Byte = 0
+        private const val TYPE_REMOVED: Byte = 1
+        private const val TYPE_STRING: Byte = 2
+        private const val TYPE_INT: Byte = 3
+        private const val TYPE_LONG: Byte = 4
+        private const val TYPE_FLOAT: Byte = 5
+        private const val TYPE_DOUBLE: Byte = 6
+        private const val TYPE_BOOLEAN: Byte = 7
+    }
+}
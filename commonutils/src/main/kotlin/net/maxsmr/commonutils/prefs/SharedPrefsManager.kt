@@ -103,6 +103,30 @@ class SharedPrefsManager @JvmOverloads constructor(
         }
     }
 
+    /**
+     * @return store over same preferences with batched writes,
+     * its committed changes are also dispatched to listeners of this manager
+     */
+    @JvmOverloads
+    fun createBatchedStore(flushDelay: Long = BatchedPrefsStore.DEFAULT_FLUSH_DELAY): BatchedPrefsStore =
+        BatchedPrefsStore(prefs, prefsName, flushDelay).apply {
+            addChangesListener(object : BatchedPrefsStore.ChangesListener {
+
+                override fun onChangesCommitted(name: String, changes: List<BatchedPrefsStore.Change>, isCleared: Boolean) {
+                    if (isCleared) {
+                        changeObservable.dispatchAllRemoved(name)
+                    }
+                    changes.forEach {
+                        if (it.newValue == null) {
+                            changeObservable.dispatchRemoved(name, it.key)
+                        } else {
+                            changeObservable.dispatchChanged(name, it.key, it.oldValue, it.newValue, it.prefType)
+                        }
+                    }
+                }
+            })
+        }
+
     fun saveChanges(): Boolean {
         return if (SharedPrefsHolder.saveChanges(prefs)) {
             changeObservable.dispatchAllRefreshed(prefsName)
@@ -121,34 +145,26 @@ class SharedPrefsManager @JvmOverloads constructor(
             newValue: T?,
             prefType: PrefType?
         ) {
-            synchronized(observers) {
-                for (l in observers) {
-                    l.onPreferenceChanged(name, key, oldValue, newValue, prefType)
-                }
+            for (l in copyOfObservers()) {
+                l.onPreferenceChanged(name, key, oldValue, newValue, prefType)
             }
         }
 
         fun dispatchRemoved(name: String, key: String) {
-            synchronized(observers) {
-                for (l in observers) {
-                    l.onPreferenceRemoved(name, key)
-                }
+            for (l in copyOfObservers()) {
+                l.onPreferenceRemoved(name, key)
             }
         }
 
         fun dispatchAllRemoved(name: String) {
-            synchronized(observers) {
-                for (l in observers) {
-                    l.onAllPreferencesRemoved(name)
-                }
+            for (l in copyOfObservers()) {
+                l.onAllPreferencesRemoved(name)
             }
         }
 
         fun dispatchAllRefreshed(name: String) {
-            synchronized(observers) {
-                for (l in observers) {
-                    l.onAllPreferencesRefreshed(name)
-                }
+            for (l in copyOfObservers()) {
+                l.onAllPreferencesRefreshed(name)
             }
         }
     }
@@ -0,0 +1,175 @@
+package net.maxsmr.devicewatchers.usb;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads attached usb devices and input devices event flags directly from sysfs / procfs,
+ * without spawning "lsusb" or "cat" processes
+ * Not thread-safe: attribute buffer is reused between calls
+ */
+public class SysfsUsbDevicesReader {
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(SysfsUsbDevicesReader.class);
+
+    public static final String SYSFS_USB_DEVICES_PATH = "/sys/bus/usb/devices";
+
+    public static final String PROC_INPUT_DEVICES_PATH = "/proc/bus/input/devices";
+
+    private static final String ATTR_BUS_NUM = "busnum";
+    private static final String ATTR_DEV_NUM = "devnum";
+    private static final String ATTR_VENDOR_ID = "idVendor";
+    private static final String ATTR_PRODUCT_ID = "idProduct";
+
+    private static final String EV_FLAGS_PREFIX = "B: EV=";
+
+    /**
+     * sysfs attributes are short single-line values
+     */
+    private final byte[] attrBuffer = new byte[32];
+
+    @NotNull
+    private final File devicesDir;
+
+    @NotNull
+    private final File inputDevicesFile;
+
+    public SysfsUsbDevicesReader() {
+        this(new File(SYSFS_USB_DEVICES_PATH), new File(PROC_INPUT_DEVICES_PATH));
+    }
+
+    public SysfsUsbDevicesReader(@NotNull File devicesDir, @NotNull File inputDevicesFile) {
+        this.devicesDir = devicesDir;
+        this.inputDevicesFile = inputDevicesFile;
+    }
+
+    public boolean isDevicesAvailable() {
+        return devicesDir.isDirectory() && devicesDir.canRead();
+    }
+
+    public boolean isInputDevicesAvailable() {
+        return inputDevicesFile.isFile() && inputDevicesFile.canRead();
+    }
+
+    /**
+     * @return devices in the same order as "lsusb" prints them (sorted by bus and device numbers)
+     * or null if sysfs is not readable, including case when there are device entries,
+     * but attributes of none of them can be read (e.g. denied by SELinux), so caller may fall back to "lsusb"
+     */
+    @Nullable
+    public List<UsbDeviceWatcher.DeviceInfo> readDevices() {
+        final File[] entries = devicesDir.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        final List<UsbDeviceWatcher.DeviceInfo> result = new ArrayList<>(entries.length);
+        int devicesCount = 0;
+        for (File entry : entries) {
+            // interfaces ("1-1:1.0") don't have device attributes
+            if (entry.getName().indexOf(':') >= 0) {
+                continue;
+            }
+            devicesCount++;
+            final int vendorId = readIntAttr(entry, ATTR_VENDOR_ID, 16);
+            final int productId = readIntAttr(entry, ATTR_PRODUCT_ID, 16);
+            if (vendorId < 0 || productId < 0) {
+                continue;
+            }
+            final int bus = readIntAttr(entry, ATTR_BUS_NUM, 10);
+            final int device = readIntAttr(entry, ATTR_DEV_NUM, 10);
+            result.add(new UsbDeviceWatcher.DeviceInfo(Math.max(bus, 0), Math.max(device, 0), vendorId, productId));
+        }
+        if (devicesCount > 0 && result.isEmpty()) {
+            logger.w("Attributes of " + devicesCount + " devices in '" + devicesDir + "' cannot be read");
+            return null;
+        }
+        sortByAddress(result);
+        return result;
+    }
+
+    /**
+     * @return "EV=" flags of each input device or null if procfs entry is not readable
+     */
+    @Nullable
+    public List<Integer> readInputDevicesEvFlags() {
+        final List<Integer> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(inputDevicesFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(EV_FLAGS_PREFIX)) {
+                    final int value = parseInt(line, EV_FLAGS_PREFIX.length(), line.length(), 16);
+                    if (value >= 0) {
+                        result.add(value);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.e("an IOException occurred during read '" + inputDevicesFile + "': " + e.getMessage(), e);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return parsed value or -1 if attribute is missing or malformed
+     */
+    private int readIntAttr(@NotNull File dir, @NotNull String name, int radix) {
+        final File attr = new File(dir, name);
+        int count = 0;
+        try (InputStream in = new FileInputStream(attr)) {
+            int read;
+            while (count < attrBuffer.length && (read = in.read(attrBuffer, count, attrBuffer.length - count)) > 0) {
+                count += read;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < count; i++) {
+            final int digit = Character.digit((char) attrBuffer[i], radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+            digits++;
+        }
+        return digits > 0 ? value : -1;
+    }
+
+    private static int parseInt(@NotNull String s, int start, int end, int radix) {
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(s.charAt(i), radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+            digits++;
+        }
+        return digits > 0 ? value : -1;
+    }
+
+    private static void sortByAddress(@NotNull List<UsbDeviceWatcher.DeviceInfo> infos) {
+        Collections.sort(infos, (lhs, rhs) -> {
+            if (lhs.bus != rhs.bus) {
+                return lhs.bus < rhs.bus ? -1 : 1;
+            }
+            return lhs.device < rhs.device ? -1 : (lhs.device == rhs.device ? 0 : 1);
+        });
+    }
+}
@@ -1,24 +1,39 @@
 package net.maxsmr.devicewatchers.usb;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
 import net.maxsmr.commonutils.Observable;
 
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 import net.maxsmr.commonutils.shell.CommandResult;
 import net.maxsmr.tasksutils.ScheduledThreadPoolExecutorManager;
+import net.maxsmr.tasksutils.runnable.RunnableInfoRunnable;
 import net.maxsmr.tasksutils.taskexecutor.RunnableInfo;
-import net.maxsmr.tasksutils.taskexecutor.TaskRunnable;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static net.maxsmr.commonutils.text.SymbolConstsKt.EMPTY_STRING;
 import static net.maxsmr.commonutils.text.TextUtilsKt.isEmpty;
+import static net.maxsmr.commonutils.shell.CommandResultKt.DEFAULT_TARGET_CODE;
 import static net.maxsmr.commonutils.shell.ShellUtilsKt.execProcess;
 import static net.maxsmr.tasksutils.ScheduledThreadPoolExecutorManager.ScheduleMode.FIXED_DELAY;
 
@@ -28,20 +43,32 @@ public class UsbDeviceWatcher {
 
     public static final int DEFAULT_WATCH_INTERVAL = 2000;
 
+    /**
+     * upper bound for polling interval, when device list stays the same
+     */
+    public static final int DEFAULT_MAX_WATCH_INTERVAL = 30000;
+
     private static UsbDeviceWatcher sInstance;
 
     private final DeviceWatchObservable watchListeners = new DeviceWatchObservable();
 
     private final DevicesFlagsObservable flagsListeners = new DevicesFlagsObservable();
 
+    private final DevicesState devicesState = new DevicesState();
+
     private final ScheduledThreadPoolExecutorManager deviceListWatcher = new ScheduledThreadPoolExecutorManager("UsbDeviceWatcher");
 
     private final ScheduledThreadPoolExecutorManager deviceFinder = new ScheduledThreadPoolExecutorManager("UsbDeviceFinder");
 
+    private final Object eventsLock = new Object();
+
     private DeviceWatcherRunnable deviceListRunnable;
 
     private DeviceFinderRunnable deviceFinderRunnable;
 
+    @Nullable
+    private UsbEventsReceiver usbEventsReceiver;
+
     public static void initInstance() {
         synchronized (UsbDeviceWatcher.class) {
             if (sInstance == null) {
@@ -84,22 +111,87 @@ public class UsbDeviceWatcher {
     }
 
     public void restartDeviceListWatcher(long interval, DeviceInfo... devicesToWatch) {
+        restartDeviceListWatcher(interval, Math.max(interval, DEFAULT_MAX_WATCH_INTERVAL), devicesToWatch);
+    }
+
+    /**
+     * Polling mode: devices are read from sysfs if it's accessible, "lsusb" is used otherwise;
+     * interval grows up to maxInterval while devices list stays the same and resets after any change
+     */
+    public void restartDeviceListWatcher(long interval, long maxInterval, DeviceInfo... devicesToWatch) {
         List<DeviceInfo> deviceInfos = devicesToWatch != null ? Arrays.asList(devicesToWatch) : null;
-        logger.d("restartDeviceWatcher, interval=" + interval + ", devicesToWatch=" + deviceInfos);
+        logger.d("restartDeviceWatcher, interval=" + interval + ", maxInterval=" + maxInterval + ", devicesToWatch=" + deviceInfos);
         if (interval <= 0) {
             throw new IllegalArgumentException("incorrect interval: " + interval);
         }
+        if (maxInterval < interval) {
+            throw new IllegalArgumentException("incorrect maxInterval: " + maxInterval);
+        }
+        stopEventDeviceWatcher();
         deviceListWatcher.removeAllRunnableTasks();
-        deviceListWatcher.addRunnableTask(deviceListRunnable = new DeviceWatcherRunnable(deviceInfos), new ScheduledThreadPoolExecutorManager.RunOptions(0, interval, FIXED_DELAY));
+        devicesState.reset(deviceInfos);
+        deviceListWatcher.addRunnableTask(deviceListRunnable = new DeviceWatcherRunnable(interval, maxInterval), new ScheduledThreadPoolExecutorManager.RunOptions(0, interval, FIXED_DELAY));
         deviceListWatcher.restart(1);
     }
 
     public void startDeviceWatcher(long interval, DeviceInfo... devicesToWatch) {
-        if (!isDeviceListWatcherRunning()) {
+        if (!isDeviceListWatcherRunning() && !isEventDeviceWatcherRunning()) {
             restartDeviceListWatcher(interval, devicesToWatch);
         }
     }
 
+    public boolean isEventDeviceWatcherRunning() {
+        synchronized (eventsLock) {
+            return usbEventsReceiver != null;
+        }
+    }
+
+    /**
+     * Event-driven mode: devices list is re-read from sysfs (or {@link UsbManager#getDeviceList()})
+     * only on {@link UsbManager#ACTION_USB_DEVICE_ATTACHED} / {@link UsbManager#ACTION_USB_DEVICE_DETACHED} broadcasts;
+     * if none of these sources is available, falls back to polling with given interval
+     * @return true if event-driven mode was started, false if polling fallback is used
+     */
+    public boolean restartEventDeviceWatcher(@NotNull Context context, long fallbackInterval, DeviceInfo... devicesToWatch) {
+        List<DeviceInfo> deviceInfos = devicesToWatch != null ? Arrays.asList(devicesToWatch) : null;
+        logger.d("restartEventDeviceWatcher, fallbackInterval=" + fallbackInterval + ", devicesToWatch=" + deviceInfos);
+        if (fallbackInterval <= 0) {
+            throw new IllegalArgumentException("incorrect fallbackInterval: " + fallbackInterval);
+        }
+        stopEventDeviceWatcher();
+        stopDeviceListWatcher();
+
+        final UsbEventsReceiver receiver = new UsbEventsReceiver(context.getApplicationContext());
+        if (!receiver.isSourceAvailable()) {
+            logger.w("sysfs and UsbManager are not available, falling back to polling");
+            restartDeviceListWatcher(fallbackInterval, devicesToWatch);
+            return false;
+        }
+        devicesState.reset(deviceInfos);
+        synchronized (eventsLock) {
+            usbEventsReceiver = receiver;
+            receiver.register();
+        }
+        return true;
+    }
+
+    public boolean startEventDeviceWatcher(@NotNull Context context, long fallbackInterval, DeviceInfo... devicesToWatch) {
+        if (!isDeviceListWatcherRunning() && !isEventDeviceWatcherRunning()) {
+            return restartEventDeviceWatcher(context, fallbackInterval, devicesToWatch);
+        }
+        return isEventDeviceWatcherRunning();
+    }
+
+    public void stopEventDeviceWatcher() {
+        synchronized (eventsLock) {
+            if (usbEventsReceiver != null) {
+                logger.d("stopEventDeviceWatcher()");
+                usbEventsReceiver.unregister();
+                usbEventsReceiver = null;
+            }
+        }
+    }
+
     public void addDevicesFlagsListener(@NotNull DevicesFlagsListener l) {
         flagsListeners.registerObserver(l);
     }
@@ -137,10 +229,10 @@ public class UsbDeviceWatcher {
     }
 
     public boolean isDeviceAttached(@Nullable DeviceInfo info) {
-        if (!isDeviceListWatcherRunning()) {
-            throw new IllegalStateException(DeviceWatcherRunnable.class.getName() + " is not running");
+        if (!isDeviceListWatcherRunning() && !isEventDeviceWatcherRunning()) {
+            throw new IllegalStateException("Neither " + DeviceWatcherRunnable.class.getName() + " nor " + UsbEventsReceiver.class.getName() + " is running");
         }
-        return deviceListRunnable.contains(info);
+        return devicesState.contains(info);
     }
 
     public static class DeviceInfo {
@@ -168,15 +260,25 @@ public class UsbDeviceWatcher {
             return true;
         }
 
+        /**
+         * consistent with {@link #equals(Object)}: bus and device numbers are not taken into account
+         */
         @Override
         public int hashCode() {
-            int result = bus;
-            result = 31 * result + device;
-            result = 31 * result + vendorID;
+            int result = vendorID;
             result = 31 * result + productID;
             return result;
         }
 
+        /**
+         * @return key identifying the physical device, unlike {@link #equals(Object)}
+         * distinguishes same vendor/product devices on different ports
+         */
+        long address() {
+            return ((long) (bus & 0xFFFF) << 48) | ((long) (device & 0xFFFF) << 32)
+                    | ((long) (vendorID & 0xFFFF) << 16) | (productID & 0xFFFF);
+        }
+
         @Override
         public String toString() {
             return "DeviceInfo{" +
@@ -188,135 +290,273 @@ public class UsbDeviceWatcher {
         }
     }
 
-    private class DeviceWatcherRunnable extends TaskRunnable<RunnableInfo, Void, CommandResult> {
+    /**
+     * Holds current devices and diffs new lists against it by {@link DeviceInfo#address()}
+     */
+    private class DevicesState {
 
-        final List<DeviceInfo> currentDeviceInfos = new ArrayList<>();
-        final List<DeviceInfo> devicesToWatch = new ArrayList<>();
+        final Map<Long, DeviceInfo> currentDeviceInfos = new LinkedHashMap<>();
+        final Set<DeviceInfo> devicesToWatch = new HashSet<>();
 
-        DeviceWatcherRunnable(@Nullable List<DeviceInfo> devicesToWatch) {
-            super(new RunnableInfo(0, DeviceWatcherRunnable.class.getName()));
+        synchronized void reset(@Nullable Collection<DeviceInfo> devicesToWatch) {
             logger.d("devicesToWatch=" + devicesToWatch);
+            this.currentDeviceInfos.clear();
+            this.devicesToWatch.clear();
             if (devicesToWatch != null) {
                 this.devicesToWatch.addAll(devicesToWatch);
             }
         }
 
-        boolean contains(@Nullable DeviceInfo info) {
-            return currentDeviceInfos.contains(info);
+        synchronized boolean contains(@Nullable DeviceInfo info) {
+            return info != null && currentDeviceInfos.containsValue(info);
         }
 
-        @Nullable
-        @Override
-        public CommandResult doWork() throws Throwable {
-            return execProcess(Arrays.asList("su", "-c", "lsusb"), EMPTY_STRING, null, null, null, null, 0, TimeUnit.SECONDS);
-        }
-
-        @Override
-        public void onPostExecute(@Nullable CommandResult result) {
-            super.onPostExecute(result);
+        /**
+         * @return true if devices list was changed
+         */
+        synchronized boolean update(@NotNull List<DeviceInfo> infos) {
 
-            if (result != null && result.isSuccessful()) {
-                List<DeviceInfo> infos = parseOutput(result.getStdOutLines());
-//                        logger.d("parsed: " + infos + ", current: " + currentDeviceInfos);
+            final Map<Long, DeviceInfo> newDeviceInfos = new LinkedHashMap<>();
+            for (DeviceInfo i : infos) {
+                newDeviceInfos.put(i.address(), i);
+            }
 
-                List<DeviceInfo> attached = new ArrayList<>();
-                List<DeviceInfo> detached = new ArrayList<>();
+            List<DeviceInfo> attached = new ArrayList<>();
+            List<DeviceInfo> detached = new ArrayList<>();
 
-                List<DeviceInfo> specifiedAttached = new ArrayList<>();
-                List<DeviceInfo> specifiedDetached = new ArrayList<>();
+            List<DeviceInfo> specifiedAttached = new ArrayList<>();
+            List<DeviceInfo> specifiedDetached = new ArrayList<>();
 
-                for (DeviceInfo i : infos) {
-                    if (!currentDeviceInfos.contains(i)) {
-                        attached.add(i);
-                        if (devicesToWatch.contains(i)) {
-                            specifiedAttached.add(i);
-                        }
+            for (Map.Entry<Long, DeviceInfo> e : newDeviceInfos.entrySet()) {
+                if (!currentDeviceInfos.containsKey(e.getKey())) {
+                    attached.add(e.getValue());
+                    if (devicesToWatch.contains(e.getValue())) {
+                        specifiedAttached.add(e.getValue());
                     }
                 }
+            }
 
-                for (DeviceInfo i : currentDeviceInfos) {
-                    if (!infos.contains(i)) {
-                        detached.add(i);
-                        if (devicesToWatch.contains(i)) {
-                            specifiedDetached.add(i);
-                        }
+            for (Map.Entry<Long, DeviceInfo> e : currentDeviceInfos.entrySet()) {
+                if (!newDeviceInfos.containsKey(e.getKey())) {
+                    detached.add(e.getValue());
+                    if (devicesToWatch.contains(e.getValue())) {
+                        specifiedDetached.add(e.getValue());
                     }
                 }
+            }
 
-                watchListeners.notifyDevicesChanged(attached, detached, specifiedAttached, specifiedDetached, currentDeviceInfos, infos);
+            if (attached.isEmpty() && detached.isEmpty()) {
+                return false;
+            }
 
-                currentDeviceInfos.clear();
-                currentDeviceInfos.addAll(infos);
+            final List<DeviceInfo> previousDeviceInfos = new ArrayList<>(currentDeviceInfos.values());
+            currentDeviceInfos.clear();
+            currentDeviceInfos.putAll(newDeviceInfos);
 
-            } else {
+            watchListeners.notifyDevicesChanged(attached, detached, specifiedAttached, specifiedDetached, new ArrayList<>(newDeviceInfos.values()), previousDeviceInfos);
+            return true;
+        }
+    }
 
-                watchListeners.notifyReadFailed(result != null ? result : new CommandResult());
+    /**
+     * Polling fallback: re-reads devices not more often than current interval,
+     * which is doubled (up to maxInterval) after each unchanged read
+     */
+    private class DeviceWatcherRunnable extends RunnableInfoRunnable<RunnableInfo> {
+
+        final SysfsUsbDevicesReader sysfsReader = new SysfsUsbDevicesReader();
+
+        final long interval;
+        final long maxInterval;
+
+        long currentInterval;
+        long lastReadTime = 0;
+
+        DeviceWatcherRunnable(long interval, long maxInterval) {
+            super(new RunnableInfo(0, DeviceWatcherRunnable.class.getName()));
+            this.interval = interval;
+            this.maxInterval = maxInterval;
+            this.currentInterval = interval;
+        }
+
+        @Override
+        public void run() {
+            final long now = System.currentTimeMillis();
+            if (lastReadTime > 0 && now - lastReadTime < currentInterval) {
+                return;
+            }
+            lastReadTime = now;
+
+            List<DeviceInfo> infos = sysfsReader.isDevicesAvailable() ? sysfsReader.readDevices() : null;
+            if (infos == null) {
+                final CommandResult result = execProcess(Arrays.asList("su", "-c", "lsusb"), EMPTY_STRING, null, DEFAULT_TARGET_CODE, null, null, 0, TimeUnit.SECONDS);
+                if (!result.isSuccessful()) {
+                    currentInterval = interval;
+                    watchListeners.notifyReadFailed(result);
+                    return;
+                }
+                infos = parseLsusbOutput(result.getStdOutLines());
+            }
+
+            if (devicesState.update(infos)) {
+                currentInterval = interval;
+            } else {
+                currentInterval = Math.min(currentInterval * 2, maxInterval);
             }
         }
+    }
+
+    /**
+     * Re-reads devices list on attach / detach broadcasts on its own thread
+     */
+    private class UsbEventsReceiver extends BroadcastReceiver {
 
         @NotNull
-        private List<DeviceInfo> parseOutput(@NotNull List<String> output) {
+        final Context context;
 
-            final List<DeviceInfo> infos = new ArrayList<>();
+        @Nullable
+        final UsbManager usbManager;
 
-            if (!output.isEmpty()) {
+        final SysfsUsbDevicesReader sysfsReader = new SysfsUsbDevicesReader();
 
-                final int busLength = 3;
-                final int deviceLength = 3;
-                final int idLength = 9;
+        @Nullable
+        HandlerThread thread;
 
-                for (String str : output) {
-                    if (!isEmpty(str)) {
+        UsbEventsReceiver(@NotNull Context context) {
+            this.context = context;
+            this.usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        }
 
-                        int busStartIndex = str.contains("Bus") ? +str.indexOf("Bus") + "Bus".length() + 1 : -1;
-                        int busEndIndex = busStartIndex + busLength;
+        boolean isSourceAvailable() {
+            return sysfsReader.isDevicesAvailable() || usbManager != null;
+        }
 
-                        int bus = 0;
-                        try {
-                            bus = busStartIndex >= 0 && busStartIndex < busEndIndex && busStartIndex < str.length() && busEndIndex < str.length() ? Integer.parseInt(str.substring(busStartIndex, busEndIndex)) : 0;
-                        } catch (NumberFormatException e) {
-                            logger.e("a NumberFormatException occurred during parseInt()", e);
-                        }
+        void register() {
+            thread = new HandlerThread(UsbEventsReceiver.class.getSimpleName());
+            thread.start();
+            final Handler handler = new Handler(thread.getLooper());
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+            context.registerReceiver(this, filter, null, handler);
+            // initial list
+            handler.post(this::readDevices);
+        }
+
+        void unregister() {
+            try {
+                context.unregisterReceiver(this);
+            } catch (IllegalArgumentException e) {
+                logger.e("an IllegalArgumentException occurred during unregisterReceiver(): " + e.getMessage(), e);
+            }
+            if (thread != null) {
+                thread.quit();
+                thread = null;
+            }
+        }
 
-                        int deviceStartIndex = str.contains("Device") ? str.indexOf("Device") + "Device".length() + 1 : -1;
-                        int deviceEndIndex = deviceStartIndex + deviceLength;
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent != null) {
+                logger.d("onReceive(), action=" + intent.getAction());
+                readDevices();
+            }
+        }
 
-                        int device = 0;
-                        try {
-                            device = deviceStartIndex >= 0 && deviceStartIndex < deviceEndIndex && deviceStartIndex < str.length() && deviceEndIndex < str.length() ? Integer.parseInt(str.substring(deviceStartIndex, deviceEndIndex)) : 0;
-                        } catch (NumberFormatException e) {
-                            logger.e("a NumberFormatException occurred during parseInt()", e);
-                        }
+        private void readDevices() {
+            List<DeviceInfo> infos = sysfsReader.isDevicesAvailable() ? sysfsReader.readDevices() : null;
+            if (infos == null && usbManager != null) {
+                // root hubs are not included here, unlike sysfs and "lsusb"
+                infos = new ArrayList<>();
+                for (UsbDevice device : usbManager.getDeviceList().values()) {
+                    infos.add(toDeviceInfo(device));
+                }
+            }
+            if (infos != null) {
+                devicesState.update(infos);
+            }
+        }
+    }
+
+    @NotNull
+    static DeviceInfo toDeviceInfo(@NotNull UsbDevice device) {
+        // device name format: "/dev/bus/usb/BBB/DDD"
+        final String name = device.getDeviceName();
+        int bus = 0;
+        int number = 0;
+        final String[] parts = name != null ? name.split("/") : new String[0];
+        if (parts.length >= 2) {
+            try {
+                bus = Integer.parseInt(parts[parts.length - 2]);
+                number = Integer.parseInt(parts[parts.length - 1]);
+            } catch (NumberFormatException e) {
+                logger.e("a NumberFormatException occurred during parseInt()", e);
+            }
+        }
+        return new DeviceInfo(bus, number, device.getVendorId(), device.getProductId());
+    }
 
-                        int idStartIndex = str.contains("ID") ? str.lastIndexOf("ID") + "ID".length() + 1 : -1;
-                        int idEndIndex = idStartIndex + idLength;
+    @NotNull
+    static List<DeviceInfo> parseLsusbOutput(@NotNull List<String> output) {
 
-                        String id = idStartIndex >= 0 && idStartIndex < idEndIndex && idStartIndex < str.length() && idEndIndex <= str.length() ? str.substring(idStartIndex, idEndIndex) : null;
+        final List<DeviceInfo> infos = new ArrayList<>();
 
-                        int vendorID = 0;
-                        int productID = 0;
+        if (!output.isEmpty()) {
 
-                        if (!isEmpty(id)) {
-                            String[] parts = id.split(":");
-                            if (parts.length == 2) {
-                                try {
-                                    vendorID = Integer.parseInt(parts[0], 16);
-                                    productID = Integer.parseInt(parts[1], 16);
-                                } catch (NumberFormatException e) {
-                                    logger.e("a NumberFormatException occurred during parseInt()", e);
-                                }
+            final int busLength = 3;
+            final int deviceLength = 3;
+            final int idLength = 9;
+
+            for (String str : output) {
+                if (!isEmpty(str)) {
+
+                    int busStartIndex = str.contains("Bus") ? +str.indexOf("Bus") + "Bus".length() + 1 : -1;
+                    int busEndIndex = busStartIndex + busLength;
+
+                    int bus = 0;
+                    try {
+                        bus = busStartIndex >= 0 && busStartIndex < busEndIndex && busStartIndex < str.length() && busEndIndex < str.length() ? Integer.parseInt(str.substring(busStartIndex, busEndIndex)) : 0;
+                    } catch (NumberFormatException e) {
+                        logger.e("a NumberFormatException occurred during parseInt()", e);
+                    }
+
+                    int deviceStartIndex = str.contains("Device") ? str.indexOf("Device") + "Device".length() + 1 : -1;
+                    int deviceEndIndex = deviceStartIndex + deviceLength;
+
+                    int device = 0;
+                    try {
+                        device = deviceStartIndex >= 0 && deviceStartIndex < deviceEndIndex && deviceStartIndex < str.length() && deviceEndIndex < str.length() ? Integer.parseInt(str.substring(deviceStartIndex, deviceEndIndex)) : 0;
+                    } catch (NumberFormatException e) {
+                        logger.e("a NumberFormatException occurred during parseInt()", e);
+                    }
+
+                    int idStartIndex = str.contains("ID") ? str.lastIndexOf("ID") + "ID".length() + 1 : -1;
+                    int idEndIndex = idStartIndex + idLength;
+
+                    String id = idStartIndex >= 0 && idStartIndex < idEndIndex && idStartIndex < str.length() && idEndIndex <= str.length() ? str.substring(idStartIndex, idEndIndex) : null;
+
+                    int vendorID = 0;
+                    int productID = 0;
+
+                    if (!isEmpty(id)) {
+                        String[] parts = id.split(":");
+                        if (parts.length == 2) {
+                            try {
+                                vendorID = Integer.parseInt(parts[0], 16);
+                                productID = Integer.parseInt(parts[1], 16);
+                            } catch (NumberFormatException e) {
+                                logger.e("a NumberFormatException occurred during parseInt()", e);
                             }
                         }
-
-                        infos.add(new DeviceInfo(bus, device, vendorID, productID));
                     }
-                }
 
+                    infos.add(new DeviceInfo(bus, device, vendorID, productID));
+                }
             }
 
-            return infos;
         }
 
+        return infos;
     }
 
     public enum EventTypeFlags {
@@ -339,7 +579,9 @@ public class UsbDeviceWatcher {
         return deviceFinderRunnable.containsEvFlags(evFlags, match);
     }
 
-    private class DeviceFinderRunnable extends TaskRunnable<RunnableInfo, Void, CommandResult> {
+    private class DeviceFinderRunnable extends RunnableInfoRunnable<RunnableInfo> {
+
+        final SysfsUsbDevicesReader procReader = new SysfsUsbDevicesReader();
 
         final List<Integer> lastEvFlags = new ArrayList<>();
 
@@ -353,29 +595,31 @@ public class UsbDeviceWatcher {
         }
 
         boolean containsEvFlags(int evFlags, boolean match) {
-            return !scanFlags(lastEvFlags, evFlags, match).isEmpty();
-        }
-
-        @Nullable
-        @Override
-        public CommandResult doWork() throws Throwable {
-            return execProcess(Arrays.asList("su", "-c", "cat", "/proc/bus/input/devices"), EMPTY_STRING, null, null, null, null, 0, TimeUnit.SECONDS);
+            synchronized (lastEvFlags) {
+                return !scanFlags(lastEvFlags, evFlags, match).isEmpty();
+            }
         }
 
         @Override
-        public void onPostExecute(@Nullable CommandResult result) {
-            super.onPostExecute(result);
-            if (result != null && result.isSuccessful()) {
+        public void run() {
+            List<Integer> evFlags = procReader.isInputDevicesAvailable() ? procReader.readInputDevicesEvFlags() : null;
+            if (evFlags == null) {
+                final CommandResult result = execProcess(Arrays.asList("su", "-c", "cat", SysfsUsbDevicesReader.PROC_INPUT_DEVICES_PATH), EMPTY_STRING, null, DEFAULT_TARGET_CODE, null, null, 0, TimeUnit.SECONDS);
+                if (!result.isSuccessful()) {
+                    flagsListeners.notifyReadFailed(result);
+                    return;
+                }
+                evFlags = parseEventFlags(result.getStdOutLines());
+            }
 
+            final List<Integer> found;
+            synchronized (lastEvFlags) {
                 lastEvFlags.clear();
-                lastEvFlags.addAll(parseEventFlags(result.getStdOutLines()));
+                lastEvFlags.addAll(evFlags);
 //               logger.d("parsed: " + lastEvFlags);
-
-                flagsListeners.notifyFlagsChanged(scanFlags(lastEvFlags, evFlagsMask, match), evFlagsMask);
-
-            } else {
-                flagsListeners.notifyReadFailed(result != null ? result : new CommandResult());
+                found = scanFlags(lastEvFlags, evFlagsMask, match);
             }
+            flagsListeners.notifyFlagsChanged(found, evFlagsMask);
         }
 
         @NotNull
@@ -1,5 +1,6 @@
 package net.maxsmr.networkutils.loadutil.managers;
 
+import net.maxsmr.commonutils.IBytesThresholdNotifier;
 import net.maxsmr.commonutils.IStreamNotifier;
 import net.maxsmr.commonutils.Pair;
 import net.maxsmr.commonutils.logger.BaseLogger;
@@ -29,6 +30,7 @@ import static net.maxsmr.commonutils.FileUtilsKt.checkFile;
 import static net.maxsmr.commonutils.FileUtilsKt.deleteFile;
 import static net.maxsmr.commonutils.FileUtilsKt.isFileValid;
 import static net.maxsmr.commonutils.StreamUtilsKt.copyStream;
+import static net.maxsmr.commonutils.StreamUtilsKt.getNotifyBytesThreshold;
 import static net.maxsmr.commonutils.conversion.NumberConversionUtilsKt.toIntSafe;
 import static net.maxsmr.commonutils.text.TextUtilsKt.isEmpty;
 
@@ -475,12 +477,17 @@ public class FtpConnectionManager {
 
                     ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
 
-                    if (copyStream(inStream.first, dataStream, notifier != null? new IStreamNotifier() {
+                    if (copyStream(inStream.first, dataStream, notifier != null? new StreamNotifierAdapter() {
                         @Override
                         public long getNotifyInterval() {
                             return notifier.getNotifyInterval();
                         }
 
+                        @Override
+                        public long getNotifyBytesThreshold() {
+                            return getNotifyBytesThreshold(notifier);
+                        }
+
                         @Override
                         public boolean onProcessing(@NotNull InputStream inputStream, @NotNull OutputStream outputStream, long bytesWrite, long bytesLeft) {
                             return notifier.onProcessing(inputStream, outputStream, bytesWrite, inStream.second != null && inStream.second > bytesWrite? inStream.second - bytesWrite : bytesLeft);
@@ -644,13 +651,18 @@ public class FtpConnectionManager {
 
                 final long localFileSize = localFile.length();
 
-                if (copyStream(localStream, outputStream, notifier != null? new IStreamNotifier() {
+                if (copyStream(localStream, outputStream, notifier != null? new StreamNotifierAdapter() {
 
                     @Override
                     public long getNotifyInterval() {
                         return notifier.getNotifyInterval();
                     }
 
+                    @Override
+                    public long getNotifyBytesThreshold() {
+                        return getNotifyBytesThreshold(notifier);
+                    }
+
                     @Override
                     public boolean onProcessing(@NotNull InputStream inputStream, @NotNull OutputStream outputStream, long bytesWrite, long bytesLeft) {
                         return notifier.onProcessing(inputStream, outputStream, bytesWrite, localFileSize > bytesWrite? localFileSize - bytesWrite : bytesLeft);
@@ -881,4 +893,10 @@ public class FtpConnectionManager {
 
         REWRITE, APPEND, DO_NOTING
     }
+
+    /**
+     * forwards both interval and bytes threshold of client notifier
+     */
+    private abstract static class StreamNotifierAdapter implements IStreamNotifier, IBytesThresholdNotifier {
+    }
 }
@@ -3,12 +3,12 @@ package net.maxsmr.networkutils.loadutil.managers;
 import android.net.Uri;
 import android.os.Handler;
 
+import net.maxsmr.commonutils.CopyOnWriteObservable.Dispatcher;
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 import net.maxsmr.networkutils.loadutil.managers.base.BaseNetworkLoadManager;
 import net.maxsmr.networkutils.loadutil.managers.base.info.LoadRunnableInfo;
 import net.maxsmr.tasksutils.storage.sync.AbstractSyncStorage;
-import net.maxsmr.tasksutils.taskexecutor.RunnableInfo;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -409,7 +409,9 @@ public class NetworkLoadManager<B extends LoadRunnableInfo.Body, LI extends Load
 
                         long waitTime = 0;
 
-                        long lastProcessingNotifyTime = 0;
+                        final ProcessingThrottle<LI> throttle = new ProcessingThrottle<>(rInfo);
+
+                        final Dispatcher<LoadListener<LI>> processingDispatcher = l -> notifyStateProcessing(LoadListener.STATE.UPLOADING, l);
 
                         @Override
                         public boolean isPaused() {
@@ -430,28 +432,11 @@ public class NetworkLoadManager<B extends LoadRunnableInfo.Body, LI extends Load
                             currentLoadInfo.leftUploadTime = currentLoadInfo.uploadSpeed > 0 ? (long) ((float) (currentLoadInfo.totalUploadBytesCount - currentLoadInfo.uploadedBytesCount) / currentLoadInfo.uploadSpeed) : 0;
 
                             if (rInfo.settings.notifyWrite) {
-                                synchronized (loadObservable) {
-                                    if (loadObservable.getObservers().size() > 0) {
-                                        boolean notified = false;
-                                        for (LoadListener<LI> l : loadObservable.copyOfObservers()) {
-                                            final int id = l.getId(rInfo);
-                                            if (id == RunnableInfo.NO_ID || id == rInfo.id) {
-                                                final long interval = System.currentTimeMillis() - lastProcessingNotifyTime;
-                                                long targetInterval = l.getProcessingNotifyInterval(rInfo);
-                                                targetInterval = targetInterval == LoadListener.INTERVAL_NOT_SPECIFIED ? LoadListener.DEFAULT_PROCESSING_NOTIFY_INTERVAL : targetInterval;
-                                                if (targetInterval > 0 && interval >= targetInterval || currentLoadInfo.uploadedBytesCount >= currentLoadInfo.totalUploadBytesCount) {
-                                                    long currentTime = System.currentTimeMillis();
-//                                                        logger.d("updating uploading state (processing)...");
-                                                    notifyStateProcessing(LoadListener.STATE.UPLOADING, l);
-                                                    waitTime += System.currentTimeMillis() - currentTime;
-                                                    notified = true;
-                                                }
-                                            }
-                                        }
-                                        if (notified)
-                                            lastProcessingNotifyTime = System.currentTimeMillis();
-                                    }
-                                }
+                                final long currentTime = System.currentTimeMillis();
+                                // unknown total is not treated as completed, so each chunk is not notified
+                                final boolean isFinal = currentLoadInfo.totalUploadBytesCount > 0 && currentLoadInfo.uploadedBytesCount >= currentLoadInfo.totalUploadBytesCount;
+                                loadObservable.notifyProcessing(throttle, isFinal, processingDispatcher);
+                                waitTime += System.currentTimeMillis() - currentTime;
                             }
                         }
                     };
@@ -573,7 +558,9 @@ public class NetworkLoadManager<B extends LoadRunnableInfo.Body, LI extends Load
 
                             long waitTime = 0;
 
-                            long lastProcessingNotifyTime = 0;
+                            final ProcessingThrottle<LI> throttle = new ProcessingThrottle<>(rInfo);
+
+                            final Dispatcher<LoadListener<LI>> processingDispatcher = l -> notifyStateProcessing(LoadListener.STATE.DOWNLOADING, l);
 
                             @Override
                             public boolean isPaused() {
@@ -597,28 +584,11 @@ public class NetworkLoadManager<B extends LoadRunnableInfo.Body, LI extends Load
                                     currentLoadInfo.leftDownloadTime = 0;
                                 }
 
-                                synchronized (loadObservable) {
-                                    if (loadObservable.getObservers().size() > 0) {
-                                        boolean notified = false;
-                                        for (LoadListener<LI> l : loadObservable.copyOfObservers()) {
-                                            final int id = l.getId(rInfo);
-                                            if (id == RunnableInfo.NO_ID || id == rInfo.id) {
-                                                final long interval = System.currentTimeMillis() - lastProcessingNotifyTime;
-                                                long targetInterval = l.getProcessingNotifyInterval(rInfo);
-                                                targetInterval = targetInterval == LoadListener.INTERVAL_NOT_SPECIFIED ? LoadListener.DEFAULT_PROCESSING_NOTIFY_INTERVAL : targetInterval;
-                                                if (targetInterval > 0 && interval >= targetInterval || currentLoadInfo.downloadedBytesCount >= currentLoadInfo.totalDownloadBytesCount) {
-                                                    long currentTime = System.currentTimeMillis();
-//                                                        logger.d("updating downloading state (processing)...");
-                                                    notifyStateProcessing(LoadListener.STATE.DOWNLOADING, l);
-                                                    waitTime += System.currentTimeMillis() - currentTime;
-                                                    notified = true;
-                                                }
-                                            }
-                                        }
-                                        if (notified)
-                                            lastProcessingNotifyTime = System.currentTimeMillis();
-                                    }
-                                }
+                                final long currentTime = System.currentTimeMillis();
+                                // unknown total is not treated as completed, so each chunk is not notified
+                                final boolean isFinal = currentLoadInfo.totalDownloadBytesCount > 0 && currentLoadInfo.downloadedBytesCount >= currentLoadInfo.totalDownloadBytesCount;
+                                loadObservable.notifyProcessing(throttle, isFinal, processingDispatcher);
+                                waitTime += System.currentTimeMillis() - currentTime;
                             }
                         };
 
@@ -672,14 +642,7 @@ public class NetworkLoadManager<B extends LoadRunnableInfo.Body, LI extends Load
                             logger.d("headers: " + lastResponse.headers);
                         }
 
-                        synchronized (loadObservable) {
-                            for (LoadListener<LI> l : loadObservable.copyOfObservers()) {
-                                final int id = l.getId(rInfo);
-                                if (id == RunnableInfo.NO_ID || id == rInfo.id) {
-                                    l.onResponse(rInfo, currentLoadInfo, lastResponse);
-                                }
-                            }
-                        }
+                        loadObservable.notifyResponse(rInfo, currentLoadInfo, lastResponse);
 
                         if (!accepted) {
                             success = false;
@@ -3,7 +3,7 @@ package net.maxsmr.networkutils.loadutil.managers.base;
 import android.os.Handler;
 import android.os.Looper;
 
-import net.maxsmr.commonutils.Observable;
+import net.maxsmr.commonutils.CopyOnWriteObservable;
 import net.maxsmr.commonutils.Predicate;
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -281,41 +283,94 @@ public abstract class BaseNetworkLoadManager<B extends LoadRunnableInfo.Body, LI
         }
     }
 
-    protected static class LoadObservable<I extends LoadRunnableInfo> extends Observable<LoadListener<I>> {
+    protected static class LoadObservable<I extends LoadRunnableInfo> extends CopyOnWriteObservable<LoadListener<I>> {
 
         @Nullable
         public final LoadListener<I> findLoadListenerById(final int id) {
-            synchronized (observers) {
-                return Predicate.Methods.find(getObservers(), element -> element != null && element.getId() == id);
-            }
+            return Predicate.Methods.find(copyOfObservers(), element -> element != null && element.getId() == id);
         }
 
         public final void notifyLoadAddedToQueue(@NotNull I info, int waitingLoads, int activeLoads) {
-            synchronized (observers) {
-                for (LoadListener<I> l : copyOfObservers()) {
-                    l.onLoadAddedToQueue(info.id, waitingLoads, activeLoads);
-                }
-            }
+            dispatch(l -> l.onLoadAddedToQueue(info.id, waitingLoads, activeLoads));
         }
 
         public final void notifyLoadRemovedFromQueue(@NotNull I info, int waitingLoads, int activeLoads) {
-            synchronized (observers) {
-                for (LoadListener<I> l : copyOfObservers()) {
-                    l.onLoadRemovedFromQueue(info.id, waitingLoads, activeLoads);
-                }
-            }
+            dispatch(l -> l.onLoadRemovedFromQueue(info.id, waitingLoads, activeLoads));
         }
 
         public final void notifyStateChanged(@NotNull final I info, @NotNull NetworkLoadManager.LoadProcessInfo loadProcessInfo, Throwable t) {
-            synchronized (observers) {
-                LoadListener<I> l = Predicate.Methods.find(copyOfObservers(), listener -> {
-                    int id = listener.getId(info);
-                    return id == RunnableInfo.NO_ID || id == info.id;
-                });
-                if (l != null) {
-                    l.onUpdateState(info, loadProcessInfo, t);
+            LoadListener<I> l = Predicate.Methods.find(copyOfObservers(), listener -> {
+                int id = listener.getId(info);
+                return id == RunnableInfo.NO_ID || id == info.id;
+            });
+            if (l != null) {
+                l.onUpdateState(info, loadProcessInfo, t);
+            }
+        }
+
+        /**
+         * Notifies listeners of the load about progress through {@code throttle}
+         *
+         * @param isFinal true if all bytes were processed: it's passed to every listener regardless of interval
+         */
+        public final void notifyProcessing(@NotNull ProcessingThrottle<I> throttle, boolean isFinal, @NotNull Dispatcher<LoadListener<I>> dispatcher) {
+            throttle.now = System.currentTimeMillis();
+            throttle.isFinal = isFinal;
+            dispatch(throttle, dispatcher);
+        }
+
+        public final void notifyResponse(@NotNull I info, @NotNull NetworkLoadManager.LoadProcessInfo loadProcessInfo, @NotNull NetworkLoadManager.Response response) {
+            dispatch(l -> {
+                final int id = l.getId(info);
+                return id == RunnableInfo.NO_ID || id == info.id;
+            }, l -> l.onResponse(info, loadProcessInfo, response));
+        }
+    }
+
+    /**
+     * Progress of one load is passed to each listener not more often than its
+     * {@linkplain LoadListener#getProcessingNotifyInterval(LoadRunnableInfo)};
+     * skipped updates are coalesced into next one, since {@linkplain NetworkLoadManager.LoadProcessInfo} is cumulative.
+     * Must be used from one thread, which is running the load
+     */
+    public static final class ProcessingThrottle<I extends LoadRunnableInfo> implements CopyOnWriteObservable.Filter<LoadListener<I>> {
+
+        @NotNull
+        private final I info;
+
+        /**
+         * listener -- time of its last notification
+         */
+        private final Map<LoadListener<I>, long[]> lastNotifyTimes = new IdentityHashMap<>();
+
+        private long now;
+
+        private boolean isFinal;
+
+        public ProcessingThrottle(@NotNull I info) {
+            this.info = info;
+        }
+
+        @Override
+        public boolean accept(@NotNull LoadListener<I> l) {
+            final int id = l.getId(info);
+            if (id != RunnableInfo.NO_ID && id != info.id) {
+                return false;
+            }
+            long[] lastNotifyTime = lastNotifyTimes.get(l);
+            if (lastNotifyTime == null) {
+                lastNotifyTime = new long[1];
+                lastNotifyTimes.put(l, lastNotifyTime);
+            }
+            if (!isFinal) {
+                long targetInterval = l.getProcessingNotifyInterval(info);
+                targetInterval = targetInterval == LoadListener.INTERVAL_NOT_SPECIFIED ? LoadListener.DEFAULT_PROCESSING_NOTIFY_INTERVAL : targetInterval;
+                if (targetInterval <= 0 || now - lastNotifyTime[0] < targetInterval) {
+                    return false;
                 }
             }
+            lastNotifyTime[0] = now;
+            return true;
         }
     }
 }
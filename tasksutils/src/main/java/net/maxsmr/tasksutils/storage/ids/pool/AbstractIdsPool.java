@@ -5,6 +5,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 
@@ -14,15 +15,41 @@ public abstract class AbstractIdsPool {
 
     public abstract boolean hasIds();
 
+    /**
+     * @return max id + 1, added to pool; 0 if pool is empty
+     */
     public synchronized int incrementAndGet() {
-        int lastId = Collections.max(copyOf());
+        int lastId = hasIds() ? Collections.max(copyOf()) : -1;
         lastId++;
         add(lastId);
         return lastId;
     }
 
+    /**
+     * @return new id added to pool; implementations may reuse ids freed by {@linkplain #remove(int)},
+     * by default same as {@linkplain #incrementAndGet()}
+     */
+    public synchronized int acquire() {
+        return incrementAndGet();
+    }
+
     public abstract void add(int newId);
 
+    /**
+     * By default rewrites whole pool without given id, pools override it with cheaper removal
+     *
+     * @return true if id was present
+     */
+    public synchronized boolean remove(int id) {
+        if (!contains(id)) {
+            return false;
+        }
+        final Set<Integer> ids = new LinkedHashSet<>(copyOf());
+        ids.remove(id);
+        set(ids);
+        return true;
+    }
+
     /** copy of actual ids set */
     @NotNull
     public abstract Set<Integer> copyOf();
@@ -0,0 +1,284 @@
+package net.maxsmr.tasksutils.storage.ids.pool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool for dense ids: bitmap split into lazily allocated chunks of {@linkplain #CHUNK_SIZE} ids,
+ * so only occupied ranges take memory
+ * <p>
+ * Add / remove / contains / incrementAndGet are lock-free (CAS on bitmap words and running max),
+ * lock is taken only when new chunk or bigger chunks table is needed
+ * <p>
+ * Max id is not decreased on removal: {@linkplain #incrementAndGet()} keeps returning growing ids,
+ * freed ids are reused by {@linkplain #acquire()}
+ */
+public class BitmapIdsPool extends AbstractIdsPool {
+
+    private static final int CHUNK_BITS = 16;
+
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int WORDS_PER_CHUNK = CHUNK_SIZE / Long.SIZE;
+
+    private final Object chunksLock = new Object();
+
+    @NotNull
+    private volatile AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(1);
+
+    private final AtomicInteger maxId = new AtomicInteger(-1);
+
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /**
+     * no freed ids below this value
+     */
+    private final AtomicInteger lowestFreedId = new AtomicInteger(Integer.MAX_VALUE);
+
+    @Override
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+        final AtomicLongArray chunk = getChunk(id, false);
+        return chunk != null && (chunk.get(wordIndex(id)) & bitMask(id)) != 0;
+    }
+
+    @Override
+    public boolean hasIds() {
+        return count.get() > 0;
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * @return max id ever added since last {@linkplain #set(Collection)}, -1 if none
+     */
+    public int getMaxId() {
+        return maxId.get();
+    }
+
+    @Override
+    public int incrementAndGet() {
+        int id = maxId.get() + 1;
+        while (!setBit(id)) {
+            // taken concurrently by add
+            id++;
+        }
+        return id;
+    }
+
+    @Override
+    public int acquire() {
+        int from = lowestFreedId.get();
+        while (from != Integer.MAX_VALUE) {
+            final int max = maxId.get();
+            final int free = nextClearBit(from, max);
+            if (free < 0) {
+                // nothing freed below max: reset hint if it wasn't changed meanwhile
+                if (lowestFreedId.compareAndSet(from, Integer.MAX_VALUE)) {
+                    break;
+                }
+            } else if (setBit(free)) {
+                lowestFreedId.compareAndSet(from, free + 1);
+                return free;
+            }
+            from = lowestFreedId.get();
+        }
+        return incrementAndGet();
+    }
+
+    @Override
+    public void add(int newId) {
+        if (newId < 0) {
+            throw new IllegalArgumentException("incorrect id: " + newId);
+        }
+        setBit(newId);
+    }
+
+    @Override
+    public boolean remove(int id) {
+        if (id < 0) {
+            return false;
+        }
+        final AtomicLongArray chunk = getChunk(id, false);
+        if (chunk == null) {
+            return false;
+        }
+        final int wordIndex = wordIndex(id);
+        final long mask = bitMask(id);
+        while (true) {
+            final long word = chunk.get(wordIndex);
+            if ((word & mask) == 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(wordIndex, word, word & ~mask)) {
+                count.decrementAndGet();
+                updateMin(lowestFreedId, id);
+                return true;
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public Set<Integer> copyOf() {
+        final int[] ids = toArray();
+        final Set<Integer> result = new LinkedHashSet<>(ids.length);
+        for (int id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * @return ascending ids without boxing
+     */
+    @NotNull
+    public int[] toArray() {
+        int[] result = new int[Math.max(count.get(), 0)];
+        int size = 0;
+        final AtomicReferenceArray<AtomicLongArray> chunks = this.chunks;
+        for (int c = 0; c < chunks.length(); c++) {
+            final AtomicLongArray chunk = chunks.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                long word = chunk.get(w);
+                while (word != 0) {
+                    final int bit = Long.numberOfTrailingZeros(word);
+                    if (size == result.length) {
+                        // added concurrently
+                        result = Arrays.copyOf(result, Math.max(result.length * 2, 16));
+                    }
+                    result[size++] = (c << CHUNK_BITS) + w * Long.SIZE + bit;
+                    word &= word - 1;
+                }
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    @Override
+    public void set(@Nullable Collection<Integer> ids) {
+        synchronized (chunksLock) {
+            chunks = new AtomicReferenceArray<>(1);
+            maxId.set(-1);
+            count.set(0);
+            lowestFreedId.set(Integer.MAX_VALUE);
+            if (ids != null) {
+                for (Integer id : ids) {
+                    if (id != null) {
+                        add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if bit was not set before
+     */
+    private boolean setBit(int id) {
+        final AtomicLongArray chunk = getChunk(id, true);
+        final int wordIndex = wordIndex(id);
+        final long mask = bitMask(id);
+        while (true) {
+            final long word = chunk.get(wordIndex);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(wordIndex, word, word | mask)) {
+                count.incrementAndGet();
+                updateMax(maxId, id);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return first not set id in [from, to) or -1
+     */
+    private int nextClearBit(int from, int to) {
+        for (int id = Math.max(from, 0); id < to; ) {
+            final AtomicLongArray chunk = getChunk(id, false);
+            if (chunk == null) {
+                return id;
+            }
+            final long word = ~chunk.get(wordIndex(id)) & (-1L << (id & (Long.SIZE - 1)));
+            if (word != 0) {
+                final int result = (id & ~(Long.SIZE - 1)) + Long.numberOfTrailingZeros(word);
+                return result < to ? result : -1;
+            }
+            id = (id & ~(Long.SIZE - 1)) + Long.SIZE;
+        }
+        return -1;
+    }
+
+    @Nullable
+    private AtomicLongArray getChunk(int id, boolean create) {
+        final int chunkIndex = id >>> CHUNK_BITS;
+        AtomicReferenceArray<AtomicLongArray> chunks = this.chunks;
+        AtomicLongArray chunk = chunkIndex < chunks.length() ? chunks.get(chunkIndex) : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (chunksLock) {
+            chunks = this.chunks;
+            if (chunkIndex >= chunks.length()) {
+                int newLength = chunks.length();
+                while (newLength <= chunkIndex) {
+                    newLength *= 2;
+                }
+                final AtomicReferenceArray<AtomicLongArray> newChunks = new AtomicReferenceArray<>(newLength);
+                for (int i = 0; i < chunks.length(); i++) {
+                    newChunks.set(i, chunks.get(i));
+                }
+                this.chunks = chunks = newChunks;
+            }
+            chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                chunk = new AtomicLongArray(WORDS_PER_CHUNK);
+                chunks.set(chunkIndex, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    private static int wordIndex(int id) {
+        return (id & (CHUNK_SIZE - 1)) >>> 6;
+    }
+
+    private static long bitMask(int id) {
+        return 1L << (id & (Long.SIZE - 1));
+    }
+
+    static void updateMax(@NotNull AtomicInteger target, int value) {
+        int current;
+        while ((current = target.get()) < value) {
+            if (target.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    static void updateMin(@NotNull AtomicInteger target, int value) {
+        int current;
+        while ((current = target.get()) > value) {
+            if (target.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
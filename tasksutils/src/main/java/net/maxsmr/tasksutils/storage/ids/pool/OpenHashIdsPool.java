@@ -0,0 +1,296 @@
+package net.maxsmr.tasksutils.storage.ids.pool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.maxsmr.tasksutils.storage.ids.pool.BitmapIdsPool.updateMax;
+
+/**
+ * Pool for sparse ids: open-addressing int sets (linear probing, no boxing),
+ * split into segments with own locks, so operations on different ids rarely contend
+ * <p>
+ * Max id is maintained incrementally and is not decreased on removal:
+ * {@linkplain #incrementAndGet()} keeps returning growing ids, freed ids are reused by {@linkplain #acquire()}
+ */
+public class OpenHashIdsPool extends AbstractIdsPool {
+
+    public static final int DEFAULT_SEGMENTS_COUNT = 16;
+
+    private static final int DEFAULT_FREED_CAPACITY = 16;
+
+    @NotNull
+    private final Segment[] segments;
+
+    private final int segmentMask;
+
+    private final AtomicInteger maxId = new AtomicInteger(-1);
+
+    /**
+     * stack of removed ids to reuse
+     */
+    @NotNull
+    private int[] freedIds = new int[DEFAULT_FREED_CAPACITY];
+
+    private int freedCount = 0;
+
+    private final Object freedLock = new Object();
+
+    public OpenHashIdsPool() {
+        this(DEFAULT_SEGMENTS_COUNT);
+    }
+
+    /**
+     * @param segmentsCount will be rounded up to power of 2
+     */
+    public OpenHashIdsPool(int segmentsCount) {
+        if (segmentsCount <= 0) {
+            throw new IllegalArgumentException("incorrect segments count: " + segmentsCount);
+        }
+        int count = Integer.highestOneBit(segmentsCount);
+        if (count < segmentsCount) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentMask = count - 1;
+    }
+
+    @Override
+    public boolean contains(int id) {
+        return id >= 0 && segmentFor(id).contains(id);
+    }
+
+    @Override
+    public boolean hasIds() {
+        for (Segment s : segments) {
+            if (s.size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return max id ever added since last {@linkplain #set(Collection)}, -1 if none
+     */
+    public int getMaxId() {
+        return maxId.get();
+    }
+
+    @Override
+    public int incrementAndGet() {
+        while (true) {
+            final int current = maxId.get();
+            final int id = current + 1;
+            if (maxId.compareAndSet(current, id) && segmentFor(id).add(id)) {
+                return id;
+            }
+        }
+    }
+
+    @Override
+    public int acquire() {
+        while (true) {
+            final int id;
+            synchronized (freedLock) {
+                if (freedCount == 0) {
+                    break;
+                }
+                id = freedIds[--freedCount];
+            }
+            // may be re-added with add() after removal
+            if (segmentFor(id).add(id)) {
+                return id;
+            }
+        }
+        return incrementAndGet();
+    }
+
+    @Override
+    public void add(int newId) {
+        if (newId < 0) {
+            throw new IllegalArgumentException("incorrect id: " + newId);
+        }
+        if (segmentFor(newId).add(newId)) {
+            updateMax(maxId, newId);
+        }
+    }
+
+    @Override
+    public boolean remove(int id) {
+        if (id < 0 || !segmentFor(id).remove(id)) {
+            return false;
+        }
+        synchronized (freedLock) {
+            if (freedCount == freedIds.length) {
+                freedIds = Arrays.copyOf(freedIds, freedIds.length * 2);
+            }
+            freedIds[freedCount++] = id;
+        }
+        return true;
+    }
+
+    @NotNull
+    @Override
+    public Set<Integer> copyOf() {
+        final Set<Integer> result = new LinkedHashSet<>();
+        for (Segment s : segments) {
+            s.copyTo(result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void set(@Nullable Collection<Integer> ids) {
+        for (Segment s : segments) {
+            s.clear();
+        }
+        synchronized (freedLock) {
+            freedIds = new int[DEFAULT_FREED_CAPACITY];
+            freedCount = 0;
+        }
+        maxId.set(-1);
+        if (ids != null) {
+            for (Integer id : ids) {
+                if (id != null) {
+                    add(id);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private Segment segmentFor(int id) {
+        return segments[mix(id) & segmentMask];
+    }
+
+    private static int mix(int id) {
+        final int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Segment {
+
+        private static final int FREE = -1;
+
+        private static final int REMOVED = -2;
+
+        private static final float LOAD_FACTOR = 0.5f;
+
+        private int[] table = newTable(16);
+
+        private int size = 0;
+
+        /**
+         * occupied + removed slots
+         */
+        private int used = 0;
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized boolean contains(int id) {
+            return indexOf(id) >= 0;
+        }
+
+        synchronized boolean add(int id) {
+            if (indexOf(id) >= 0) {
+                return false;
+            }
+            if (used + 1 > table.length * LOAD_FACTOR) {
+                rehash(size + 1 > table.length * LOAD_FACTOR / 2 ? table.length * 2 : table.length);
+            }
+            final int mask = table.length - 1;
+            int index = (mix(id) >>> 8) & mask;
+            while (table[index] >= 0) {
+                index = (index + 1) & mask;
+            }
+            if (table[index] == FREE) {
+                used++;
+            }
+            table[index] = id;
+            size++;
+            return true;
+        }
+
+        synchronized boolean remove(int id) {
+            final int index = indexOf(id);
+            if (index < 0) {
+                return false;
+            }
+            table[index] = REMOVED;
+            size--;
+            return true;
+        }
+
+        synchronized void copyTo(@NotNull Set<Integer> to) {
+            for (int id : table) {
+                if (id >= 0) {
+                    to.add(id);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            table = newTable(16);
+            size = 0;
+            used = 0;
+        }
+
+        private int indexOf(int id) {
+            final int mask = table.length - 1;
+            int index = (mix(id) >>> 8) & mask;
+            int value;
+            while ((value = table[index]) != FREE) {
+                if (value == id) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void rehash(int newLength) {
+            final int[] old = table;
+            table = newTable(newLength);
+            used = 0;
+            size = 0;
+            final int mask = newLength - 1;
+            for (int id : old) {
+                if (id >= 0) {
+                    int index = (mix(id) >>> 8) & mask;
+                    while (table[index] != FREE) {
+                        index = (index + 1) & mask;
+                    }
+                    table[index] = id;
+                    used++;
+                    size++;
+                }
+            }
+        }
+
+        @NotNull
+        private static int[] newTable(int length) {
+            final int[] table = new int[length];
+            Arrays.fill(table, FREE);
+            return table;
+        }
+    }
+}
@@ -32,6 +32,11 @@ public class SetIdsPool extends AbstractIdsPool {
         ids.add(newId);
     }
 
+    @Override
+    public synchronized boolean remove(int id) {
+        return ids.remove(id);
+    }
+
     @NotNull
     @Override
     public synchronized Set<Integer> copyOf() {
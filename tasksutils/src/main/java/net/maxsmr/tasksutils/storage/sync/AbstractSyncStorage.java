@@ -6,7 +6,7 @@ import android.os.Looper;
 import androidx.annotation.CallSuper;
 import net.maxsmr.commonutils.Pair;
 
-import net.maxsmr.commonutils.Observable;
+import net.maxsmr.commonutils.CopyOnWriteObservable;
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 import net.maxsmr.tasksutils.CustomHandlerThread;
@@ -452,17 +452,13 @@ public abstract class AbstractSyncStorage<I extends RunnableInfo> {
 
     protected abstract Class<?> getLoggerClass();
 
-    protected static class StorageObservable extends Observable<IStorageListener> {
+    protected static class StorageObservable extends CopyOnWriteObservable<IStorageListener> {
 
         public void dispatchStorageRestoreStarted(final long startTime, @Nullable Handler handler) {
             Runnable run = new Runnable() {
                 @Override
                 public void run() {
-                    synchronized (observers) {
-                        for (IStorageListener l : observers) {
-                            l.onStorageRestoreStarted(startTime);
-                        }
-                    }
+                    dispatch(l -> l.onStorageRestoreStarted(startTime));
                 }
             };
             if (handler != null) {
@@ -476,11 +472,7 @@ public abstract class AbstractSyncStorage<I extends RunnableInfo> {
             Runnable run = new Runnable() {
                 @Override
                 public void run() {
-                    synchronized (observers) {
-                        for (IStorageListener l : observers) {
-                            l.onStorageRestoreFinished(endTime, processingTime, elemCount);
-                        }
-                    }
+                    dispatch(l -> l.onStorageRestoreFinished(endTime, processingTime, elemCount));
                 }
             };
             if (handler != null) {
@@ -501,11 +493,7 @@ public abstract class AbstractSyncStorage<I extends RunnableInfo> {
                         throw new IllegalArgumentException("incorrect previousSize: " + previousSize);
                     }
                     if (currentSize != previousSize) {
-                        synchronized (observers) {
-                            for (IStorageListener l : observers) {
-                                l.onStorageSizeChanged(currentSize, previousSize);
-                            }
-                        }
+                        dispatch(l -> l.onStorageSizeChanged(currentSize, previousSize));
                     }
                 }
             };
@@ -4,15 +4,12 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
 
 import static net.maxsmr.commonutils.format.DateFormatUtilsKt.formatDate;
 
 public class ExecInfo<I extends RunnableInfo, ProgressInfo, Result, T extends TaskRunnable<I, ProgressInfo, Result>> implements Serializable {
 
-    private static final SimpleDateFormat SDF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault());
+    private static final String TIME_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
 
     @NotNull
     public final T taskRunnable;
@@ -45,7 +42,7 @@ public class ExecInfo<I extends RunnableInfo, ProgressInfo, Result, T extends Ta
     }
 
     synchronized public String getTimeWhenAddedToQueueFormatted() {
-        return formatDate(new Date(timeWhenAddedToQueue), SDF, null);
+        return formatDate(timeWhenAddedToQueue, TIME_PATTERN);
     }
 
     synchronized public long getTimeExecuting() {
@@ -53,7 +50,7 @@ public class ExecInfo<I extends RunnableInfo, ProgressInfo, Result, T extends Ta
     }
 
     synchronized public String getTimeWhenStartedFormatted() {
-        return formatDate(new Date(timeWhenStarted), SDF, null);
+        return formatDate(timeWhenStarted, TIME_PATTERN);
     }
 
     synchronized public long getTotalTime() {
@@ -172,8 +169,8 @@ public class ExecInfo<I extends RunnableInfo, ProgressInfo, Result, T extends Ta
                 "taskRunnable=" + taskRunnable +
                 ", time waiting in queue: " + timeWaitingInQueue + " ms" +
                 ", time executing: " + timeExecuting + " ms" +
-                ", time when added to queue: " + SDF.format(new Date(timeWhenAddedToQueue)) +
-                ", time when started: " + SDF.format(new Date(timeWhenStarted)) +
+                ", time when added to queue: " + formatDate(timeWhenAddedToQueue, TIME_PATTERN) +
+                ", time when started: " + formatDate(timeWhenStarted, TIME_PATTERN) +
                 ", exec exception: " + execException +
                 '}';
     }
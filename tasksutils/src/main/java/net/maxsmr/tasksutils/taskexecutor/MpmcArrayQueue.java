@@ -0,0 +1,137 @@
+package net.maxsmr.tasksutils.taskexecutor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue on ring buffer:
+ * each slot has sequence number telling whether it's ready to be written or read,
+ * producers and consumers claim positions with CAS and never block each other
+ * <p>
+ * Doesn't allocate on {@linkplain #offer(Object)} / {@linkplain #poll()}
+ */
+public class MpmcArrayQueue<E> {
+
+    @NotNull
+    private final AtomicReferenceArray<E> buffer;
+
+    @NotNull
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(0);
+
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * max capacity which can be rounded up to power of 2 without overflow
+     */
+    public static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * @param capacity will be rounded up to power of 2, buffer is allocated right away
+     */
+    public MpmcArrayQueue(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return false if queue is full
+     */
+    public boolean offer(@NotNull E e) {
+        //noinspection ConstantConditions
+        if (e == null) {
+            throw new NullPointerException("element is null");
+        }
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, e);
+                    // publishes element for consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // slot from previous lap is not consumed yet
+                return false;
+            }
+            // else another producer has claimed this position, retry with new tail
+        }
+    }
+
+    /**
+     * @return null if queue is empty
+     */
+    @Nullable
+    public E poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E e = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    // releases slot for producers on next lap
+                    sequences.set(index, position + mask + 1);
+                    return e;
+                }
+            } else if (diff < 0) {
+                // nothing was published at this position yet
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return approximate size, exact only when there are no concurrent modifications
+     */
+    public int size() {
+        while (true) {
+            final long h = head.get();
+            final long t = tail.get();
+            if (h == head.get()) {
+                return (int) Math.max(0, Math.min(t - h, capacity()));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return number of removed elements
+     */
+    public int clear() {
+        int count = 0;
+        while (poll() != null) {
+            count++;
+        }
+        return count;
+    }
+}
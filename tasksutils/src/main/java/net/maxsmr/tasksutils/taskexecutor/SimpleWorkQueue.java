@@ -11,37 +11,115 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.maxsmr.tasksutils.taskexecutor.TaskRunnableExecutor.TASKS_NO_LIMIT;
 
+/**
+ * Fixed pool of worker threads with lock-free queue:
+ * tasks are kept in {@linkplain MpmcArrayQueue}, overflowing (when there is no limit or it was raised)
+ * to {@linkplain ConcurrentLinkedQueue}, so submitting and taking never contend on a monitor;
+ * idle workers wait according to {@linkplain WaitStrategy}
+ */
 public class SimpleWorkQueue<I extends RunnableInfo, ProgressInfo, Result, T extends TaskRunnable<I, ProgressInfo, Result>> {
 
     private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(SimpleWorkQueue.class);
 
+    /**
+     * max ring buffer capacity: bigger limits are enforced by {@linkplain #queuedCount},
+     * tasks above it go to {@linkplain #overflowQueue}
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final int STATE_RUNNING = 0;
+
+    /**
+     * not accepting new tasks, workers are finishing queued ones
+     */
+    private static final int STATE_SHUTDOWN = 1;
+
+    /**
+     * not accepting new tasks, queued ones are dropped
+     */
+    private static final int STATE_STOPPED = 2;
+
+    @NotNull
+    private final MpmcArrayQueue<T> runnableQueue;
+
+    /**
+     * used when ring buffer is full, but limit allows more
+     */
+    @NotNull
+    private final ConcurrentLinkedQueue<T> overflowQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * tasks which are waiting in queue, for O(1) duplicates check
+     */
     @NotNull
-    private final LinkedList<T> runnableQueue = new LinkedList<>();
+    private final Set<T> queuedRunnables = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    /**
+     * reserved before adding and released after taking, so limit is never exceeded
+     */
+    private final AtomicInteger queuedCount = new AtomicInteger(0);
+
+    private final AtomicInteger state = new AtomicInteger(STATE_RUNNING);
+
+    @NotNull
+    private final WaitStrategy waitStrategy;
+
+    @NotNull
+    private final WaitStrategy.Condition hasWorkCondition = new WaitStrategy.Condition() {
+        @Override
+        public boolean isSatisfied() {
+            return queuedCount.get() > 0 || state.get() != STATE_RUNNING;
+        }
+    };
 
     private final List<PoolWorker> poolWorkers;
 
-    private int maxRunnableQueueSize;
+    private volatile int maxRunnableQueueSize;
 
     @Nullable
-    private ITaskResultValidator<I, ProgressInfo, Result, T> resultValidator;
+    private volatile ITaskResultValidator<I, ProgressInfo, Result, T> resultValidator;
 
     @Nullable
-    private AbstractSyncStorage<I> syncStorage;
+    private volatile AbstractSyncStorage<I> syncStorage;
 
     public SimpleWorkQueue(int nPoolWorkers, String workQueueName,
                            int maxRunnableQueueSize,
                            @Nullable ITaskResultValidator<I, ProgressInfo, Result, T> resultValidator,
                            @Nullable final AbstractSyncStorage<I> syncStorage,
                            @Nullable final ITaskRestorer<I, ProgressInfo, Result, T> restorer) {
+        this(nPoolWorkers, workQueueName, maxRunnableQueueSize, resultValidator, syncStorage, restorer, new WaitStrategy.Parking());
+    }
+
+    public SimpleWorkQueue(int nPoolWorkers, String workQueueName,
+                           int maxRunnableQueueSize,
+                           @Nullable ITaskResultValidator<I, ProgressInfo, Result, T> resultValidator,
+                           @Nullable final AbstractSyncStorage<I> syncStorage,
+                           @Nullable final ITaskRestorer<I, ProgressInfo, Result, T> restorer,
+                           @NotNull WaitStrategy waitStrategy) {
 
         if (nPoolWorkers <= 0)
             nPoolWorkers = 1;
 
+        this.waitStrategy = waitStrategy;
+
+        setMaxRunnableQueueSize(maxRunnableQueueSize);
+        setResultValidator(resultValidator);
+        setSyncStorage(syncStorage);
+
+        // ring is allocated eagerly, so it's not sized by (possibly huge) limit
+        runnableQueue = new MpmcArrayQueue<>(this.maxRunnableQueueSize != TASKS_NO_LIMIT ?
+                Math.min(this.maxRunnableQueueSize, DEFAULT_QUEUE_CAPACITY) : DEFAULT_QUEUE_CAPACITY);
+
         poolWorkers = new ArrayList<>(nPoolWorkers);
 
         for (int i = 0; i < nPoolWorkers; i++) {
@@ -53,10 +131,6 @@ public class SimpleWorkQueue<I extends RunnableInfo, ProgressInfo, Result, T ext
             worker.start();
         }
 
-        setMaxRunnableQueueSize(maxRunnableQueueSize);
-        setResultValidator(resultValidator);
-        setSyncStorage(syncStorage);
-
         if (restorer != null && syncStorage != null) {
             if (!syncStorage.isRestoreCompleted()) {
                 syncStorage.addStorageListener(new AbstractSyncStorage.IStorageListener() {
@@ -108,8 +182,44 @@ public class SimpleWorkQueue<I extends RunnableInfo, ProgressInfo, Result, T ext
         this.syncStorage = syncStorage;
     }
 
+    @NotNull
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
     public int getRunnableQueueSize() {
-        return runnableQueue.size();
+        return Math.max(queuedCount.get(), 0);
+    }
+
+    public boolean isShutdown() {
+        return state.get() != STATE_RUNNING;
+    }
+
+    /**
+     * @return true if all workers have finished after {@linkplain #shutdown()} or {@linkplain #release()}
+     */
+    public boolean isTerminated() {
+        if (!isShutdown()) {
+            return false;
+        }
+        for (PoolWorker worker : poolWorkers) {
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return statistics snapshot for each worker
+     */
+    @NotNull
+    public List<WorkerStats> getWorkersStats() {
+        final List<WorkerStats> result = new ArrayList<>(poolWorkers.size());
+        for (PoolWorker worker : poolWorkers) {
+            result.add(worker.getStats());
+        }
+        return result;
     }
 
     public boolean executeAll(Collection<T> commands) {
@@ -124,6 +234,10 @@ public class SimpleWorkQueue<I extends RunnableInfo, ProgressInfo, Result, T ext
         return result;
     }
 
+    /**
+     * @return true if command was added or it's already in queue,
+     * false if there is no capacity or queue was shut down
+     */
     public boolean execute(T command) {
         logger.d("execute(), command=" + command);
 
@@ -131,84 +245,255 @@ public class SimpleWorkQueue<I extends RunnableInfo, ProgressInfo, Result, T ext
             throw new NullPointerException("command is null");
         }
 
-        synchronized (runnableQueue) {
-            if (runnableQueue.size() < maxRunnableQueueSize || maxRunnableQueueSize == TASKS_NO_LIMIT) {
+        if (isShutdown()) {
+            logger.e("work queue was shut down, rejecting " + command);
+            return false;
+        }
 
-                if (runnableQueue.contains(command)) {
-                    logger.w("runnableQueue already contains this runnable");
-                    return true;
-                }
+        if (!queuedRunnables.add(command)) {
+            logger.w("runnableQueue already contains this runnable");
+            return true;
+        }
 
-                runnableQueue.addLast(command);
+        if (!reserve()) {
+            queuedRunnables.remove(command);
+            logger.e("no capacity remains in runnable queue (" + getRunnableQueueSize() + "/" + maxRunnableQueueSize + ")");
+            return false;
+        }
 
-                if (syncStorage != null) {
-                    syncStorage.addLast(command.rInfo);
-                }
+        final AbstractSyncStorage<I> syncStorage = this.syncStorage;
+        if (syncStorage != null) {
+            syncStorage.addLast(command.rInfo);
+        }
 
-                runnableQueue.notify();
+        // keep approximate FIFO: while overflow is not drained, new tasks go behind it
+        if (!overflowQueue.isEmpty() || !runnableQueue.offer(command)) {
+            overflowQueue.offer(command);
+        }
 
-                return true;
+        waitStrategy.signal();
+        return true;
+    }
+
+    /**
+     * Stops accepting new tasks, already queued ones will be executed
+     */
+    public void shutdown() {
+        logger.d("shutdown");
+        if (state.compareAndSet(STATE_RUNNING, STATE_SHUTDOWN)) {
+            waitStrategy.signalAll();
+        }
+    }
 
+    /**
+     * @param timeout in ms, 0 - wait forever
+     * @return true if all workers have finished
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("incorrect timeout: " + timeout);
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (PoolWorker worker : poolWorkers) {
+            if (timeout == 0) {
+                worker.join();
             } else {
-                logger.e("no capacity remains in runnable queue (" + runnableQueue.size() + "/" + maxRunnableQueueSize + ")");
-                return false;
+                final long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    break;
+                }
+                worker.join(left);
             }
         }
+        return isTerminated();
+    }
+
+    /**
+     * Stops accepting new tasks and drops queued ones, workers are interrupted
+     * @return tasks which were not started
+     */
+    @NotNull
+    public List<T> shutdownNow() {
+        logger.d("shutdownNow");
+        state.set(STATE_STOPPED);
+        for (PoolWorker worker : poolWorkers) {
+            worker.interrupt();
+        }
+        waitStrategy.signalAll();
+        final List<T> pending = new ArrayList<>();
+        T r;
+        while ((r = poll()) != null) {
+            pending.add(r);
+        }
+        return pending;
     }
 
     public void release() {
         logger.d("release");
+        shutdownNow();
+    }
 
-        for (PoolWorker worker : poolWorkers) {
-            worker.interrupt();
+    private boolean reserve() {
+        while (true) {
+            final int count = queuedCount.get();
+            final int max = maxRunnableQueueSize;
+            if (max != TASKS_NO_LIMIT && count >= max) {
+                return false;
+            }
+            if (queuedCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
         }
-        poolWorkers.clear();
+    }
 
-        runnableQueue.clear();
+    @Nullable
+    private T poll() {
+        T r = runnableQueue.poll();
+        if (r == null) {
+            r = overflowQueue.poll();
+        }
+        if (r != null) {
+            queuedRunnables.remove(r);
+            queuedCount.decrementAndGet();
+        }
+        return r;
+    }
+
+    /**
+     * Immutable snapshot of {@linkplain PoolWorker} counters
+     */
+    public static class WorkerStats {
+
+        @NotNull
+        public final String workerName;
+
+        public final long executedCount;
+
+        public final long failedCount;
+
+        public final long reAddedCount;
+
+        /**
+         * in ms
+         */
+        public final long totalRunTime;
+
+        /**
+         * in ms, 0 if nothing was executed
+         */
+        public final long lastTaskFinishTime;
+
+        WorkerStats(@NotNull String workerName, long executedCount, long failedCount, long reAddedCount,
+                    long totalRunTime, long lastTaskFinishTime) {
+            this.workerName = workerName;
+            this.executedCount = executedCount;
+            this.failedCount = failedCount;
+            this.reAddedCount = reAddedCount;
+            this.totalRunTime = totalRunTime;
+            this.lastTaskFinishTime = lastTaskFinishTime;
+        }
+
+        public long getAverageRunTime() {
+            return executedCount > 0 ? totalRunTime / executedCount : 0;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "WorkerStats{" +
+                    "workerName='" + workerName + '\'' +
+                    ", executedCount=" + executedCount +
+                    ", failedCount=" + failedCount +
+                    ", reAddedCount=" + reAddedCount +
+                    ", totalRunTime=" + totalRunTime +
+                    ", lastTaskFinishTime=" + lastTaskFinishTime +
+                    '}';
+        }
     }
 
     private class PoolWorker extends Thread {
 
+        // written only by this worker
+        private volatile long executedCount = 0;
+
+        private volatile long failedCount = 0;
+
+        private volatile long reAddedCount = 0;
+
+        private volatile long totalRunTimeNanos = 0;
+
+        private volatile long lastTaskFinishTime = 0;
+
+        @NotNull
+        WorkerStats getStats() {
+            return new WorkerStats(getName(), executedCount, failedCount, reAddedCount,
+                    TimeUnit.NANOSECONDS.toMillis(totalRunTimeNanos), lastTaskFinishTime);
+        }
+
         @Override
         public void run() {
             logger.d("PoolWorker :: run()");
 
-            T r;
+            int idleCount = 0;
+
+            while (true) {
 
-            while (!isInterrupted()) {
+                final int currentState = state.get();
+                if (currentState == STATE_STOPPED) {
+                    break;
+                }
+
+                final T r = poll();
 
-                synchronized (runnableQueue) {
-                    while (runnableQueue.isEmpty()) {
-                        try {
-                            // logger.d("waiting queue...");
-                            runnableQueue.wait();
-                        } catch (InterruptedException e) {
-                            logger.e("an InterruptedException occurred during wait(): " + e.getMessage());
-                            Thread.currentThread().interrupt();
+                if (r == null) {
+                    if (currentState == STATE_SHUTDOWN) {
+                        // drained
+                        break;
+                    }
+                    try {
+                        waitStrategy.await(idleCount, hasWorkCondition);
+                        if (idleCount < Integer.MAX_VALUE) {
+                            idleCount++;
                         }
+                    } catch (InterruptedException e) {
+                        logger.e("an InterruptedException occurred during await(): " + e.getMessage());
+                        Thread.currentThread().interrupt();
+                        break;
                     }
-
-                    // logger.d("getting runnable...");
-                    r = runnableQueue.removeFirst();
+                    continue;
                 }
 
+                idleCount = 0;
+
                 Exception exception = null;
+                final long startTime = System.nanoTime();
                 try {
                     // logger.d("running runnable: " + r + "...");
                     r.run();
                 } catch (Exception e) {
                     logger.e("a RuntimeException occurred during run()", exception = e);
                 }
+                totalRunTimeNanos += System.nanoTime() - startTime;
+                lastTaskFinishTime = System.currentTimeMillis();
+                executedCount++;
+                if (exception != null) {
+                    failedCount++;
+                }
 
+                final AbstractSyncStorage<I> syncStorage = SimpleWorkQueue.this.syncStorage;
                 if (syncStorage != null) {
                     syncStorage.removeById(r.rInfo.id);
                 }
 
+                final ITaskResultValidator<I, ProgressInfo, Result, T> resultValidator = SimpleWorkQueue.this.resultValidator;
                 if (resultValidator != null && resultValidator.needToReAddTask(r, exception)) {
-                    execute(r);
+                    if (execute(r)) {
+                        reAddedCount++;
+                    }
                 }
             }
 
+            logger.d("PoolWorker :: finished");
         }
     }
 }
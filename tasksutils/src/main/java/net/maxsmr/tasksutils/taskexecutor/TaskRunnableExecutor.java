@@ -2,7 +2,7 @@ package net.maxsmr.tasksutils.taskexecutor;
 
 import android.os.Handler;
 
-import net.maxsmr.commonutils.Observable;
+import net.maxsmr.commonutils.CopyOnWriteObservable;
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 import net.maxsmr.tasksutils.NamedThreadFactory;
@@ -628,16 +628,10 @@ public class TaskRunnableExecutor<I extends RunnableInfo, ProgressInfo, Result,
         }
     }
 
-    private static class CallbacksObservable<I extends RunnableInfo, ProgressInfo, Result, T extends TaskRunnable<I, ProgressInfo, Result>> extends Observable<Callbacks<I, ProgressInfo, Result, T>> {
+    private static class CallbacksObservable<I extends RunnableInfo, ProgressInfo, Result, T extends TaskRunnable<I, ProgressInfo, Result>> extends CopyOnWriteObservable<Callbacks<I, ProgressInfo, Result, T>> {
 
         private void dispatchAddedToQueue(final T r, final int waitingCount, final int activeCount, Handler handler) {
-            final Runnable run = () -> {
-                synchronized (observers) {
-                    for (Callbacks<I, ProgressInfo, Result, T> c : observers) {
-                        c.onAddedToQueue(r, waitingCount, activeCount);
-                    }
-                }
-            };
+            final Runnable run = () -> dispatch(c -> c.onAddedToQueue(r, waitingCount, activeCount));
             if (handler != null) {
                 handler.post(run);
             } else {
@@ -646,13 +640,7 @@ public class TaskRunnableExecutor<I extends RunnableInfo, ProgressInfo, Result,
         }
 
         private void dispatchBeforeExecute(final Thread t, final T r, final ExecInfo<I, ProgressInfo, Result, T> execInfo, final int waitingCount, final int activeCount, Handler handler) {
-            final Runnable run = () -> {
-                synchronized (observers) {
-                    for (Callbacks<I, ProgressInfo, Result, T> c : observers) {
-                        c.onBeforeExecute(t, r, execInfo, waitingCount, activeCount);
-                    }
-                }
-            };
+            final Runnable run = () -> dispatch(c -> c.onBeforeExecute(t, r, execInfo, waitingCount, activeCount));
             if (handler != null) {
                 handler.post(run);
             } else {
@@ -661,13 +649,7 @@ public class TaskRunnableExecutor<I extends RunnableInfo, ProgressInfo, Result,
         }
 
         private void dispatchAfterExecute(@NotNull final T r, @Nullable final Throwable t, @NotNull final ExecInfo<I, ProgressInfo, Result, T> execInfo, @NotNull final StatInfo<I, ProgressInfo, Result, T> statInfo, final int waitingCount, final int activeCount, Handler handler) {
-            final Runnable run = () -> {
-                synchronized (observers) {
-                    for (Callbacks<I, ProgressInfo, Result, T> c : observers) {
-                        c.onAfterExecute(r, t, execInfo, statInfo, waitingCount, activeCount);
-                    }
-                }
-            };
+            final Runnable run = () -> dispatch(c -> c.onAfterExecute(r, t, execInfo, statInfo, waitingCount, activeCount));
             if (handler != null) {
                 handler.post(run);
             } else {
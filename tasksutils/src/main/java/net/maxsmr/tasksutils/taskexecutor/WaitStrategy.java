@@ -0,0 +1,151 @@
+package net.maxsmr.tasksutils.taskexecutor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Defines how idle worker of {@linkplain SimpleWorkQueue} waits for new tasks
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called by worker after unsuccessful poll
+     * @param idleCount number of consecutive unsuccessful polls, starting from 0
+     * @param hasWork   should be checked before blocking, to not miss signal
+     * @throws InterruptedException if worker thread was interrupted
+     */
+    void await(int idleCount, @NotNull Condition hasWork) throws InterruptedException;
+
+    /**
+     * Called after new task was added
+     */
+    void signal();
+
+    /**
+     * Called on shutdown to wake all waiting workers
+     */
+    void signalAll();
+
+    interface Condition {
+
+        boolean isSatisfied();
+    }
+
+    /**
+     * Lowest latency, but idle workers keep burning CPU: spins, then yields
+     */
+    class Spinning implements WaitStrategy {
+
+        public static final int DEFAULT_SPINS = 100;
+
+        private final int spins;
+
+        public Spinning() {
+            this(DEFAULT_SPINS);
+        }
+
+        public Spinning(int spins) {
+            this.spins = Math.max(spins, 0);
+        }
+
+        @Override
+        public void await(int idleCount, @NotNull Condition hasWork) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (idleCount >= spins) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    /**
+     * Spins and yields for short bursts, then parks until signal or timeout
+     */
+    class Parking implements WaitStrategy {
+
+        public static final int DEFAULT_SPINS = 50;
+
+        public static final int DEFAULT_YIELDS = 10;
+
+        public static final long DEFAULT_MAX_PARK_TIME = 100;
+
+        private final int spins;
+
+        private final int yields;
+
+        private final long maxParkNanos;
+
+        private final ConcurrentLinkedQueue<Thread> parkedThreads = new ConcurrentLinkedQueue<>();
+
+        public Parking() {
+            this(DEFAULT_SPINS, DEFAULT_YIELDS, DEFAULT_MAX_PARK_TIME);
+        }
+
+        /**
+         * @param maxParkTime in ms, upper bound of wake up latency if signal was lost
+         */
+        public Parking(int spins, int yields, long maxParkTime) {
+            if (maxParkTime <= 0) {
+                throw new IllegalArgumentException("incorrect max park time: " + maxParkTime);
+            }
+            this.spins = Math.max(spins, 0);
+            this.yields = Math.max(yields, 0);
+            this.maxParkNanos = TimeUnit.MILLISECONDS.toNanos(maxParkTime);
+        }
+
+        @Override
+        public void await(int idleCount, @NotNull Condition hasWork) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (idleCount < spins) {
+                return;
+            }
+            if (idleCount < spins + yields) {
+                Thread.yield();
+                return;
+            }
+            final Thread current = Thread.currentThread();
+            parkedThreads.add(current);
+            try {
+                // signal may have been sent before registration
+                if (!hasWork.isSatisfied()) {
+                    LockSupport.parkNanos(this, maxParkNanos);
+                }
+            } finally {
+                parkedThreads.remove(current);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        @Override
+        public void signal() {
+            final Thread thread = parkedThreads.poll();
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            Thread thread;
+            while ((thread = parkedThreads.poll()) != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+}
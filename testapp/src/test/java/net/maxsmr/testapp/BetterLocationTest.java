@@ -0,0 +1,95 @@
+package net.maxsmr.testapp;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.maxsmr.commonutils.location.LocationWatcher.isBetterLocation;
+
+@RunWith(AndroidJUnit4.class)
+public class BetterLocationTest extends LoggerTest {
+
+    private static final long CURRENT_TIME = TimeUnit.MINUTES.toNanos(10);
+
+    private static final float CURRENT_ACCURACY = 20;
+
+    @Test
+    public void firstLocationTest() {
+        Assert.assertTrue(isBetterLocation(gps(0, CURRENT_ACCURACY), null));
+        final Location current = current();
+        Assert.assertFalse("same fix must not replace itself", isBetterLocation(current, current));
+    }
+
+    @Test
+    public void significantTimeTest() {
+        final Location current = current();
+        Assert.assertTrue("much newer fix is taken regardless of accuracy",
+                isBetterLocation(gps(TimeUnit.MINUTES.toNanos(3), 1000), current));
+        Assert.assertFalse("much older fix is stale regardless of accuracy",
+                isBetterLocation(gps(-TimeUnit.MINUTES.toNanos(3), 1), current));
+    }
+
+    @Test
+    public void accuracyTest() {
+        final Location current = current();
+        final long newer = TimeUnit.SECONDS.toNanos(10);
+        final long older = -TimeUnit.SECONDS.toNanos(10);
+
+        Assert.assertTrue(isBetterLocation(gps(newer, 10), current));
+        Assert.assertTrue("older, but more accurate", isBetterLocation(gps(older, 10), current));
+        Assert.assertTrue(isBetterLocation(gps(newer, CURRENT_ACCURACY), current));
+        Assert.assertFalse(isBetterLocation(gps(older, CURRENT_ACCURACY), current));
+
+        Assert.assertTrue("a bit less accurate from same provider",
+                isBetterLocation(gps(newer, CURRENT_ACCURACY + 50), current));
+        Assert.assertFalse("much less accurate",
+                isBetterLocation(gps(newer, CURRENT_ACCURACY + 201), current));
+        Assert.assertFalse("older and less accurate",
+                isBetterLocation(gps(older, CURRENT_ACCURACY + 50), current));
+    }
+
+    @Test
+    public void providersTest() {
+        final Location current = current();
+        final long newer = TimeUnit.SECONDS.toNanos(10);
+
+        Assert.assertFalse("less accurate from other provider",
+                isBetterLocation(location(LocationManager.NETWORK_PROVIDER, newer, CURRENT_ACCURACY + 50), current));
+        Assert.assertTrue("more accurate from other provider",
+                isBetterLocation(location(LocationManager.NETWORK_PROVIDER, newer, 10), current));
+    }
+
+    @Test
+    public void unknownAccuracyTest() {
+        final Location current = current();
+        final Location withoutAccuracy = new Location(LocationManager.GPS_PROVIDER);
+        withoutAccuracy.setElapsedRealtimeNanos(CURRENT_TIME + TimeUnit.SECONDS.toNanos(10));
+        Assert.assertFalse(isBetterLocation(withoutAccuracy, current));
+        Assert.assertTrue("any accuracy is better than unknown", isBetterLocation(current, withoutAccuracy));
+    }
+
+    private static Location current() {
+        return gps(0, CURRENT_ACCURACY);
+    }
+
+    private static Location gps(long timeDelta, float accuracy) {
+        return location(LocationManager.GPS_PROVIDER, timeDelta, accuracy);
+    }
+
+    /**
+     * @param timeDelta ns, relative to current fix
+     */
+    private static Location location(String provider, long timeDelta, float accuracy) {
+        final Location location = new Location(provider);
+        location.setElapsedRealtimeNanos(CURRENT_TIME + timeDelta);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+}
@@ -0,0 +1,45 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.format.MAX_COMPILED_DATE_FORMATS
+import net.maxsmr.commonutils.format.compiledDateFormat
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+@RunWith(AndroidJUnit4::class)
+class CompiledDateFormatTest : LoggerTest() {
+
+    @Test
+    fun hotPatternSurvivesEvictionTest() {
+        val hot = compiledDateFormat(HOT_PATTERN, Locale.US, UTC)
+        // many dynamically built patterns, while hot one is used between them
+        for (i in 0 until MAX_COMPILED_DATE_FORMATS * 4) {
+            assertSame("hot format was evicted after $i patterns", hot, compiledDateFormat(HOT_PATTERN, Locale.US, UTC))
+            compiledDateFormat(coldPattern(i), Locale.US, UTC)
+        }
+        assertSame(hot, compiledDateFormat(HOT_PATTERN, Locale.US, UTC))
+    }
+
+    @Test
+    fun sameOutputTest() {
+        val timestamp = 1_600_000_123_456L
+        val expected = SimpleDateFormat(HOT_PATTERN, Locale.US).apply { timeZone = UTC }.format(Date(timestamp))
+        assertEquals(expected, compiledDateFormat(HOT_PATTERN, Locale.US, UTC).format(timestamp))
+        assertEquals(timestamp, compiledDateFormat(HOT_PATTERN, Locale.US, UTC).parse(expected)?.time)
+    }
+
+    private fun coldPattern(index: Int) = "'cold$index' yyyy-MM-dd"
+
+    companion object {
+
+        private const val HOT_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS"
+
+        private val UTC = TimeZone.getTimeZone("UTC")
+    }
+}
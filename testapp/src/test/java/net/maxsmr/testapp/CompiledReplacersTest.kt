@@ -0,0 +1,83 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.text.CharsReplacer
+import net.maxsmr.commonutils.text.SubstringsReplacer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class CompiledReplacersTest : LoggerTest() {
+
+    @Test
+    fun substringsLeftmostMatchTest() {
+        val replacer = SubstringsReplacer(mapOf("he" to "1", "she" to "2", "hers" to "3"))
+        val result = replacer.replace("ushers")
+        logger.d("Result: $result")
+        assertEquals("u2rs", result)
+    }
+
+    @Test
+    fun substringsLongestMatchTest() {
+        val replacer = SubstringsReplacer(mapOf("a" to "x", "ab" to "y", "abc" to "z"))
+        assertEquals("zy", replacer.replace("abcab"))
+        assertEquals("xx", replacer.replace("aa"))
+    }
+
+    @Test
+    fun substringsReplacedTextNotSearchedTest() {
+        val replacer = SubstringsReplacer(mapOf("a" to "aa"))
+        assertEquals("aabaa", replacer.replace("aba"))
+    }
+
+    @Test
+    fun substringsIgnoreCaseTest() {
+        val replacer = SubstringsReplacer(mapOf("cat" to "dog"), true)
+        assertEquals("A dog and dog", replacer.replace("A Cat and CAT"))
+        assertTrue(replacer.containsAny("CaT"))
+        assertFalse(replacer.containsAny("ca-t"))
+    }
+
+    @Test
+    fun substringsEmptyTest() {
+        val replacer = SubstringsReplacer(mapOf("" to "x"))
+        assertTrue(replacer.isEmpty)
+        assertEquals("text", replacer.replace("text"))
+        assertEquals("", replacer.replace(null))
+        assertFalse(replacer.containsAny("text"))
+    }
+
+    @Test
+    fun substringsReplaceToTest() {
+        val replacer = SubstringsReplacer(mapOf("\r\n" to "\n", "\t" to "    "))
+        val out = StringBuilder(">")
+        replacer.replaceTo("a\r\n\tb", out)
+        assertEquals(">a\n    b", out.toString())
+    }
+
+    @Test
+    fun charsTest() {
+        val replacer = CharsReplacer(mapOf('a' to "1", 'b' to ""))
+        assertEquals("1c1", replacer.replace("abcab"))
+        assertEquals("", replacer.replace(""))
+    }
+
+    @Test
+    fun charsSparseTest() {
+        // range of chars is too wide for lookup table
+        val replacer = CharsReplacer(mapOf('a' to "x", '中' to "y"))
+        assertEquals("xyb", replacer.replace("a中b"))
+        assertEquals(null, replacer.replacementOf('b'))
+    }
+
+    @Test
+    fun charsIgnoreCaseTest() {
+        val replacer = CharsReplacer(mapOf('a' to "1", 'A' to "2"), true)
+        assertEquals("12", replacer.replace("aA"))
+        val lowerOnly = CharsReplacer(mapOf('e' to "3"), true)
+        assertEquals("3X3", lowerOnly.replace("eXE"))
+    }
+}
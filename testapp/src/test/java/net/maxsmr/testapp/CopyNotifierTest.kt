@@ -0,0 +1,69 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.IBytesThresholdNotifier
+import net.maxsmr.commonutils.ISingleCopyNotifier
+import net.maxsmr.commonutils.copyFileWithBuffering
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+@RunWith(AndroidJUnit4::class)
+class CopyNotifierTest : LoggerTest() {
+
+    private lateinit var dir: File
+
+    @Before
+    override fun prepare() {
+        super.prepare()
+        dir = File(context.cacheDir, "copy_notifier_test")
+        dir.deleteRecursively()
+        dir.mkdirs()
+    }
+
+    @After
+    fun cleanUp() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun bytesThresholdTest() {
+        val content = ByteArray(SIZE) { (it % 251).toByte() }
+        val source = File(dir, "source")
+        source.writeBytes(content)
+
+        val notified = mutableListOf<Long>()
+        val notifier = object : ISingleCopyNotifier, IBytesThresholdNotifier {
+
+            override val notifyBytesThreshold: Long = THRESHOLD
+
+            override fun shouldProceed(sourceFile: File, targetFile: File, bytesCopied: Long, bytesTotal: Long): Boolean {
+                assertEquals(SIZE.toLong(), bytesTotal)
+                notified.add(bytesCopied)
+                return true
+            }
+        }
+        copyFileWithBuffering(source, "target", dir.absolutePath, notifier = notifier)
+
+        logger.d("Notified on: $notified")
+        assertArrayEquals(content, File(dir, "target").readBytes())
+        assertTrue(notified.isNotEmpty())
+        // without threshold notifier would be called on each chunk or buffer
+        assertTrue("too many notifications: ${notified.size}", notified.size <= SIZE / THRESHOLD + 1)
+        for (i in 1 until notified.size) {
+            assertTrue(notified[i] - notified[i - 1] >= THRESHOLD)
+        }
+    }
+
+    companion object {
+
+        private const val THRESHOLD = 1024 * 1024L
+
+        private const val SIZE = 4 * 1024 * 1024
+    }
+}
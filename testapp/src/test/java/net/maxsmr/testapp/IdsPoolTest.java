@@ -0,0 +1,233 @@
+package net.maxsmr.testapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.maxsmr.tasksutils.storage.ids.pool.AbstractIdsPool;
+import net.maxsmr.tasksutils.storage.ids.pool.BitmapIdsPool;
+import net.maxsmr.tasksutils.storage.ids.pool.OpenHashIdsPool;
+import net.maxsmr.tasksutils.storage.ids.pool.SetIdsPool;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class IdsPoolTest extends LoggerTest {
+
+    private static final int THREADS_COUNT = 4;
+
+    private static final int IDS_PER_THREAD = 5000;
+
+    @Test
+    public void setPoolTest() {
+        final SetIdsPool pool = new SetIdsPool();
+        checkCommon(pool);
+        fillAndRemove(pool);
+        // freed ids are not reused
+        Assert.assertEquals(5, pool.acquire());
+    }
+
+    @Test
+    public void bitmapPoolTest() {
+        final BitmapIdsPool pool = new BitmapIdsPool();
+        checkCommon(pool);
+        fillAndRemove(pool);
+        Assert.assertEquals(3, pool.size());
+        Assert.assertEquals(4, pool.getMaxId());
+        // lowest freed ids first
+        Assert.assertEquals(1, pool.acquire());
+        Assert.assertEquals(3, pool.acquire());
+        Assert.assertEquals(5, pool.acquire());
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, pool.toArray());
+
+        // removed max id is not returned by incrementAndGet
+        pool.remove(5);
+        Assert.assertEquals(6, pool.incrementAndGet());
+
+        // ids in different chunks
+        final int farId = BitmapIdsPool.CHUNK_SIZE * 3 + 7;
+        pool.add(farId);
+        Assert.assertTrue(pool.contains(farId));
+        Assert.assertFalse(pool.contains(farId - 1));
+        Assert.assertEquals(farId, pool.getMaxId());
+        Assert.assertEquals(farId + 1, pool.incrementAndGet());
+        final int[] ids = pool.toArray();
+        Assert.assertEquals(farId + 1, ids[ids.length - 1]);
+        for (int i = 1; i < ids.length; i++) {
+            Assert.assertTrue("ids must be ascending", ids[i - 1] < ids[i]);
+        }
+    }
+
+    @Test
+    public void openHashPoolTest() {
+        final OpenHashIdsPool pool = new OpenHashIdsPool(3);
+        checkCommon(pool);
+        fillAndRemove(pool);
+        Assert.assertEquals(3, pool.size());
+        Assert.assertEquals(4, pool.getMaxId());
+        // last freed id first
+        Assert.assertEquals(3, pool.acquire());
+        Assert.assertEquals(1, pool.acquire());
+        Assert.assertEquals(5, pool.acquire());
+
+        // sparse ids with rehashing
+        for (int i = 0; i < 1000; i++) {
+            pool.add(i * 1000);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(pool.contains(i * 1000));
+        }
+        Assert.assertEquals(999000, pool.getMaxId());
+        Assert.assertTrue(pool.remove(500000));
+        Assert.assertFalse(pool.contains(500000));
+        Assert.assertTrue(pool.contains(501000));
+    }
+
+    @Test
+    public void defaultRemoveTest() {
+        // pool written before remove(int) was added to AbstractIdsPool
+        final AbstractIdsPool pool = new AbstractIdsPool() {
+
+            private final Set<Integer> ids = new HashSet<>();
+
+            @Override
+            public boolean contains(int id) {
+                return ids.contains(id);
+            }
+
+            @Override
+            public boolean hasIds() {
+                return !ids.isEmpty();
+            }
+
+            @Override
+            public void add(int newId) {
+                if (newId < 0) {
+                    throw new IllegalArgumentException("Incorrect id: " + newId);
+                }
+                ids.add(newId);
+            }
+
+            @NotNull
+            @Override
+            public Set<Integer> copyOf() {
+                return new HashSet<>(ids);
+            }
+
+            @Override
+            public void set(@Nullable Collection<Integer> ids) {
+                this.ids.clear();
+                if (ids != null) {
+                    this.ids.addAll(ids);
+                }
+            }
+        };
+        checkCommon(pool);
+        fillAndRemove(pool);
+        Assert.assertEquals(5, pool.acquire());
+    }
+
+    @Test
+    public void bitmapPoolConcurrentTest() throws InterruptedException {
+        checkConcurrentAcquire(new BitmapIdsPool());
+    }
+
+    @Test
+    public void openHashPoolConcurrentTest() throws InterruptedException {
+        checkConcurrentAcquire(new OpenHashIdsPool());
+    }
+
+    private void checkCommon(AbstractIdsPool pool) {
+        Assert.assertFalse(pool.hasIds());
+        Assert.assertEquals(0, pool.incrementAndGet());
+        Assert.assertEquals(1, pool.incrementAndGet());
+        Assert.assertTrue(pool.hasIds());
+        Assert.assertTrue(pool.contains(1));
+        Assert.assertFalse(pool.contains(2));
+        Assert.assertFalse(pool.contains(-1));
+        try {
+            pool.add(-1);
+            Assert.fail("negative id must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        pool.set(Arrays.asList(7, 3));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(3, 7)), new HashSet<>(pool.copyOf()));
+        Assert.assertFalse(pool.contains(0));
+        Assert.assertEquals(8, pool.incrementAndGet());
+
+        pool.clear();
+        Assert.assertFalse(pool.hasIds());
+        Assert.assertTrue(pool.copyOf().isEmpty());
+    }
+
+    /**
+     * leaves 0, 2, 4 in pool
+     */
+    private void fillAndRemove(AbstractIdsPool pool) {
+        pool.clear();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i, pool.incrementAndGet());
+        }
+        Assert.assertTrue(pool.remove(1));
+        Assert.assertTrue(pool.remove(3));
+        Assert.assertFalse(pool.remove(3));
+        Assert.assertFalse(pool.remove(100));
+        Assert.assertFalse(pool.contains(1));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(0, 2, 4)), new HashSet<>(pool.copyOf()));
+    }
+
+    private void checkConcurrentAcquire(AbstractIdsPool pool) throws InterruptedException {
+        final Set<Integer> acquired = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger duplicatesCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS_COUNT; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    final int id = pool.acquire();
+                    if (!acquired.add(id)) {
+                        duplicatesCount.incrementAndGet();
+                    }
+                    // every other id is freed to be reused by others
+                    if (i % 2 == 0 && acquired.remove(id)) {
+                        pool.remove(id);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        startLatch.countDown();
+        for (Thread t : threads) {
+            t.join(30000);
+            Assert.assertFalse("thread " + t.getName() + " is stuck", t.isAlive());
+        }
+
+        logger.d(pool.getClass().getSimpleName() + ": acquired " + acquired.size() + ", duplicates: " + duplicatesCount.get());
+        Assert.assertEquals(0, duplicatesCount.get());
+        Assert.assertEquals(THREADS_COUNT * IDS_PER_THREAD / 2, acquired.size());
+        Assert.assertEquals(acquired, new HashSet<>(pool.copyOf()));
+    }
+}
@@ -0,0 +1,152 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.prefs.MappedPrefsStore
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+
+@RunWith(AndroidJUnit4::class)
+class MappedPrefsStoreTest : LoggerTest() {
+
+    private lateinit var file: File
+
+    @Before
+    override fun prepare() {
+        super.prepare()
+        file = File(context.cacheDir, "mapped_prefs_test")
+        deleteFiles()
+    }
+
+    @After
+    fun cleanUp() {
+        deleteFiles()
+    }
+
+    @Test
+    fun valuesTest() {
+        MappedPrefsStore(file, CAPACITY).use {
+            assertTrue(it.put("string", "value"))
+            assertTrue(it.put("int", 1))
+            assertTrue(it.put("long", 2L))
+            assertTrue(it.put("float", 3f))
+            assertTrue(it.put("double", 4.0))
+            assertTrue(it.put("boolean", true))
+            assertTrue(it.put("removed", "value"))
+            assertTrue(it.remove("removed"))
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertEquals("value", it.getString("string"))
+            assertEquals(1, it.getInt("int"))
+            assertEquals(2L, it.getLong("long"))
+            assertEquals(3f, it.getFloat("float"), 0f)
+            assertEquals(4.0, it.getDouble("double"), 0.0)
+            assertTrue(it.getBoolean("boolean"))
+            assertFalse(it.contains("removed"))
+            assertEquals(6, it.getAll().size)
+        }
+    }
+
+    @Test
+    fun compactionTest() {
+        MappedPrefsStore(file, CAPACITY).use {
+            assertTrue(it.put("kept", "value"))
+            assertTrue(it.put("removed", "value"))
+            assertTrue(it.remove("removed"))
+            // each record takes several bytes, so file is compacted many times
+            for (i in 0 until 1000) {
+                assertTrue(it.put("counter", i))
+            }
+            assertEquals(999, it.getInt("counter"))
+        }
+        assertFalse("temp file must be renamed", File(file.path + TEMP_SUFFIX).exists())
+        assertEquals(CAPACITY.toLong(), file.length())
+        MappedPrefsStore(file, CAPACITY).use {
+            logger.d("Values after compaction: ${it.getAll()}")
+            assertEquals(999, it.getInt("counter"))
+            assertEquals("value", it.getString("kept"))
+            assertFalse(it.contains("removed"))
+            // continues after compacted records
+            assertTrue(it.put("counter", 1000))
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertEquals(1000, it.getInt("counter"))
+        }
+    }
+
+    @Test
+    fun staleTempFileTest() {
+        // left by process death during previous compaction
+        File(file.path + TEMP_SUFFIX).writeBytes(ByteArray(CAPACITY * 2) { 0x7f })
+        MappedPrefsStore(file, CAPACITY).use {
+            for (i in 0 until 100) {
+                assertTrue(it.put("counter", i))
+            }
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertEquals(99, it.getInt("counter"))
+            assertEquals(1, it.getAll().size)
+        }
+    }
+
+    @Test
+    fun fullStoreTest() {
+        MappedPrefsStore(file, CAPACITY).use {
+            assertTrue(it.put("key", "value"))
+            assertFalse(it.put("big", "x".repeat(CAPACITY)))
+            assertFalse(it.contains("big"))
+            assertEquals("value", it.getString("key"))
+            // still writable
+            assertTrue(it.put("key", "other"))
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertFalse(it.contains("big"))
+            assertEquals("other", it.getString("key"))
+        }
+    }
+
+    @Test
+    fun incompleteRecordTest() {
+        MappedPrefsStore(file, CAPACITY).use {
+            assertTrue(it.put("k", 1))
+        }
+        // header + type, key length, key, int
+        val end = 4 + 1 + 2 + 1 + 4
+        // string record which was being written on process death
+        RandomAccessFile(file, "rw").use {
+            it.seek(end.toLong())
+            it.writeByte(2)
+            it.writeShort(1)
+            it.writeByte('x'.code)
+            it.writeInt(Int.MAX_VALUE)
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertEquals(1, it.getInt("k"))
+            assertFalse(it.contains("x"))
+            assertTrue(it.put("k", 2))
+        }
+        MappedPrefsStore(file, CAPACITY).use {
+            assertEquals(2, it.getInt("k"))
+            assertNull(it.getString("x"))
+        }
+    }
+
+    private fun deleteFiles() {
+        file.delete()
+        File(file.path + TEMP_SUFFIX).delete()
+    }
+
+    companion object {
+
+        private const val CAPACITY = 256
+
+        private const val TEMP_SUFFIX = ".tmp"
+    }
+}
@@ -0,0 +1,134 @@
+package net.maxsmr.testapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.maxsmr.tasksutils.taskexecutor.MpmcArrayQueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class MpmcArrayQueueTest extends LoggerTest {
+
+    private static final int PRODUCERS_COUNT = 4;
+
+    private static final int CONSUMERS_COUNT = 4;
+
+    private static final int ITEMS_PER_PRODUCER = 10000;
+
+    @Test
+    public void capacityTest() {
+        Assert.assertEquals(1, new MpmcArrayQueue<>(1).capacity());
+        Assert.assertEquals(8, new MpmcArrayQueue<>(5).capacity());
+        Assert.assertEquals(16, new MpmcArrayQueue<>(16).capacity());
+        assertIllegalCapacity(0);
+        assertIllegalCapacity(-1);
+        assertIllegalCapacity(MpmcArrayQueue.MAX_CAPACITY + 1);
+    }
+
+    @Test
+    public void fifoTest() {
+        final MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(4);
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse("queue must be full", queue.offer(4));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(Integer.valueOf(0), queue.poll());
+        // freed slot is reused on next lap
+        Assert.assertTrue(queue.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void clearTest() {
+        final MpmcArrayQueue<String> queue = new MpmcArrayQueue<>(8);
+        queue.offer("a");
+        queue.offer("b");
+        Assert.assertEquals(2, queue.clear());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        final MpmcArrayQueue<Integer> queue = new MpmcArrayQueue<>(64);
+        final int total = PRODUCERS_COUNT * ITEMS_PER_PRODUCER;
+        final ConcurrentHashMap<Integer, Boolean> consumed = new ConcurrentHashMap<>();
+        final AtomicInteger consumedCount = new AtomicInteger();
+        final AtomicInteger duplicatesCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS_COUNT; p++) {
+            final int offset = p * ITEMS_PER_PRODUCER;
+            threads.add(new Thread(() -> {
+                await(startLatch);
+                for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                    while (!queue.offer(offset + i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS_COUNT; c++) {
+            threads.add(new Thread(() -> {
+                await(startLatch);
+                while (consumedCount.get() < total) {
+                    final Integer item = queue.poll();
+                    if (item == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (consumed.put(item, Boolean.TRUE) != null) {
+                        duplicatesCount.incrementAndGet();
+                    }
+                    consumedCount.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        startLatch.countDown();
+        for (Thread t : threads) {
+            t.join(30000);
+            Assert.assertFalse("thread " + t.getName() + " is stuck", t.isAlive());
+        }
+
+        logger.d("consumed: " + consumedCount.get() + ", duplicates: " + duplicatesCount.get());
+        Assert.assertEquals(0, duplicatesCount.get());
+        Assert.assertEquals(total, consumed.size());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    private static void assertIllegalCapacity(int capacity) {
+        try {
+            new MpmcArrayQueue<>(capacity);
+            Assert.fail("capacity " + capacity + " must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package net.maxsmr.testapp
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import android.provider.OpenableColumns
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.media.copyWithDigestParallel
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.Shadows.shadowOf
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileNotFoundException
+
+@RunWith(AndroidJUnit4::class)
+class UriTransferTest : LoggerTest() {
+
+    private lateinit var rootDir: File
+
+    private lateinit var targetDir: File
+
+    @Before
+    override fun prepare() {
+        super.prepare()
+        rootDir = File(context.cacheDir, "uri_transfer_test")
+        rootDir.deleteRecursively()
+        targetDir = File(rootDir, "target/copies")
+        sourceFile = File(rootDir, "source")
+        sourceFile.parentFile?.mkdirs()
+        sourceFile.writeBytes(CONTENT)
+        Robolectric.setupContentProvider(NamesProvider::class.java, AUTHORITY)
+    }
+
+    @After
+    fun cleanUp() {
+        rootDir.deleteRecursively()
+    }
+
+    @Test
+    fun relativeNamesTest() {
+        val uris = NAMES.indices.map { Uri.parse("content://$AUTHORITY/$it") }
+        val resolver = context.contentResolver
+        for (uri in uris) {
+            // for providers without descriptors
+            shadowOf(resolver).registerInputStream(uri, ByteArrayInputStream(CONTENT))
+        }
+
+        val result = copyWithDigestParallel(resolver, uris, targetDir)
+
+        val canonicalDir = targetDir.canonicalFile
+        for (uri in uris) {
+            val target = result[uri]?.target
+            assertNotNull("$uri must be copied", target)
+            logger.d("$uri (${NAMES[uri.lastPathSegment!!.toInt()]}) -> $target")
+            assertEquals(canonicalDir, target!!.canonicalFile.parentFile)
+            assertArrayEquals(CONTENT, target.readBytes())
+        }
+        assertEquals(
+            setOf("evil.txt", "b.txt", "file_2", "win.txt", "file_4"),
+            targetDir.list()!!.toSet()
+        )
+        assertFalse(File(rootDir, "evil.txt").exists())
+        assertFalse(File(targetDir.parentFile, "evil.txt").exists())
+        assertTrue(sourceFile.exists())
+    }
+
+    class NamesProvider : ContentProvider() {
+
+        override fun onCreate(): Boolean = true
+
+        override fun query(
+            uri: Uri,
+            projection: Array<out String>?,
+            selection: String?,
+            selectionArgs: Array<out String>?,
+            sortOrder: String?
+        ): Cursor {
+            val cursor = MatrixCursor(arrayOf(OpenableColumns.DISPLAY_NAME))
+            cursor.addRow(arrayOf(NAMES[uri.lastPathSegment!!.toInt()]))
+            return cursor
+        }
+
+        override fun openFile(uri: Uri, mode: String): ParcelFileDescriptor {
+            if (!sourceFile.exists()) {
+                throw FileNotFoundException(sourceFile.toString())
+            }
+            return ParcelFileDescriptor.open(sourceFile, ParcelFileDescriptor.MODE_READ_ONLY)
+        }
+
+        override fun getType(uri: Uri): String? = null
+
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = 0
+
+        override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<out String>?): Int = 0
+    }
+
+    companion object {
+
+        private const val AUTHORITY = "net.maxsmr.testapp.names"
+
+        /**
+         * display names by uri indices
+         */
+        private val NAMES = listOf("../../evil.txt", "a/b.txt", "..", "..\\win.txt", "/")
+
+        private val CONTENT = ByteArray(1024) { it.toByte() }
+
+        private lateinit var sourceFile: File
+    }
+}
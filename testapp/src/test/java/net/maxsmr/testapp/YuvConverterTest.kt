@@ -0,0 +1,175 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.graphic.YuvConverter
+import net.maxsmr.commonutils.graphic.YuvFormat
+import net.maxsmr.commonutils.graphic.getYuvFrameSize
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class YuvConverterTest : LoggerTest() {
+
+    @Test
+    fun frameSizeTest() {
+        assertEquals(6, getYuvFrameSize(2, 2))
+        assertEquals(640 * 480 * 3 / 2, getYuvFrameSize(640, 480))
+        // chroma of odd sizes is rounded up
+        assertEquals(15 + 2 * 3 * 2, getYuvFrameSize(5, 3))
+    }
+
+    @Test
+    fun knownValuesTest() {
+        val converter = YuvConverter(1)
+        // BT.601 limited range
+        assertYuv(converter, BLACK, 16, 128, 128)
+        assertYuv(converter, WHITE, 235, 128, 128)
+        assertYuv(converter, RED, 82, 90, 240)
+        assertYuv(converter, BLUE, 41, 240, 110)
+    }
+
+    @Test
+    fun roundTripTest() {
+        val converter = YuvConverter(1)
+        for (color in COLORS) {
+            for (format in YuvFormat.values()) {
+                val argb = IntArray(4 * 4) { color }
+                val result = converter.toArgb(converter.fromArgb(argb, format, 4, 4), format, 4, 4)
+                for (pixel in result) {
+                    assertColorEquals(color, pixel, format)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun layoutsTest() {
+        val converter = YuvConverter(1)
+        val argb = IntArray(2 * 2) { RED }
+        val nv21 = converter.fromArgb(argb, YuvFormat.NV21, 2, 2)
+        val nv12 = converter.fromArgb(argb, YuvFormat.NV12, 2, 2)
+        val i420 = converter.fromArgb(argb, YuvFormat.I420, 2, 2)
+        val yv12 = converter.fromArgb(argb, YuvFormat.YV12, 2, 2)
+        val y = 82.toByte()
+        val u = 90.toByte()
+        val v = 240.toByte()
+        assertArrayEquals(byteArrayOf(y, y, y, y, v, u), nv21)
+        assertArrayEquals(byteArrayOf(y, y, y, y, u, v), nv12)
+        assertArrayEquals(byteArrayOf(y, y, y, y, u, v), i420)
+        assertArrayEquals(byteArrayOf(y, y, y, y, v, u), yv12)
+
+        // two chroma blocks in row: interleaved by block or by plane
+        val wide = IntArray(4 * 2) { if (it % 4 < 2) RED else GREEN }
+        val wideNv12 = converter.fromArgb(wide, YuvFormat.NV12, 4, 2)
+        val wideI420 = converter.fromArgb(wide, YuvFormat.I420, 4, 2)
+        assertArrayEquals(byteArrayOf(90, 240.toByte(), 54, 34), wideNv12.copyOfRange(8, 12))
+        assertArrayEquals(byteArrayOf(90, 54, 240.toByte(), 34), wideI420.copyOfRange(8, 12))
+    }
+
+    @Test
+    fun oddSizeTest() {
+        val converter = YuvConverter(1)
+        val width = 5
+        val height = 3
+        val argb = IntArray(width * height) { COLORS[it % COLORS.size] }
+        for (format in YuvFormat.values()) {
+            val yuv = converter.fromArgb(argb, format, width, height)
+            assertEquals(getYuvFrameSize(width, height), yuv.size)
+            // last column and row have own chroma
+            val result = converter.toArgb(yuv, format, width, height)
+            assertColorEquals(argb[width * height - 1], result[width * height - 1], format)
+        }
+    }
+
+    @Test
+    fun parallelTest() {
+        val width = 97
+        val height = 301
+        val argb = IntArray(width * height) { (0xff shl 24) or ((it * 7919) and 0xffffff) }
+        val single = YuvConverter(1)
+        val parallel = YuvConverter(4)
+        try {
+            for (format in YuvFormat.values()) {
+                val expectedYuv = single.fromArgb(argb, format, width, height)
+                val actualYuv = parallel.fromArgb(argb, format, width, height)
+                assertArrayEquals(expectedYuv, actualYuv)
+                assertArrayEquals(single.toArgb(expectedYuv, format, width, height), parallel.toArgb(actualYuv, format, width, height))
+            }
+        } finally {
+            parallel.release()
+        }
+    }
+
+    @Test
+    fun reuseBuffersTest() {
+        val converter = YuvConverter(1)
+        val argb = IntArray(4 * 4) { WHITE }
+        val yuvBuffer = ByteArray(getYuvFrameSize(4, 4))
+        val argbBuffer = IntArray(4 * 4)
+        assertSame(yuvBuffer, converter.fromArgb(argb, YuvFormat.NV21, 4, 4, yuvBuffer))
+        assertSame(argbBuffer, converter.toArgb(yuvBuffer, YuvFormat.NV21, 4, 4, argbBuffer))
+        // too small buffer is replaced
+        val smallBuffer = ByteArray(1)
+        assertTrue(smallBuffer !== converter.fromArgb(argb, YuvFormat.NV21, 4, 4, smallBuffer))
+    }
+
+    @Test
+    fun incorrectArgsTest() {
+        val converter = YuvConverter(1)
+        try {
+            converter.toArgb(ByteArray(6), YuvFormat.NV21, 0, 2)
+            fail("empty size must be rejected")
+        } catch (e: IllegalArgumentException) {
+            // expected
+        }
+        try {
+            converter.toArgb(ByteArray(5), YuvFormat.NV21, 2, 2)
+            fail("incomplete frame must be rejected")
+        } catch (e: IllegalArgumentException) {
+            // expected
+        }
+    }
+
+    private fun assertYuv(converter: YuvConverter, color: Int, y: Int, u: Int, v: Int) {
+        val yuv = converter.fromArgb(IntArray(2 * 2) { color }, YuvFormat.I420, 2, 2)
+        logger.d("Color ${Integer.toHexString(color)}: ${yuv.map { it.toInt() and 0xff }}")
+        assertEquals(y, yuv[0].toInt() and 0xff)
+        assertEquals(u, yuv[4].toInt() and 0xff)
+        assertEquals(v, yuv[5].toInt() and 0xff)
+    }
+
+    private fun assertColorEquals(expected: Int, actual: Int, format: YuvFormat) {
+        assertEquals(0xff, actual ushr 24)
+        for (shift in intArrayOf(16, 8, 0)) {
+            val diff = Math.abs((expected shr shift and 0xff) - (actual shr shift and 0xff))
+            assertTrue(
+                "$format: expected ${Integer.toHexString(expected)}, actual ${Integer.toHexString(actual)}",
+                diff <= TOLERANCE
+            )
+        }
+    }
+
+    companion object {
+
+        /**
+         * rounding error of integer coefficients
+         */
+        private const val TOLERANCE = 2
+
+        private const val BLACK = 0xff000000.toInt()
+        private const val WHITE = 0xffffffff.toInt()
+        private const val RED = 0xffff0000.toInt()
+        private const val GREEN = 0xff00ff00.toInt()
+        private const val BLUE = 0xff0000ff.toInt()
+
+        private val COLORS = intArrayOf(
+            BLACK, WHITE, RED, GREEN, BLUE,
+            0xff808080.toInt(), 0xffc86432.toInt(), 0xff11e663.toInt()
+        )
+    }
+}
@@ -0,0 +1,63 @@
+package net.maxsmr.testapp
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import net.maxsmr.commonutils.compressFilesToZipParallel
+import net.maxsmr.commonutils.compressFilesToZipParallelOrThrow
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.zip.ZipFile
+
+@RunWith(AndroidJUnit4::class)
+class ZipParallelTest : LoggerTest() {
+
+    private lateinit var dir: File
+
+    @Before
+    override fun prepare() {
+        super.prepare()
+        dir = File(context.cacheDir, "zip_parallel_test")
+        dir.deleteRecursively()
+        dir.mkdirs()
+    }
+
+    @After
+    fun cleanUp() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun compressTest() {
+        val files = (0 until 5).map { i ->
+            File(dir, "file$i.txt").apply { writeBytes(ByteArray(1000 * i) { (it + i).toByte() }) }
+        }
+        val zip = compressFilesToZipParallelOrThrow(files, "result.zip", dir.absolutePath, parallelism = 3)
+        ZipFile(zip).use { zipFile ->
+            assertEquals(files.map { it.name }, zipFile.entries().toList().map { it.name })
+            for (file in files) {
+                assertArrayEquals(file.readBytes(), zipFile.getInputStream(zipFile.getEntry(file.name)).use { it.readBytes() })
+            }
+        }
+    }
+
+    @Test
+    fun sameNamesTest() {
+        val first = File(dir, "a/same.txt").apply { parentFile?.mkdirs(); writeText("first") }
+        val second = File(dir, "b/same.txt").apply { parentFile?.mkdirs(); writeText("second") }
+        try {
+            compressFilesToZipParallelOrThrow(listOf(first, second), "result.zip", dir.absolutePath)
+            fail("second file would be lost")
+        } catch (e: IllegalArgumentException) {
+            logger.d("Rejected: ${e.message}")
+        }
+        assertFalse("archive must not be created", File(dir, "result.zip").exists())
+        assertNull(compressFilesToZipParallel(listOf(first, second), "result.zip", dir.absolutePath))
+    }
+}